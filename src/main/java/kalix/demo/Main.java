@@ -1,5 +1,6 @@
 package kalix.demo;
 
+import kalix.javasdk.JsonSupport;
 import kalix.javasdk.annotations.Acl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -18,6 +19,8 @@ public class Main {
 
   public static void main(String[] args) {
     logger.info("Starting Kalix Application");
+    // entity state holds vavr collections, snapshots need to write and read them
+    JsonSupport.getObjectMapper().registerModule(VavrJson.module());
     SpringApplication.run(Main.class, args);
   }
 }
\ No newline at end of file
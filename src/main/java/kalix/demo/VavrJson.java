@@ -0,0 +1,118 @@
+package kalix.demo;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.BeanProperty;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.deser.ContextualDeserializer;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.StdDelegatingSerializer;
+import com.fasterxml.jackson.databind.util.StdConverter;
+import io.vavr.collection.HashMap;
+import io.vavr.collection.HashSet;
+import io.vavr.collection.LinkedHashMap;
+import io.vavr.collection.List;
+import io.vavr.collection.Map;
+import io.vavr.collection.Queue;
+import io.vavr.collection.Seq;
+import io.vavr.collection.Set;
+import io.vavr.collection.SortedMap;
+import io.vavr.collection.TreeMap;
+import io.vavr.collection.Vector;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+
+/**
+ * Jackson support for the vavr collections held in entity state, so that state snapshots are
+ * written as plain JSON objects and arrays and read back into the same collections. Registered on
+ * the Kalix object mapper by {@link Main}.
+ */
+public final class VavrJson {
+
+  private VavrJson() {
+  }
+
+  public static Module module() {
+    var module = new SimpleModule("vavr-collections");
+    module.addSerializer(Map.class, new StdDelegatingSerializer(new StdConverter<Map<?, ?>, java.util.Map<?, ?>>() {
+      @Override
+      public java.util.Map<?, ?> convert(Map<?, ?> value) {
+        return value.toJavaMap();
+      }
+    }));
+    module.addSerializer(Seq.class, new StdDelegatingSerializer(new StdConverter<Seq<?>, java.util.List<?>>() {
+      @Override
+      public java.util.List<?> convert(Seq<?> value) {
+        return value.toJavaList();
+      }
+    }));
+    module.addSerializer(Set.class, new StdDelegatingSerializer(new StdConverter<Set<?>, java.util.List<?>>() {
+      @Override
+      public java.util.List<?> convert(Set<?> value) {
+        return value.toJavaList();
+      }
+    }));
+
+    for (var type : java.util.List.of(Map.class, HashMap.class, LinkedHashMap.class, SortedMap.class, TreeMap.class, Seq.class, List.class, Queue.class, Vector.class, Set.class, HashSet.class))
+      addDeserializer(module, type);
+    return module;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> void addDeserializer(SimpleModule module, Class<T> type) {
+    module.addDeserializer(type, (JsonDeserializer<T>) new CollectionDeserializer(null, null));
+  }
+
+  /**
+   * Reads the java collection of the same element types and copies it into the vavr one. Sorted
+   * maps are sorted by the natural order of their keys.
+   */
+  private static final class CollectionDeserializer extends StdDeserializer<Object> implements ContextualDeserializer {
+
+    final private JavaType type;
+    final private JsonDeserializer<Object> delegate;
+
+    CollectionDeserializer(JavaType type, JsonDeserializer<Object> delegate) {
+      super(type == null ? Object.class : type.getRawClass());
+      this.type = type;
+      this.delegate = delegate;
+    }
+
+    @Override
+    public JsonDeserializer<?> createContextual(DeserializationContext ctxt, BeanProperty property) throws JsonMappingException {
+      // the property's own type is the outer collection when this one is nested in it
+      var type = ctxt.getContextualType() != null ? ctxt.getContextualType() : property.getType();
+      var types = ctxt.getTypeFactory();
+      var javaType = type.isTypeOrSubTypeOf(Map.class)
+        ? types.constructMapType(java.util.LinkedHashMap.class, type.containedTypeOrUnknown(0), type.containedTypeOrUnknown(1))
+        : types.constructCollectionType(ArrayList.class, type.containedTypeOrUnknown(0));
+      return new CollectionDeserializer(type, ctxt.findContextualValueDeserializer(javaType, property));
+    }
+
+    @Override
+    public Object deserialize(JsonParser parser, DeserializationContext ctxt) throws IOException {
+      var value = delegate.deserialize(parser, ctxt);
+      var raw = type.getRawClass();
+      if (value instanceof java.util.Map<?, ?> map) {
+        if (raw == SortedMap.class || raw == TreeMap.class) return TreeMap.ofAll(naturalOrder(), map);
+        return raw == LinkedHashMap.class ? LinkedHashMap.ofAll(map) : HashMap.ofAll(map);
+      }
+      var elements = (java.util.List<?>) value;
+      if (raw == Queue.class) return Queue.ofAll(elements);
+      if (raw == Vector.class) return Vector.ofAll(elements);
+      if (raw == Set.class || raw == HashSet.class) return HashSet.ofAll(elements);
+      return List.ofAll(elements);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Comparator<Object> naturalOrder() {
+    return (Comparator<Object>) (Comparator<?>) Comparator.naturalOrder();
+  }
+}
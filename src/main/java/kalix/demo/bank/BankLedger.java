@@ -0,0 +1,18 @@
+package kalix.demo.bank;
+
+/**
+ * Participant type of the accounts held on the external bank ledger. A transaction participant
+ * of this type is an account id on that ledger, reached through the {@link BankLedgerClient}.
+ */
+public final class BankLedger {
+
+  /**
+   * Funds held on an account for a transaction, moved when the transaction is initialized and
+   * released if it is cancelled. Positive amounts credit the account, negative ones debit it.
+   */
+  public record Hold(String transactionId, String account, Double amount, String currency) {
+  }
+
+  private BankLedger() {
+  }
+}
@@ -0,0 +1,59 @@
+package kalix.demo.bank;
+
+import kalix.demo.Done;
+import kalix.demo.transactions.TransactionAdapter;
+import kalix.demo.transactions.TransactionMediator;
+import kalix.javasdk.client.ComponentClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Settles the bank ledger side of a transaction. The hold was placed when the account joined the
+ * transaction (see {@link BankTransferAction}), initializing commits it and confirms the execution
+ * to the mediator, since the ledger has no listener of its own to do it.
+ */
+@Component
+public class BankLedgerAdapter implements TransactionAdapter {
+
+  final private BankLedgerClient client;
+
+  public BankLedgerAdapter(@Autowired BankLedgerClient client) {
+    this.client = client;
+  }
+
+  @Override
+  public boolean adapterFor(Class<?> clazz) {
+    return clazz.equals(BankLedger.class);
+  }
+
+  @Override
+  public CompletionStage<Done> initialized(ComponentClient componentClient,
+                                           String participantId,
+                                           String transactionId) {
+    return client
+      .commit(transactionId)
+      .thenCompose(__ ->
+        componentClient
+          .forEventSourcedEntity(transactionId)
+          .call(TransactionMediator::confirmExecution)
+          .params(participantId)
+          .execute());
+  }
+
+  @Override
+  public CompletionStage<Done> cancel(ComponentClient componentClient,
+                                      String participantId,
+                                      String transactionId) {
+    return client.release(transactionId);
+  }
+
+  @Override
+  public CompletionStage<Done> complete(ComponentClient componentClient,
+                                        String participantId,
+                                        String transactionId) {
+    // committed holds are final on the ledger, there is nothing left to do
+    return java.util.concurrent.CompletableFuture.completedFuture(new Done());
+  }
+}
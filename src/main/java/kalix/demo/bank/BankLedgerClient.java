@@ -0,0 +1,151 @@
+package kalix.demo.bank;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import kalix.demo.Done;
+import kalix.javasdk.JsonSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Blocking client of the external bank ledger.
+ * <p>
+ * Calls are made from a dedicated executor, never from the Kalix action threads: virtual threads
+ * when the JVM provides them (Java 21+), otherwise a bounded pool of platform threads. A single
+ * {@link HttpClient} keeps connections alive and pools them, and negotiates HTTP/2 where the
+ * ledger supports it, so concurrent requests are multiplexed on a connection. The JDK client does
+ * not do HTTP/1.1 pipelining. At most {@code bank-ledger.max-concurrent-requests} requests are in
+ * flight at a time.
+ */
+@Component
+public class BankLedgerClient implements AutoCloseable {
+
+  private static final Logger logger = LoggerFactory.getLogger(BankLedgerClient.class);
+
+  public static class Failure extends RuntimeException {
+    public Failure(String message, Throwable cause) {
+      super(message, cause);
+    }
+  }
+
+  final private URI baseUri;
+  final private Duration requestTimeout;
+  final private ExecutorService executor;
+  final private Semaphore requests;
+  final private HttpClient httpClient;
+
+  public BankLedgerClient(@Value("${bank-ledger.url:http://localhost:8089}") String baseUrl,
+                          @Value("${bank-ledger.max-concurrent-requests:64}") int maxConcurrentRequests,
+                          @Value("${bank-ledger.request-timeout-ms:2000}") long requestTimeoutMillis) {
+    this.baseUri = URI.create(baseUrl.endsWith("/") ? baseUrl : baseUrl + "/");
+    this.requestTimeout = Duration.ofMillis(requestTimeoutMillis);
+    this.executor = blockingExecutor(maxConcurrentRequests);
+    this.requests = new Semaphore(maxConcurrentRequests);
+    this.httpClient =
+      HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_2)
+        .connectTimeout(requestTimeout)
+        // not the blocking executor: the client completes its exchanges on its own threads, which
+        // must not wait behind the calls blocked on them
+        .build();
+  }
+
+  /**
+   * Virtual threads when available. Looked up reflectively so the service still builds and runs
+   * on Java 17.
+   */
+  static ExecutorService blockingExecutor(int maxThreads) {
+    try {
+      var executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      logger.info("Bank ledger calls run on virtual threads");
+      return executor;
+    } catch (ReflectiveOperationException e) {
+      var threads = new AtomicInteger();
+      var pool = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), task -> {
+        var thread = new Thread(task, "bank-ledger-" + threads.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+      pool.allowCoreThreadTimeOut(true);
+      return pool;
+    }
+  }
+
+  public CompletionStage<Done> hold(BankLedger.Hold hold) {
+    return async(() -> {
+      var body = JsonSupport.getObjectMapper().writeValueAsString(hold);
+      send(HttpRequest.newBuilder(holdUri(hold.transactionId(), ""))
+        .header("Content-Type", "application/json")
+        .PUT(HttpRequest.BodyPublishers.ofString(body)), false);
+      return new Done();
+    });
+  }
+
+  public CompletionStage<Done> commit(String transactionId) {
+    return async(() -> {
+      send(HttpRequest.newBuilder(holdUri(transactionId, "/commit"))
+        .POST(HttpRequest.BodyPublishers.noBody()), false);
+      return new Done();
+    });
+  }
+
+  /**
+   * Releases a hold. A hold the ledger doesn't know is considered released already.
+   */
+  public CompletionStage<Done> release(String transactionId) {
+    return async(() -> {
+      send(HttpRequest.newBuilder(holdUri(transactionId, "")).DELETE(), true);
+      return new Done();
+    });
+  }
+
+  private URI holdUri(String transactionId, String suffix) {
+    return baseUri.resolve("holds/" + URLEncoder.encode(transactionId, StandardCharsets.UTF_8) + suffix);
+  }
+
+  private void send(HttpRequest.Builder request, boolean notFoundIsSuccess) throws IOException, InterruptedException {
+    var built = request.timeout(requestTimeout).build();
+    requests.acquire();
+    try {
+      var response = httpClient.send(built, HttpResponse.BodyHandlers.ofString());
+      var status = response.statusCode();
+      if (status / 100 != 2 && !(notFoundIsSuccess && status == 404))
+        throw new Failure(built.method() + " " + built.uri() + " failed with " + status + ": " + response.body(), null);
+    } finally {
+      requests.release();
+    }
+  }
+
+  private <T> CompletionStage<T> async(Callable<T> call) {
+    var result = new CompletableFuture<T>();
+    executor.execute(() -> {
+      try {
+        result.complete(call.call());
+      } catch (Failure e) {
+        result.completeExceptionally(e);
+      } catch (JsonProcessingException e) {
+        result.completeExceptionally(new Failure("Invalid request to bank ledger", e));
+      } catch (Exception e) {
+        result.completeExceptionally(new Failure("Bank ledger unreachable at " + baseUri, e));
+      }
+    });
+    return result;
+  }
+
+  @Override
+  public void close() {
+    executor.shutdown();
+  }
+}
@@ -0,0 +1,220 @@
+package kalix.demo.bank;
+
+import kalix.demo.Done;
+import kalix.demo.payment.AdmissionControl;
+import kalix.demo.payment.Wallet;
+import kalix.demo.payment.WalletServiceAction;
+import kalix.demo.transactions.TransactionMediator;
+import kalix.demo.transactions.TransactionMediator.Participant;
+import kalix.demo.transactions.TransactionServiceAction;
+import kalix.javasdk.DeferredCallResponseException;
+import kalix.javasdk.StatusCode;
+import kalix.javasdk.action.Action;
+import kalix.javasdk.annotations.ForwardHeaders;
+import kalix.javasdk.client.ComponentClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
+/**
+ * Moves funds between a wallet and an account on the external bank ledger, in a single mediator
+ * transaction: the wallet and the bank account are its two participants.
+ * <p>
+ * The wallet side goes first, and the ledger hold is only placed once the wallet has reserved
+ * the funds. If a step fails the transaction is cancelled, which undoes the wallet side, and a
+ * hold that may have been placed is released. Requests go through the {@link AdmissionControl}
+ * of the wallet API.
+ */
+@RequestMapping("/bank-transfers")
+@ForwardHeaders({WalletServiceAction.CALLER_HEADER, WalletServiceAction.PRIORITY_HEADER, WalletServiceAction.FORWARDED_FOR_HEADER})
+public class BankTransferAction extends Action {
+
+  final private static Logger logger = LoggerFactory.getLogger(BankTransferAction.class);
+
+  /**
+   * @param amount positive to move funds from the wallet to the bank account, negative for the other way
+   */
+  public record BankTransfer(Double amount, String walletId, String bankAccount, String currency) {
+  }
+
+  /**
+   * The calls a bank transfer is made of.
+   */
+  interface Steps {
+    CompletionStage<TransactionMediator.TransactionStatus> create(String transactionId, TransactionMediator.Create cmd);
+
+    CompletionStage<Wallet.WalletStatus> withdraw(String walletId, Wallet.Withdraw cmd);
+
+    CompletionStage<Wallet.WalletStatus> deposit(String walletId, Wallet.Deposit cmd);
+
+    CompletionStage<Done> hold(BankLedger.Hold hold);
+
+    CompletionStage<Done> join(String transactionId, String participantId);
+
+    CompletionStage<Done> cancel(String transactionId);
+
+    CompletionStage<Done> release(String transactionId);
+
+    CompletionStage<TransactionMediator.TransactionStatus> status(String transactionId);
+  }
+
+  /**
+   * A transfer turned down before anything was changed.
+   */
+  static class Refused extends RuntimeException {
+    final StatusCode.ErrorCode code;
+
+    Refused(String message, StatusCode.ErrorCode code) {
+      super(message, null, false, false);
+      this.code = code;
+    }
+  }
+
+  final private ComponentClient componentClient;
+  final private BankLedgerClient bankLedger;
+  final private AdmissionControl admissionControl;
+
+  public BankTransferAction(@Autowired ComponentClient componentClient,
+                            @Autowired BankLedgerClient bankLedger,
+                            @Autowired AdmissionControl admissionControl) {
+    this.componentClient = componentClient;
+    this.bankLedger = bankLedger;
+    this.admissionControl = admissionControl;
+  }
+
+  @PostMapping("/{transactionId}")
+  public Effect<TransactionMediator.TransactionStatus> transfer(@PathVariable String transactionId,
+                                                                @RequestBody BankTransfer cmd) {
+    if (cmd.amount() == null || cmd.amount() == 0)
+      return effects().error("transfer amount should not be zero", StatusCode.ErrorCode.BAD_REQUEST);
+    if (cmd.walletId() == null || cmd.bankAccount() == null)
+      return effects().error("wallet and bank account are required", StatusCode.ErrorCode.BAD_REQUEST);
+
+    admissionControl.refresh(componentClient);
+    var decision = admissionControl.admit(actionContext().metadata(), List.of(cmd.walletId()));
+    if (!decision.admitted())
+      return effects().error(decision.rejection(List.of(cmd.walletId())), StatusCode.ErrorCode.TOO_MANY_REQUESTS);
+
+    logger.info("Bank transfer '{}': {}", transactionId, cmd);
+    var reply =
+      transfer(steps(), transactionId, cmd)
+        .handle((status, error) -> {
+          if (error == null) return effects().reply(status);
+          var cause = unwrap(error);
+          if (cause instanceof Refused refused)
+            return effects().<TransactionMediator.TransactionStatus>error(refused.getMessage(), refused.code);
+          if (cause instanceof DeferredCallResponseException response)
+            return effects().<TransactionMediator.TransactionStatus>error(response.description(), response.errorCode());
+          return effects().<TransactionMediator.TransactionStatus>error(cause.getMessage());
+        });
+
+    return effects().asyncEffect(reply);
+  }
+
+  static CompletionStage<TransactionMediator.TransactionStatus> transfer(Steps steps, String transactionId, BankTransfer cmd) {
+    var createTxCmd = new TransactionMediator.Create(
+      List.of(
+        Participant.of(cmd.walletId(), Wallet.class),
+        Participant.of(cmd.bankAccount(), BankLedger.class)
+      ));
+
+    var walletAmount = Math.abs(cmd.amount());
+    var walletJoined =
+      steps.create(transactionId, createTxCmd)
+        .thenCompose(status -> {
+          if (status.status().isTerminated())
+            throw new Refused("Transaction " + transactionId + " already created", StatusCode.ErrorCode.BAD_REQUEST);
+          return cmd.amount() > 0
+            ? steps.withdraw(cmd.walletId(), new Wallet.Withdraw(walletAmount, transactionId, cmd.currency()))
+            : steps.deposit(cmd.walletId(), new Wallet.Deposit(walletAmount, transactionId, cmd.currency()));
+        });
+
+    // the bank account joins once the ledger holds the funds
+    var bankJoined = walletJoined.handle((status, error) -> {
+      if (unwrap(error) instanceof Refused) return CompletableFuture.<Done>failedFuture(error);
+      if (error != null) return compensate(steps, transactionId, false, error);
+
+      return steps.hold(new BankLedger.Hold(transactionId, cmd.bankAccount(), cmd.amount(), cmd.currency()))
+        .thenCompose(__ -> steps.join(transactionId, cmd.bankAccount()))
+        .handle((done, failure) ->
+          failure == null ? CompletableFuture.completedFuture(done) : compensate(steps, transactionId, true, failure))
+        .thenCompose(Function.identity());
+    }).thenCompose(Function.identity());
+
+    return bankJoined.thenCompose(__ -> steps.status(transactionId));
+  }
+
+  private static Throwable unwrap(Throwable error) {
+    return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+  }
+
+  /**
+   * Cancels the transaction, so that the wallet drops its pending side, and releases the ledger
+   * hold when one may have been placed. Fails with the original error either way.
+   */
+  private static CompletionStage<Done> compensate(Steps steps, String transactionId, boolean holdPlaced, Throwable error) {
+    logger.warn("Bank transfer '{}' failed, cancelling it", transactionId, error);
+    var cancelled = steps.cancel(transactionId);
+    var released = holdPlaced
+      ? cancelled.handle((done, e) -> null).thenCompose(__ -> steps.release(transactionId))
+      : cancelled;
+    return released
+      .handle((done, compensationError) -> {
+        if (compensationError != null)
+          logger.error("Compensation of bank transfer '{}' failed, redelivery of the cancellation will retry it", transactionId, compensationError);
+        return CompletableFuture.<Done>failedFuture(error);
+      })
+      .thenCompose(Function.identity());
+  }
+
+  private Steps steps() {
+    return new Steps() {
+      @Override
+      public CompletionStage<TransactionMediator.TransactionStatus> create(String transactionId, TransactionMediator.Create cmd) {
+        return TransactionServiceAction.create(componentClient, transactionId, cmd);
+      }
+
+      @Override
+      public CompletionStage<Wallet.WalletStatus> withdraw(String walletId, Wallet.Withdraw cmd) {
+        return componentClient.forEventSourcedEntity(walletId).call(Wallet::withdraw).params(cmd).execute();
+      }
+
+      @Override
+      public CompletionStage<Wallet.WalletStatus> deposit(String walletId, Wallet.Deposit cmd) {
+        return componentClient.forEventSourcedEntity(walletId).call(Wallet::deposit).params(cmd).execute();
+      }
+
+      @Override
+      public CompletionStage<Done> hold(BankLedger.Hold hold) {
+        return bankLedger.hold(hold);
+      }
+
+      @Override
+      public CompletionStage<Done> join(String transactionId, String participantId) {
+        return componentClient.forEventSourcedEntity(transactionId).call(TransactionMediator::join).params(participantId).execute();
+      }
+
+      @Override
+      public CompletionStage<Done> cancel(String transactionId) {
+        return componentClient.forEventSourcedEntity(transactionId).call(TransactionMediator::cancel).execute();
+      }
+
+      @Override
+      public CompletionStage<Done> release(String transactionId) {
+        return bankLedger.release(transactionId);
+      }
+
+      @Override
+      public CompletionStage<TransactionMediator.TransactionStatus> status(String transactionId) {
+        return componentClient.forEventSourcedEntity(transactionId).call(TransactionMediator::getStatus).execute();
+      }
+    };
+  }
+}
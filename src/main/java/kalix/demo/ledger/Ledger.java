@@ -0,0 +1,528 @@
+package kalix.demo.ledger;
+
+import io.vavr.collection.HashMap;
+import io.vavr.collection.HashSet;
+import io.vavr.collection.List;
+import io.vavr.collection.Map;
+import io.vavr.collection.Queue;
+import io.vavr.collection.Set;
+import kalix.demo.Done;
+import kalix.demo.payment.Wallet;
+import kalix.javasdk.annotations.EventHandler;
+import kalix.javasdk.annotations.Id;
+import kalix.javasdk.annotations.TypeId;
+import kalix.javasdk.annotations.TypeName;
+import kalix.javasdk.eventsourcedentity.EventSourcedEntity;
+import kalix.javasdk.eventsourcedentity.EventSourcedEntityContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * One shard of the system-wide ledger.
+ * <p>
+ * Keeps running totals per currency over all wallets, updated in O(1) per wallet or mediator event, and the
+ * legs of the transactions still open. Transactions are sharded by id, so all legs of a
+ * transaction meet in the same shard and can be reconciled once the transaction is closed:
+ * a completed transaction with more than one participant must have its debits and credits
+ * net to zero in each currency.
+ * <p>
+ * The listeners don't call a shard per wallet event: a {@link LedgerBatcher} groups the bookings
+ * of a shard into {@link #applyBatch} calls, so the ledger writes grow with the number of shards
+ * rather than with the number of wallet events.
+ */
+@Id("shardId")
+@TypeId("ledger")
+@RequestMapping("/ledger-shards/{shardId}")
+public class Ledger extends EventSourcedEntity<Ledger.State, Ledger.Event> {
+
+  public static final int SHARDS = 16;
+
+  // how many closed transactions are remembered to discard redelivered events
+  static final int CLOSED_WINDOW = 1024;
+
+  private static final double TOLERANCE = 1e-9;
+
+  private static final Logger logger = LoggerFactory.getLogger(Ledger.class);
+
+  private final String shardId;
+
+  public Ledger(EventSourcedEntityContext context) {
+    this.shardId = context.entityId();
+  }
+
+  public static String shardOf(String transactionId) {
+    return String.valueOf(Math.floorMod(transactionId.hashCode(), SHARDS));
+  }
+
+  public enum Direction {
+    DEBIT,
+    CREDIT
+  }
+
+  enum LegStatus {
+    PENDING,
+    EXECUTED,
+    CANCELLED
+  }
+
+  public enum Outcome {
+    COMPLETED,
+    CANCELLED
+  }
+
+  public record Totals(Double balance, Double reserved, Double inFlight,
+                       Double externalIn, Double externalOut, Long imbalanced) {
+
+    static Totals empty() {
+      return new Totals(0.0, 0.0, 0.0, 0.0, 0.0, 0L);
+    }
+
+    public Totals plus(Totals other) {
+      return new Totals(
+        balance + other.balance,
+        reserved + other.reserved,
+        inFlight + other.inFlight,
+        externalIn + other.externalIn,
+        externalOut + other.externalOut,
+        imbalanced + other.imbalanced);
+    }
+
+    Totals legInitiated(Leg leg) {
+      if (leg.direction == Direction.DEBIT)
+        return new Totals(balance - leg.amount, reserved + leg.amount, inFlight + leg.amount, externalIn, externalOut, imbalanced);
+      else
+        return new Totals(balance, reserved, inFlight + leg.amount, externalIn, externalOut, imbalanced);
+    }
+
+    Totals legExecuted(Leg leg) {
+      if (leg.direction == Direction.DEBIT)
+        return new Totals(balance, reserved - leg.amount, inFlight - leg.amount, externalIn, externalOut, imbalanced);
+      else
+        return new Totals(balance + leg.amount, reserved, inFlight - leg.amount, externalIn, externalOut, imbalanced);
+    }
+
+    Totals legCancelled(Leg leg) {
+      if (leg.direction == Direction.DEBIT)
+        return new Totals(balance + leg.amount, reserved - leg.amount, inFlight - leg.amount, externalIn, externalOut, imbalanced);
+      else
+        return new Totals(balance, reserved, inFlight - leg.amount, externalIn, externalOut, imbalanced);
+    }
+
+    /**
+     * Wallet holds: authorized funds are reserved, captured funds leave the system and released
+     * funds are available again.
+     */
+    Totals hold(Double authorized, Double captured, Double released) {
+      return new Totals(balance - authorized + released, reserved + authorized - captured - released, inFlight,
+        externalIn, externalOut + captured, imbalanced);
+    }
+
+    Totals external(Double credits, Double debits) {
+      return new Totals(balance, reserved, inFlight, externalIn + credits, externalOut + debits, imbalanced);
+    }
+
+    Totals imbalance() {
+      return new Totals(balance, reserved, inFlight, externalIn, externalOut, imbalanced + 1);
+    }
+  }
+
+  /**
+   * @param conversion set on the converted deposit of a cross-currency transfer, which is
+   *                   reconciled against the debit in the currency it was converted from
+   */
+  record Leg(Double amount, Direction direction, LegStatus status, String currency, Wallet.Conversion conversion) {
+    Leg withStatus(LegStatus status) {
+      return new Leg(amount, direction, status, currency, conversion);
+    }
+
+    String reconciledCurrency() {
+      return conversion == null ? currency : conversion.sourceCurrency();
+    }
+
+    Double reconciledAmount() {
+      return conversion == null ? amount : conversion.sourceAmount();
+    }
+  }
+
+  record OpenTransaction(Map<String, Leg> legs, Outcome outcome, Integer participants) {
+
+    static OpenTransaction empty() {
+      return new OpenTransaction(HashMap.empty(), null, 0);
+    }
+
+    OpenTransaction withLeg(String walletId, Leg leg) {
+      return new OpenTransaction(legs.put(walletId, leg), outcome, participants);
+    }
+
+    OpenTransaction closedAs(Outcome outcome, Integer participants) {
+      return new OpenTransaction(legs, outcome, participants);
+    }
+
+    /**
+     * Closed once the mediator reached a terminal state and all legs it expects were settled.
+     */
+    boolean isSettled() {
+      if (outcome == null || legs.values().exists(leg -> leg.status == LegStatus.PENDING))
+        return false;
+      else
+        return outcome == Outcome.CANCELLED || legs.size() >= participants;
+    }
+
+    Set<String> currencies() {
+      return legs.values().map(Leg::reconciledCurrency).toSet();
+    }
+
+    Double executed(Direction direction, String currency) {
+      return legs
+        .values()
+        .filter(leg -> leg.status == LegStatus.EXECUTED && leg.direction == direction && leg.reconciledCurrency().equals(currency))
+        .map(Leg::reconciledAmount)
+        .sum()
+        .doubleValue();
+    }
+
+    List<Leg> executedConversions() {
+      return legs.values().filter(leg -> leg.status == LegStatus.EXECUTED && leg.conversion != null).toList();
+    }
+  }
+
+  public record Imbalance(String transactionId, String currency, Double debits, Double credits) {
+  }
+
+  public record State(Map<String, Totals> totals,
+                      Map<String, OpenTransaction> open,
+                      Set<String> closed,
+                      Queue<String> closedOrder,
+                      List<Imbalance> imbalances) {
+
+    static State empty() {
+      return new State(HashMap.empty(), HashMap.empty(), HashSet.empty(), Queue.empty(), List.empty());
+    }
+
+    Totals totalsOf(String currency) {
+      return totals.get(currency).getOrElse(Totals::empty);
+    }
+
+    long imbalanced() {
+      return totals.values().map(Totals::imbalanced).sum().longValue();
+    }
+
+    private Map<String, Totals> updateTotals(String currency, java.util.function.Function<Totals, Totals> update) {
+      return totals.put(currency, update.apply(totalsOf(currency)));
+    }
+
+    boolean isClosed(String transactionId) {
+      return closed.contains(transactionId);
+    }
+
+    private OpenTransaction transaction(String transactionId) {
+      return open.get(transactionId).getOrElse(OpenTransaction::empty);
+    }
+
+    State legInitiated(String transactionId, String walletId, Double amount, Direction direction, String currency,
+                       Wallet.Conversion conversion) {
+      var tx = transaction(transactionId);
+      if (isClosed(transactionId) || tx.legs.containsKey(walletId)) return this;
+
+      var leg = new Leg(amount, direction, LegStatus.PENDING, currency, conversion);
+      return new State(updateTotals(currency, t -> t.legInitiated(leg)), open.put(transactionId, tx.withLeg(walletId, leg)), closed, closedOrder, imbalances);
+    }
+
+    State legSettled(String transactionId, String walletId, LegStatus status) {
+      var tx = transaction(transactionId);
+      var leg = tx.legs.get(walletId);
+      if (isClosed(transactionId) || leg.isEmpty() || leg.get().status != LegStatus.PENDING) return this;
+
+      var updatedTotals =
+        updateTotals(leg.get().currency, t -> status == LegStatus.EXECUTED ? t.legExecuted(leg.get()) : t.legCancelled(leg.get()));
+      var updatedTx = tx.withLeg(walletId, leg.get().withStatus(status));
+      return new State(updatedTotals, open.put(transactionId, updatedTx), closed, closedOrder, imbalances).closeIfSettled(transactionId);
+    }
+
+    State transactionEnded(String transactionId, Outcome outcome, Integer participants) {
+      var tx = transaction(transactionId);
+      if (isClosed(transactionId) || tx.outcome != null) return this;
+
+      var updatedTx = tx.closedAs(outcome, participants);
+      return new State(totals, open.put(transactionId, updatedTx), closed, closedOrder, imbalances).closeIfSettled(transactionId);
+    }
+
+    /**
+     * Hold movements don't go through a mediator, each one is booked once under its own key.
+     */
+    State holdBooked(String movementId, String currency, Double authorized, Double captured, Double released) {
+      if (isClosed(movementId)) return this;
+      return withTotals(currency, t -> t.hold(authorized, captured, released)).close(movementId);
+    }
+
+    private State closeIfSettled(String transactionId) {
+      var tx = transaction(transactionId);
+      if (!tx.isSettled()) return this;
+
+      var updatedState = this;
+      for (var currency : tx.currencies()) {
+        var credits = tx.executed(Direction.CREDIT, currency);
+        var debits = tx.executed(Direction.DEBIT, currency);
+
+        if (tx.outcome == Outcome.COMPLETED && tx.participants == 1) {
+          // single participant deposits and withdraws move money in and out of the system
+          updatedState = updatedState.withTotals(currency, t -> t.external(credits, debits));
+        } else if (Math.abs(credits - debits) > TOLERANCE) {
+          updatedState = updatedState
+            .withTotals(currency, Totals::imbalance)
+            .withImbalance(new Imbalance(transactionId, currency, debits, credits));
+        }
+      }
+      // the exchange of a cross-currency transfer takes the amount out of one currency and brings
+      // the converted amount into the other
+      if (tx.outcome == Outcome.COMPLETED) {
+        for (var leg : tx.executedConversions()) {
+          updatedState = updatedState
+            .withTotals(leg.conversion.sourceCurrency(), t -> t.external(0.0, leg.conversion.sourceAmount()))
+            .withTotals(leg.currency, t -> t.external(leg.amount, 0.0));
+        }
+      }
+      return updatedState.close(transactionId);
+    }
+
+    private State withTotals(String currency, java.util.function.Function<Totals, Totals> update) {
+      return new State(updateTotals(currency, update), open, closed, closedOrder, imbalances);
+    }
+
+    private State withImbalance(Imbalance imbalance) {
+      return new State(totals, open, closed, closedOrder, imbalances.prepend(imbalance).take(CLOSED_WINDOW));
+    }
+
+    private State close(String transactionId) {
+      var updatedClosed = closed.add(transactionId);
+      var updatedOrder = closedOrder.enqueue(transactionId);
+      if (updatedOrder.size() > CLOSED_WINDOW) {
+        var evicted = updatedOrder.dequeue();
+        updatedClosed = updatedClosed.remove(evicted._1);
+        updatedOrder = evicted._2;
+      }
+
+      return new State(totals, open.remove(transactionId), updatedClosed, updatedOrder, imbalances);
+    }
+  }
+
+  public record LegInitiation(String transactionId, String walletId, Double amount, Direction direction, String currency,
+                              Wallet.Conversion conversion) {
+    public LegInitiation(String transactionId, String walletId, Double amount, Direction direction, String currency) {
+      this(transactionId, walletId, amount, direction, currency, null);
+    }
+
+    public LegInitiation(String transactionId, String walletId, Double amount, Direction direction) {
+      this(transactionId, walletId, amount, direction, Wallet.DEFAULT_CURRENCY);
+    }
+  }
+
+  public record LegSettlement(String transactionId, String walletId) {
+  }
+
+  public record TransactionEnd(String transactionId, Outcome outcome, Integer participants) {
+  }
+
+  /**
+   * @param movementId unique per movement of a hold, so that redelivered wallet events are booked once
+   */
+  public record HoldMovement(String movementId, String currency, Double authorized, Double captured, Double released) {
+  }
+
+  /**
+   * One ledger command, exactly one of the fields is set, see {@link #applyBatch}.
+   */
+  public record Booking(LegInitiation initiate, LegSettlement execute, LegSettlement cancel, TransactionEnd end,
+                        HoldMovement hold) {
+
+    public static Booking of(LegInitiation cmd) {
+      return new Booking(cmd, null, null, null, null);
+    }
+
+    public static Booking executed(LegSettlement cmd) {
+      return new Booking(null, cmd, null, null, null);
+    }
+
+    public static Booking cancelled(LegSettlement cmd) {
+      return new Booking(null, null, cmd, null, null);
+    }
+
+    public static Booking of(TransactionEnd cmd) {
+      return new Booking(null, null, null, cmd, null);
+    }
+
+    public static Booking of(HoldMovement cmd) {
+      return new Booking(null, null, null, null, cmd);
+    }
+
+    Event event() {
+      if (initiate != null)
+        return new Event.LegInitiated(initiate.transactionId, initiate.walletId, initiate.amount, initiate.direction, initiate.currency, initiate.conversion);
+      else if (execute != null)
+        return new Event.LegExecuted(execute.transactionId, execute.walletId);
+      else if (cancel != null)
+        return new Event.LegCancelled(cancel.transactionId, cancel.walletId);
+      else if (end != null)
+        return new Event.TransactionEnded(end.transactionId, end.outcome, end.participants);
+      else if (hold != null)
+        return new Event.HoldBooked(hold.movementId, hold.currency, hold.authorized, hold.captured, hold.released);
+      else
+        return null;
+    }
+  }
+
+  public record Bookings(java.util.List<Booking> bookings) {
+  }
+
+  public record LedgerStatus(java.util.Map<String, Totals> totals, Integer openTransactions, java.util.List<Imbalance> imbalances) {
+    static LedgerStatus of(State state) {
+      return new LedgerStatus(state.totals.toJavaMap(), state.open.size(), state.imbalances.asJava());
+    }
+  }
+
+  public sealed interface Event {
+
+    @TypeName("leg-initiated")
+    record LegInitiated(String transactionId, String walletId, Double amount, Direction direction, String currency,
+                        Wallet.Conversion conversion) implements Event {
+      public LegInitiated {
+        currency = currency == null ? Wallet.DEFAULT_CURRENCY : currency;
+      }
+
+      public LegInitiated(String transactionId, String walletId, Double amount, Direction direction, String currency) {
+        this(transactionId, walletId, amount, direction, currency, null);
+      }
+    }
+
+    @TypeName("leg-executed")
+    record LegExecuted(String transactionId, String walletId) implements Event {
+    }
+
+    @TypeName("leg-cancelled")
+    record LegCancelled(String transactionId, String walletId) implements Event {
+    }
+
+    @TypeName("transaction-ended")
+    record TransactionEnded(String transactionId, Outcome outcome, Integer participants) implements Event {
+    }
+
+    @TypeName("hold-booked")
+    record HoldBooked(String movementId, String currency, Double authorized, Double captured, Double released) implements Event {
+    }
+  }
+
+  @Override
+  public State emptyState() {
+    return State.empty();
+  }
+
+  @GetMapping
+  public Effect<LedgerStatus> getStatus() {
+    return effects().reply(LedgerStatus.of(currentState()));
+  }
+
+  @PostMapping("/legs/initiate")
+  public Effect<Done> initiateLeg(@RequestBody LegInitiation cmd) {
+    return emitIfChanged(new Event.LegInitiated(cmd.transactionId, cmd.walletId, cmd.amount, cmd.direction, cmd.currency, cmd.conversion));
+  }
+
+  @PostMapping("/legs/execute")
+  public Effect<Done> executeLeg(@RequestBody LegSettlement cmd) {
+    return emitIfChanged(new Event.LegExecuted(cmd.transactionId, cmd.walletId));
+  }
+
+  @PostMapping("/legs/cancel")
+  public Effect<Done> cancelLeg(@RequestBody LegSettlement cmd) {
+    return emitIfChanged(new Event.LegCancelled(cmd.transactionId, cmd.walletId));
+  }
+
+  @PostMapping("/transactions/end")
+  public Effect<Done> endTransaction(@RequestBody TransactionEnd cmd) {
+    return emitIfChanged(new Event.TransactionEnded(cmd.transactionId, cmd.outcome, cmd.participants));
+  }
+
+  @PostMapping("/holds/book")
+  public Effect<Done> bookHold(@RequestBody HoldMovement cmd) {
+    return emitIfChanged(new Event.HoldBooked(cmd.movementId, cmd.currency, cmd.authorized, cmd.captured, cmd.released));
+  }
+
+  /**
+   * Applies the bookings of many wallet and mediator events at once, with all their events
+   * persisted together.
+   */
+  @PostMapping("/bookings")
+  public Effect<Done> applyBatch(@RequestBody Bookings cmd) {
+    return emitIfChanged(cmd.bookings.stream().map(Booking::event).filter(java.util.Objects::nonNull).toList());
+  }
+
+  private Effect<Done> emitIfChanged(Event event) {
+    return emitIfChanged(java.util.List.of(event));
+  }
+
+  /**
+   * Events are delivered at-least-once by the listeners, only emit the ones that change the ledger.
+   */
+  private Effect<Done> emitIfChanged(java.util.List<Event> events) {
+    var state = currentState();
+    var changes = new java.util.ArrayList<Event>();
+    for (var event : events) {
+      var updated = apply(state, event);
+      // state transitions return the same instance when an event has no effect
+      if (updated == state) continue;
+      if (updated.imbalanced() > state.imbalanced()) {
+        logger.warn("Imbalanced transaction detected on ledger shard '{}': {}", shardId, updated.imbalances.head());
+      }
+      changes.add(event);
+      state = updated;
+    }
+
+    if (changes.isEmpty()) {
+      return effects().reply(new Done());
+    } else {
+      return effects()
+        .emitEvents(changes)
+        .thenReply(__ -> new Done());
+    }
+  }
+
+  private static State apply(State state, Event event) {
+    if (event instanceof Event.LegInitiated evt)
+      return state.legInitiated(evt.transactionId, evt.walletId, evt.amount, evt.direction, evt.currency, evt.conversion);
+    else if (event instanceof Event.LegExecuted evt)
+      return state.legSettled(evt.transactionId, evt.walletId, LegStatus.EXECUTED);
+    else if (event instanceof Event.LegCancelled evt)
+      return state.legSettled(evt.transactionId, evt.walletId, LegStatus.CANCELLED);
+    else if (event instanceof Event.TransactionEnded evt)
+      return state.transactionEnded(evt.transactionId, evt.outcome, evt.participants);
+    else if (event instanceof Event.HoldBooked evt)
+      return state.holdBooked(evt.movementId, evt.currency, evt.authorized, evt.captured, evt.released);
+    else
+      return state;
+  }
+
+  @EventHandler
+  public State onEvent(Event.LegInitiated evt) {
+    return apply(currentState(), evt);
+  }
+
+  @EventHandler
+  public State onEvent(Event.LegExecuted evt) {
+    return apply(currentState(), evt);
+  }
+
+  @EventHandler
+  public State onEvent(Event.LegCancelled evt) {
+    return apply(currentState(), evt);
+  }
+
+  @EventHandler
+  public State onEvent(Event.TransactionEnded evt) {
+    return apply(currentState(), evt);
+  }
+
+  @EventHandler
+  public State onEvent(Event.HoldBooked evt) {
+    return apply(currentState(), evt);
+  }
+}
@@ -0,0 +1,113 @@
+package kalix.demo.ledger;
+
+import kalix.demo.Done;
+import kalix.javasdk.client.ComponentClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Groups the bookings the listeners send to the ledger into {@link Ledger#applyBatch} calls,
+ * like {@code WalletCommandBatcher} does for wallets.
+ * <p>
+ * Each shard has at most one batch in flight. A booking for an idle shard is sent right away,
+ * the ones arriving during a call queue up and go out together once it returns, at most
+ * {@code ledger.batching.max-batch-size} at a time. A listener's event is acknowledged once its
+ * booking is persisted, so redelivery still covers a failed batch.
+ */
+@Component
+public class LedgerBatcher {
+
+  @FunctionalInterface
+  interface Sender {
+    CompletionStage<Done> send(ComponentClient componentClient, String shardId, Ledger.Bookings bookings);
+  }
+
+  private record Queued(ComponentClient componentClient, Ledger.Booking booking, CompletableFuture<Done> result) {
+  }
+
+  private static class Lane {
+    final ArrayDeque<Queued> queue = new ArrayDeque<>();
+    boolean inFlight;
+    boolean retired;
+  }
+
+  final private Sender sender;
+  final private int maxBatchSize;
+  final private ConcurrentHashMap<String, Lane> lanes = new ConcurrentHashMap<>();
+
+  @Autowired
+  public LedgerBatcher(@Value("${ledger.batching.max-batch-size:256}") int maxBatchSize) {
+    this((componentClient, shardId, bookings) ->
+        componentClient
+          .forEventSourcedEntity(shardId)
+          .call(Ledger::applyBatch)
+          .params(bookings)
+          .execute(),
+      maxBatchSize);
+  }
+
+  LedgerBatcher(Sender sender, int maxBatchSize) {
+    this.sender = sender;
+    this.maxBatchSize = Math.max(1, maxBatchSize);
+  }
+
+  CompletionStage<Done> submit(ComponentClient componentClient, String shardId, Ledger.Booking booking) {
+    var queued = new Queued(componentClient, booking, new CompletableFuture<>());
+    while (true) {
+      var lane = lanes.computeIfAbsent(shardId, __ -> new Lane());
+      java.util.List<Queued> batch;
+      synchronized (lane) {
+        // an idle lane is dropped from the map, submitters that still found it go for a new one
+        if (lane.retired) continue;
+        lane.queue.add(queued);
+        if (lane.inFlight) return queued.result;
+        lane.inFlight = true;
+        batch = nextBatch(lane);
+      }
+      send(shardId, lane, batch);
+      return queued.result;
+    }
+  }
+
+  private java.util.List<Queued> nextBatch(Lane lane) {
+    var batch = new ArrayList<Queued>(Math.min(lane.queue.size(), maxBatchSize));
+    while (!lane.queue.isEmpty() && batch.size() < maxBatchSize) batch.add(lane.queue.poll());
+    return batch;
+  }
+
+  private void send(String shardId, Lane lane, java.util.List<Queued> batch) {
+    CompletionStage<Done> call;
+    try {
+      var bookings = batch.stream().map(Queued::booking).toList();
+      call = sender.send(batch.get(0).componentClient, shardId, new Ledger.Bookings(bookings));
+    } catch (RuntimeException e) {
+      call = CompletableFuture.failedFuture(e);
+    }
+
+    call.whenComplete((done, error) -> {
+      for (var queued : batch) {
+        if (error != null) queued.result.completeExceptionally(error);
+        else queued.result.complete(done);
+      }
+
+      java.util.List<Queued> next;
+      synchronized (lane) {
+        if (lane.queue.isEmpty()) {
+          lane.inFlight = false;
+          lane.retired = true;
+          lanes.remove(shardId, lane);
+          return;
+        }
+        next = nextBatch(lane);
+      }
+      send(shardId, lane, next);
+    });
+  }
+}
@@ -0,0 +1,59 @@
+package kalix.demo.ledger;
+
+import io.vavr.collection.HashMap;
+import io.vavr.collection.List;
+import kalix.javasdk.action.Action;
+import kalix.javasdk.client.ComponentClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+@RequestMapping("/ledger")
+public class LedgerServiceAction extends Action {
+
+  final private ComponentClient componentClient;
+
+  public LedgerServiceAction(@Autowired ComponentClient componentClient) {
+    this.componentClient = componentClient;
+  }
+
+  /**
+   * System-wide ledger view, per currency. Once no transaction is in flight, {@code balance + reserved}
+   * must equal {@code externalIn - externalOut} in every currency.
+   */
+  public record Summary(java.util.Map<String, Ledger.Totals> totals, Integer openTransactions, java.util.List<Ledger.Imbalance> imbalances) {
+    static Summary empty() {
+      return new Summary(java.util.Map.of(), 0, java.util.List.of());
+    }
+
+    Summary plus(Ledger.LedgerStatus shard) {
+      var merged =
+        HashMap.ofAll(totals)
+          .merge(HashMap.ofAll(shard.totals()), Ledger.Totals::plus);
+      return new Summary(
+        merged.toJavaMap(),
+        openTransactions + shard.openTransactions(),
+        List.ofAll(imbalances).appendAll(shard.imbalances()).asJava());
+    }
+  }
+
+  @GetMapping
+  public Effect<Summary> getSummary() {
+    CompletionStage<Summary> summary =
+      List
+        .range(0, Ledger.SHARDS)
+        .map(shard ->
+          componentClient
+            .forEventSourcedEntity(String.valueOf(shard))
+            .call(Ledger::getStatus)
+            .execute())
+        .foldLeft(
+          CompletableFuture.completedStage(Summary.empty()),
+          (agg, status) -> agg.thenCombine(status, Summary::plus));
+
+    return effects().asyncReply(summary);
+  }
+}
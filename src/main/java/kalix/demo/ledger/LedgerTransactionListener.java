@@ -0,0 +1,42 @@
+package kalix.demo.ledger;
+
+import kalix.demo.Done;
+import kalix.demo.payment.Wallet;
+import kalix.demo.transactions.TransactionMediator;
+import kalix.javasdk.action.Action;
+import kalix.javasdk.annotations.Subscribe;
+import kalix.javasdk.client.ComponentClient;
+import org.springframework.beans.factory.annotation.Autowired;
+
+@Subscribe.EventSourcedEntity(value = TransactionMediator.class, ignoreUnknown = true)
+public class LedgerTransactionListener extends Action {
+
+  final private ComponentClient componentClient;
+  final private LedgerBatcher batcher;
+
+  public LedgerTransactionListener(@Autowired ComponentClient componentClient, @Autowired LedgerBatcher batcher) {
+    this.componentClient = componentClient;
+    this.batcher = batcher;
+  }
+
+  public Effect<Done> onEvent(TransactionMediator.Event.Completed evt) {
+    return end(evt.transactionId(), Ledger.Outcome.COMPLETED, walletLegs(evt.participants()));
+  }
+
+  public Effect<Done> onEvent(TransactionMediator.Event.Cancelled evt) {
+    return end(evt.transactionId(), Ledger.Outcome.CANCELLED, walletLegs(evt.participants()));
+  }
+
+  /**
+   * The ledger only sees wallet legs, other participants (like bank ledger accounts) are external
+   * to it: a transaction with a single wallet leg is booked as money coming in or going out.
+   */
+  private static int walletLegs(java.util.List<TransactionMediator.Participant> participants) {
+    return (int) participants.stream().filter(p -> p.type().equals(Wallet.class)).count();
+  }
+
+  private Effect<Done> end(String transactionId, Ledger.Outcome outcome, int participants) {
+    var booking = Ledger.Booking.of(new Ledger.TransactionEnd(transactionId, outcome, participants));
+    return effects().asyncReply(batcher.submit(componentClient, Ledger.shardOf(transactionId), booking));
+  }
+}
@@ -0,0 +1,75 @@
+package kalix.demo.ledger;
+
+import kalix.demo.Done;
+import kalix.demo.payment.Wallet;
+import kalix.demo.payment.Wallet.Event.*;
+import kalix.javasdk.action.Action;
+import kalix.javasdk.annotations.Subscribe;
+import kalix.javasdk.client.ComponentClient;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * Books the legs and holds of the wallets on the ledger shards, through the {@link LedgerBatcher}.
+ */
+@Subscribe.EventSourcedEntity(value = Wallet.class, ignoreUnknown = true)
+public class LedgerWalletListener extends Action {
+
+  final private ComponentClient componentClient;
+  final private LedgerBatcher batcher;
+
+  public LedgerWalletListener(@Autowired ComponentClient componentClient, @Autowired LedgerBatcher batcher) {
+    this.componentClient = componentClient;
+    this.batcher = batcher;
+  }
+
+  private Effect<Done> book(String key, Ledger.Booking booking) {
+    return effects().asyncReply(batcher.submit(componentClient, Ledger.shardOf(key), booking));
+  }
+
+  public Effect<Done> onEvent(DepositInitiated evt) {
+    return initiate(evt.transactionId(), evt.walletId(), evt.amount(), Ledger.Direction.CREDIT, evt.currency(), evt.conversion());
+  }
+
+  public Effect<Done> onEvent(WithdrawInitiated evt) {
+    return initiate(evt.transactionId(), evt.walletId(), evt.amount(), Ledger.Direction.DEBIT, evt.currency(), null);
+  }
+
+  public Effect<Done> onEvent(BalanceIncreased evt) {
+    return book(evt.transactionId(), Ledger.Booking.executed(new Ledger.LegSettlement(evt.transactionId(), evt.walletId())));
+  }
+
+  public Effect<Done> onEvent(BalanceDecreased evt) {
+    return book(evt.transactionId(), Ledger.Booking.executed(new Ledger.LegSettlement(evt.transactionId(), evt.walletId())));
+  }
+
+  public Effect<Done> onEvent(TransactionCancelled evt) {
+    // the cancelled event doesn't carry the wallet id, but the wallet is the event subject
+    var walletId = actionContext().eventSubject().get();
+    return book(evt.transactionId(), Ledger.Booking.cancelled(new Ledger.LegSettlement(evt.transactionId(), walletId)));
+  }
+
+  public Effect<Done> onEvent(HoldAuthorized evt) {
+    return bookHold(evt.authorizationId(),
+      new Ledger.HoldMovement(evt.authorizationId() + ":authorized", evt.currency(), evt.amount(), 0.0, 0.0));
+  }
+
+  public Effect<Done> onEvent(HoldCaptured evt) {
+    // the running total identifies each partial capture of a hold
+    return bookHold(evt.authorizationId(),
+      new Ledger.HoldMovement(evt.authorizationId() + ":captured:" + evt.capturedTotal(), evt.currency(), 0.0, evt.amount(), 0.0));
+  }
+
+  public Effect<Done> onEvent(HoldReleased evt) {
+    return bookHold(evt.authorizationId(),
+      new Ledger.HoldMovement(evt.authorizationId() + ":released", evt.currency(), 0.0, 0.0, evt.amount()));
+  }
+
+  private Effect<Done> bookHold(String authorizationId, Ledger.HoldMovement movement) {
+    return book(authorizationId, Ledger.Booking.of(movement));
+  }
+
+  private Effect<Done> initiate(String transactionId, String walletId, Double amount, Ledger.Direction direction, String currency,
+                                Wallet.Conversion conversion) {
+    return book(transactionId, Ledger.Booking.of(new Ledger.LegInitiation(transactionId, walletId, amount, direction, currency, conversion)));
+  }
+}
@@ -0,0 +1,339 @@
+package kalix.demo.onboarding;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kalix.demo.payment.Wallet;
+import kalix.javasdk.JsonSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Imports wallets and their opening balances into a running service, through the wallet API.
+ * <p>
+ * The input is streamed line by line, either CSV ({@code walletId,amount[,currency]}, with an
+ * optional header line) or NDJSON ({@code {"walletId":"aaa","amount":50.0,"currency":"EUR"}}).
+ * At most {@code concurrency} items are in flight, which bounds both the load on the service and
+ * the memory used by the import. Each item creates the wallet and deposits its opening balance
+ * under the transaction id {@code opening-<walletId>}, so importing an item twice has no effect.
+ * <p>
+ * Items complete out of order, so the checkpoint is the input line before the oldest item still
+ * in flight. It is written every {@link #CHECKPOINT_EVERY} items, and a new run with the same
+ * work directory resumes from there. Failed items are appended to {@value #FAILURES_FILE} with
+ * their line and error, and don't stop the import.
+ * <p>
+ * Requests are sent as bulk traffic ({@code X-Priority: bulk}), rejected ones are retried after
+ * the Retry-After of the service. The bulk limits of the admission control set the import rate.
+ * <p>
+ * Run with: {@code mvn compile exec:java -Dexec.mainClass=kalix.demo.onboarding.WalletImport -Dexec.args="wallets.csv http://localhost:9000 target/import"}
+ */
+public class WalletImport {
+
+  private static final Logger logger = LoggerFactory.getLogger(WalletImport.class);
+
+  static final String CHECKPOINT_FILE = "import.checkpoint";
+  static final String FAILURES_FILE = "import.failures.ndjson";
+  static final int CHECKPOINT_EVERY = 1_000;
+  static final int MAX_ATTEMPTS = 5;
+  static final String CALLER_ID = "wallet-import";
+
+  private static final Pattern RETRY_AFTER = Pattern.compile("Retry-After: (\\d+)");
+
+  public enum Format {
+    CSV,
+    NDJSON;
+
+    public static Format of(Path file) {
+      var name = file.getFileName().toString().toLowerCase();
+      return name.endsWith(".ndjson") || name.endsWith(".jsonl") || name.endsWith(".json") ? NDJSON : CSV;
+    }
+  }
+
+  record Item(long line, String walletId, Double amount, String currency) {
+  }
+
+  public record Report(long items, long imported, long failed, long resumedFrom, long elapsedNanos) {
+    public double itemsPerSecond() {
+      return elapsedNanos == 0 ? 0 : items * 1_000_000_000d / elapsedNanos;
+    }
+  }
+
+  static class ImportFailure extends RuntimeException {
+    final boolean retryable;
+    final Duration retryAfter;
+
+    ImportFailure(String message, boolean retryable, Duration retryAfter) {
+      super(message, null, false, false);
+      this.retryable = retryable;
+      this.retryAfter = retryAfter;
+    }
+  }
+
+  final private ObjectMapper mapper = JsonSupport.getObjectMapper();
+  final private URI service;
+  final private Path directory;
+  final private int concurrency;
+  final private Duration requestTimeout;
+  final private HttpClient httpClient;
+  final private Semaphore inFlightPermits;
+  final private ConcurrentSkipListSet<Long> inFlight = new ConcurrentSkipListSet<>();
+
+  final private AtomicLong imported = new AtomicLong();
+  final private AtomicLong failed = new AtomicLong();
+  final private AtomicLong completed = new AtomicLong();
+  private volatile long dispatchedUpTo;
+  private long checkpoint;
+
+  public WalletImport(URI service, Path directory, int concurrency, Duration requestTimeout) throws IOException {
+    this.service = URI.create(service.toString().endsWith("/") ? service.toString() : service + "/");
+    this.directory = directory;
+    this.concurrency = concurrency;
+    this.requestTimeout = requestTimeout;
+    this.httpClient = HttpClient.newBuilder().connectTimeout(requestTimeout).build();
+    this.inFlightPermits = new Semaphore(concurrency);
+    Files.createDirectories(directory);
+    this.checkpoint = readCheckpoint();
+  }
+
+  public long checkpoint() {
+    return checkpoint;
+  }
+
+  public Report run(BufferedReader input, Format format) throws IOException, InterruptedException {
+    var start = System.nanoTime();
+    var resumedFrom = checkpoint;
+    long line = 0, items = 0;
+
+    // skip what previous runs already imported
+    while (line < checkpoint && input.readLine() != null) line++;
+    if (line > 0) logger.info("Resuming wallet import at line {}", line);
+    dispatchedUpTo = line;
+
+    try (var failures = Files.newBufferedWriter(directory.resolve(FAILURES_FILE), StandardCharsets.UTF_8,
+      StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+
+      String content;
+      while ((content = input.readLine()) != null) {
+        line++;
+        if (content.isBlank() || (format == Format.CSV && line == 1 && isHeader(content))) {
+          dispatchedUpTo = line;
+          continue;
+        }
+        items++;
+
+        Item item;
+        try {
+          item = parse(line, content, format);
+        } catch (RuntimeException e) {
+          recordFailure(failures, line, null, "unreadable item: " + e.getMessage());
+          dispatchedUpTo = line;
+          continue;
+        }
+
+        inFlightPermits.acquire();
+        inFlight.add(line);
+        dispatchedUpTo = line;
+        importItem(item).whenComplete((done, error) -> {
+          if (error == null) {
+            imported.incrementAndGet();
+          } else {
+            var cause = error instanceof CompletionException ? error.getCause() : error;
+            recordFailure(failures, item.line(), item.walletId(), cause.getMessage());
+          }
+          inFlight.remove(item.line());
+          inFlightPermits.release();
+          if (completed.incrementAndGet() % CHECKPOINT_EVERY == 0) checkpointProgress();
+        });
+      }
+
+      // wait for the items still in flight
+      inFlightPermits.acquire(concurrency);
+      inFlightPermits.release(concurrency);
+      checkpointProgress();
+    }
+
+    var report = new Report(items, imported.get(), failed.get(), resumedFrom, System.nanoTime() - start);
+    logger.info("Imported {} of {} wallets, {} failed, {} items/sec", report.imported(), report.items(), report.failed(),
+      Math.round(report.itemsPerSecond()));
+    return report;
+  }
+
+  private static boolean isHeader(String line) {
+    return line.toLowerCase().startsWith("walletid");
+  }
+
+  Item parse(long line, String content, Format format) {
+    if (format == Format.NDJSON) {
+      try {
+        var node = mapper.readTree(content);
+        var walletId = node.path("walletId").asText(null);
+        if (walletId == null || walletId.isBlank()) throw new IllegalArgumentException("missing walletId");
+        return new Item(line, walletId,
+          node.hasNonNull("amount") ? node.get("amount").asDouble() : 0.0,
+          node.path("currency").asText(Wallet.DEFAULT_CURRENCY));
+      } catch (IOException e) {
+        throw new IllegalArgumentException(e.getMessage());
+      }
+    } else {
+      var columns = content.split(",", -1);
+      var walletId = columns[0].trim();
+      if (walletId.isEmpty()) throw new IllegalArgumentException("missing walletId");
+      var amount = columns.length > 1 && !columns[1].isBlank() ? Double.parseDouble(columns[1].trim()) : 0.0;
+      var currency = columns.length > 2 && !columns[2].isBlank() ? columns[2].trim() : Wallet.DEFAULT_CURRENCY;
+      return new Item(line, walletId, amount, currency);
+    }
+  }
+
+  private CompletionStage<Void> importItem(Item item) {
+    var walletPath = "wallets/" + URLEncoder.encode(item.walletId(), StandardCharsets.UTF_8);
+    var create = withRetries(() -> post(walletPath, "{}", true), 1);
+    if (item.amount() <= 0) return create;
+
+    var deposit = new Wallet.Deposit(item.amount(), "opening-" + item.walletId(), item.currency());
+    return create.thenCompose(__ -> withRetries(() -> post(walletPath + "/deposit", json(deposit), true), 1));
+  }
+
+  private CompletionStage<Void> withRetries(Supplier<CompletionStage<Void>> call, int attempt) {
+    return call.get()
+      .handle((done, error) -> {
+        if (error == null) return CompletableFuture.<Void>completedFuture(null);
+
+        var cause = error instanceof CompletionException ? error.getCause() : error;
+        var retryable = !(cause instanceof ImportFailure failure) || failure.retryable;
+        if (!retryable || attempt >= MAX_ATTEMPTS) return CompletableFuture.<Void>failedFuture(cause);
+
+        var delay = cause instanceof ImportFailure failure && failure.retryAfter != null
+          ? failure.retryAfter
+          : Duration.ofMillis(200L << (attempt - 1));
+        return CompletableFuture
+          .runAsync(() -> {
+          }, CompletableFuture.delayedExecutor(delay.toMillis(), TimeUnit.MILLISECONDS))
+          .thenCompose(__ -> withRetries(call, attempt + 1));
+      })
+      .thenCompose(Function.identity());
+  }
+
+  /**
+   * A wallet that exists already, or an opening deposit already made, count as imported.
+   */
+  private CompletionStage<Void> post(String path, String body, boolean alreadyDoneIsSuccess) {
+    var request =
+      HttpRequest.newBuilder(service.resolve(path))
+        .timeout(requestTimeout)
+        .header("Content-Type", "application/json")
+        .header("X-Caller-Id", CALLER_ID)
+        .header("X-Priority", "bulk")
+        .POST(HttpRequest.BodyPublishers.ofString(body))
+        .build();
+
+    return httpClient
+      .sendAsync(request, HttpResponse.BodyHandlers.ofString())
+      .thenApply(response -> {
+        var status = response.statusCode();
+        if (status / 100 == 2) return null;
+
+        var message = response.body();
+        if (alreadyDoneIsSuccess && status / 100 == 4 && (message.contains("exists already") || message.contains("already created")))
+          return null;
+        if (status == 429) {
+          var retryAfter = RETRY_AFTER.matcher(message);
+          throw new ImportFailure(message, true, retryAfter.find() ? Duration.ofSeconds(Long.parseLong(retryAfter.group(1))) : null);
+        }
+        throw new ImportFailure("POST /" + path + " failed with " + status + ": " + message, status / 100 == 5, null);
+      });
+  }
+
+  private String json(Object value) {
+    try {
+      return mapper.writeValueAsString(value);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void recordFailure(BufferedWriter failures, long line, String walletId, String error) {
+    failed.incrementAndGet();
+    var entry = mapper.createObjectNode().put("line", line).put("walletId", walletId).put("error", error);
+    synchronized (failures) {
+      try {
+        failures.write(entry.toString());
+        failures.newLine();
+        failures.flush();
+      } catch (IOException e) {
+        logger.error("Could not record failure of line {}: {}", line, error, e);
+      }
+    }
+  }
+
+  /**
+   * Everything before the oldest item still in flight is done, imported or recorded as failed.
+   */
+  private synchronized void checkpointProgress() {
+    var oldest = inFlight.isEmpty() ? null : inFlight.first();
+    var done = oldest == null ? dispatchedUpTo : oldest - 1;
+    if (done <= checkpoint) return;
+
+    try {
+      var tmp = directory.resolve(CHECKPOINT_FILE + ".tmp");
+      Files.writeString(tmp, "line=" + done + "\n", StandardCharsets.UTF_8);
+      Files.move(tmp, directory.resolve(CHECKPOINT_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      checkpoint = done;
+      logger.info("Wallet import checkpoint at line {}: {} imported, {} failed", done, imported.get(), failed.get());
+    } catch (IOException e) {
+      logger.error("Could not write wallet import checkpoint", e);
+    }
+  }
+
+  private long readCheckpoint() throws IOException {
+    var file = directory.resolve(CHECKPOINT_FILE);
+    if (!Files.exists(file)) return 0;
+    for (var line : Files.readString(file, StandardCharsets.UTF_8).split("\n")) {
+      var kv = line.split("=", 2);
+      if (kv.length == 2 && kv[0].trim().equals("line")) return Long.parseLong(kv[1].trim());
+    }
+    return 0;
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    if (args.length < 2) {
+      System.err.println("usage: WalletImport <wallets.csv|wallets.ndjson> <service-url> [work-dir] [concurrency]");
+      System.exit(1);
+    }
+
+    var input = Path.of(args[0]);
+    var directory = Path.of(args.length > 2 ? args[2] : "target/import");
+    var concurrency = args.length > 3 ? Integer.parseInt(args[3]) : 64;
+    var walletImport = new WalletImport(URI.create(args[1]), directory, concurrency, Duration.ofSeconds(10));
+    try (var reader = Files.newBufferedReader(input)) {
+      var report = walletImport.run(reader, Format.of(input));
+      System.out.printf("items: %d, imported: %d, failed: %d, items/sec: %.0f%n",
+        report.items(), report.imported(), report.failed(), report.itemsPerSecond());
+      if (report.failed() > 0) System.out.println("failures: " + directory.resolve(FAILURES_FILE));
+      System.exit(report.failed() == 0 ? 0 : 2);
+    }
+  }
+}
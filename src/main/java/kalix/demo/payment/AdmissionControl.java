@@ -0,0 +1,298 @@
+package kalix.demo.payment;
+
+import kalix.javasdk.Metadata;
+import kalix.javasdk.client.ComponentClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Token-bucket admission control for wallet requests, keyed by wallet id and by caller.
+ * <p>
+ * Interactive and bulk requests go through separate lanes with their own buckets, so bulk
+ * traffic can never use up the budget of interactive callers. A request takes one token from its
+ * caller bucket and one from the bucket of each wallet it touches. It is admitted only if all of
+ * them have a token, and rejected requests don't consume any.
+ * <p>
+ * Callers that don't identify themselves share one of {@value #ANONYMOUS_CALLERS} buckets picked
+ * by their source address. Idle buckets, which are full buckets, are evicted every
+ * {@code EVICTION_INTERVAL} by a background thread rather than on the request path.
+ * <p>
+ * Buckets read the current {@link Limits} on each request, so limits changed at runtime apply
+ * immediately. Limits are stored in the {@link AdmissionLimits}, each service instance reads them
+ * again once they are {@code admission.refresh-seconds} old, see {@link #refresh}. Like the
+ * {@link kalix.demo.transactions.TransactionStatusHub}, buckets are local to this service
+ * instance.
+ */
+@Component
+public class AdmissionControl implements AutoCloseable {
+
+  final private static Logger logger = LoggerFactory.getLogger(AdmissionControl.class);
+
+  static final int ANONYMOUS_CALLERS = 1024;
+  static final Duration EVICTION_INTERVAL = Duration.ofSeconds(10);
+
+  public enum Lane {
+    INTERACTIVE,
+    BULK;
+
+    public static Lane of(String priority) {
+      return "bulk".equalsIgnoreCase(priority) ? BULK : INTERACTIVE;
+    }
+  }
+
+  public record Limit(Double ratePerSecond, Double burst) {
+  }
+
+  public record LaneLimits(Limit perWallet, Limit perCaller) {
+  }
+
+  public record Limits(LaneLimits interactive, LaneLimits bulk) {
+
+    public static Limits defaults() {
+      return new Limits(
+        new LaneLimits(new Limit(50.0, 100.0), new Limit(200.0, 400.0)),
+        new LaneLimits(new Limit(10.0, 20.0), new Limit(50.0, 100.0)));
+    }
+
+    LaneLimits of(Lane lane) {
+      return lane == Lane.BULK ? bulk : interactive;
+    }
+
+    boolean isValid() {
+      return isValid(interactive) && isValid(bulk);
+    }
+
+    private static boolean isValid(LaneLimits lane) {
+      return lane != null && isValid(lane.perWallet()) && isValid(lane.perCaller());
+    }
+
+    private static boolean isValid(Limit limit) {
+      return limit != null
+        && limit.ratePerSecond() != null && limit.ratePerSecond() > 0
+        && limit.burst() != null && limit.burst() >= 1;
+    }
+  }
+
+  public record Decision(boolean admitted, Duration retryAfter) {
+
+    static final Decision ADMITTED = new Decision(true, Duration.ZERO);
+
+    /**
+     * Retry-After is expressed in whole seconds, rounded up so that a retry is never early.
+     */
+    public long retryAfterSeconds() {
+      return Math.max(1, (retryAfter.toMillis() + 999) / 1000);
+    }
+
+    /**
+     * The error message of a rejection. The SDK doesn't allow headers on error replies, so the
+     * Retry-After value is part of it.
+     */
+    public String rejection(java.util.List<String> walletIds) {
+      return "Too many requests on wallet '" + String.join("', '", walletIds) + "', Retry-After: " + retryAfterSeconds();
+    }
+  }
+
+  private static final class Bucket {
+    private double tokens = Double.NaN;
+    private long refilledAt;
+
+    private void refill(long now, Limit limit) {
+      if (Double.isNaN(tokens)) {
+        tokens = limit.burst();
+      } else {
+        var elapsed = (now - refilledAt) / 1e9;
+        tokens = Math.min(limit.burst(), tokens + elapsed * limit.ratePerSecond());
+      }
+      refilledAt = now;
+    }
+
+    /**
+     * @return 0 if a token was taken, otherwise the nanos until one is available
+     */
+    synchronized long tryTake(long now, Limit limit) {
+      refill(now, limit);
+      if (tokens >= 1) {
+        tokens -= 1;
+        return 0;
+      } else {
+        return (long) Math.ceil((1 - tokens) / limit.ratePerSecond() * 1e9);
+      }
+    }
+
+    synchronized void giveBack(Limit limit) {
+      tokens = Math.min(limit.burst(), tokens + 1);
+    }
+
+    synchronized boolean isFull(long now, Limit limit) {
+      refill(now, limit);
+      return tokens >= limit.burst();
+    }
+  }
+
+  private record Key(String kind, String id, Lane lane) {
+  }
+
+  final private ConcurrentHashMap<Key, Bucket> buckets = new ConcurrentHashMap<>();
+  final private LongSupplier nanoClock;
+  final private ScheduledExecutorService evictor;
+  final private long refreshNanos;
+  final private AtomicBoolean reading = new AtomicBoolean();
+  private volatile Limits limits = Limits.defaults();
+  private volatile long limitsReadAt;
+
+  @Autowired
+  public AdmissionControl(@Value("${admission.refresh-seconds:10}") long refreshSeconds) {
+    this.nanoClock = System::nanoTime;
+    this.refreshNanos = Duration.ofSeconds(refreshSeconds).toNanos();
+    this.limitsReadAt = nanoClock.getAsLong() - refreshNanos;
+    this.evictor = Executors.newSingleThreadScheduledExecutor(task -> {
+      var thread = new Thread(task, "admission-eviction");
+      thread.setDaemon(true);
+      return thread;
+    });
+    var interval = EVICTION_INTERVAL.toMillis();
+    evictor.scheduleWithFixedDelay(this::evictIdle, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  AdmissionControl(LongSupplier nanoClock) {
+    this(nanoClock, Duration.ofSeconds(10));
+  }
+
+  AdmissionControl(LongSupplier nanoClock, Duration refresh) {
+    this.nanoClock = nanoClock;
+    this.evictor = null;
+    this.refreshNanos = refresh.toNanos();
+    this.limitsReadAt = nanoClock.getAsLong() - refreshNanos;
+  }
+
+  /**
+   * The caller id of a request without one, shared by the sources that hash to the same bucket.
+   *
+   * @param source the client address, null when unknown
+   */
+  public static String anonymousCaller(String source) {
+    if (source == null || source.isBlank()) return "anonymous";
+    // X-Forwarded-For lists the client first, then the proxies
+    var client = source.split(",", 2)[0].trim();
+    return "anonymous-" + Math.floorMod(client.hashCode(), ANONYMOUS_CALLERS);
+  }
+
+  public Limits limits() {
+    return limits;
+  }
+
+  public void updateLimits(Limits updated) {
+    this.limits = updated;
+    this.limitsReadAt = nanoClock.getAsLong();
+  }
+
+  /**
+   * Reads the stored limits in the background when the ones in use are due for a refresh.
+   * Requests don't wait for it, until the first read they are admitted with the
+   * {@link Limits#defaults()}.
+   */
+  public void refresh(ComponentClient componentClient) {
+    refresh(() ->
+      componentClient
+        .forValueEntity(AdmissionLimits.ID)
+        .call(AdmissionLimits::getLimits)
+        .execute());
+  }
+
+  void refresh(Supplier<CompletionStage<Limits>> read) {
+    if (nanoClock.getAsLong() - limitsReadAt < refreshNanos || !reading.compareAndSet(false, true)) return;
+
+    CompletionStage<Limits> stored;
+    try {
+      stored = read.get();
+    } catch (RuntimeException e) {
+      stored = CompletableFuture.failedFuture(e);
+    }
+    stored.whenComplete((limits, error) -> {
+      reading.set(false);
+      if (error != null)
+        logger.warn("Could not read the admission limits", error);
+      else
+        updateLimits(limits);
+    });
+  }
+
+  /**
+   * Admits a request on the given wallets, with the caller and lane of its
+   * {@link WalletServiceAction} headers.
+   */
+  public Decision admit(Metadata metadata, java.util.List<String> walletIds) {
+    var callerId = metadata.get(WalletServiceAction.CALLER_HEADER)
+      .orElseGet(() -> anonymousCaller(metadata.get(WalletServiceAction.FORWARDED_FOR_HEADER).orElse(null)));
+    var lane = Lane.of(metadata.get(WalletServiceAction.PRIORITY_HEADER).orElse(null));
+    var decision = admit(walletIds, callerId, lane);
+    if (!decision.admitted())
+      logger.debug("Rejecting {} request from '{}' on wallets {}", lane, callerId, walletIds);
+    return decision;
+  }
+
+  public Decision admit(String walletId, String callerId, Lane lane) {
+    return admit(java.util.List.of(walletId), callerId, lane);
+  }
+
+  /**
+   * Admits one request on all the given wallets, charging the caller once. Either every token is
+   * taken or, on a rejection, the ones already taken are given back.
+   */
+  public Decision admit(java.util.List<String> walletIds, String callerId, Lane lane) {
+    var now = nanoClock.getAsLong();
+    var laneLimits = limits.of(lane);
+
+    var caller = buckets.computeIfAbsent(new Key("caller", callerId, lane), k -> new Bucket());
+    var callerWait = caller.tryTake(now, laneLimits.perCaller());
+    if (callerWait > 0) return new Decision(false, Duration.ofNanos(callerWait));
+
+    var taken = new ArrayList<Bucket>(walletIds.size());
+    for (var walletId : walletIds.stream().distinct().toList()) {
+      var wallet = buckets.computeIfAbsent(new Key("wallet", walletId, lane), k -> new Bucket());
+      var walletWait = wallet.tryTake(now, laneLimits.perWallet());
+      if (walletWait > 0) {
+        taken.forEach(bucket -> bucket.giveBack(laneLimits.perWallet()));
+        caller.giveBack(laneLimits.perCaller());
+        return new Decision(false, Duration.ofNanos(walletWait));
+      }
+      taken.add(wallet);
+    }
+    return Decision.ADMITTED;
+  }
+
+  int buckets() {
+    return buckets.size();
+  }
+
+  void evictIdle() {
+    var now = nanoClock.getAsLong();
+    var current = limits;
+    buckets.entrySet().removeIf(entry -> {
+      var laneLimits = current.of(entry.getKey().lane());
+      var limit = entry.getKey().kind().equals("caller") ? laneLimits.perCaller() : laneLimits.perWallet();
+      return entry.getValue().isFull(now, limit);
+    });
+  }
+
+  @Override
+  public void close() {
+    if (evictor != null) evictor.shutdownNow();
+  }
+}
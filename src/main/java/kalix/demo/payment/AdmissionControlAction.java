@@ -0,0 +1,56 @@
+package kalix.demo.payment;
+
+import kalix.javasdk.StatusCode;
+import kalix.javasdk.action.Action;
+import kalix.javasdk.client.ComponentClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * Reads and changes the admission limits at runtime. Changed limits are stored in the
+ * {@link AdmissionLimits} and apply right away on this service instance, on the others once they
+ * refresh theirs.
+ */
+@RequestMapping("/admission/limits")
+public class AdmissionControlAction extends Action {
+
+  static final String INVALID_LIMITS = "Limits require a positive rate and a burst of at least 1 for each lane";
+
+  final private Logger logger = LoggerFactory.getLogger(getClass());
+  final private ComponentClient componentClient;
+  final private AdmissionControl admissionControl;
+
+  public AdmissionControlAction(@Autowired ComponentClient componentClient, @Autowired AdmissionControl admissionControl) {
+    this.componentClient = componentClient;
+    this.admissionControl = admissionControl;
+  }
+
+  @GetMapping
+  public Effect<AdmissionControl.Limits> get() {
+    return effects().forward(
+      componentClient
+        .forValueEntity(AdmissionLimits.ID)
+        .call(AdmissionLimits::getLimits));
+  }
+
+  @PutMapping
+  public Effect<AdmissionControl.Limits> update(@RequestBody AdmissionControl.Limits limits) {
+    if (!limits.isValid())
+      return effects().error(INVALID_LIMITS, StatusCode.ErrorCode.BAD_REQUEST);
+
+    logger.info("Updating admission limits to {}", limits);
+    var updated =
+      componentClient
+        .forValueEntity(AdmissionLimits.ID)
+        .call(AdmissionLimits::update)
+        .params(limits)
+        .execute()
+        .thenApply(stored -> {
+          admissionControl.updateLimits(stored);
+          return stored;
+        });
+    return effects().asyncReply(updated);
+  }
+}
@@ -0,0 +1,40 @@
+package kalix.demo.payment;
+
+import kalix.javasdk.StatusCode;
+import kalix.javasdk.annotations.Id;
+import kalix.javasdk.annotations.TypeId;
+import kalix.javasdk.valueentity.ValueEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+
+/**
+ * The stored admission limits, a single entity ({@link #ID}) that every {@link AdmissionControl}
+ * reads its limits from, so that they outlive restarts and apply to all service instances.
+ */
+@Id("id")
+@TypeId("admission-limits")
+@RequestMapping("/admission-limits-entities/{id}")
+public class AdmissionLimits extends ValueEntity<AdmissionControl.Limits> {
+
+  static final String ID = "current";
+
+  @Override
+  public AdmissionControl.Limits emptyState() {
+    return AdmissionControl.Limits.defaults();
+  }
+
+  @GetMapping
+  public Effect<AdmissionControl.Limits> getLimits() {
+    return effects().reply(currentState());
+  }
+
+  @PutMapping
+  public Effect<AdmissionControl.Limits> update(@RequestBody AdmissionControl.Limits limits) {
+    if (!limits.isValid())
+      return effects().error(AdmissionControlAction.INVALID_LIMITS, StatusCode.ErrorCode.BAD_REQUEST);
+    else
+      return effects().updateState(limits).thenReply(limits);
+  }
+}
@@ -0,0 +1,234 @@
+package kalix.demo.payment;
+
+import kalix.javasdk.client.ComponentClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+
+/**
+ * Fees charged on transfers, paid by the sender on top of the amount and deposited in the fee
+ * wallet ({@code fees.wallet-id}) within the same transaction.
+ * <p>
+ * A rule applies to the transfers in its currency, or in any currency when it names none, from
+ * its minimum amount up to the minimum amount of the next rule. Rules are compiled into a table
+ * per currency, sorted by minimum amount, so that finding the fee of a transfer is a map lookup
+ * and a binary search; rules for a currency take precedence over the ones for any currency.
+ * Changed rules are compiled aside and swapped in at once, so a transfer never sees half of
+ * them.
+ * <p>
+ * Rules are stored in the {@link FeeSchedule}. Each service instance reads them on its first
+ * transfer and again once they are {@code fees.refresh-seconds} old, meanwhile transfers keep
+ * using the rules read last. Until the first read, fees can't be told and transfers are refused
+ * rather than made for free. Reading rules that charge fees creates the fee wallet, once per
+ * instance, when it doesn't exist yet.
+ */
+@Component
+public class FeeEngine {
+
+  private static final Logger logger = LoggerFactory.getLogger(FeeEngine.class);
+
+  /**
+   * @param currency   null for any currency
+   * @param minAmount  0 when not set
+   * @param fixed      fixed part of the fee, 0 when not set
+   * @param percentage part of the amount, in percent, 0 when not set
+   * @param maxFee     cap of the fee, not capped when not set
+   */
+  public record FeeRule(String currency, Double minAmount, Double fixed, Double percentage, Double maxFee) {
+
+    double feeFor(double amount) {
+      var fee = (fixed == null ? 0.0 : fixed) + amount * (percentage == null ? 0.0 : percentage) / 100;
+      if (maxFee != null) fee = Math.min(fee, maxFee);
+      // amounts are kept in cents
+      return Math.round(fee * 100) / 100.0;
+    }
+
+    double lowerBound() {
+      return minAmount == null ? 0.0 : minAmount;
+    }
+  }
+
+  public record FeeRules(List<FeeRule> rules) {
+
+    static final FeeRules NONE = new FeeRules(List.of());
+
+    boolean isValid() {
+      return rules != null && rules.stream().allMatch(FeeRules::isValid);
+    }
+
+    private static boolean isValid(FeeRule rule) {
+      return rule != null
+        && (rule.minAmount() == null || rule.minAmount() >= 0)
+        && (rule.fixed() == null || rule.fixed() >= 0)
+        && (rule.percentage() == null || rule.percentage() >= 0)
+        && (rule.maxFee() == null || rule.maxFee() >= 0);
+    }
+  }
+
+  /**
+   * The fee rules haven't been read yet.
+   */
+  public static class NotLoaded extends RuntimeException {
+    NotLoaded() {
+      super("Fee rules not loaded yet", null, false, false);
+    }
+  }
+
+  /**
+   * What a transfer pays on top of its amount, and to which wallet.
+   */
+  public record Fee(String walletId, Double amount) {
+  }
+
+  /**
+   * The rules of one currency, by ascending minimum amount.
+   */
+  private record Tiers(double[] lowerBounds, FeeRule[] rules) {
+
+    static Tiers of(List<FeeRule> rules) {
+      var sorted = rules.stream().sorted(Comparator.comparingDouble(FeeRule::lowerBound)).toArray(FeeRule[]::new);
+      return new Tiers(Arrays.stream(sorted).mapToDouble(FeeRule::lowerBound).toArray(), sorted);
+    }
+
+    FeeRule ruleFor(double amount) {
+      var index = Arrays.binarySearch(lowerBounds, amount);
+      // not found: the rule of the tier below the insertion point
+      var tier = index >= 0 ? index : -index - 2;
+      return tier < 0 ? null : rules[tier];
+    }
+  }
+
+  /**
+   * @param loadedAt millis of the clock when the rules were read
+   */
+  private record Table(FeeRules source, Map<String, Tiers> byCurrency, Tiers anyCurrency, long loadedAt) {
+
+    static Table compile(FeeRules rules, long loadedAt) {
+      var byCurrency = new HashMap<String, List<FeeRule>>();
+      var anyCurrency = new ArrayList<FeeRule>();
+      for (var rule : rules.rules()) {
+        if (rule.currency() == null) anyCurrency.add(rule);
+        else byCurrency.computeIfAbsent(rule.currency(), c -> new ArrayList<>()).add(rule);
+      }
+      var tables = new HashMap<String, Tiers>();
+      byCurrency.forEach((currency, currencyRules) -> tables.put(currency, Tiers.of(currencyRules)));
+      return new Table(rules, Map.copyOf(tables), Tiers.of(anyCurrency), loadedAt);
+    }
+
+    FeeRule ruleFor(String currency, double amount) {
+      var tiers = byCurrency.get(currency);
+      var rule = tiers == null ? null : tiers.ruleFor(amount);
+      return rule != null ? rule : anyCurrency.ruleFor(amount);
+    }
+  }
+
+  final private String feeWalletId;
+  final private long refreshMillis;
+  final private LongSupplier clock;
+  final private AtomicReference<CompletableFuture<Table>> loading = new AtomicReference<>();
+  private volatile Table table;
+  private volatile boolean feeWalletCreated;
+
+  @Autowired
+  public FeeEngine(@Value("${fees.wallet-id:fees}") String feeWalletId,
+                   @Value("${fees.refresh-seconds:30}") long refreshSeconds) {
+    this(feeWalletId, Duration.ofSeconds(refreshSeconds), System::currentTimeMillis);
+  }
+
+  FeeEngine(String feeWalletId, Duration refresh, LongSupplier clock) {
+    this.feeWalletId = feeWalletId;
+    this.refreshMillis = refresh.toMillis();
+    this.clock = clock;
+  }
+
+  /**
+   * Completes once rules were read, right away when some were already, reading them again in
+   * the background when they are due for a refresh.
+   */
+  public CompletionStage<Void> ready(ComponentClient componentClient) {
+    var current = table;
+    if (current != null && clock.getAsLong() - current.loadedAt() < refreshMillis)
+      return CompletableFuture.completedFuture(null);
+
+    var load = load(componentClient);
+    return current != null ? CompletableFuture.completedFuture(null) : load.thenApply(__ -> null);
+  }
+
+  private CompletableFuture<Table> load(ComponentClient componentClient) {
+    var started = new CompletableFuture<Table>();
+    if (!loading.compareAndSet(null, started)) {
+      var inFlight = loading.get();
+      return inFlight != null ? inFlight : load(componentClient);
+    }
+
+    componentClient
+      .forValueEntity(FeeSchedule.ID)
+      .call(FeeSchedule::getRules)
+      .execute()
+      .thenCompose(rules -> rules.rules().isEmpty() || feeWalletCreated
+        ? CompletableFuture.completedFuture(rules)
+        : createFeeWallet(componentClient).thenApply(__ -> rules))
+      .whenComplete((rules, error) -> {
+        loading.set(null);
+        if (error != null) {
+          logger.warn("Could not read the fee rules", error);
+          started.completeExceptionally(error);
+        } else {
+          updateRules(rules);
+          started.complete(table);
+        }
+      });
+    return started;
+  }
+
+  /**
+   * Creates the fee wallet, a wallet that exists already counts as created.
+   */
+  public CompletionStage<Void> createFeeWallet(ComponentClient componentClient) {
+    return componentClient
+      .forEventSourcedEntity(feeWalletId)
+      .call(Wallet::ensureCreated)
+      .execute()
+      .thenAccept(__ -> feeWalletCreated = true);
+  }
+
+  /**
+   * @return the rules read last, none before the first read
+   */
+  public FeeRules rules() {
+    var current = table;
+    return current == null ? FeeRules.NONE : current.source();
+  }
+
+  public void updateRules(FeeRules updated) {
+    this.table = Table.compile(updated, clock.getAsLong());
+  }
+
+  /**
+   * @return null when the transfer is free, which includes transfers from or to the fee wallet
+   * @throws NotLoaded before the rules were first read, see {@link #ready}
+   */
+  public Fee feeFor(Transfer transfer) {
+    if (feeWalletId.equals(transfer.from()) || feeWalletId.equals(transfer.to())) return null;
+
+    var table = this.table;
+    if (table == null) throw new NotLoaded();
+    var rule = table.ruleFor(transfer.currency(), transfer.amount());
+    var fee = rule == null ? 0.0 : rule.feeFor(transfer.amount());
+    return fee > 0 ? new Fee(feeWalletId, fee) : null;
+  }
+}
@@ -0,0 +1,56 @@
+package kalix.demo.payment;
+
+import kalix.javasdk.StatusCode;
+import kalix.javasdk.action.Action;
+import kalix.javasdk.client.ComponentClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * Reads and changes the transfer fee rules at runtime. Changed rules are stored in the
+ * {@link FeeSchedule} and apply right away on this service instance, on the others once they
+ * refresh theirs. The fee wallet is created first, when it doesn't exist yet.
+ */
+@RequestMapping("/fees/rules")
+public class FeeRulesAction extends Action {
+
+  final private Logger logger = LoggerFactory.getLogger(getClass());
+  final private ComponentClient componentClient;
+  final private FeeEngine feeEngine;
+
+  public FeeRulesAction(@Autowired ComponentClient componentClient, @Autowired FeeEngine feeEngine) {
+    this.componentClient = componentClient;
+    this.feeEngine = feeEngine;
+  }
+
+  @GetMapping
+  public Effect<FeeEngine.FeeRules> get() {
+    return effects().forward(
+      componentClient
+        .forValueEntity(FeeSchedule.ID)
+        .call(FeeSchedule::getRules));
+  }
+
+  @PutMapping
+  public Effect<FeeEngine.FeeRules> update(@RequestBody FeeEngine.FeeRules rules) {
+    if (!rules.isValid())
+      return effects().error("Fee rules must not be negative", StatusCode.ErrorCode.BAD_REQUEST);
+
+    logger.info("Updating fee rules to {}", rules);
+    var updated =
+      feeEngine.createFeeWallet(componentClient)
+        .thenCompose(__ ->
+          componentClient
+            .forValueEntity(FeeSchedule.ID)
+            .call(FeeSchedule::update)
+            .params(rules)
+            .execute())
+        .thenApply(stored -> {
+          feeEngine.updateRules(stored);
+          return stored;
+        });
+    return effects().asyncReply(updated);
+  }
+}
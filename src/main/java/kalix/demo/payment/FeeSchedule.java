@@ -0,0 +1,40 @@
+package kalix.demo.payment;
+
+import kalix.javasdk.StatusCode;
+import kalix.javasdk.annotations.Id;
+import kalix.javasdk.annotations.TypeId;
+import kalix.javasdk.valueentity.ValueEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+
+/**
+ * The stored transfer fee rules, a single entity ({@link #ID}) that every {@link FeeEngine}
+ * reads its rules from, so that they outlive restarts and apply to all service instances.
+ */
+@Id("id")
+@TypeId("fee-schedule")
+@RequestMapping("/fee-schedule-entities/{id}")
+public class FeeSchedule extends ValueEntity<FeeEngine.FeeRules> {
+
+  static final String ID = "current";
+
+  @Override
+  public FeeEngine.FeeRules emptyState() {
+    return FeeEngine.FeeRules.NONE;
+  }
+
+  @GetMapping
+  public Effect<FeeEngine.FeeRules> getRules() {
+    return effects().reply(currentState());
+  }
+
+  @PutMapping
+  public Effect<FeeEngine.FeeRules> update(@RequestBody FeeEngine.FeeRules rules) {
+    if (!rules.isValid())
+      return effects().error("Fee rules must not be negative", StatusCode.ErrorCode.BAD_REQUEST);
+    else
+      return effects().updateState(rules).thenReply(rules);
+  }
+}
@@ -0,0 +1,142 @@
+package kalix.demo.payment;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exchange rates for cross-currency transfers, read from the file {@code fx.rates-file} and
+ * reloaded every {@code fx.refresh-seconds} when it changed, or fixed stub rates when no file is
+ * configured.
+ * <p>
+ * The file has one {@code FROM/TO=rate} line per pair, the inverse pairs are derived. Each load
+ * builds a new immutable table which replaces the current one in a single volatile write, so
+ * quotes never lock nor see a half loaded table, and a quote is a hash map lookup. A configured
+ * file that is missing or doesn't parse at startup fails the startup, later on it leaves the
+ * current table in place.
+ */
+@Component
+public class FxRates implements AutoCloseable {
+
+  private static final Logger logger = LoggerFactory.getLogger(FxRates.class);
+
+  static final String STUB_RATES = """
+    EUR/USD=1.08
+    EUR/GBP=0.86
+    EUR/CHF=0.95
+    """;
+
+  /**
+   * @param asOf when the table the rate comes from was loaded
+   */
+  public record Quote(String from, String to, Double rate, Instant asOf) {
+  }
+
+  private record Table(Map<String, Quote> quotes, FileTime modified) {
+
+    static Table parse(BufferedReader reader, FileTime modified) throws IOException {
+      var asOf = Instant.now();
+      var quotes = new HashMap<String, Quote>();
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.strip();
+        if (line.isEmpty() || line.startsWith("#")) continue;
+
+        var pair = line.split("[/=]");
+        if (pair.length != 3) throw new IOException("Not a FROM/TO=rate line: " + line);
+        var from = pair[0].strip();
+        var to = pair[1].strip();
+        var rate = Double.parseDouble(pair[2].strip());
+        if (rate <= 0) throw new IOException("Rates must be positive: " + line);
+
+        quotes.put(key(from, to), new Quote(from, to, rate, asOf));
+        quotes.putIfAbsent(key(to, from), new Quote(to, from, 1 / rate, asOf));
+      }
+      return new Table(Map.copyOf(quotes), modified);
+    }
+  }
+
+  private static String key(String from, String to) {
+    return from + "/" + to;
+  }
+
+  final private Path ratesFile;
+  final private ScheduledExecutorService refresher;
+  private volatile Table table;
+
+  public FxRates(@Value("${fx.rates-file:}") String ratesFile,
+                 @Value("${fx.refresh-seconds:60}") long refreshSeconds) {
+    if (ratesFile.isBlank()) {
+      this.ratesFile = null;
+      this.refresher = null;
+      this.table = stub();
+      logger.info("Using stub exchange rates");
+    } else {
+      this.ratesFile = Path.of(ratesFile);
+      try {
+        this.table = load();
+      } catch (IOException | RuntimeException e) {
+        throw new IllegalStateException("Could not load the exchange rates from " + ratesFile, e);
+      }
+      logger.info("Loaded {} exchange rates from {}", table.quotes().size(), ratesFile);
+      this.refresher = Executors.newSingleThreadScheduledExecutor(task -> {
+        var thread = new Thread(task, "fx-rates-refresh");
+        thread.setDaemon(true);
+        return thread;
+      });
+      refresher.scheduleWithFixedDelay(this::refresh, refreshSeconds, refreshSeconds, TimeUnit.SECONDS);
+    }
+  }
+
+  private static Table stub() {
+    try {
+      return Table.parse(new BufferedReader(new StringReader(STUB_RATES)), null);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * @return null when there is no rate between the two currencies
+   */
+  public Quote quote(String from, String to) {
+    return table.quotes().get(key(from, to));
+  }
+
+  private Table load() throws IOException {
+    var modified = Files.getLastModifiedTime(ratesFile);
+    try (var reader = Files.newBufferedReader(ratesFile)) {
+      return Table.parse(reader, modified);
+    }
+  }
+
+  void refresh() {
+    try {
+      if (Files.getLastModifiedTime(ratesFile).equals(table.modified())) return;
+
+      table = load();
+      logger.info("Loaded {} exchange rates from {}", table.quotes().size(), ratesFile);
+    } catch (IOException | RuntimeException e) {
+      logger.warn("Exchange rates not reloaded from {}, keeping the current ones", ratesFile, e);
+    }
+  }
+
+  @Override
+  public void close() {
+    if (refresher != null) refresher.shutdownNow();
+  }
+}
@@ -1,4 +1,33 @@
 package kalix.demo.payment;
 
-public record Transfer(Double amount, String from, String to) {
+import kalix.demo.transactions.TransactionMediator;
+
+/**
+ * @param protocol   optional, {@code PRESUMED_COMMIT} saves the completion round trip to the wallets
+ * @param toCurrency optional, the currency the recipient gets, the amount is converted at the
+ *                   current {@link FxRates} rate when it isn't the currency of the transfer
+ */
+public record Transfer(Double amount, String from, String to, String currency, TransactionMediator.Protocol protocol,
+                       String toCurrency) {
+  public Transfer {
+    currency = Wallet.currencyOrDefault(currency);
+    protocol = protocol == null ? TransactionMediator.Protocol.STANDARD : protocol;
+    toCurrency = toCurrency == null ? currency : toCurrency;
+  }
+
+  public Transfer(Double amount, String from, String to, String currency, TransactionMediator.Protocol protocol) {
+    this(amount, from, to, currency, protocol, null);
+  }
+
+  public Transfer(Double amount, String from, String to, String currency) {
+    this(amount, from, to, currency, TransactionMediator.Protocol.STANDARD);
+  }
+
+  public Transfer(Double amount, String from, String to) {
+    this(amount, from, to, Wallet.DEFAULT_CURRENCY);
+  }
+
+  public boolean isCrossCurrency() {
+    return !currency.equals(toCurrency);
+  }
 }
@@ -0,0 +1,220 @@
+package kalix.demo.payment;
+
+import kalix.demo.transactions.CircuitBreaker;
+import kalix.javasdk.DeferredCallResponseException;
+import kalix.javasdk.StatusCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Retry control for {@link TransferWorkflow} steps.
+ * <p>
+ * The workflow runtime retries a failed step right away, so a failed call is only reported after an
+ * exponential backoff with full jitter, which spreads the retries of workflows failing together.
+ * Retries also draw from a budget shared by all transfers (each first attempt earns a fraction of a
+ * retry), and every wallet has a circuit breaker. When the breaker of the target wallet is open, or
+ * the budget is spent, the step is rejected instead of retried so the workflow fails over to
+ * cancel without waiting for its retries to run out.
+ * <p>
+ * Only transport failures and server errors count as failures of a wallet. A wallet turning the
+ * command down, like an insufficient balance, answered fine: the step is rejected right away, as
+ * retrying it wouldn't change the answer.
+ * <p>
+ * Budget and breakers are local to this service instance.
+ */
+@Component
+public class TransferRetryPolicy {
+
+  final private static Logger logger = LoggerFactory.getLogger(TransferRetryPolicy.class);
+
+  static final Duration BASE_BACKOFF = Duration.ofMillis(100);
+  static final Duration MAX_BACKOFF = Duration.ofSeconds(2);
+
+  // retries allowed per first attempt, and the retries that can be saved up
+  static final double RETRY_RATIO = 0.2;
+  static final double MAX_RETRY_TOKENS = 20;
+
+  // retries of a step before TransferWorkflow fails it over, its recover strategies are built from it
+  static final int MAX_RETRIES = 5;
+
+  static final int FAILURE_THRESHOLD = 5;
+
+  private static final EnumSet<StatusCode.ErrorCode> SERVER_ERRORS = EnumSet.of(
+    StatusCode.ErrorCode.INTERNAL_SERVER_ERROR,
+    StatusCode.ErrorCode.SERVICE_UNAVAILABLE,
+    StatusCode.ErrorCode.GATEWAY_TIMEOUT);
+  static final Duration OPEN_DURATION = Duration.ofSeconds(10);
+
+  static final class RetryBudget {
+    private double tokens = MAX_RETRY_TOKENS;
+
+    synchronized void onFirstAttempt() {
+      tokens = Math.min(MAX_RETRY_TOKENS, tokens + RETRY_RATIO);
+    }
+
+    synchronized boolean tryRetry() {
+      if (tokens >= 1) {
+        tokens -= 1;
+        return true;
+      }
+      return false;
+    }
+
+    synchronized double tokens() {
+      return tokens;
+    }
+  }
+
+  final private ConcurrentHashMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+  final private ConcurrentHashMap<String, Integer> attempts = new ConcurrentHashMap<>();
+  final private RetryBudget budget = new RetryBudget();
+  final private LongSupplier nanoClock;
+  final private DoubleSupplier random;
+  final private Function<Duration, Executor> delayed;
+
+  public TransferRetryPolicy() {
+    this(
+      System::nanoTime,
+      () -> ThreadLocalRandom.current().nextDouble(),
+      delay -> CompletableFuture.delayedExecutor(delay.toNanos(), TimeUnit.NANOSECONDS));
+  }
+
+  TransferRetryPolicy(LongSupplier nanoClock, DoubleSupplier random, Function<Duration, Executor> delayed) {
+    this.nanoClock = nanoClock;
+    this.random = random;
+    this.delayed = delayed;
+  }
+
+  /**
+   * Calls a wallet for a workflow step.
+   *
+   * @param stepKey    identifies the step of one workflow, attempts are counted per key
+   * @param onRejected result to complete with when the step should fail over instead of being retried
+   */
+  public <T> CompletionStage<T> callWallet(String stepKey, String walletId,
+                                           Supplier<CompletionStage<T>> call,
+                                           Function<String, T> onRejected) {
+    var breaker = breakers.computeIfAbsent(walletId, id -> new CircuitBreaker(FAILURE_THRESHOLD, OPEN_DURATION));
+    if (!breaker.allows(nanoClock.getAsLong())) {
+      attempts.remove(stepKey);
+      return CompletableFuture.completedFuture(onRejected.apply("circuit open for wallet '" + walletId + "'"));
+    }
+
+    return call(stepKey, call)
+      .handle((result, error) -> {
+        var retrying = false;
+        try {
+          if (error == null) {
+            breaker.onSuccess();
+            // healthy wallets don't need to keep a breaker around
+            breakers.remove(walletId, breaker);
+            return CompletableFuture.completedFuture(result);
+          }
+
+          var rejection = rejection(error);
+          if (rejection != null) {
+            breaker.onSuccess();
+            breakers.remove(walletId, breaker);
+            return CompletableFuture.completedFuture(onRejected.apply(rejection));
+          }
+
+          breaker.onFailure(nanoClock.getAsLong());
+          if (breaker.state() == CircuitBreaker.State.OPEN) {
+            logger.warn("Circuit opened for wallet '{}', failing over '{}'", walletId, stepKey);
+            return CompletableFuture.completedFuture(onRejected.apply("circuit open for wallet '" + walletId + "'"));
+          } else if (!budget.tryRetry()) {
+            logger.warn("Retry budget exhausted, failing over '{}'", stepKey);
+            return CompletableFuture.completedFuture(onRejected.apply("retry budget exhausted"));
+          } else {
+            retrying = true;
+            return this.<T>failAfterBackoff(stepKey, error);
+          }
+        } finally {
+          if (!retrying) attempts.remove(stepKey);
+        }
+      })
+      .thenCompose(Function.identity());
+  }
+
+  /**
+   * @return the reason a wallet turned the command down, null for transport failures and server errors
+   */
+  static String rejection(Throwable error) {
+    var cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    if (cause instanceof DeferredCallResponseException response && !SERVER_ERRORS.contains(response.errorCode()))
+      return response.description();
+    return null;
+  }
+
+  /**
+   * Backs off before reporting a failure, without budget or breaker. For steps that must not be
+   * rejected, like the cancellation the other steps fail over to. These get {@link #MAX_RETRIES}
+   * retries as well, after which the workflow fails them over to a terminal step.
+   */
+  public <T> CompletionStage<T> callWithBackoff(String stepKey, Supplier<CompletionStage<T>> call) {
+    return call(stepKey, call)
+      .handle((result, error) -> {
+        if (error == null) attempts.remove(stepKey);
+        return error == null ? CompletableFuture.completedFuture(result) : this.<T>failAfterBackoff(stepKey, error);
+      })
+      .thenCompose(Function.identity());
+  }
+
+  private <T> CompletionStage<T> call(String stepKey, Supplier<CompletionStage<T>> call) {
+    if (!attempts.containsKey(stepKey)) budget.onFirstAttempt();
+    try {
+      return call.get();
+    } catch (RuntimeException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
+  private <T> CompletableFuture<T> failAfterBackoff(String stepKey, Throwable error) {
+    var attempt = attempts.merge(stepKey, 1, Integer::sum);
+    // the workflow doesn't call again after its last retry
+    if (attempt > MAX_RETRIES) attempts.remove(stepKey);
+    var backoff = backoff(attempt);
+    logger.info("Step '{}' failed (attempt {}), retrying in {} ms", stepKey, attempt, backoff.toMillis());
+    return CompletableFuture
+      .runAsync(() -> {
+      }, delayed.apply(backoff))
+      .thenCompose(__ -> CompletableFuture.failedFuture(error));
+  }
+
+  /**
+   * Full jitter: uniformly random between zero and the capped exponential backoff.
+   */
+  Duration backoff(int attempt) {
+    var exponential = BASE_BACKOFF.toNanos() * (1L << Math.min(attempt - 1, 20));
+    var capped = Math.min(MAX_BACKOFF.toNanos(), exponential);
+    return Duration.ofNanos((long) (random.getAsDouble() * capped));
+  }
+
+  CircuitBreaker.State breakerState(String walletId) {
+    var breaker = breakers.get(walletId);
+    return breaker == null ? CircuitBreaker.State.CLOSED : breaker.state();
+  }
+
+  double retryTokens() {
+    return budget.tokens();
+  }
+
+  int pendingSteps() {
+    return attempts.size();
+  }
+}
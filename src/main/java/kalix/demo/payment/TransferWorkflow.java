@@ -12,7 +12,12 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
 
 @Id("transferId")
 @TypeId("transfer")
@@ -21,11 +26,20 @@ public class TransferWorkflow extends Workflow<TransferWorkflow.State> {
 
   final private Logger logger = LoggerFactory.getLogger(getClass());
   final private ComponentClient componentClient;
+  final private TransferRetryPolicy retryPolicy;
+  final private FeeEngine feeEngine;
+  final private FxRates fxRates;
   final private String transferId;
 
   public TransferWorkflow(@Autowired ComponentClient componentClient,
+                          @Autowired TransferRetryPolicy retryPolicy,
+                          @Autowired FeeEngine feeEngine,
+                          @Autowired FxRates fxRates,
                           @Autowired WorkflowContext context) {
     this.componentClient = componentClient;
+    this.retryPolicy = retryPolicy;
+    this.feeEngine = feeEngine;
+    this.fxRates = fxRates;
     this.transferId = context.workflowId();
   }
 
@@ -35,34 +49,67 @@ public class TransferWorkflow extends Workflow<TransferWorkflow.State> {
     WITHDRAW_REQUESTED,
     DEPOSIT_REQUESTED,
     CANCELLED,
+    // the cancellation kept failing, the transaction is left for an operator to cancel
+    CANCEL_FAILED,
     COMPLETED
   }
 
-  public record State(Transfer transfer, Status status) {
+  /**
+   * @param fee        decided when the transfer starts, null when it is free
+   * @param conversion quoted when a cross-currency transfer starts, null otherwise
+   */
+  public record State(Transfer transfer, Status status, FeeEngine.Fee fee, Wallet.Conversion conversion) {
     public State complete() {
-      return new State(transfer, Status.COMPLETED);
+      return new State(transfer, Status.COMPLETED, fee, conversion);
     }
 
     public State transactionCreated() {
-      return new State(transfer, Status.TRANSACTION_CREATED);
+      return new State(transfer, Status.TRANSACTION_CREATED, fee, conversion);
     }
 
     public State withdrawRequested() {
-      return new State(transfer, Status.WITHDRAW_REQUESTED);
+      return new State(transfer, Status.WITHDRAW_REQUESTED, fee, conversion);
     }
 
     public State depositRequested() {
-      return new State(transfer, Status.DEPOSIT_REQUESTED);
+      return new State(transfer, Status.DEPOSIT_REQUESTED, fee, conversion);
     }
 
     public State cancelled() {
-      return new State(transfer, Status.CANCELLED);
+      return new State(transfer, Status.CANCELLED, fee, conversion);
+    }
+
+    public State cancelFailed() {
+      return new State(transfer, Status.CANCEL_FAILED, fee, conversion);
+    }
+
+    Double withdrawn() {
+      return fee == null ? transfer.amount() : transfer.amount() + fee.amount();
+    }
+
+    Wallet.Deposit deposit(String transferId) {
+      return conversion == null
+        ? new Wallet.Deposit(transfer.amount(), transferId, transfer.currency())
+        : new Wallet.Deposit(conversion.converted(), transferId, transfer.toCurrency(), conversion);
+    }
+  }
+
+  /**
+   * Result of a wallet step, {@code rejection} is set when the step gave up without retrying.
+   */
+  public record WalletStepResult(Wallet.WalletStatus status, String rejection) {
+    static WalletStepResult rejected(String reason) {
+      return new WalletStepResult(null, reason);
+    }
+
+    boolean wasRejected() {
+      return rejection != null;
     }
   }
 
-  public record WorkflowStatus(Transfer transfer, Status status) {
+  public record WorkflowStatus(Transfer transfer, Status status, FeeEngine.Fee fee, Wallet.Conversion conversion) {
     static WorkflowStatus of(State state) {
-      return new WorkflowStatus(state.transfer, state.status);
+      return new WorkflowStatus(state.transfer, state.status, state.fee, state.conversion);
     }
   }
 
@@ -82,19 +129,33 @@ public class TransferWorkflow extends Workflow<TransferWorkflow.State> {
       return effects().error("transfer already started");
     } else {
 
-      State initialState = new State(transfer, Status.INITIATED);
+      Wallet.Conversion conversion = null;
+      if (transfer.isCrossCurrency()) {
+        var quote = fxRates.quote(transfer.currency(), transfer.toCurrency());
+        if (quote == null)
+          return effects().error("No exchange rate from " + transfer.currency() + " to " + transfer.toCurrency());
+        conversion = Wallet.Conversion.of(quote, transfer.amount());
+      }
+
+      // reads the fee rules when due, a start is turned down until they were first read
+      feeEngine.ready(componentClient);
+      FeeEngine.Fee fee;
+      try {
+        fee = feeEngine.feeFor(transfer);
+      } catch (FeeEngine.NotLoaded e) {
+        return effects().error(e.getMessage(), io.grpc.Status.Code.UNAVAILABLE);
+      }
+      State initialState = new State(transfer, Status.INITIATED, fee, conversion);
+
+      var participants = new ArrayList<>(List.of(
+        TransactionMediator.Participant.of(transfer.from(), Wallet.class),
+        TransactionMediator.Participant.of(transfer.to(), Wallet.class)));
+      if (fee != null) participants.add(TransactionMediator.Participant.of(fee.walletId(), Wallet.class));
 
       return effects()
         .updateState(initialState)
-        .transitionTo(
-          "create-transaction",
-          new TransactionMediator.Create(
-            List.of(
-              TransactionMediator.Participant.of(transfer.from(), Wallet.class),
-              TransactionMediator.Participant.of(transfer.to(), Wallet.class)
-            )
-          )
-        )
+        .transitionTo("create-transaction", new TransactionMediator.Create(participants, transfer.protocol(),
+          fee == null ? null : new TransactionMediator.Fee(fee.walletId(), fee.amount())))
         .thenReply(new Done());
     }
   }
@@ -117,15 +178,17 @@ public class TransferWorkflow extends Workflow<TransferWorkflow.State> {
 
     var createTransaction =
       step("create-transaction")
-        .call(
+        .asyncCall(
           TransactionMediator.Create.class,
-          cmd -> componentClient
-            .forEventSourcedEntity(transferId)
-            .call(TransactionMediator::create)
-            .params(cmd)
+          cmd -> retryPolicy.callWithBackoff(transferId + "/create-transaction", () ->
+            componentClient
+              .forEventSourcedEntity(transferId)
+              .call(TransactionMediator::create)
+              .params(cmd)
+              .execute())
         )
         .andThen(TransactionMediator.TransactionStatus.class, res -> {
-            Wallet.Withdraw withdrawInput = new Wallet.Withdraw(currentState().transfer().amount(), transferId);
+            Wallet.Withdraw withdrawInput = new Wallet.Withdraw(currentState().withdrawn(), transferId, currentState().transfer().currency());
             return effects()
               .updateState(currentState().transactionCreated())
               .transitionTo("withdraw", withdrawInput);
@@ -133,52 +196,108 @@ public class TransferWorkflow extends Workflow<TransferWorkflow.State> {
 
     var withdraw =
       step("withdraw")
-        .call(
+        .asyncCall(
           Wallet.Withdraw.class,
-          cmd -> componentClient
-            .forEventSourcedEntity(currentState().transfer.from())
-            .call(Wallet::withdraw)
-            .params(cmd)
+          cmd -> callWallet("withdraw", currentState().transfer.from(), () ->
+            componentClient
+              .forEventSourcedEntity(currentState().transfer.from())
+              .call(Wallet::withdraw)
+              .params(cmd)
+              .execute())
         )
-        .andThen(Wallet.WalletStatus.class, res -> {
-            Wallet.Deposit depositInput = new Wallet.Deposit(currentState().transfer().amount(), transferId);
+        .andThen(WalletStepResult.class, res -> {
+            if (res.wasRejected()) return failover(res);
             return effects()
               .updateState(currentState().withdrawRequested())
-              .transitionTo("deposit", depositInput);
+              .transitionTo("deposit", currentState().deposit(transferId));
           });
 
     var deposit =
       step("deposit")
-        .call(
+        .asyncCall(
           Wallet.Deposit.class,
-          cmd -> componentClient
-            .forEventSourcedEntity(currentState().transfer.to())
-            .call(Wallet::deposit)
-            .params(cmd)
+          cmd -> callWallet("deposit", currentState().transfer.to(), () ->
+            componentClient
+              .forEventSourcedEntity(currentState().transfer.to())
+              .call(Wallet::deposit)
+              .params(cmd)
+              .execute())
         )
-        .andThen(Wallet.WalletStatus.class, __ ->
-          effects()
-            .updateState(currentState().depositRequested())
-            .end());
+        .andThen(WalletStepResult.class, res -> {
+            if (res.wasRejected()) return failover(res);
+            var fee = currentState().fee();
+            if (fee == null) return effects().updateState(currentState().depositRequested()).end();
+            return effects()
+              .updateState(currentState().depositRequested())
+              .transitionTo("deposit-fee", new Wallet.Deposit(fee.amount(), transferId, currentState().transfer().currency()));
+          });
+
+    var depositFee =
+      step("deposit-fee")
+        .asyncCall(
+          Wallet.Deposit.class,
+          cmd -> callWallet("deposit-fee", currentState().fee().walletId(), () ->
+            componentClient
+              .forEventSourcedEntity(currentState().fee().walletId())
+              .call(Wallet::deposit)
+              .params(cmd)
+              .execute())
+        )
+        .andThen(WalletStepResult.class, res ->
+          res.wasRejected()
+            ? failover(res)
+            : effects().end());
 
     var cancel =
       step("cancel")
-        .call(() -> componentClient
-          .forEventSourcedEntity(transferId)
-          .call(TransactionMediator::cancel)
+        .asyncCall(() -> retryPolicy.callWithBackoff(transferId + "/cancel", () ->
+          componentClient
+            .forEventSourcedEntity(transferId)
+            .call(TransactionMediator::cancel)
+            .execute())
         )
         .andThen(Done.class, res ->
           effects()
             .updateState(currentState().cancelled())
             .end());
 
+    var cancelFailed =
+      step("cancel-failed")
+        .asyncCall(() -> CompletableFuture.completedFuture(new Done()))
+        .andThen(Done.class, res -> {
+          logger.error("Transfer '{}' could not cancel its transaction after {} retries, cancel it with POST /transactions/{}/cancel",
+            transferId, TransferRetryPolicy.MAX_RETRIES, transferId);
+          return effects()
+            .updateState(currentState().cancelFailed())
+            .end();
+        });
+
     return workflow()
       .addStep(createTransaction)
       .addStep(withdraw)
       .addStep(deposit)
-      .addStep(cancel)
+      .addStep(depositFee)
+      // the other steps fail over to cancel, which has to give up for good at some point
+      .addStep(cancel, RecoverStrategy.maxRetries(TransferRetryPolicy.MAX_RETRIES).failoverTo("cancel-failed"))
+      .addStep(cancelFailed)
+      // backoff is capped below the step timeout, so a delayed failure is still reported as one
+      .defaultStepTimeout(Duration.ofSeconds(5))
       .defaultStepRecoverStrategy(
-        RecoverStrategy.maxRetries(5).failoverTo("cancel")
+        RecoverStrategy.maxRetries(TransferRetryPolicy.MAX_RETRIES).failoverTo("cancel")
       );
   }
+
+  private CompletionStage<WalletStepResult> callWallet(String step, String walletId,
+                                                       Supplier<CompletionStage<Wallet.WalletStatus>> call) {
+    return retryPolicy.callWallet(
+      transferId + "/" + step,
+      walletId,
+      () -> call.get().thenApply(status -> new WalletStepResult(status, null)),
+      WalletStepResult::rejected);
+  }
+
+  private Effect.TransitionalEffect<Void> failover(WalletStepResult res) {
+    logger.warn("Transfer '{}' failing over to cancel: {}", transferId, res.rejection());
+    return effects().transitionTo("cancel");
+  }
 }
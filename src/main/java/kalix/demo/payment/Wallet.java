@@ -1,8 +1,13 @@
 package kalix.demo.payment;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import io.vavr.collection.HashMap;
 import io.vavr.collection.Map;
 import io.vavr.collection.List;
+import io.vavr.collection.SortedMap;
+import io.vavr.collection.TreeMap;
+import io.vavr.collection.Vector;
 import kalix.demo.Done;
 import kalix.demo.payment.Wallet.Event.*;
 import kalix.javasdk.StatusCode;
@@ -16,6 +21,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.Duration;
+import java.time.Instant;
+
 
 @TypeId("wallet")
 @Id("walletId")
@@ -32,39 +40,366 @@ public class Wallet extends EventSourcedEntity<Wallet.State, Wallet.Event> {
   }
 
 
-  public record State(Double balance, Double reserved, Map<String, PendingTransaction> pendingTransactions,
-                      List<String> executedTransactions) {
+  /**
+   * Currency of the amounts in commands and events that don't name one,
+   * including all events written before wallets held several currencies.
+   */
+  public static final String DEFAULT_CURRENCY = "EUR";
+
+  static String currencyOrDefault(String currency) {
+    return currency == null ? DEFAULT_CURRENCY : currency;
+  }
+
+  public record Balance(Double available, Double reserved) {
+
+    static final Balance ZERO = new Balance(0.0, 0.0);
+
+    Balance increase(Double amount) {
+      return new Balance(available + amount, reserved);
+    }
+
+    Balance decrease(Double amount) {
+      return new Balance(available - amount, reserved);
+    }
+
+    Balance reserve(Double amount) {
+      return new Balance(available - amount, reserved + amount);
+    }
+
+    Balance unReserve(Double amount) {
+      return new Balance(available + amount, reserved - amount);
+    }
+
+    Balance capture(Double amount) {
+      return new Balance(available, reserved - amount);
+    }
+  }
+
+  /**
+   * Funds authorized for a later capture, reserved until captured, voided or expired.
+   *
+   * @param captureIds the ids of the captures applied to the hold, so that a redelivered capture
+   *                   doesn't take the money again
+   */
+  public record Hold(String authorizationId, Double amount, Double captured, String currency, Instant expiresAt,
+                     java.util.List<String> captureIds) {
+
+    public Hold {
+      // holds authorized before captures had ids
+      captureIds = captureIds == null ? java.util.List.of() : captureIds;
+    }
+
+    public Hold(String authorizationId, Double amount, Double captured, String currency, Instant expiresAt) {
+      this(authorizationId, amount, captured, currency, expiresAt, java.util.List.of());
+    }
+
+    public Double remaining() {
+      return amount - captured;
+    }
+
+    boolean isExpired(Instant now) {
+      return !now.isBefore(expiresAt);
+    }
+
+    Hold capture(Double captureAmount, String captureId) {
+      var ids = captureId == null ? captureIds : List.ofAll(captureIds).append(captureId).asJava();
+      return new Hold(authorizationId, amount, captured + captureAmount, currency, expiresAt, ids);
+    }
+  }
+
+  /**
+   * Counts and totals of the pending transactions in one currency, kept up to date as they are
+   * added and removed so that summaries don't walk all pending transactions.
+   */
+  public record PendingTotals(Integer deposits, Double depositTotal, Integer withdraws, Double withdrawTotal) {
+
+    static final PendingTotals ZERO = new PendingTotals(0, 0.0, 0, 0.0);
+
+    PendingTotals add(PendingTransaction pending) {
+      if (pending.isWithdraw())
+        return new PendingTotals(deposits, depositTotal, withdraws + 1, withdrawTotal + pending.amount());
+      else
+        return new PendingTotals(deposits + 1, depositTotal + pending.amount(), withdraws, withdrawTotal);
+    }
+
+    PendingTotals remove(PendingTransaction pending) {
+      if (pending.isWithdraw())
+        return new PendingTotals(deposits, depositTotal, withdraws - 1, withdrawTotal - pending.amount());
+      else
+        return new PendingTotals(deposits - 1, depositTotal - pending.amount(), withdraws, withdrawTotal);
+    }
+
+    static Map<String, PendingTotals> of(Iterable<PendingTransaction> pendingTransactions) {
+      Map<String, PendingTotals> totals = HashMap.empty();
+      for (var pending : pendingTransactions) {
+        totals = totals.put(pending.currency(), totals.get(pending.currency()).getOrElse(ZERO).add(pending));
+      }
+      return totals;
+    }
+  }
+
+  public static final Duration VELOCITY_WINDOW = Duration.ofHours(1);
+
+  // settled authorizations remembered to recognize redelivered authorize commands, and as many
+  // captures of settled holds to recognize redelivered captures
+  static final int SETTLED_AUTHORIZATIONS = 1000;
+
+  /**
+   * Velocity rule of a wallet for one currency, over the last {@link #VELOCITY_WINDOW}.
+   *
+   * @param maxAmount      most that can be withdrawn, not limited when not set
+   * @param maxWithdrawals most withdrawals that can be made, not limited when not set
+   */
+  public record VelocityLimit(String currency, Double maxAmount, Integer maxWithdrawals) {
+    public VelocityLimit {
+      currency = currencyOrDefault(currency);
+    }
+
+    boolean allows(WithdrawWindow window, long bucket, Double amount) {
+      return (maxWithdrawals == null || window.countAt(bucket) + 1 <= maxWithdrawals)
+        && (maxAmount == null || window.amountAt(bucket) + amount <= maxAmount);
+    }
+  }
+
+  /**
+   * Withdrawals of the last {@link #VELOCITY_WINDOW} in one currency, in a ring of
+   * {@value #BUCKETS} fixed buckets with running totals, so that it keeps the same size whatever
+   * the history of the wallet. Reading the totals at a given time only subtracts the buckets
+   * that slid out of the window since the last withdrawal, at most {@value #BUCKETS}.
+   * <p>
+   * The buckets are a persistent {@link Vector}: recording or releasing a withdrawal replaces the
+   * buckets it touches and shares the others with the previous window, and windows compare by
+   * content. Buckets are boxed, which costs more to read than primitive arrays would, for windows
+   * that aren't copied on every withdrawal.
+   *
+   * @param bucket  number of the latest bucket since the epoch
+   * @param buckets withdrawals per bucket, indexed by bucket number modulo {@value #BUCKETS}
+   * @param amount  total of the amounts
+   * @param count   total of the counts
+   */
+  public record WithdrawWindow(Long bucket, Vector<Bucket> buckets, Double amount, Integer count) {
+
+    static final int BUCKETS = 12;
+    static final long BUCKET_MILLIS = VELOCITY_WINDOW.toMillis() / BUCKETS;
+
+    static final WithdrawWindow EMPTY = new WithdrawWindow(0L, Vector.fill(BUCKETS, Bucket.EMPTY), 0.0, 0);
+
+    public record Bucket(Double amount, Integer count) {
+      static final Bucket EMPTY = new Bucket(0.0, 0);
+
+      Bucket plus(Double withdrawn) {
+        return new Bucket(amount + withdrawn, count + 1);
+      }
+    }
+
+    /**
+     * Also reads the windows snapshotted when the buckets were two arrays, {@code amounts} and
+     * {@code counts}.
+     */
+    @JsonCreator
+    static WithdrawWindow restore(@JsonProperty("bucket") Long bucket,
+                                  @JsonProperty("buckets") Vector<Bucket> buckets,
+                                  @JsonProperty("amounts") double[] legacyAmounts,
+                                  @JsonProperty("counts") int[] legacyCounts,
+                                  @JsonProperty("amount") Double amount,
+                                  @JsonProperty("count") Integer count) {
+      if (buckets == null && legacyAmounts != null && legacyCounts != null)
+        buckets = Vector.range(0, BUCKETS).map(i -> new Bucket(legacyAmounts[i], legacyCounts[i]));
+      return new WithdrawWindow(bucket, buckets, amount, count);
+    }
+
+    static long bucketOf(Instant at) {
+      return Math.floorDiv(at.toEpochMilli(), BUCKET_MILLIS);
+    }
+
+    private static int slot(long bucket) {
+      return (int) Math.floorMod(bucket, (long) BUCKETS);
+    }
+
+    double amountAt(long now) {
+      if (now - bucket >= BUCKETS) return 0.0;
+      double total = amount;
+      for (long b = bucket - BUCKETS + 1; b <= now - BUCKETS; b++) total -= buckets.get(slot(b)).amount();
+      return total;
+    }
+
+    int countAt(long now) {
+      if (now - bucket >= BUCKETS) return 0;
+      int total = count;
+      for (long b = bucket - BUCKETS + 1; b <= now - BUCKETS; b++) total -= buckets.get(slot(b)).count();
+      return total;
+    }
+
+    /**
+     * Withdrawals recorded out of order, older than the window, are left out.
+     */
+    WithdrawWindow record(long at, Double withdrawn) {
+      if (at <= bucket - BUCKETS) return this;
+      if (at - bucket >= BUCKETS) {
+        // everything slid out, starting over also drops the rounding errors of the running total
+        return new WithdrawWindow(at, EMPTY.buckets.update(slot(at), Bucket.EMPTY.plus(withdrawn)), withdrawn, 1);
+      }
+
+      var updated = buckets;
+      var totalAmount = amount;
+      var totalCount = count;
+      for (long b = bucket + 1; b <= at; b++) {
+        var slidOut = updated.get(slot(b));
+        totalAmount -= slidOut.amount();
+        totalCount -= slidOut.count();
+        updated = updated.update(slot(b), Bucket.EMPTY);
+      }
+      updated = updated.update(slot(at), updated.get(slot(at)).plus(withdrawn));
+      return new WithdrawWindow(Math.max(bucket, at), updated, totalAmount + withdrawn, totalCount + 1);
+    }
+
+    /**
+     * Takes back a withdrawal recorded in the bucket {@code at}, left alone once it slid out.
+     */
+    WithdrawWindow release(long at, Double withdrawn) {
+      var recorded = buckets.get(slot(at));
+      if (at <= bucket - BUCKETS || at > bucket || recorded.count() == 0) return this;
+      var released = Math.min(withdrawn, recorded.amount());
+      var updated = buckets.update(slot(at), new Bucket(recorded.amount() - released, recorded.count() - 1));
+      return new WithdrawWindow(bucket, updated, amount - released, count - 1);
+    }
+  }
+
+  /**
+   * Velocity rules of a wallet and the withdrawal windows they are checked against, per
+   * currency. Windows are kept for every currency withdrawn, so that a rule set later applies to
+   * the withdrawals already made in its window.
+   */
+  public record Velocity(Map<String, VelocityLimit> limits, Map<String, WithdrawWindow> windows) {
+
+    static final Velocity NONE = new Velocity(HashMap.empty(), HashMap.empty());
+
+    boolean allows(String currency, Double amount, Instant now) {
+      return limits
+        .get(currency)
+        .map(limit -> limit.allows(windows.get(currency).getOrElse(WithdrawWindow.EMPTY), WithdrawWindow.bucketOf(now), amount))
+        .getOrElse(true);
+    }
+
+    Velocity withLimits(Iterable<VelocityLimit> updated) {
+      return new Velocity(List.ofAll(updated).toMap(VelocityLimit::currency, l -> l), windows);
+    }
+
+    Velocity withdrawn(String currency, Double amount, Instant at) {
+      var window = windows.get(currency).getOrElse(WithdrawWindow.EMPTY);
+      return new Velocity(limits, windows.put(currency, window.record(WithdrawWindow.bucketOf(at), amount)));
+    }
+
+    /**
+     * A cancelled withdrawal no longer counts toward the limits.
+     */
+    Velocity released(String currency, Double amount, Instant at) {
+      return windows.get(currency)
+        .map(window -> new Velocity(limits, windows.put(currency, window.release(WithdrawWindow.bucketOf(at), amount))))
+        .getOrElse(this);
+    }
+  }
+
+  /**
+   * @param pendingTransactions by transaction id, in order, for the pages of {@link PendingPage}
+   */
+  public record State(Map<String, Balance> balances, SortedMap<String, PendingTransaction> pendingTransactions,
+                      List<String> executedTransactions, Map<String, Hold> holds,
+                      Map<String, PendingTotals> pendingTotals, Velocity velocity, List<String> settledAuthorizations,
+                      List<String> settledCaptures) {
+
+    public State {
+      // snapshots taken before wallets had several currencies, holds, pending totals, velocity limits
+      // or settled authorizations and captures
+      balances = balances == null ? HashMap.empty() : balances;
+      pendingTransactions = pendingTransactions == null ? TreeMap.empty() : pendingTransactions;
+      executedTransactions = executedTransactions == null ? List.empty() : executedTransactions;
+      holds = holds == null ? HashMap.empty() : holds;
+      pendingTotals = pendingTotals == null ? PendingTotals.of(pendingTransactions.values()) : pendingTotals;
+      velocity = velocity == null ? Velocity.NONE : velocity;
+      settledAuthorizations = settledAuthorizations == null ? List.empty() : settledAuthorizations;
+      settledCaptures = settledCaptures == null ? List.empty() : settledCaptures;
+    }
+
+    /**
+     * Also reads the snapshots taken when a wallet had a single {@code balance} and
+     * {@code reserved} amount, which become its balance in the default currency.
+     */
+    @JsonCreator
+    static State restore(@JsonProperty("balances") Map<String, Balance> balances,
+                         @JsonProperty("pendingTransactions") SortedMap<String, PendingTransaction> pendingTransactions,
+                         @JsonProperty("executedTransactions") List<String> executedTransactions,
+                         @JsonProperty("holds") Map<String, Hold> holds,
+                         @JsonProperty("pendingTotals") Map<String, PendingTotals> pendingTotals,
+                         @JsonProperty("velocity") Velocity velocity,
+                         @JsonProperty("settledAuthorizations") List<String> settledAuthorizations,
+                         @JsonProperty("settledCaptures") List<String> settledCaptures,
+                         @JsonProperty("balance") Double legacyBalance,
+                         @JsonProperty("reserved") Double legacyReserved) {
+      if (balances == null && (legacyBalance != null || legacyReserved != null)) {
+        var balance = new Balance(legacyBalance == null ? 0.0 : legacyBalance, legacyReserved == null ? 0.0 : legacyReserved);
+        balances = HashMap.of(DEFAULT_CURRENCY, balance);
+      }
+      return new State(balances, pendingTransactions, executedTransactions, holds, pendingTotals, velocity, settledAuthorizations, settledCaptures);
+    }
+
+    static State empty() {
+      return new State(HashMap.empty(), TreeMap.empty(), List.empty(), HashMap.empty(), HashMap.empty(), Velocity.NONE, List.empty(), List.empty());
+    }
+
+    public Balance balanceOf(String currency) {
+      return balances.get(currency).getOrElse(Balance.ZERO);
+    }
 
-    State increaseBalance(Double amount) {
-      return new State(balance + amount, reserved, pendingTransactions, executedTransactions);
+    /**
+     * Available balance in the default currency.
+     */
+    public Double balance() {
+      return balanceOf(DEFAULT_CURRENCY).available();
     }
 
-    State decreaseBalance(Double amount) {
-      return new State(balance - amount, reserved, pendingTransactions, executedTransactions);
+    /**
+     * Reserved funds in the default currency.
+     */
+    public Double reserved() {
+      return balanceOf(DEFAULT_CURRENCY).reserved();
     }
 
-    State reserve(Double amount) {
-      logger.info("Reserving funds '{}'", amount);
-      return new State(balance - amount, reserved + amount, pendingTransactions, executedTransactions);
+    private State updateBalance(String currency, java.util.function.Function<Balance, Balance> update) {
+      return new State(balances.put(currency, update.apply(balanceOf(currency))), pendingTransactions, executedTransactions, holds, pendingTotals, velocity, settledAuthorizations, settledCaptures);
     }
 
-    State unReserve(Double amount) {
-      logger.info("Un-reserving funds '{}'", amount);
-      return new State(balance + amount, reserved - amount, pendingTransactions, executedTransactions);
+    State increaseBalance(String currency, Double amount) {
+      return updateBalance(currency, b -> b.increase(amount));
     }
 
-    State execute(String transactionId) {
+    State decreaseBalance(String currency, Double amount) {
+      return updateBalance(currency, b -> b.decrease(amount));
+    }
+
+    State reserve(String currency, Double amount) {
+      logger.info("Reserving funds '{}' {}", amount, currency);
+      return updateBalance(currency, b -> b.reserve(amount));
+    }
+
+    State unReserve(String currency, Double amount) {
+      logger.info("Un-reserving funds '{}' {}", amount, currency);
+      return updateBalance(currency, b -> b.unReserve(amount));
+    }
+
+    /**
+     * @param completed the transaction completes along with its execution (presumed commit), so
+     *                  it isn't kept as executed waiting for completion
+     */
+    State execute(String transactionId, boolean completed) {
       return pendingTransactions
         .get(transactionId)
         .map(cmd -> {
+          var executed = completed ? removePendingTransaction(cmd) : removePendingTransaction(cmd).addExecuted(cmd);
           if (cmd.isWithdraw()) {
-            return removePendingTransaction(cmd)
-              .addExecuted(cmd)
-              .decreaseBalance(cmd.amount());
+            return executed.decreaseBalance(cmd.currency(), cmd.amount());
           } else {
-            return removePendingTransaction(cmd)
-              .addExecuted(cmd)
-              .increaseBalance(cmd.amount());
+            return executed.increaseBalance(cmd.currency(), cmd.amount());
           }
         })
         .getOrElse(this);
@@ -73,12 +408,17 @@ public class Wallet extends EventSourcedEntity<Wallet.State, Wallet.Event> {
     State cancelTransaction(String transactionId) {
       return pendingTransactions
         .get(transactionId)
-        .map(this::removePendingTransaction)
+        .map(pending -> {
+          var state = removePendingTransaction(pending);
+          return pending.isWithdraw() && pending.initiatedAt() != null
+            ? state.withVelocity(velocity.released(pending.currency(), pending.amount(), pending.initiatedAt()))
+            : state;
+        })
         .getOrElse(this);
     }
 
     State completeTransaction(String transactionId) {
-      return new State(balance, reserved, pendingTransactions, executedTransactions.remove(transactionId));
+      return new State(balances, pendingTransactions, executedTransactions.remove(transactionId), holds, pendingTotals, velocity, settledAuthorizations, settledCaptures);
     }
 
     PendingTransaction getTransaction(String transactionId) {
@@ -94,9 +434,10 @@ public class Wallet extends EventSourcedEntity<Wallet.State, Wallet.Event> {
     }
 
     State addPendingTransaction(PendingTransaction cmd) {
-      var newState = new State(balance, reserved, pendingTransactions.put(cmd.transactionId(), cmd), executedTransactions);
+      var newState = new State(balances, pendingTransactions.put(cmd.transactionId(), cmd), executedTransactions, holds,
+        pendingTotals.put(cmd.currency(), pendingTotalsOf(cmd.currency()).add(cmd)), velocity, settledAuthorizations, settledCaptures);
       if (cmd.isWithdraw()) {
-        return newState.reserve(cmd.amount());
+        return newState.reserve(cmd.currency(), cmd.amount());
       }
       return newState;
     }
@@ -106,9 +447,10 @@ public class Wallet extends EventSourcedEntity<Wallet.State, Wallet.Event> {
       return pendingTransactions
         .get(pending.transactionId())
         .map(cmd -> {
-          var newState = new State(balance, reserved, pendingTransactions.remove(cmd.transactionId()), executedTransactions);
+          var newState = new State(balances, pendingTransactions.remove(cmd.transactionId()), executedTransactions, holds,
+            pendingTotals.put(cmd.currency(), pendingTotalsOf(cmd.currency()).remove(cmd)), velocity, settledAuthorizations, settledCaptures);
           if (cmd.isWithdraw()) {
-            return newState.unReserve(cmd.amount());
+            return newState.unReserve(cmd.currency(), cmd.amount());
           } else {
             return newState;
           }
@@ -117,22 +459,149 @@ public class Wallet extends EventSourcedEntity<Wallet.State, Wallet.Event> {
     }
 
     State addExecuted(PendingTransaction pending) {
-      return new State(balance, reserved, pendingTransactions, executedTransactions.append(pending.transactionId));
+      return new State(balances, pendingTransactions, executedTransactions.append(pending.transactionId), holds, pendingTotals, velocity, settledAuthorizations, settledCaptures);
+    }
+
+    public boolean hasBalance(String currency, Double amount) {
+      return balanceOf(currency).available() - amount >= 0;
     }
 
-    public boolean hasBalance(Double amount) {
-      return balance - amount >= 0;
+    public boolean withinVelocityLimits(String currency, Double amount, Instant now) {
+      return velocity.allows(currency, amount, now);
+    }
+
+    State withVelocity(Velocity updated) {
+      return new State(balances, pendingTransactions, executedTransactions, holds, pendingTotals, updated, settledAuthorizations, settledCaptures);
     }
 
     public boolean isExecutedTransaction(String transactionId) {
       return executedTransactions.contains(transactionId);
     }
+
+    State authorize(Hold hold) {
+      return new State(balances, pendingTransactions, executedTransactions, holds.put(hold.authorizationId(), hold), pendingTotals, velocity, settledAuthorizations, settledCaptures)
+        .reserve(hold.currency(), hold.amount());
+    }
+
+    State capture(String authorizationId, Double amount, String captureId) {
+      return holds
+        .get(authorizationId)
+        .map(hold ->
+          new State(balances, pendingTransactions, executedTransactions, holds.put(authorizationId, hold.capture(amount, captureId)), pendingTotals, velocity, settledAuthorizations, settledCaptures)
+            .updateBalance(hold.currency(), b -> b.capture(amount)))
+        .getOrElse(this);
+    }
+
+    State release(String authorizationId) {
+      return holds
+        .get(authorizationId)
+        .map(hold ->
+          new State(balances, pendingTransactions, executedTransactions, holds.remove(authorizationId), pendingTotals, velocity,
+            settledAuthorizations.prepend(authorizationId).take(SETTLED_AUTHORIZATIONS),
+            settledCaptures.prependAll(List.ofAll(hold.captureIds()).map(id -> captureKey(authorizationId, id))).take(SETTLED_AUTHORIZATIONS))
+            .unReserve(hold.currency(), hold.remaining()))
+        .getOrElse(this);
+    }
+
+    /**
+     * Whether the capture was applied to the hold, open or settled since.
+     */
+    boolean isCaptured(String authorizationId, String captureId) {
+      return holds.get(authorizationId)
+        .map(hold -> hold.captureIds().contains(captureId))
+        .getOrElse(() -> settledCaptures.contains(captureKey(authorizationId, captureId)));
+    }
+
+    private static String captureKey(String authorizationId, String captureId) {
+      return authorizationId + "/" + captureId;
+    }
+
+    /**
+     * Whether the authorization has a hold, or had one that was captured, voided or expired since.
+     * Only the last {@value #SETTLED_AUTHORIZATIONS} settled ones are remembered.
+     */
+    boolean knowsAuthorization(String authorizationId) {
+      return holds.containsKey(authorizationId) || settledAuthorizations.contains(authorizationId);
+    }
+
+    List<Hold> expiredHolds(Instant now) {
+      return holds.values().filter(hold -> hold.isExpired(now)).toList();
+    }
+
+    public Double heldTotal(String currency) {
+      return holds
+        .values()
+        .filter(hold -> hold.currency().equals(currency))
+        .map(Hold::remaining)
+        .sum()
+        .doubleValue();
+    }
+
+    public PendingTotals pendingTotalsOf(String currency) {
+      return pendingTotals.get(currency).getOrElse(PendingTotals.ZERO);
+    }
+
+    /**
+     * Pending totals recomputed from the pending transactions, to check the ones kept incrementally.
+     */
+    public PendingTotals recomputedPendingTotalsOf(String currency) {
+      return PendingTotals.of(pendingTransactions.values()).get(currency).getOrElse(PendingTotals.ZERO);
+    }
+
+    public Double pendingWithdrawTotal(String currency) {
+      return pendingTotalsOf(currency).withdrawTotal();
+    }
   }
 
   public record WalletStatus(Double balance, Double reservedFunds,
-                             java.util.List<PendingTransaction> pendingTransactions) {
+                             java.util.Map<String, Balance> balances,
+                             java.util.List<PendingTransaction> pendingTransactions,
+                             java.util.List<Hold> holds) {
     static WalletStatus of(State state) {
-      return new WalletStatus(state.balance, state.reserved, state.pendingTransactions.values().asJava());
+      return new WalletStatus(state.balance(), state.reserved(), state.balances.toJavaMap(),
+        state.pendingTransactions.values().asJava(), state.holds.values().asJava());
+    }
+  }
+
+  /**
+   * Wallet status without the individual pending transactions, built from the pending totals.
+   */
+  public record WalletSummary(Double balance, Double reservedFunds,
+                              java.util.Map<String, Balance> balances,
+                              java.util.Map<String, PendingTotals> pending,
+                              Integer holds) {
+    static WalletSummary of(State state) {
+      return new WalletSummary(state.balance(), state.reserved(), state.balances.toJavaMap(),
+        state.pendingTotals.toJavaMap(), state.holds.size());
+    }
+  }
+
+  static final int DEFAULT_PAGE_SIZE = 100;
+  static final int MAX_PAGE_SIZE = 500;
+
+  /**
+   * A page of pending transactions, in transaction id order. Each page starts after the last
+   * transaction id of the previous one, so that transactions added or removed between two
+   * requests don't shift the pages. Pending transactions are kept in that order, a page reads
+   * them from the cursor on without sorting or copying the rest.
+   *
+   * @param after     the transaction id the page starts after, null for the first page
+   * @param nextAfter cursor of the next page, null on the last page
+   */
+  public record PendingPage(java.util.List<PendingTransaction> pendingTransactions,
+                            String after,
+                            Integer total,
+                            String nextAfter) {
+    static PendingPage of(State state, String after, int limit) {
+      var page =
+        state.pendingTransactions.iterator()
+          .dropWhile(pending -> after != null && pending._1.compareTo(after) <= 0)
+          .take(limit + 1)
+          .map(pending -> pending._2)
+          .toList();
+      var total = state.pendingTransactions.size();
+      var next = page.size() > limit ? page.get(limit - 1).transactionId() : null;
+      return new PendingPage(page.take(limit).toJavaList(), after, total, next);
     }
   }
 
@@ -141,7 +610,20 @@ public class Wallet extends EventSourcedEntity<Wallet.State, Wallet.Event> {
     WITHDRAW
   }
 
-  record PendingTransaction(Double amount, String transactionId, TransactionType transactionType) {
+  /**
+   * @param initiatedAt when a withdrawal was counted in the velocity window, to take it back if
+   *                    it's cancelled, not set on deposits and withdrawals that weren't counted
+   */
+  record PendingTransaction(Double amount, String transactionId, TransactionType transactionType, String currency,
+                            Instant initiatedAt) {
+    PendingTransaction {
+      currency = currencyOrDefault(currency);
+    }
+
+    PendingTransaction(Double amount, String transactionId, TransactionType transactionType, String currency) {
+      this(amount, transactionId, transactionType, currency, null);
+    }
+
     boolean isWithdraw() {
       return transactionType == TransactionType.WITHDRAW;
     }
@@ -152,41 +634,251 @@ public class Wallet extends EventSourcedEntity<Wallet.State, Wallet.Event> {
   }
 
 
-  sealed interface Event {
+  public sealed interface Event {
 
     @TypeName("created")
     record Created() implements Event {
     }
 
+    /**
+     * @param conversion how the amount was converted from the currency of a cross-currency
+     *                   transfer, not set otherwise
+     */
     @TypeName("deposit-initiated")
-    record DepositInitiated(Double amount, String transactionId, String walletId) implements Event {
+    record DepositInitiated(Double amount, String transactionId, String walletId, String currency,
+                            Conversion conversion) implements Event {
+      public DepositInitiated {
+        currency = currencyOrDefault(currency);
+      }
+
+      public DepositInitiated(Double amount, String transactionId, String walletId, String currency) {
+        this(amount, transactionId, walletId, currency, null);
+      }
     }
 
+    /**
+     * @param initiatedAt when the withdrawal was accepted, for the velocity window, not set on
+     *                    events written before wallets had velocity limits
+     */
     @TypeName("withdraw-initiated")
-    record WithdrawInitiated(Double amount, String transactionId, String walletId) implements Event {
+    record WithdrawInitiated(Double amount, String transactionId, String walletId, String currency,
+                             Instant initiatedAt) implements Event {
+      public WithdrawInitiated {
+        currency = currencyOrDefault(currency);
+      }
+
+      public WithdrawInitiated(Double amount, String transactionId, String walletId, String currency) {
+        this(amount, transactionId, walletId, currency, null);
+      }
     }
 
     @TypeName("balance-increased")
-    record BalanceIncreased(Double amount, String transactionId, String walletId) implements Event {
+    record BalanceIncreased(Double amount, String transactionId, String walletId, String currency,
+                            Boolean completed) implements Event {
+      public BalanceIncreased {
+        currency = currencyOrDefault(currency);
+        completed = completed != null && completed;
+      }
+
+      public BalanceIncreased(Double amount, String transactionId, String walletId, String currency) {
+        this(amount, transactionId, walletId, currency, false);
+      }
     }
 
     @TypeName("balance-decreased")
-    record BalanceDecreased(Double amount, String transactionId, String walletId) implements Event {
+    record BalanceDecreased(Double amount, String transactionId, String walletId, String currency,
+                            Boolean completed) implements Event {
+      public BalanceDecreased {
+        currency = currencyOrDefault(currency);
+        completed = completed != null && completed;
+      }
+
+      public BalanceDecreased(Double amount, String transactionId, String walletId, String currency) {
+        this(amount, transactionId, walletId, currency, false);
+      }
     }
 
+    /**
+     * @param amount   not set, as the currency and withdraw flag, on events written before
+     *                 cancellations carried the transaction
+     * @param withdraw whether the cancelled transaction had reserved its amount
+     */
     @TypeName("transaction-cancelled")
-    record TransactionCancelled(String transactionId) implements Event {
+    record TransactionCancelled(String transactionId, Double amount, String currency, Boolean withdraw) implements Event {
+
+      static TransactionCancelled of(PendingTransaction pending) {
+        return new TransactionCancelled(pending.transactionId(), pending.amount(), pending.currency(), pending.isWithdraw());
+      }
     }
 
     @TypeName("transaction-completed")
     record TransactionCompleted(String transactionId) implements Event {
     }
+
+    @TypeName("hold-authorized")
+    record HoldAuthorized(String authorizationId, String walletId, Double amount, String currency, Instant expiresAt) implements Event {
+    }
+
+    /**
+     * @param captureId not set on captures made without an id
+     */
+    @TypeName("hold-captured")
+    record HoldCaptured(String authorizationId, String walletId, Double amount, String currency, Double capturedTotal,
+                        String captureId) implements Event {
+    }
+
+    @TypeName("hold-released")
+    record HoldReleased(String authorizationId, String walletId, Double amount, String currency, HoldRelease reason) implements Event {
+    }
+
+    /**
+     * Replaces all the velocity limits of the wallet.
+     */
+    @TypeName("velocity-limits-changed")
+    record VelocityLimitsChanged(String walletId, java.util.List<VelocityLimit> limits) implements Event {
+    }
+
+    /**
+     * Baseline written by {@link kalix.demo.replay.WalletCompaction} in place of the events it
+     * folded: the state they led to, without the executed transactions and settled authorizations,
+     * which only serve to recognize redeliveries long over by then. The withdrawal windows are
+     * kept, so that the withdrawals of the last {@link #VELOCITY_WINDOW} still count toward the
+     * limits whatever the horizon of the compaction.
+     *
+     * @param velocityLimits  not set on baselines written before wallets had velocity limits
+     * @param withdrawWindows not set on baselines written before they carried the windows
+     */
+    @TypeName("wallet-compacted")
+    record WalletCompacted(String walletId,
+                           java.util.Map<String, Balance> balances,
+                           java.util.List<PendingTransaction> pendingTransactions,
+                           java.util.List<Hold> holds,
+                           Long compactedEvents,
+                           java.util.List<VelocityLimit> velocityLimits,
+                           java.util.Map<String, WithdrawWindow> withdrawWindows) implements Event {
+
+      public static WalletCompacted of(String walletId, State state, long compactedEvents) {
+        return new WalletCompacted(
+          walletId,
+          state.balances.toJavaMap(),
+          state.pendingTransactions.values().toJavaList(),
+          state.holds.values().toJavaList(),
+          compactedEvents,
+          state.velocity.limits().values().toJavaList(),
+          state.velocity.windows().toJavaMap());
+      }
+    }
+  }
+
+  public enum HoldRelease {
+    CAPTURED,
+    VOIDED,
+    EXPIRED
+  }
+
+  public static final Duration DEFAULT_HOLD_EXPIRY = Duration.ofDays(7);
+
+  /**
+   * @param expiresInSeconds how long the funds stay reserved, {@link #DEFAULT_HOLD_EXPIRY} when not set
+   */
+  public record Authorize(String authorizationId, Double amount, String currency, Long expiresInSeconds) {
+    public Authorize {
+      currency = currencyOrDefault(currency);
+    }
+
+    Duration expiry() {
+      return expiresInSeconds == null ? DEFAULT_HOLD_EXPIRY : Duration.ofSeconds(expiresInSeconds);
+    }
+  }
+
+  /**
+   * What the transaction commands of a wallet do to one transaction, see {@link #applyBatch}.
+   */
+  public enum TransactionOperation {
+    EXECUTE,
+    EXECUTE_AND_COMPLETE,
+    CANCEL,
+    COMPLETE
+  }
+
+  public record TransactionCommand(String transactionId, TransactionOperation operation) {
+  }
+
+  public record ApplyBatch(java.util.List<TransactionCommand> commands) {
+  }
+
+  /**
+   * @param errors one per command of the batch, in the same order, null when it was applied
+   */
+  public record BatchApplied(java.util.List<String> errors) {
+  }
+
+  /**
+   * @param amount       the full remaining amount when not set
+   * @param finalCapture whether the rest of the hold is released after this capture, true when not set
+   * @param captureId    optional, chosen by the client: a capture repeating the id of one already
+   *                     applied to the hold replies with the current status
+   */
+  public record Capture(Double amount, Boolean finalCapture, String captureId) {
+
+    public Capture(Double amount, Boolean finalCapture) {
+      this(amount, finalCapture, null);
+    }
+  }
+
+  /**
+   * Exchange applied to the deposit of a cross-currency transfer.
+   *
+   * @param quotedAt when the rate was loaded
+   */
+  public record Conversion(String sourceCurrency, Double sourceAmount, Double rate, Instant quotedAt) {
+
+    static Conversion of(FxRates.Quote quote, Double sourceAmount) {
+      return new Conversion(quote.from(), sourceAmount, quote.rate(), quote.asOf());
+    }
+
+    /**
+     * The amount deposited, rounded to cents.
+     */
+    public Double converted() {
+      return Math.round(sourceAmount * rate * 100) / 100.0;
+    }
+  }
+
+  /**
+   * @param conversion set on the deposits of cross-currency transfers
+   */
+  public record Deposit(Double amount, String transactionId, String currency, Conversion conversion) {
+    public Deposit {
+      currency = currencyOrDefault(currency);
+    }
+
+    public Deposit(Double amount, String transactionId, String currency) {
+      this(amount, transactionId, currency, null);
+    }
+
+    public Deposit(Double amount, String transactionId) {
+      this(amount, transactionId, DEFAULT_CURRENCY);
+    }
   }
 
-  public record Deposit(Double amount, String transactionId) {
+  public record VelocityLimits(java.util.List<VelocityLimit> limits) {
+
+    static boolean isValid(VelocityLimit limit) {
+      return limit != null
+        && (limit.maxAmount() == null || limit.maxAmount() > 0)
+        && (limit.maxWithdrawals() == null || limit.maxWithdrawals() > 0);
+    }
   }
 
-  public record Withdraw(Double amount, String transactionId) {
+  public record Withdraw(Double amount, String transactionId, String currency) {
+    public Withdraw {
+      currency = currencyOrDefault(currency);
+    }
+
+    public Withdraw(Double amount, String transactionId) {
+      this(amount, transactionId, DEFAULT_CURRENCY);
+    }
   }
 
   @GetMapping
@@ -198,6 +890,27 @@ public class Wallet extends EventSourcedEntity<Wallet.State, Wallet.Event> {
   }
 
 
+  @GetMapping("/summary")
+  public Effect<WalletSummary> getSummary() {
+    if (currentState() == null)
+      return notFound();
+    else
+      return effects().reply(WalletSummary.of(currentState()));
+  }
+
+  @GetMapping("/pending")
+  public Effect<PendingPage> getPendingTransactions(@RequestParam(required = false) String after,
+                                                    @RequestParam(required = false) Integer limit) {
+    if (currentState() == null)
+      return notFound();
+    else if (limit != null && limit <= 0)
+      return effects().error("Limit must be positive", StatusCode.ErrorCode.BAD_REQUEST);
+    else
+      return effects().reply(PendingPage.of(currentState(),
+        after,
+        limit == null ? DEFAULT_PAGE_SIZE : Math.min(limit, MAX_PAGE_SIZE)));
+  }
+
   @PostMapping()
   public Effect<Done> create() {
     if (currentState() == null)
@@ -206,6 +919,18 @@ public class Wallet extends EventSourcedEntity<Wallet.State, Wallet.Event> {
       return effects().error("Wallet '" + walletId + "' exists already");
   }
 
+  /**
+   * Creates the wallet unless it exists already, for callers that only need it to exist: the
+   * error of {@link #create} doesn't get through the component client.
+   */
+  @PostMapping("/ensure-created")
+  public Effect<Done> ensureCreated() {
+    if (currentState() == null)
+      return effects().emitEvent(new Created()).thenReply(__ -> new Done());
+    else
+      return effects().reply(new Done());
+  }
+
 
   @PostMapping("/deposit")
   public Effect<WalletStatus> deposit(@RequestBody Deposit cmd) {
@@ -215,9 +940,9 @@ public class Wallet extends EventSourcedEntity<Wallet.State, Wallet.Event> {
       return effects().reply(WalletStatus.of(currentState()));
 
     } else {
-      logger.info("Deposit requested  on '{}': amount '{}', transaction '{}'", walletId, cmd.amount, cmd.transactionId);
+      logger.info("Deposit requested  on '{}': amount '{}' {}, transaction '{}'", walletId, cmd.amount, cmd.currency, cmd.transactionId);
       return effects()
-        .emitEvent(new DepositInitiated(cmd.amount, cmd.transactionId, this.walletId))
+        .emitEvent(new DepositInitiated(cmd.amount, cmd.transactionId, this.walletId, cmd.currency, cmd.conversion))
         .thenReply(WalletStatus::of);
     }
   }
@@ -235,21 +960,69 @@ public class Wallet extends EventSourcedEntity<Wallet.State, Wallet.Event> {
     } else if (currentState().alreadySeen(cmd.transactionId)) {
       return effects().reply(WalletStatus.of(currentState()));
 
-    } else if (currentState().hasBalance(cmd.amount)) {
-      logger.info("Withdraw requested  on '{}': amount '{}, transaction '{}''", walletId, cmd.amount, cmd.transactionId);
+    } else if (!currentState().hasBalance(cmd.currency, cmd.amount)) {
+      logger.info("Insufficient balance in '{}' to withdraw amount '{}' {}", this.walletId, cmd.amount, cmd.currency);
+      return effects().error("Insufficient balance", StatusCode.ErrorCode.BAD_REQUEST);
+
+    }
+    var now = Instant.now();
+    if (!currentState().withinVelocityLimits(cmd.currency, cmd.amount, now)) {
+      logger.info("Velocity limit of '{}' reached, rejecting withdraw amount '{}' {}", this.walletId, cmd.amount, cmd.currency);
+      // not a transient condition, retrying right away would only be rejected again
+      return effects().error("Velocity limit exceeded", StatusCode.ErrorCode.FORBIDDEN);
+
+    } else {
+      logger.info("Withdraw requested  on '{}': amount '{}' {}, transaction '{}''", walletId, cmd.amount, cmd.currency, cmd.transactionId);
       return effects()
-        .emitEvent(new WithdrawInitiated(cmd.amount, cmd.transactionId, this.walletId))
+        .emitEvent(new WithdrawInitiated(cmd.amount, cmd.transactionId, this.walletId, cmd.currency, now))
         .thenReply(WalletStatus::of);
+    }
+  }
 
+  @GetMapping("/velocity-limits")
+  public Effect<VelocityLimits> getVelocityLimits() {
+    if (currentState() == null)
+      return notFound();
+    else
+      return effects().reply(new VelocityLimits(currentState().velocity().limits().values().toJavaList()));
+  }
+
+  /**
+   * Replaces the velocity limits of the wallet, applying from its next withdrawal on, to the
+   * withdrawals already made within the window as well.
+   */
+  @PutMapping("/velocity-limits")
+  public Effect<VelocityLimits> updateVelocityLimits(@RequestBody VelocityLimits cmd) {
+    if (currentState() == null) {
+      return notFound();
+    } else if (cmd.limits == null || !cmd.limits.stream().allMatch(VelocityLimits::isValid)) {
+      return effects().error("Velocity limits must be positive", StatusCode.ErrorCode.BAD_REQUEST);
+    } else if (cmd.limits.stream().map(VelocityLimit::currency).distinct().count() < cmd.limits.size()) {
+      return effects().error("One velocity limit per currency", StatusCode.ErrorCode.BAD_REQUEST);
     } else {
-      logger.info("Insufficient balance in '{}' to withdraw amount '{}'", this.walletId, cmd.amount);
-      return effects().error("Insufficient balance");
+      logger.info("Velocity limits of '{}' changed to {}", walletId, cmd.limits);
+      return effects()
+        .emitEvent(new VelocityLimitsChanged(walletId, cmd.limits))
+        .thenReply(__ -> cmd);
     }
   }
 
 
   @PostMapping("/execute/{transactionId}")
   public Effect<Done> execute(@PathVariable String transactionId) {
+    return execute(transactionId, false);
+  }
+
+  /**
+   * Executes a transaction of the presumed-commit protocol: the balance event completes it as
+   * well, with no {@link TransactionCompleted} following.
+   */
+  @PostMapping("/execute-and-complete/{transactionId}")
+  public Effect<Done> executeAndComplete(@PathVariable String transactionId) {
+    return execute(transactionId, true);
+  }
+
+  private Effect<Done> execute(String transactionId, boolean completed) {
     if (currentState() == null) {
       return notFound();
     } else if (currentState().isPendingTransaction(transactionId)) {
@@ -258,13 +1031,13 @@ public class Wallet extends EventSourcedEntity<Wallet.State, Wallet.Event> {
       if (cmd.isDeposit()) {
         logger.info("Deposit executed  on '{}': transaction '{}', amount '{}'", walletId, cmd.transactionId(), cmd.amount());
         return effects()
-          .emitEvent(new BalanceIncreased(cmd.amount(), cmd.transactionId(), this.walletId))
+          .emitEvent(new BalanceIncreased(cmd.amount(), cmd.transactionId(), this.walletId, cmd.currency(), completed))
           .thenReply(__ -> new Done());
 
       } else {
         logger.info("Withdraw executed  on '{}': transaction '{}', amount '{}'", walletId, cmd.transactionId(), cmd.amount());
         return effects()
-          .emitEvent(new BalanceDecreased(cmd.amount(), cmd.transactionId(), this.walletId))
+          .emitEvent(new BalanceDecreased(cmd.amount(), cmd.transactionId(), this.walletId, cmd.currency(), completed))
           .thenReply(__ -> new Done());
       }
     }
@@ -279,7 +1052,7 @@ public class Wallet extends EventSourcedEntity<Wallet.State, Wallet.Event> {
     } else if (currentState().isPendingTransaction(transactionId)) {
       logger.info("Transaction cancelled '{}' on '{}'", currentState().getTransaction(transactionId), walletId);
       return effects()
-        .emitEvent(new TransactionCancelled(transactionId))
+        .emitEvent(TransactionCancelled.of(currentState().getTransaction(transactionId)))
         .thenReply(__ -> new Done());
     } else {
       return doneEffect;
@@ -298,31 +1071,206 @@ public class Wallet extends EventSourcedEntity<Wallet.State, Wallet.Event> {
     }
   }
 
+  /**
+   * Applies many execute, cancel and complete commands at once, with all their events persisted
+   * together. Each command has the effect it would have on its own, redeliveries included, in
+   * the order of the batch.
+   */
+  @PostMapping("/transactions/apply")
+  public Effect<BatchApplied> applyBatch(@RequestBody ApplyBatch cmd) {
+    var state = currentState();
+    var events = new java.util.ArrayList<Event>();
+    var errors = new java.util.ArrayList<String>();
+    for (var command : cmd.commands) {
+      if (state == null) {
+        // as on their own, only the execution of a transaction needs the wallet to exist
+        var executes = command.operation == TransactionOperation.EXECUTE
+          || command.operation == TransactionOperation.EXECUTE_AND_COMPLETE;
+        errors.add(executes ? "Wallet doesn't exist" : null);
+      } else {
+        var event = transactionEvent(state, command);
+        if (event != null) {
+          events.add(event);
+          state = applyTransactionEvent(state, event);
+        }
+        errors.add(null);
+      }
+    }
+
+    var reply = new BatchApplied(errors);
+    if (events.isEmpty()) {
+      return effects().reply(reply);
+    } else {
+      logger.info("Applying {} transaction commands on '{}': {} events", cmd.commands.size(), walletId, events.size());
+      return effects()
+        .emitEvents(events)
+        .thenReply(__ -> reply);
+    }
+  }
+
+  /**
+   * @return the event a transaction command results in, null when it has no effect (anymore)
+   */
+  private Event transactionEvent(State state, TransactionCommand cmd) {
+    var transactionId = cmd.transactionId;
+    return switch (cmd.operation) {
+      case EXECUTE, EXECUTE_AND_COMPLETE -> {
+        if (!state.isPendingTransaction(transactionId)) yield null;
+        var pending = state.getTransaction(transactionId);
+        var completed = cmd.operation == TransactionOperation.EXECUTE_AND_COMPLETE;
+        yield pending.isDeposit()
+          ? new BalanceIncreased(pending.amount(), transactionId, walletId, pending.currency(), completed)
+          : new BalanceDecreased(pending.amount(), transactionId, walletId, pending.currency(), completed);
+      }
+      case CANCEL -> state.isPendingTransaction(transactionId) ? TransactionCancelled.of(state.getTransaction(transactionId)) : null;
+      case COMPLETE -> state.isExecutedTransaction(transactionId) ? new TransactionCompleted(transactionId) : null;
+    };
+  }
+
+  private static State applyTransactionEvent(State state, Event event) {
+    if (event instanceof BalanceIncreased evt) return state.execute(evt.transactionId(), evt.completed());
+    else if (event instanceof BalanceDecreased evt) return state.execute(evt.transactionId(), evt.completed());
+    else if (event instanceof TransactionCancelled evt) return state.cancelTransaction(evt.transactionId());
+    else if (event instanceof TransactionCompleted evt) return state.completeTransaction(evt.transactionId());
+    else return state;
+  }
+
+  @PostMapping("/authorize")
+  public Effect<WalletStatus> authorize(@RequestBody Authorize cmd) {
+    if (currentState() == null) {
+      return notFound();
+    } else if (currentState().knowsAuthorization(cmd.authorizationId)) {
+      // a redelivery, also once the hold is settled: the funds must not be reserved again
+      return effects().reply(WalletStatus.of(currentState()));
+    } else if (cmd.amount == null || cmd.amount <= 0) {
+      return effects().error("Authorization amount must be positive", StatusCode.ErrorCode.BAD_REQUEST);
+    } else if (currentState().hasBalance(cmd.currency, cmd.amount)) {
+      var expiresAt = Instant.now().plus(cmd.expiry());
+      logger.info("Hold authorized on '{}': amount '{}' {}, authorization '{}' until {}", walletId, cmd.amount, cmd.currency, cmd.authorizationId, expiresAt);
+      return effects()
+        .emitEvent(new HoldAuthorized(cmd.authorizationId, walletId, cmd.amount, cmd.currency, expiresAt))
+        .thenReply(WalletStatus::of);
+    } else {
+      logger.info("Insufficient balance in '{}' to authorize amount '{}' {}", this.walletId, cmd.amount, cmd.currency);
+      return effects().error("Insufficient balance", StatusCode.ErrorCode.BAD_REQUEST);
+    }
+  }
+
+  /**
+   * Captures all or part of a hold, in a single command: the captured amount leaves the wallet
+   * right away, without a mediator transaction.
+   */
+  @PostMapping("/holds/{authorizationId}/capture")
+  public Effect<WalletStatus> capture(@PathVariable String authorizationId, @RequestBody Capture cmd) {
+    if (currentState() == null) {
+      return notFound();
+    } else if (cmd.captureId != null && currentState().isCaptured(authorizationId, cmd.captureId)) {
+      return effects().reply(WalletStatus.of(currentState()));
+    }
+    var hold = currentState().holds.get(authorizationId);
+    if (hold.isEmpty()) {
+      return effects().error("No open authorization '" + authorizationId + "'", StatusCode.ErrorCode.NOT_FOUND);
+    } else if (hold.get().isExpired(Instant.now())) {
+      return effects().error("Authorization '" + authorizationId + "' expired");
+    }
+
+    var amount = cmd.amount == null ? hold.get().remaining() : cmd.amount;
+    if (amount <= 0 || amount > hold.get().remaining()) {
+      return effects().error("Capture amount must be positive and at most " + hold.get().remaining(), StatusCode.ErrorCode.BAD_REQUEST);
+    }
+
+    var currency = hold.get().currency();
+    var released = hold.get().remaining() - amount;
+    logger.info("Hold captured on '{}': amount '{}' {}, authorization '{}'", walletId, amount, currency, authorizationId);
+    var captured = new HoldCaptured(authorizationId, walletId, amount, currency, hold.get().captured() + amount, cmd.captureId);
+    if (released > 0 && Boolean.FALSE.equals(cmd.finalCapture)) {
+      return effects().emitEvent(captured).thenReply(WalletStatus::of);
+    } else {
+      return effects()
+        .emitEvents(java.util.List.of(captured, new HoldReleased(authorizationId, walletId, released, currency, HoldRelease.CAPTURED)))
+        .thenReply(WalletStatus::of);
+    }
+  }
+
+  @PostMapping("/holds/{authorizationId}/void")
+  public Effect<WalletStatus> voidHold(@PathVariable String authorizationId) {
+    if (currentState() == null) {
+      return notFound();
+    }
+    var hold = currentState().holds.get(authorizationId);
+    if (hold.isEmpty()) {
+      return effects().reply(WalletStatus.of(currentState()));
+    } else {
+      logger.info("Hold voided on '{}': authorization '{}'", walletId, authorizationId);
+      return effects()
+        .emitEvent(new HoldReleased(authorizationId, walletId, hold.get().remaining(), hold.get().currency(), HoldRelease.VOIDED))
+        .thenReply(WalletStatus::of);
+    }
+  }
+
+  /**
+   * Releases the holds past their expiry. Expiry is only applied by this command, the event
+   * handlers never look at the clock.
+   *
+   * @return the status after the release, with the holds still open
+   */
+  @PostMapping("/holds/expire")
+  public Effect<WalletStatus> expireHolds() {
+    if (currentState() == null) {
+      return notFound();
+    }
+    var expired = currentState().expiredHolds(Instant.now());
+    if (expired.isEmpty()) {
+      return effects().reply(WalletStatus.of(currentState()));
+    } else {
+      logger.info("Holds expired on '{}': {}", walletId, expired.map(Hold::authorizationId));
+      return effects()
+        .emitEvents(expired.<Event>map(hold ->
+          new HoldReleased(hold.authorizationId(), walletId, hold.remaining(), hold.currency(), HoldRelease.EXPIRED)).asJava())
+        .thenReply(WalletStatus::of);
+    }
+  }
+
   @EventHandler
   public State onEvent(Created evt) {
-    return new State(0.0, 0.0, HashMap.empty(), List.empty());
+    return State.empty();
+  }
+
+  @EventHandler
+  public State onEvent(WalletCompacted evt) {
+    var velocity = evt.withdrawWindows == null ? Velocity.NONE : new Velocity(HashMap.empty(), HashMap.ofAll(evt.withdrawWindows));
+    return new State(
+      HashMap.ofAll(evt.balances),
+      List.ofAll(evt.pendingTransactions).toSortedMap(PendingTransaction::transactionId, p -> p),
+      List.empty(),
+      List.ofAll(evt.holds).toMap(Hold::authorizationId, h -> h),
+      null,
+      evt.velocityLimits == null ? velocity : velocity.withLimits(evt.velocityLimits),
+      List.empty(),
+      List.empty());
   }
 
   @EventHandler
   public State onEvent(DepositInitiated evt) {
     return currentState()
-      .addPendingTransaction(new PendingTransaction(evt.amount, evt.transactionId, TransactionType.DEPOSIT));
+      .addPendingTransaction(new PendingTransaction(evt.amount, evt.transactionId, TransactionType.DEPOSIT, evt.currency, null));
   }
 
   @EventHandler
   public State onEvent(WithdrawInitiated evt) {
-    return currentState()
-      .addPendingTransaction(new PendingTransaction(evt.amount, evt.transactionId, TransactionType.WITHDRAW));
+    var state = currentState()
+      .addPendingTransaction(new PendingTransaction(evt.amount, evt.transactionId, TransactionType.WITHDRAW, evt.currency, evt.initiatedAt));
+    return evt.initiatedAt == null ? state : state.withVelocity(state.velocity().withdrawn(evt.currency, evt.amount, evt.initiatedAt));
   }
 
   @EventHandler
   public State onEvent(BalanceIncreased evt) {
-    return currentState().execute(evt.transactionId);
+    return currentState().execute(evt.transactionId, evt.completed);
   }
 
   @EventHandler
   public State onEvent(BalanceDecreased evt) {
-    return currentState().execute(evt.transactionId);
+    return currentState().execute(evt.transactionId, evt.completed);
   }
 
   @EventHandler
@@ -336,5 +1284,23 @@ public class Wallet extends EventSourcedEntity<Wallet.State, Wallet.Event> {
     return currentState().completeTransaction(evt.transactionId);
   }
 
+  @EventHandler
+  public State onEvent(HoldAuthorized evt) {
+    return currentState().authorize(new Hold(evt.authorizationId, evt.amount, 0.0, evt.currency, evt.expiresAt));
+  }
+
+  @EventHandler
+  public State onEvent(HoldCaptured evt) {
+    return currentState().capture(evt.authorizationId, evt.amount, evt.captureId);
+  }
 
+  @EventHandler
+  public State onEvent(HoldReleased evt) {
+    return currentState().release(evt.authorizationId);
+  }
+
+  @EventHandler
+  public State onEvent(VelocityLimitsChanged evt) {
+    return currentState().withVelocity(currentState().velocity().withLimits(evt.limits));
+  }
 }
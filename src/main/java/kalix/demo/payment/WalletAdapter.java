@@ -3,13 +3,31 @@ package kalix.demo.payment;
 import kalix.demo.Done;
 import kalix.demo.transactions.TransactionAdapter;
 import kalix.javasdk.client.ComponentClient;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.util.concurrent.CompletionStage;
 
+/**
+ * Sends the transaction commands to the wallets through a {@link WalletCommandBatcher}, so that
+ * a wallet settling many transactions at once gets them in a few {@link Wallet#applyBatch} calls
+ * of up to {@code wallet.batching.max-batch-size} commands.
+ */
 @Component
 public class WalletAdapter implements TransactionAdapter {
 
+  final private WalletCommandBatcher batcher;
+
+  public WalletAdapter(@Value("${wallet.batching.max-batch-size:64}") int maxBatchSize) {
+    this.batcher = new WalletCommandBatcher(
+      (componentClient, walletId, batch) ->
+        componentClient
+          .forEventSourcedEntity(walletId)
+          .call(Wallet::applyBatch)
+          .params(batch)
+          .execute(),
+      maxBatchSize);
+  }
 
   @Override
   public boolean adapterFor(Class<?> clazz) {
@@ -20,32 +38,34 @@ public class WalletAdapter implements TransactionAdapter {
   public CompletionStage<Done> initialized(ComponentClient componentClient,
                                            String participantId,
                                            String transactionId) {
-    return componentClient
-      .forEventSourcedEntity(participantId)
-      .call(Wallet::execute)
-      .params(transactionId)
-      .execute();
+    return submit(componentClient, participantId, transactionId, Wallet.TransactionOperation.EXECUTE);
   }
 
   @Override
   public CompletionStage<Done> cancel(ComponentClient componentClient,
                                       String participantId,
                                       String transactionId) {
-    return componentClient
-      .forEventSourcedEntity(participantId)
-      .call(Wallet::cancel)
-      .params(transactionId)
-      .execute();
+    return submit(componentClient, participantId, transactionId, Wallet.TransactionOperation.CANCEL);
   }
 
   @Override
   public CompletionStage<Done> complete(ComponentClient componentClient,
                                         String participantId,
                                         String transactionId) {
-    return componentClient
-      .forEventSourcedEntity(participantId)
-      .call(Wallet::complete)
-      .params(transactionId)
-      .execute();
+    return submit(componentClient, participantId, transactionId, Wallet.TransactionOperation.COMPLETE);
+  }
+
+  @Override
+  public CompletionStage<Done> executeAndComplete(ComponentClient componentClient,
+                                                  String participantId,
+                                                  String transactionId) {
+    return submit(componentClient, participantId, transactionId, Wallet.TransactionOperation.EXECUTE_AND_COMPLETE);
+  }
+
+  private CompletionStage<Done> submit(ComponentClient componentClient,
+                                       String participantId,
+                                       String transactionId,
+                                       Wallet.TransactionOperation operation) {
+    return batcher.submit(componentClient, participantId, new Wallet.TransactionCommand(transactionId, operation));
   }
 }
@@ -0,0 +1,69 @@
+package kalix.demo.payment;
+
+import kalix.javasdk.annotations.Query;
+import kalix.javasdk.annotations.Subscribe;
+import kalix.javasdk.annotations.Table;
+import kalix.javasdk.annotations.ViewId;
+import kalix.javasdk.view.View;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+
+/**
+ * Wallets by balance in the default currency, highest first. Kalix indexes the sort column, so
+ * a page doesn't scan the wallets.
+ */
+@ViewId("wallet-balances")
+@Table("wallet_balances")
+@Subscribe.EventSourcedEntity(value = Wallet.class, ignoreUnknown = true)
+public class WalletBalancesView extends View<WalletRow> {
+
+  @GetMapping("/wallet-balances")
+  @Query("SELECT * AS wallets FROM wallet_balances ORDER BY balance DESC OFFSET :offset LIMIT :limit")
+  public WalletRow.Page getByBalance(@RequestParam Integer offset, @RequestParam Integer limit) {
+    return null;
+  }
+
+  public UpdateEffect<WalletRow> onEvent(Wallet.Event.Created evt) {
+    return update(evt);
+  }
+
+  public UpdateEffect<WalletRow> onEvent(Wallet.Event.DepositInitiated evt) {
+    return update(evt);
+  }
+
+  public UpdateEffect<WalletRow> onEvent(Wallet.Event.WithdrawInitiated evt) {
+    return update(evt);
+  }
+
+  public UpdateEffect<WalletRow> onEvent(Wallet.Event.BalanceIncreased evt) {
+    return update(evt);
+  }
+
+  public UpdateEffect<WalletRow> onEvent(Wallet.Event.BalanceDecreased evt) {
+    return update(evt);
+  }
+
+  public UpdateEffect<WalletRow> onEvent(Wallet.Event.TransactionCancelled evt) {
+    return update(evt);
+  }
+
+  public UpdateEffect<WalletRow> onEvent(Wallet.Event.HoldAuthorized evt) {
+    return update(evt);
+  }
+
+  public UpdateEffect<WalletRow> onEvent(Wallet.Event.HoldCaptured evt) {
+    return update(evt);
+  }
+
+  public UpdateEffect<WalletRow> onEvent(Wallet.Event.HoldReleased evt) {
+    return update(evt);
+  }
+
+  public UpdateEffect<WalletRow> onEvent(Wallet.Event.WalletCompacted evt) {
+    return update(evt);
+  }
+
+  private UpdateEffect<WalletRow> update(Wallet.Event evt) {
+    return effects().updateState(WalletRow.updated(viewState(), updateContext(), evt));
+  }
+}
@@ -0,0 +1,113 @@
+package kalix.demo.payment;
+
+import kalix.demo.Done;
+import kalix.javasdk.client.ComponentClient;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Groups the transaction commands sent to a wallet into {@link Wallet.ApplyBatch} calls.
+ * <p>
+ * Each wallet has at most one batch in flight. A command for an idle wallet is sent right away,
+ * on its own, while commands arriving during a call queue up and go out together once it
+ * returns, at most {@code maxBatchSize} at a time. The batches so grow with the load on a wallet
+ * and the wait of a command is bounded by one call, with no delay added when traffic is light.
+ * The result of every command is still reported on its own.
+ */
+class WalletCommandBatcher {
+
+  @FunctionalInterface
+  interface Sender {
+    CompletionStage<Wallet.BatchApplied> send(ComponentClient componentClient, String walletId, Wallet.ApplyBatch batch);
+  }
+
+  public static class Rejected extends RuntimeException {
+    public Rejected(String message) {
+      super(message, null, false, false);
+    }
+  }
+
+  private record Queued(ComponentClient componentClient, Wallet.TransactionCommand command, CompletableFuture<Done> result) {
+  }
+
+  private static class Lane {
+    final ArrayDeque<Queued> queue = new ArrayDeque<>();
+    boolean inFlight;
+    boolean retired;
+  }
+
+  final private Sender sender;
+  final private int maxBatchSize;
+  final private ConcurrentHashMap<String, Lane> lanes = new ConcurrentHashMap<>();
+
+  WalletCommandBatcher(Sender sender, int maxBatchSize) {
+    this.sender = sender;
+    this.maxBatchSize = Math.max(1, maxBatchSize);
+  }
+
+  CompletionStage<Done> submit(ComponentClient componentClient, String walletId, Wallet.TransactionCommand command) {
+    var queued = new Queued(componentClient, command, new CompletableFuture<>());
+    while (true) {
+      var lane = lanes.computeIfAbsent(walletId, __ -> new Lane());
+      java.util.List<Queued> batch;
+      synchronized (lane) {
+        // an idle lane is dropped from the map, submitters that still found it go for a new one
+        if (lane.retired) continue;
+        lane.queue.add(queued);
+        if (lane.inFlight) return queued.result;
+        lane.inFlight = true;
+        batch = nextBatch(lane);
+      }
+      send(walletId, lane, batch);
+      return queued.result;
+    }
+  }
+
+  /**
+   * @return the number of wallets with a batch in flight
+   */
+  int activeWallets() {
+    return lanes.size();
+  }
+
+  private java.util.List<Queued> nextBatch(Lane lane) {
+    var batch = new ArrayList<Queued>(Math.min(lane.queue.size(), maxBatchSize));
+    while (!lane.queue.isEmpty() && batch.size() < maxBatchSize) batch.add(lane.queue.poll());
+    return batch;
+  }
+
+  private void send(String walletId, Lane lane, java.util.List<Queued> batch) {
+    CompletionStage<Wallet.BatchApplied> call;
+    try {
+      var commands = batch.stream().map(Queued::command).toList();
+      call = sender.send(batch.get(0).componentClient, walletId, new Wallet.ApplyBatch(commands));
+    } catch (RuntimeException e) {
+      call = CompletableFuture.failedFuture(e);
+    }
+
+    call.whenComplete((applied, error) -> {
+      for (int i = 0; i < batch.size(); i++) {
+        var result = batch.get(i).result;
+        if (error != null) result.completeExceptionally(error);
+        else if (applied.errors().get(i) != null) result.completeExceptionally(new Rejected(applied.errors().get(i)));
+        else result.complete(new Done());
+      }
+
+      java.util.List<Queued> next;
+      synchronized (lane) {
+        if (lane.queue.isEmpty()) {
+          lane.inFlight = false;
+          lane.retired = true;
+          lanes.remove(walletId, lane);
+          return;
+        }
+        next = nextBatch(lane);
+      }
+      send(walletId, lane, next);
+    });
+  }
+}
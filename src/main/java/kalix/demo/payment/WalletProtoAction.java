@@ -0,0 +1,141 @@
+package kalix.demo.payment;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import kalix.javasdk.DeferredCallResponseException;
+import kalix.javasdk.StatusCode;
+import kalix.javasdk.action.Action;
+import kalix.javasdk.annotations.ForwardHeaders;
+import kalix.javasdk.client.ComponentClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Binary wallet API: the create, deposit, withdraw, transfer and status calls of
+ * {@link WalletServiceAction} with protobuf bodies, the messages generated from
+ * {@code wallet_api.proto}, sent over HTTP as {@code application/octet-stream}. Bodies are
+ * plain bytes to the SDK, so the gRPC service it derives takes {@code google.protobuf.BytesValue}
+ * and isn't the contract of this API.
+ * <p>
+ * Calls go to the entities directly, through the same admission control, transactions, fees and
+ * conversions as {@link WalletServiceAction}.
+ */
+@RequestMapping("/proto/wallets")
+@ForwardHeaders({WalletServiceAction.CALLER_HEADER, WalletServiceAction.PRIORITY_HEADER, WalletServiceAction.FORWARDED_FOR_HEADER})
+public class WalletProtoAction extends Action {
+
+  private static final byte[] DONE = new byte[0];
+
+  final private Logger logger = LoggerFactory.getLogger(getClass());
+  final private ComponentClient componentClient;
+  final private AdmissionControl admissionControl;
+  final private FeeEngine feeEngine;
+  final private FxRates fxRates;
+
+  public WalletProtoAction(@Autowired ComponentClient componentClient,
+                           @Autowired AdmissionControl admissionControl,
+                           @Autowired FeeEngine feeEngine,
+                           @Autowired FxRates fxRates) {
+    this.componentClient = componentClient;
+    this.admissionControl = admissionControl;
+    this.feeEngine = feeEngine;
+    this.fxRates = fxRates;
+  }
+
+  private interface Decoder<T> {
+    T decode(byte[] bytes) throws InvalidProtocolBufferException;
+  }
+
+  private Effect<byte[]> admitted(Supplier<Effect<byte[]>> effect, String... walletIds) {
+    admissionControl.refresh(componentClient);
+    var decision = admissionControl.admit(actionContext().metadata(), Arrays.asList(walletIds));
+    if (!decision.admitted())
+      return effects().error(decision.rejection(Arrays.asList(walletIds)), StatusCode.ErrorCode.TOO_MANY_REQUESTS);
+    return effect.get();
+  }
+
+  /**
+   * Encodes the result of the calls, or replies with their error and status code.
+   */
+  private <R> Effect<byte[]> reply(CompletionStage<R> result, Function<R, byte[]> encoder) {
+    var reply =
+      result.handle((value, error) -> {
+        if (error == null) return effects().reply(encoder.apply(value));
+        var cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof DeferredCallResponseException response)
+          return effects().<byte[]>error(response.description(), response.errorCode());
+        return effects().<byte[]>error(cause.getMessage());
+      });
+
+    return effects().asyncEffect(reply);
+  }
+
+  private <T> Effect<byte[]> decoded(byte[] body, Decoder<T> decoder, Function<T, Effect<byte[]>> effect) {
+    T cmd;
+    try {
+      cmd = decoder.decode(body);
+    } catch (InvalidProtocolBufferException e) {
+      logger.debug("Malformed protobuf request", e);
+      return effects().error("Malformed protobuf request: " + e.getMessage(), StatusCode.ErrorCode.BAD_REQUEST);
+    }
+    return effect.apply(cmd);
+  }
+
+  @PostMapping("/{walletId}")
+  public Effect<byte[]> create(@PathVariable String walletId) {
+    return reply(
+      componentClient.forEventSourcedEntity(walletId).call(Wallet::create).execute(),
+      done -> DONE);
+  }
+
+  @PostMapping("/{walletId}/deposit")
+  public Effect<byte[]> deposit(@PathVariable String walletId, @RequestBody byte[] body) {
+    return decoded(body, WalletProtoCodec::decodeDeposit, cmd -> admitted(() -> {
+      logger.info("deposit {}", cmd);
+      var deposited =
+        WalletServiceAction.openTransaction(componentClient, cmd.transactionId(), walletId)
+          .thenCompose(open -> {
+            if (!open) throw new IllegalStateException(WalletServiceAction.alreadyCreated(cmd.transactionId()));
+            return componentClient.forEventSourcedEntity(walletId).call(Wallet::deposit).params(cmd).execute();
+          });
+      return reply(deposited, WalletProtoCodec::encode);
+    }, walletId));
+  }
+
+  @PostMapping("/{walletId}/withdraw")
+  public Effect<byte[]> withdraw(@PathVariable String walletId, @RequestBody byte[] body) {
+    return decoded(body, WalletProtoCodec::decodeWithdraw, cmd -> admitted(() -> {
+      var withdrawn =
+        WalletServiceAction.openTransaction(componentClient, cmd.transactionId(), walletId)
+          .thenCompose(open -> {
+            if (!open) throw new IllegalStateException(WalletServiceAction.alreadyCreated(cmd.transactionId()));
+            return componentClient.forEventSourcedEntity(walletId).call(Wallet::withdraw).params(cmd).execute();
+          });
+      return reply(withdrawn, WalletProtoCodec::encode);
+    }, walletId));
+  }
+
+  @GetMapping("/{walletId}")
+  public Effect<byte[]> getStatus(@PathVariable String walletId) {
+    return admitted(() -> reply(
+      componentClient.forEventSourcedEntity(walletId).call(Wallet::getStatus).execute(),
+      WalletProtoCodec::encode), walletId);
+  }
+
+  @PostMapping("/transfer/{transactionId}")
+  public Effect<byte[]> transfer(@PathVariable String transactionId, @RequestBody byte[] body) {
+    return decoded(body, WalletProtoCodec::decodeTransfer, cmd -> admitted(() -> {
+      var deposit = WalletServiceAction.recipientDeposit(fxRates, transactionId, cmd);
+      if (deposit == null)
+        return effects().error(WalletServiceAction.noRate(cmd), StatusCode.ErrorCode.BAD_REQUEST);
+      return reply(WalletServiceAction.transfer(componentClient, feeEngine, transactionId, cmd, deposit), WalletProtoCodec::encode);
+    }, cmd.from(), cmd.to()));
+  }
+}
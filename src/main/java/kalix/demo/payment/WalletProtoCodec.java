@@ -0,0 +1,129 @@
+package kalix.demo.payment;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Timestamp;
+import kalix.demo.payment.proto.WalletApi;
+import kalix.demo.transactions.TransactionMediator;
+
+import java.time.Instant;
+
+/**
+ * Reads the requests and writes the replies of the protobuf wallet API, going between the
+ * messages generated from {@code wallet_api.proto} and the commands and states of the entities.
+ * <p>
+ * Fields that aren't set are read as null and null fields are left out, enums are numbered by
+ * ordinal plus one.
+ */
+final class WalletProtoCodec {
+
+  private WalletProtoCodec() {
+  }
+
+  static Wallet.Deposit decodeDeposit(byte[] bytes) throws InvalidProtocolBufferException {
+    var deposit = WalletApi.Deposit.parseFrom(bytes);
+    return new Wallet.Deposit(
+      deposit.hasAmount() ? deposit.getAmount() : null,
+      deposit.hasTransactionId() ? deposit.getTransactionId() : null,
+      deposit.hasCurrency() ? deposit.getCurrency() : null);
+  }
+
+  static Wallet.Withdraw decodeWithdraw(byte[] bytes) throws InvalidProtocolBufferException {
+    var withdraw = WalletApi.Withdraw.parseFrom(bytes);
+    return new Wallet.Withdraw(
+      withdraw.hasAmount() ? withdraw.getAmount() : null,
+      withdraw.hasTransactionId() ? withdraw.getTransactionId() : null,
+      withdraw.hasCurrency() ? withdraw.getCurrency() : null);
+  }
+
+  static Transfer decodeTransfer(byte[] bytes) throws InvalidProtocolBufferException {
+    var transfer = WalletApi.Transfer.parseFrom(bytes);
+    return new Transfer(
+      transfer.hasAmount() ? transfer.getAmount() : null,
+      transfer.hasFrom() ? transfer.getFrom() : null,
+      transfer.hasTo() ? transfer.getTo() : null,
+      transfer.hasCurrency() ? transfer.getCurrency() : null,
+      fromNumber(transfer.getProtocolValue(), TransactionMediator.Protocol.class),
+      transfer.hasToCurrency() ? transfer.getToCurrency() : null);
+  }
+
+  static byte[] encode(Wallet.WalletStatus status) {
+    var message = WalletApi.WalletStatus.newBuilder();
+    if (status.balance() != null) message.setBalance(status.balance());
+    if (status.reservedFunds() != null) message.setReservedFunds(status.reservedFunds());
+    if (status.balances() != null)
+      status.balances().forEach((currency, balance) -> message.putBalances(currency, toMessage(balance)));
+    if (status.pendingTransactions() != null)
+      status.pendingTransactions().forEach(pending -> message.addPendingTransactions(toMessage(pending)));
+    if (status.holds() != null)
+      status.holds().forEach(hold -> message.addHolds(toMessage(hold)));
+    return message.build().toByteArray();
+  }
+
+  static byte[] encode(TransactionMediator.TransactionStatus status) {
+    var message = WalletApi.TransactionStatus.newBuilder();
+    if (status.transactionId() != null) message.setTransactionId(status.transactionId());
+    if (status.participants() != null)
+      status.participants().forEach(participant -> message.addParticipants(toMessage(participant)));
+    if (status.status() != null) message.setStatusValue(toNumber(status.status()));
+    if (status.fee() != null) message.setFee(toMessage(status.fee()));
+    return message.build().toByteArray();
+  }
+
+  private static WalletApi.Balance toMessage(Wallet.Balance balance) {
+    var message = WalletApi.Balance.newBuilder();
+    if (balance.available() != null) message.setAvailable(balance.available());
+    if (balance.reserved() != null) message.setReserved(balance.reserved());
+    return message.build();
+  }
+
+  private static WalletApi.PendingTransaction toMessage(Wallet.PendingTransaction pending) {
+    var message = WalletApi.PendingTransaction.newBuilder();
+    if (pending.amount() != null) message.setAmount(pending.amount());
+    if (pending.transactionId() != null) message.setTransactionId(pending.transactionId());
+    if (pending.transactionType() != null) message.setTransactionTypeValue(toNumber(pending.transactionType()));
+    if (pending.currency() != null) message.setCurrency(pending.currency());
+    return message.build();
+  }
+
+  private static WalletApi.Hold toMessage(Wallet.Hold hold) {
+    var message = WalletApi.Hold.newBuilder();
+    if (hold.authorizationId() != null) message.setAuthorizationId(hold.authorizationId());
+    if (hold.amount() != null) message.setAmount(hold.amount());
+    if (hold.captured() != null) message.setCaptured(hold.captured());
+    if (hold.currency() != null) message.setCurrency(hold.currency());
+    if (hold.expiresAt() != null) message.setExpiresAt(toMessage(hold.expiresAt()));
+    return message.build();
+  }
+
+  private static Timestamp toMessage(Instant instant) {
+    return Timestamp.newBuilder().setSeconds(instant.getEpochSecond()).setNanos(instant.getNano()).build();
+  }
+
+  private static WalletApi.Participant toMessage(TransactionMediator.Participant participant) {
+    var message = WalletApi.Participant.newBuilder()
+      .setJoined(participant.joined())
+      .setExecuted(participant.executed());
+    if (participant.id() != null) message.setId(participant.id());
+    if (participant.type() != null) message.setType(participant.type().getName());
+    return message.build();
+  }
+
+  private static WalletApi.Fee toMessage(TransactionMediator.Fee fee) {
+    var message = WalletApi.Fee.newBuilder();
+    if (fee.participantId() != null) message.setParticipantId(fee.participantId());
+    if (fee.amount() != null) message.setAmount(fee.amount());
+    return message.build();
+  }
+
+  private static int toNumber(Enum<?> value) {
+    return value.ordinal() + 1;
+  }
+
+  /**
+   * @return null for 0, not set, and for numbers this service doesn't know
+   */
+  private static <E extends Enum<E>> E fromNumber(int number, Class<E> type) {
+    var values = type.getEnumConstants();
+    return number < 1 || number > values.length ? null : values[number - 1];
+  }
+}
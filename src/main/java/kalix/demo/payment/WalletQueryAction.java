@@ -0,0 +1,76 @@
+package kalix.demo.payment;
+
+import kalix.javasdk.StatusCode;
+import kalix.javasdk.action.Action;
+import kalix.javasdk.client.ComponentClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Operational queries over all wallets, answered by the {@link WalletBalancesView} and the
+ * {@link WalletReservationsView}.
+ */
+@RequestMapping("/wallet-queries")
+public class WalletQueryAction extends Action {
+
+  static final Duration DEFAULT_STUCK_AFTER = Duration.ofMinutes(10);
+
+  final private ComponentClient componentClient;
+
+  public WalletQueryAction(@Autowired ComponentClient componentClient) {
+    this.componentClient = componentClient;
+  }
+
+  @GetMapping("/top-balances")
+  public Effect<WalletRow.Page> topBalances(@RequestParam(required = false) Integer offset,
+                                                    @RequestParam(required = false) Integer limit) {
+    if (invalidPage(offset, limit)) return invalidPage();
+
+    var page =
+      componentClient
+        .forView()
+        .call(WalletBalancesView::getByBalance)
+        .params(offsetOrDefault(offset), limitOrDefault(limit));
+    return effects().forward(page);
+  }
+
+  /**
+   * Wallets with funds reserved for longer than {@code olderThanSeconds} (10 minutes by default),
+   * longest waiting first.
+   */
+  @GetMapping("/stuck-reservations")
+  public Effect<WalletRow.Page> stuckReservations(@RequestParam(required = false) Long olderThanSeconds,
+                                                          @RequestParam(required = false) Integer offset,
+                                                          @RequestParam(required = false) Integer limit) {
+    if (invalidPage(offset, limit) || (olderThanSeconds != null && olderThanSeconds < 0)) return invalidPage();
+
+    var olderThan = olderThanSeconds == null ? DEFAULT_STUCK_AFTER : Duration.ofSeconds(olderThanSeconds);
+    var page =
+      componentClient
+        .forView()
+        .call(WalletReservationsView::getReservedSince)
+        .params(Instant.now().minus(olderThan).toEpochMilli(), offsetOrDefault(offset), limitOrDefault(limit));
+    return effects().forward(page);
+  }
+
+  private static boolean invalidPage(Integer offset, Integer limit) {
+    return (offset != null && offset < 0) || (limit != null && limit <= 0);
+  }
+
+  private <T> Effect<T> invalidPage() {
+    return effects().error("Offset and age must not be negative and limit must be positive", StatusCode.ErrorCode.BAD_REQUEST);
+  }
+
+  private static int offsetOrDefault(Integer offset) {
+    return offset == null ? 0 : offset;
+  }
+
+  private static int limitOrDefault(Integer limit) {
+    return limit == null ? Wallet.DEFAULT_PAGE_SIZE : Math.min(limit, Wallet.MAX_PAGE_SIZE);
+  }
+}
@@ -0,0 +1,70 @@
+package kalix.demo.payment;
+
+import kalix.javasdk.annotations.Query;
+import kalix.javasdk.annotations.Subscribe;
+import kalix.javasdk.annotations.Table;
+import kalix.javasdk.annotations.ViewId;
+import kalix.javasdk.view.View;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+
+/**
+ * Wallets by their oldest reservation, longest waiting first. Kept apart from
+ * {@link WalletBalancesView} as a view has a single query, with the same rows but indexed on
+ * {@code oldestReservedAt}.
+ */
+@ViewId("wallet-reservations")
+@Table("wallet_reservations")
+@Subscribe.EventSourcedEntity(value = Wallet.class, ignoreUnknown = true)
+public class WalletReservationsView extends View<WalletRow> {
+
+  @GetMapping("/wallet-reservations")
+  @Query("SELECT * AS wallets FROM wallet_reservations WHERE oldestReservedAt <= :before ORDER BY oldestReservedAt OFFSET :offset LIMIT :limit")
+  public WalletRow.Page getReservedSince(@RequestParam Long before, @RequestParam Integer offset, @RequestParam Integer limit) {
+    return null;
+  }
+
+  public UpdateEffect<WalletRow> onEvent(Wallet.Event.Created evt) {
+    return update(evt);
+  }
+
+  public UpdateEffect<WalletRow> onEvent(Wallet.Event.DepositInitiated evt) {
+    return update(evt);
+  }
+
+  public UpdateEffect<WalletRow> onEvent(Wallet.Event.WithdrawInitiated evt) {
+    return update(evt);
+  }
+
+  public UpdateEffect<WalletRow> onEvent(Wallet.Event.BalanceIncreased evt) {
+    return update(evt);
+  }
+
+  public UpdateEffect<WalletRow> onEvent(Wallet.Event.BalanceDecreased evt) {
+    return update(evt);
+  }
+
+  public UpdateEffect<WalletRow> onEvent(Wallet.Event.TransactionCancelled evt) {
+    return update(evt);
+  }
+
+  public UpdateEffect<WalletRow> onEvent(Wallet.Event.HoldAuthorized evt) {
+    return update(evt);
+  }
+
+  public UpdateEffect<WalletRow> onEvent(Wallet.Event.HoldCaptured evt) {
+    return update(evt);
+  }
+
+  public UpdateEffect<WalletRow> onEvent(Wallet.Event.HoldReleased evt) {
+    return update(evt);
+  }
+
+  public UpdateEffect<WalletRow> onEvent(Wallet.Event.WalletCompacted evt) {
+    return update(evt);
+  }
+
+  private UpdateEffect<WalletRow> update(Wallet.Event evt) {
+    return effects().updateState(WalletRow.updated(viewState(), updateContext(), evt));
+  }
+}
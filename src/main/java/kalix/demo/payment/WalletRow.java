@@ -0,0 +1,129 @@
+package kalix.demo.payment;
+
+import kalix.javasdk.Metadata;
+import kalix.javasdk.view.UpdateContext;
+
+import java.time.Instant;
+
+/**
+ * Row of the wallet views: the balance and reserved funds of a wallet in the default currency,
+ * how many pending transactions (in any currency) and holds it has, and since when it has had
+ * pending transactions and reservations (pending withdraws or holds).
+ * <p>
+ * The row only keeps counts and totals, the events settling a transaction or a hold carry its
+ * amount. A waiting time runs from the event that took its count from zero, and stops once the
+ * count is back to zero: it tells for how long a wallet has never been without pending
+ * transactions, not the age of a given one. Waiting times come from the time of the events.
+ *
+ * @param pendingWithdrawCount the pending transactions that are withdraws
+ * @param oldestPendingAt      epoch millis, null without pending transactions
+ * @param oldestReservedAt     epoch millis, null without pending withdraws or holds
+ */
+public record WalletRow(String walletId,
+                        Double balance,
+                        Double reserved,
+                        Integer pendingCount,
+                        Integer pendingWithdrawCount,
+                        Integer holdCount,
+                        Long oldestPendingAt,
+                        Long oldestReservedAt) {
+
+  public record Page(java.util.List<WalletRow> wallets) {
+  }
+
+  static WalletRow empty(String walletId) {
+    return new WalletRow(walletId, 0.0, 0.0, 0, 0, 0, null, null);
+  }
+
+  /**
+   * The row of the event subject once the event is applied, shared by the wallet views.
+   */
+  static WalletRow updated(WalletRow current, UpdateContext context, Wallet.Event event) {
+    return updated(current, context.eventSubject().orElse(""), event, eventTime(context.metadata()));
+  }
+
+  /**
+   * @param at epoch millis of the event
+   */
+  static WalletRow updated(WalletRow current, String walletId, Wallet.Event event, long at) {
+    var row = current == null ? empty(walletId) : current;
+    if (event instanceof Wallet.Event.DepositInitiated evt)
+      return row.initiated(evt.currency(), evt.amount(), false, at);
+    else if (event instanceof Wallet.Event.WithdrawInitiated evt)
+      return row.initiated(evt.currency(), evt.amount(), true, at);
+    else if (event instanceof Wallet.Event.BalanceIncreased evt)
+      return row.settled(evt.currency(), evt.amount(), 0.0, false);
+    else if (event instanceof Wallet.Event.BalanceDecreased evt)
+      return row.settled(evt.currency(), 0.0, -evt.amount(), true);
+    else if (event instanceof Wallet.Event.TransactionCancelled evt)
+      return row.cancelled(evt);
+    else if (event instanceof Wallet.Event.HoldAuthorized evt)
+      return row.moved(evt.currency(), -evt.amount(), evt.amount()).counted(0, 0, 1, at);
+    else if (event instanceof Wallet.Event.HoldCaptured evt)
+      return row.moved(evt.currency(), 0.0, -evt.amount());
+    else if (event instanceof Wallet.Event.HoldReleased evt)
+      return row.moved(evt.currency(), evt.amount(), -evt.amount()).counted(0, 0, -1, at);
+    else if (event instanceof Wallet.Event.WalletCompacted evt)
+      return baseline(evt, at);
+    else
+      return row;
+  }
+
+  static long eventTime(Metadata metadata) {
+    return metadata.isCloudEvent()
+      ? metadata.asCloudEvent().time().map(t -> t.toInstant().toEpochMilli()).orElseGet(() -> Instant.now().toEpochMilli())
+      : Instant.now().toEpochMilli();
+  }
+
+  /**
+   * Moves funds between available and reserved, in the default currency only.
+   */
+  private WalletRow moved(String currency, Double available, Double reserved) {
+    return Wallet.DEFAULT_CURRENCY.equals(currency)
+      ? new WalletRow(walletId, balance + available, this.reserved + reserved, pendingCount, pendingWithdrawCount, holdCount, oldestPendingAt, oldestReservedAt)
+      : this;
+  }
+
+  /**
+   * Adds to the counts, which don't go below zero, starting or stopping the waiting times.
+   */
+  private WalletRow counted(int pending, int withdraws, int holds, long at) {
+    var pendingCount = Math.max(0, this.pendingCount + pending);
+    var pendingWithdrawCount = Math.min(pendingCount, Math.max(0, this.pendingWithdrawCount + withdraws));
+    var holdCount = Math.max(0, this.holdCount + holds);
+    var reservations = pendingWithdrawCount + holdCount;
+    return new WalletRow(walletId, balance, reserved, pendingCount, pendingWithdrawCount, holdCount,
+      pendingCount == 0 ? null : oldestPendingAt == null ? (Long) at : oldestPendingAt,
+      reservations == 0 ? null : oldestReservedAt == null ? (Long) at : oldestReservedAt);
+  }
+
+  WalletRow initiated(String currency, Double amount, boolean withdraw, long at) {
+    var reserving = withdraw ? amount : 0.0;
+    return moved(currency, -reserving, reserving).counted(1, withdraw ? 1 : 0, 0, at);
+  }
+
+  WalletRow settled(String currency, Double available, Double reserved, boolean withdraw) {
+    return moved(currency, available, reserved).counted(-1, withdraw ? -1 : 0, 0, 0);
+  }
+
+  /**
+   * Cancellations written before they carried the transaction only take it off the count.
+   */
+  WalletRow cancelled(Wallet.Event.TransactionCancelled evt) {
+    if (evt.amount() == null) return counted(-1, 0, 0, 0);
+    var withdraw = Boolean.TRUE.equals(evt.withdraw());
+    var released = withdraw ? evt.amount() : 0.0;
+    return moved(evt.currency(), released, -released).counted(-1, withdraw ? -1 : 0, 0, 0);
+  }
+
+  /**
+   * The row of a compacted wallet, whose pending transactions and holds count as started at the
+   * compaction since their own start is no longer known.
+   */
+  static WalletRow baseline(Wallet.Event.WalletCompacted evt, long at) {
+    var balance = evt.balances().getOrDefault(Wallet.DEFAULT_CURRENCY, new Wallet.Balance(0.0, 0.0));
+    var withdraws = (int) evt.pendingTransactions().stream().filter(Wallet.PendingTransaction::isWithdraw).count();
+    return new WalletRow(evt.walletId(), balance.available(), balance.reserved(), 0, 0, 0, null, null)
+      .counted(evt.pendingTransactions().size(), withdraws, evt.holds().size(), at);
+  }
+}
@@ -3,25 +3,67 @@ package kalix.demo.payment;
 import kalix.demo.Done;
 import kalix.demo.transactions.TransactionMediator;
 import kalix.demo.transactions.TransactionMediator.Participant;
+import kalix.demo.transactions.TransactionServiceAction;
+import kalix.javasdk.StatusCode;
 import kalix.javasdk.action.Action;
+import kalix.javasdk.annotations.ForwardHeaders;
 import kalix.javasdk.client.ComponentClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
-import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
 
+/**
+ * Wallet API. Requests on a wallet go through {@link AdmissionControl} first, callers identify
+ * themselves with the {@value #CALLER_HEADER} header and mark batch traffic with
+ * {@code X-Priority: bulk}.
+ */
 @RequestMapping("/wallets")
+@ForwardHeaders({WalletServiceAction.CALLER_HEADER, WalletServiceAction.PRIORITY_HEADER, WalletServiceAction.FORWARDED_FOR_HEADER})
 public class WalletServiceAction extends Action {
 
+  public static final String CALLER_HEADER = "X-Caller-Id";
+  public static final String PRIORITY_HEADER = "X-Priority";
+  public static final String FORWARDED_FOR_HEADER = "X-Forwarded-For";
+
+  // a hold expiry timer firing early is started again, at least this much later
+  static final Duration MIN_EXPIRY_DELAY = Duration.ofSeconds(1);
+
   final private Logger logger = LoggerFactory.getLogger(getClass());
   final private ComponentClient componentClient;
+  final private AdmissionControl admissionControl;
+  final private FeeEngine feeEngine;
+  final private FxRates fxRates;
 
-  public WalletServiceAction(@Autowired ComponentClient componentClient) {
+  public WalletServiceAction(@Autowired ComponentClient componentClient,
+                             @Autowired AdmissionControl admissionControl,
+                             @Autowired FeeEngine feeEngine,
+                             @Autowired FxRates fxRates) {
     this.componentClient = componentClient;
+    this.admissionControl = admissionControl;
+    this.feeEngine = feeEngine;
+    this.fxRates = fxRates;
+  }
+
+  /**
+   * Rejects the request with 429 when one of its wallets or the caller is over its limit, before
+   * anything is sent to the entity.
+   */
+  private <T> Effect<T> admitted(Supplier<Effect<T>> effect, String... walletIds) {
+    admissionControl.refresh(componentClient);
+    var decision = admissionControl.admit(actionContext().metadata(), Arrays.asList(walletIds));
+    if (!decision.admitted())
+      return effects().error(decision.rejection(Arrays.asList(walletIds)), StatusCode.ErrorCode.TOO_MANY_REQUESTS);
+    return effect.get();
   }
 
 
@@ -36,18 +78,17 @@ public class WalletServiceAction extends Action {
   }
 
   @PostMapping("/{walletId}/deposit")
-  public Effect<Wallet.WalletStatus> deposit(@PathVariable String walletId, @RequestBody Wallet.Deposit cmd) throws ExecutionException, InterruptedException {
+  public Effect<Wallet.WalletStatus> deposit(@PathVariable String walletId, @RequestBody Wallet.Deposit cmd) {
+    return admitted(() -> doDeposit(walletId, cmd), walletId);
+  }
 
+  /**
+   * A conversion only comes with the deposits of cross-currency transfers, the one of a client is
+   * dropped.
+   */
+  private Effect<Wallet.WalletStatus> doDeposit(String walletId, Wallet.Deposit request) {
+    var cmd = new Wallet.Deposit(request.amount(), request.transactionId(), request.currency());
     logger.info("deposit {}", cmd);
-    var createTxCmd = new TransactionMediator.Create(List.of(Participant.of(walletId, Wallet.class)));
-
-    var tx =
-      componentClient
-        .forEventSourcedEntity(cmd.transactionId())
-        .call(TransactionMediator::create)
-        .params(createTxCmd)
-        .execute();
-
     var deposit =
       componentClient
         .forEventSourcedEntity(walletId)
@@ -55,27 +96,33 @@ public class WalletServiceAction extends Action {
         .params(cmd);
 
     CompletionStage<Effect<Wallet.WalletStatus>> res =
-      tx.thenApply(status -> {
-        if (status.status().isTerminated())
-          return effects().error("Transaction " + cmd.transactionId() + " already created");
-        else
-          return effects().forward(deposit);
-      });
+      openTransaction(componentClient, cmd.transactionId(), walletId)
+        .thenApply(open -> open ? effects().forward(deposit) : effects().error(alreadyCreated(cmd.transactionId())));
 
     return effects().asyncEffect(res);
   }
 
+  /**
+   * Creates the transaction of a deposit or withdraw on a single wallet.
+   *
+   * @return false when the transaction already ended
+   */
+  static CompletionStage<Boolean> openTransaction(ComponentClient componentClient, String transactionId, String walletId) {
+    var createTxCmd = new TransactionMediator.Create(List.of(Participant.of(walletId, Wallet.class)));
+    return TransactionServiceAction.create(componentClient, transactionId, createTxCmd)
+      .thenApply(status -> !status.status().isTerminated());
+  }
+
+  static String alreadyCreated(String transactionId) {
+    return "Transaction " + transactionId + " already created";
+  }
+
   @PostMapping("/{walletId}/withdraw")
   public Effect<Wallet.WalletStatus> withdraw(@PathVariable String walletId, @RequestBody Wallet.Withdraw cmd) {
+    return admitted(() -> doWithdraw(walletId, cmd), walletId);
+  }
 
-    var createTxCmd = new TransactionMediator.Create(List.of(Participant.of(walletId, Wallet.class)));
-    var tx =
-      componentClient
-        .forEventSourcedEntity(cmd.transactionId())
-        .call(TransactionMediator::create)
-        .params(createTxCmd)
-        .execute();
-
+  private Effect<Wallet.WalletStatus> doWithdraw(String walletId, Wallet.Withdraw cmd) {
     var withdraw =
       componentClient
         .forEventSourcedEntity(walletId)
@@ -83,16 +130,29 @@ public class WalletServiceAction extends Action {
         .params(cmd);
 
     CompletionStage<Effect<Wallet.WalletStatus>> res =
-      tx.thenApply(status -> {
-        if (status.status().isTerminated())
-          return effects().error("Transaction " + cmd.transactionId() + " already created");
-        else
-          return effects().forward(withdraw);
-      });
+      openTransaction(componentClient, cmd.transactionId(), walletId)
+        .thenApply(open -> open ? effects().forward(withdraw) : effects().error(alreadyCreated(cmd.transactionId())));
 
     return effects().asyncEffect(res);
   }
 
+  @GetMapping("/{walletId}/velocity-limits")
+  public Effect<Wallet.VelocityLimits> getVelocityLimits(@PathVariable String walletId) {
+    return effects().forward(
+      componentClient
+        .forEventSourcedEntity(walletId)
+        .call(Wallet::getVelocityLimits));
+  }
+
+  @PutMapping("/{walletId}/velocity-limits")
+  public Effect<Wallet.VelocityLimits> updateVelocityLimits(@PathVariable String walletId, @RequestBody Wallet.VelocityLimits cmd) {
+    return effects().forward(
+      componentClient
+        .forEventSourcedEntity(walletId)
+        .call(Wallet::updateVelocityLimits)
+        .params(cmd));
+  }
+
   @GetMapping("/{walletId}")
   public Effect<Wallet.WalletStatus> getStatus(@PathVariable String walletId) {
     var status =
@@ -100,37 +160,192 @@ public class WalletServiceAction extends Action {
         .forEventSourcedEntity(walletId)
         .call(Wallet::getStatus);
 
-    return effects().forward(status);
+    return admitted(() -> effects().forward(status), walletId);
+  }
+
+  @GetMapping("/{walletId}/summary")
+  public Effect<Wallet.WalletSummary> getSummary(@PathVariable String walletId) {
+    var summary =
+      componentClient
+        .forEventSourcedEntity(walletId)
+        .call(Wallet::getSummary);
+
+    return admitted(() -> effects().forward(summary), walletId);
+  }
+
+  @GetMapping("/{walletId}/pending")
+  public Effect<Wallet.PendingPage> getPendingTransactions(@PathVariable String walletId,
+                                                           @RequestParam(required = false) String after,
+                                                           @RequestParam(required = false) Integer limit) {
+    var page =
+      componentClient
+        .forEventSourcedEntity(walletId)
+        .call(Wallet::getPendingTransactions)
+        .params(after, limit);
+
+    return admitted(() -> effects().forward(page), walletId);
+  }
+
+  /**
+   * Reserves funds for a later capture. A timer releases the hold when it expires, unless it was
+   * captured or voided before.
+   */
+  @PostMapping("/{walletId}/authorize")
+  public Effect<Wallet.WalletStatus> authorize(@PathVariable String walletId, @RequestBody Wallet.Authorize cmd) {
+    return admitted(() -> doAuthorize(walletId, cmd), walletId);
+  }
+
+  private Effect<Wallet.WalletStatus> doAuthorize(String walletId, Wallet.Authorize cmd) {
+    var authorized =
+      componentClient
+        .forEventSourcedEntity(walletId)
+        .call(Wallet::authorize)
+        .params(cmd)
+        .execute()
+        .thenCompose(status ->
+          startExpiryTimer(walletId, cmd.authorizationId(), 0, cmd.expiry())
+            .thenApply(__ -> status));
+
+    return effects().asyncReply(authorized);
+  }
+
+  /**
+   * Target of the hold expiry timers. A timer firing before its hold expired, the clocks of this
+   * service and of the entity being apart, is started again for the time left.
+   */
+  @PostMapping("/{walletId}/holds/{authorizationId}/expire")
+  public Effect<Done> expireHold(@PathVariable String walletId, @PathVariable String authorizationId,
+                                 @RequestParam(required = false) Integer pass) {
+    var currentPass = pass == null ? 0 : pass;
+    var expired =
+      componentClient
+        .forEventSourcedEntity(walletId)
+        .call(Wallet::expireHolds)
+        .execute()
+        .thenCompose(status -> {
+          var open = status.holds().stream().filter(hold -> hold.authorizationId().equals(authorizationId)).findFirst();
+          if (open.isEmpty()) return CompletableFuture.completedFuture(new Done());
+
+          var left = Duration.between(Instant.now(), open.get().expiresAt());
+          logger.info("Hold expiry timer of '{}' on '{}' fired early, {} ms left", authorizationId, walletId, left.toMillis());
+          return startExpiryTimer(walletId, authorizationId, currentPass + 1, left.compareTo(MIN_EXPIRY_DELAY) < 0 ? MIN_EXPIRY_DELAY : left);
+        });
+
+    return effects().asyncReply(expired);
+  }
+
+  private CompletionStage<Done> startExpiryTimer(String walletId, String authorizationId, int pass, Duration delay) {
+    var expire =
+      componentClient
+        .forAction()
+        .call(WalletServiceAction::expireHold)
+        .params(walletId, authorizationId, pass);
+    return timers()
+      .startSingleTimer("hold-expiry-" + walletId + "-" + authorizationId + "-" + pass, delay, expire)
+      .thenApply(__ -> new Done());
+  }
+
+  @PostMapping("/{walletId}/holds/{authorizationId}/capture")
+  public Effect<Wallet.WalletStatus> capture(@PathVariable String walletId, @PathVariable String authorizationId,
+                                             @RequestBody Wallet.Capture cmd) {
+    var capture =
+      componentClient
+        .forEventSourcedEntity(walletId)
+        .call(Wallet::capture)
+        .params(authorizationId, cmd);
+
+    return admitted(() -> effects().forward(capture), walletId);
+  }
+
+  @PostMapping("/{walletId}/holds/{authorizationId}/void")
+  public Effect<Wallet.WalletStatus> voidHold(@PathVariable String walletId, @PathVariable String authorizationId) {
+    var voidHold =
+      componentClient
+        .forEventSourcedEntity(walletId)
+        .call(Wallet::voidHold)
+        .params(authorizationId);
+
+    return admitted(() -> effects().forward(voidHold), walletId);
   }
 
   @PostMapping("/transfer/{transactionId}")
   public Effect<TransactionMediator.TransactionStatus> transfer(@PathVariable String transactionId, @RequestBody Transfer cmd) {
+    return admitted(() -> doTransfer(transactionId, cmd), cmd.from(), cmd.to());
+  }
 
-    var createTxCmd = new TransactionMediator.Create(
-      List.of(
-        Participant.of(cmd.from(), Wallet.class),
-        Participant.of(cmd.to(), Wallet.class)
-      ));
-    var tx =
-      componentClient
-        .forEventSourcedEntity(transactionId)
-        .call(TransactionMediator::create)
-        .params(createTxCmd)
-        .execute();
-
-    componentClient
-      .forEventSourcedEntity(cmd.from())
-      .call(Wallet::withdraw)
-      .params(new Wallet.Withdraw(cmd.amount(), transactionId))
-      .execute();
-
-    componentClient
-      .forEventSourcedEntity(cmd.to())
-      .call(Wallet::deposit)
-      .params(new Wallet.Deposit(cmd.amount(), transactionId))
-      .execute();
-
-    return effects().asyncReply(tx);
+  private Effect<TransactionMediator.TransactionStatus> doTransfer(String transactionId, Transfer cmd) {
+    var deposit = recipientDeposit(fxRates, transactionId, cmd);
+    if (deposit == null)
+      return effects().error(noRate(cmd), StatusCode.ErrorCode.BAD_REQUEST);
+    return effects().asyncReply(transfer(componentClient, feeEngine, transactionId, cmd, deposit));
+  }
+
+  /**
+   * The deposit of the recipient of a transfer. The recipient of a cross-currency transfer gets
+   * the amount converted at the current rate, recorded in its deposit.
+   *
+   * @return null when there is no rate for the conversion
+   */
+  static Wallet.Deposit recipientDeposit(FxRates fxRates, String transactionId, Transfer cmd) {
+    if (!cmd.isCrossCurrency())
+      return new Wallet.Deposit(cmd.amount(), transactionId, cmd.currency());
+    var quote = fxRates.quote(cmd.currency(), cmd.toCurrency());
+    if (quote == null) return null;
+    var conversion = Wallet.Conversion.of(quote, cmd.amount());
+    return new Wallet.Deposit(conversion.converted(), transactionId, cmd.toCurrency(), conversion);
+  }
+
+  static String noRate(Transfer cmd) {
+    return "No exchange rate from " + cmd.currency() + " to " + cmd.toCurrency();
+  }
+
+  /**
+   * The fee of the transfer, if any, is withdrawn along with the amount and deposited in the fee
+   * wallet, a third participant of the same transaction. The fee is decided once, when the
+   * transaction is created, and a redelivered transfer charges the fee kept with it. The fee
+   * wallet isn't admitted like the others, it takes part in most transfers. A redelivered
+   * transfer whose transaction already ended, archived ones included, replies with its status
+   * without calling the wallets.
+   */
+  static CompletionStage<TransactionMediator.TransactionStatus> transfer(ComponentClient componentClient, FeeEngine feeEngine,
+                                                                        String transactionId, Transfer cmd, Wallet.Deposit deposit) {
+    return feeEngine.ready(componentClient)
+      .thenCompose(__ -> {
+        var fee = feeEngine.feeFor(cmd);
+        var participants = new ArrayList<>(List.of(
+          Participant.of(cmd.from(), Wallet.class),
+          Participant.of(cmd.to(), Wallet.class)));
+        if (fee != null) participants.add(Participant.of(fee.walletId(), Wallet.class));
+
+        var createTxCmd = new TransactionMediator.Create(participants, cmd.protocol(),
+          fee == null ? null : new TransactionMediator.Fee(fee.walletId(), fee.amount()));
+        return TransactionServiceAction.create(componentClient, transactionId, createTxCmd);
+      })
+      .thenApply(status -> {
+        if (status.status().isTerminated()) return status;
+        // the fee the transaction was created with, whatever the rules are now
+        var fee = status.fee();
+        componentClient
+          .forEventSourcedEntity(cmd.from())
+          .call(Wallet::withdraw)
+          .params(new Wallet.Withdraw(fee == null ? cmd.amount() : cmd.amount() + fee.amount(), transactionId, cmd.currency()))
+          .execute();
+
+        componentClient
+          .forEventSourcedEntity(cmd.to())
+          .call(Wallet::deposit)
+          .params(deposit)
+          .execute();
+
+        if (fee != null) {
+          componentClient
+            .forEventSourcedEntity(fee.participantId())
+            .call(Wallet::deposit)
+            .params(new Wallet.Deposit(fee.amount(), transactionId, cmd.currency()))
+            .execute();
+        }
+        return status;
+      });
   }
 
 }
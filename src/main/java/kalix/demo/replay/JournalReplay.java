@@ -0,0 +1,223 @@
+package kalix.demo.replay;
+
+import ch.qos.logback.classic.Level;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.vavr.collection.List;
+import io.vavr.collection.Map;
+import kalix.demo.VavrJson;
+import kalix.javasdk.JsonSupport;
+import kalix.javasdk.eventsourcedentity.EventSourcedEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+
+/**
+ * Replays an exported event journal through the real {@code @EventHandler} methods of
+ * {@link kalix.demo.payment.Wallet} and {@link kalix.demo.transactions.TransactionMediator},
+ * without a Kalix proxy, checking invariants after each event.
+ * <p>
+ * The journal is a JSONL file, one event per line:
+ * <pre>
+ * {"entityType":"wallet","entityId":"aaa","seqNr":2,"eventType":"deposit-initiated","event":{"amount":50.0,"transactionId":"t1","walletId":"aaa"}}
+ * </pre>
+ * Lines must be grouped by entity and ordered by sequence number, as they are when exported
+ * per persistence id. Only the state of the entity being replayed is kept in memory, so the
+ * journal size is not bounded by the heap. The order is checked before each event is applied: an
+ * entity whose lines don't start with a creation (or compaction) event, or whose sequence numbers
+ * go back, fails the replay with the offending line. Entity types there is no replay target for
+ * are reported once and skipped.
+ * <p>
+ * Run with: {@code mvn compile exec:java -Dexec.mainClass=kalix.demo.replay.JournalReplay -Dexec.args="journal.jsonl"}
+ */
+public class JournalReplay {
+
+  private static final Logger logger = LoggerFactory.getLogger(JournalReplay.class);
+
+  public record Report(long events,
+                       long entities,
+                       long skipped,
+                       long violations,
+                       int peakStateSize,
+                       String peakStateEntity,
+                       long elapsedNanos,
+                       long allocatedBytes) {
+
+    public double eventsPerSecond() {
+      return elapsedNanos == 0 ? 0 : events * 1_000_000_000d / elapsedNanos;
+    }
+
+    public double allocatedMegabytesPerSecond() {
+      return elapsedNanos == 0 || allocatedBytes < 0 ? 0 : (allocatedBytes / 1_048_576d) * 1_000_000_000d / elapsedNanos;
+    }
+
+    void print(PrintStream out) {
+      out.printf("events:            %d%n", events);
+      out.printf("entities:          %d%n", entities);
+      out.printf("skipped events:    %d%n", skipped);
+      out.printf("violations:        %d%n", violations);
+      out.printf("elapsed:           %.3f s%n", elapsedNanos / 1_000_000_000d);
+      out.printf("events/sec:        %.0f%n", eventsPerSecond());
+      out.printf("peak state size:   %d entries (%s)%n", peakStateSize, peakStateEntity);
+      if (allocatedBytes >= 0)
+        out.printf("allocation rate:   %.1f MB/s (%d bytes total)%n", allocatedMegabytesPerSecond(), allocatedBytes);
+      else
+        out.println("allocation rate:   not supported by this JVM");
+    }
+  }
+
+  final private ObjectMapper mapper = JsonSupport.getObjectMapper().copy().registerModule(VavrJson.module());
+  final private Map<String, ReplayTarget<?>> targets;
+  final private int maxReportedViolations;
+  final private PrintStream out;
+
+  public JournalReplay(int maxReportedViolations, PrintStream out) {
+    this.targets =
+      List.<ReplayTarget<?>>of(ReplayTarget.wallet(), ReplayTarget.transactionMediator())
+        .toMap(t -> t.entityType, t -> t);
+    this.maxReportedViolations = maxReportedViolations;
+    this.out = out;
+  }
+
+  /**
+   * Mutable replay progress. Holds the state of the current entity only.
+   */
+  private static class Cursor<S> {
+    final ReplayTarget<S> target;
+    final String entityId;
+    final EventSourcedEntity<S, ?> entity;
+    S state;
+    long seqNr = Long.MIN_VALUE;
+
+    Cursor(ReplayTarget<S> target, String entityId) {
+      this.target = target;
+      this.entityId = entityId;
+      this.entity = target.newEntity(entityId);
+    }
+
+    boolean isFor(String entityType, String entityId) {
+      return target.entityType.equals(entityType) && this.entityId.equals(entityId);
+    }
+  }
+
+  public Report replay(BufferedReader journal) throws IOException {
+    var threadBean = ManagementFactory.getThreadMXBean();
+    var allocations = threadBean instanceof com.sun.management.ThreadMXBean sunBean && sunBean.isThreadAllocatedMemorySupported() ? sunBean : null;
+    var threadId = Thread.currentThread().getId();
+    var allocatedBefore = allocations == null ? -1 : allocations.getThreadAllocatedBytes(threadId);
+    var start = System.nanoTime();
+
+    long events = 0, entities = 0, skipped = 0, violations = 0, lineNr = 0;
+    int peakStateSize = 0;
+    String peakStateEntity = "";
+    Cursor<?> cursor = null;
+    var unsupported = new HashSet<String>();
+
+    String line;
+    while ((line = journal.readLine()) != null) {
+      lineNr++;
+      if (line.isBlank()) continue;
+
+      var node = mapper.readTree(line);
+      var entityType = node.path("entityType").asText();
+      var entityId = node.path("entityId").asText();
+      var target = targets.get(entityType);
+
+      if (target.isEmpty()) {
+        if (unsupported.add(entityType))
+          out.printf("line %d: no replay target for entity type '%s', its events are skipped%n", lineNr, entityType);
+        skipped++;
+        continue;
+      }
+
+      if (cursor == null || !cursor.isFor(entityType, entityId)) {
+        cursor = new Cursor<>(target.get(), entityId);
+        entities++;
+      }
+      checkOrder(cursor, node, lineNr);
+
+      var applied = apply(cursor, node);
+      if (!applied) {
+        skipped++;
+        continue;
+      }
+      events++;
+
+      var size = sizeOf(cursor);
+      if (size > peakStateSize) {
+        peakStateSize = size;
+        peakStateEntity = entityType + "/" + entityId;
+      }
+
+      for (var violation : violationsOf(cursor)) {
+        violations++;
+        if (violations <= maxReportedViolations)
+          out.printf("line %d, %s/%s seqNr %d: %s%n", lineNr, entityType, entityId, node.path("seqNr").asLong(), violation);
+      }
+    }
+
+    var elapsed = System.nanoTime() - start;
+    var allocated = allocations == null ? -1 : allocations.getThreadAllocatedBytes(threadId) - allocatedBefore;
+    return new Report(events, entities, skipped, violations, peakStateSize, peakStateEntity, elapsed, allocated);
+  }
+
+  private static <S> void checkOrder(Cursor<S> cursor, JsonNode node, long lineNr) throws IOException {
+    var seqNr = node.path("seqNr").asLong();
+    var where = "line " + lineNr + ", " + cursor.target.entityType + "/" + cursor.entityId + " seqNr " + seqNr;
+    if (seqNr <= cursor.seqNr)
+      throw new IOException(where + ": sequence numbers must increase, the journal must be ordered by sequence number");
+
+    if (cursor.state == null) {
+      var eventType = node.path("eventType").asText();
+      var handler = cursor.target.handlerFor(eventType);
+      if (handler.isDefined() && !cursor.target.isInitial(handler.get()))
+        throw new IOException(where + ": entity starts with '" + eventType + "', the journal must be grouped by entity");
+    }
+    cursor.seqNr = seqNr;
+  }
+
+  private <S> boolean apply(Cursor<S> cursor, JsonNode node) throws IOException {
+    var eventType = node.path("eventType").asText();
+    var handler = cursor.target.handlerFor(eventType);
+    if (handler.isEmpty()) {
+      logger.warn("No event handler for '{}' on '{}'", eventType, cursor.target.entityType);
+      return false;
+    }
+    var event = mapper.treeToValue(node.path("event"), handler.get().eventClass());
+    cursor.state = cursor.target.apply(cursor.entity, cursor.state, handler.get(), event);
+    return true;
+  }
+
+  private <S> int sizeOf(Cursor<S> cursor) {
+    return cursor.target.sizeOf(cursor.state);
+  }
+
+  private <S> List<String> violationsOf(Cursor<S> cursor) {
+    return cursor.target.violations(cursor.state);
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      System.err.println("usage: JournalReplay <journal.jsonl> [max-reported-violations]");
+      System.exit(1);
+    }
+
+    // the entities log at info level on every state change, which would dominate the replay
+    ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger("kalix.demo")).setLevel(Level.WARN);
+
+    var maxReported = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+    var replay = new JournalReplay(maxReported, System.out);
+    try (var journal = Files.newBufferedReader(Path.of(args[0]))) {
+      var report = replay.replay(journal);
+      report.print(System.out);
+      System.exit(report.violations() == 0 ? 0 : 2);
+    }
+  }
+}
@@ -0,0 +1,167 @@
+package kalix.demo.replay;
+
+import akka.stream.Materializer;
+import io.vavr.collection.HashMap;
+import io.vavr.collection.HashSet;
+import io.vavr.collection.List;
+import io.vavr.collection.Map;
+import io.vavr.collection.Set;
+import io.vavr.control.Option;
+import kalix.demo.payment.Wallet;
+import kalix.demo.transactions.TransactionMediator;
+import kalix.javasdk.annotations.EventHandler;
+import kalix.javasdk.annotations.TypeId;
+import kalix.javasdk.annotations.TypeName;
+import kalix.javasdk.eventsourcedentity.EventSourcedEntity;
+import kalix.javasdk.eventsourcedentity.EventSourcedEntityContext;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * Describes how to replay the events of one entity type: how to instantiate it, which
+ * {@link EventHandler} applies to each event type, which events may start its journal, and which
+ * invariants its state must hold.
+ */
+final class ReplayTarget<S> {
+
+  record Handler(Class<?> eventClass, Method method) {
+  }
+
+  final String entityType;
+  final private Function<EventSourcedEntityContext, ? extends EventSourcedEntity<S, ?>> factory;
+  final private Map<String, Handler> handlers;
+  final private Set<Class<?>> initialEvents;
+  final private Function<S, List<String>> invariants;
+  final private ToIntFunction<S> sizeOf;
+
+  private ReplayTarget(Class<?> entityClass,
+                       Function<EventSourcedEntityContext, ? extends EventSourcedEntity<S, ?>> factory,
+                       Set<Class<?>> initialEvents,
+                       Function<S, List<String>> invariants,
+                       ToIntFunction<S> sizeOf) {
+    this.entityType = entityClass.getAnnotation(TypeId.class).value();
+    this.factory = factory;
+    this.handlers = handlersOf(entityClass);
+    this.initialEvents = initialEvents;
+    this.invariants = invariants;
+    this.sizeOf = sizeOf;
+  }
+
+  static ReplayTarget<Wallet.State> wallet() {
+    return new ReplayTarget<>(
+      Wallet.class,
+      Wallet::new,
+      HashSet.of(Wallet.Event.Created.class, Wallet.Event.WalletCompacted.class),
+      state ->
+        state.balances().toList().flatMap(entry -> {
+          var currency = entry._1;
+          var balance = entry._2;
+          var pendingWithdraws = state.pendingWithdrawTotal(currency);
+          var held = state.heldTotal(currency);
+          var violations = List.<String>empty();
+          if (balance.available() < 0)
+            violations = violations.append("negative balance " + balance.available() + " " + currency);
+          var kept = state.pendingTotalsOf(currency);
+          var recomputed = state.recomputedPendingTotalsOf(currency);
+          if (!kept.deposits().equals(recomputed.deposits()) || !kept.withdraws().equals(recomputed.withdraws())
+            || Math.abs(kept.depositTotal() - recomputed.depositTotal()) > 1e-9
+            || Math.abs(kept.withdrawTotal() - recomputed.withdrawTotal()) > 1e-9)
+            violations = violations.append("pending totals " + kept + " " + currency + " differ from pending transactions " + recomputed);
+          if (Math.abs(balance.reserved() - pendingWithdraws - held) > 1e-9)
+            violations = violations.append("reserved " + balance.reserved() + " " + currency + " differs from pending withdraws " + pendingWithdraws + " and holds " + held);
+          return violations;
+        }),
+      state -> state.pendingTransactions().size() + state.executedTransactions().size() + state.holds().size());
+  }
+
+  static ReplayTarget<TransactionMediator.State> transactionMediator() {
+    return new ReplayTarget<>(
+      TransactionMediator.class,
+      TransactionMediator::new,
+      HashSet.of(TransactionMediator.Event.Created.class),
+      state -> {
+        var violations = List.<String>empty();
+        if (state.participants().values().exists(p -> p.executed() && !p.joined()))
+          violations = violations.append("participant executed without joining");
+        if (state.status() == TransactionMediator.Status.COMPLETED && !state.participants().values().forAll(TransactionMediator.Participant::executed))
+          violations = violations.append("completed with participants not executed");
+        return violations;
+      },
+      state -> state.participants().size());
+  }
+
+  Option<Handler> handlerFor(String eventType) {
+    return handlers.get(eventType);
+  }
+
+  /**
+   * Whether an entity's journal may start with the event of this handler, the other handlers
+   * need the state built by earlier events.
+   */
+  boolean isInitial(Handler handler) {
+    return initialEvents.contains(handler.eventClass());
+  }
+
+  EventSourcedEntity<S, ?> newEntity(String entityId) {
+    return factory.apply(new OfflineContext(entityType, entityId));
+  }
+
+  @SuppressWarnings("unchecked")
+  S apply(EventSourcedEntity<S, ?> entity, S state, Handler handler, Object event) {
+    entity._internalSetCurrentState(state);
+    try {
+      return (S) handler.method.invoke(entity, event);
+    } catch (InvocationTargetException e) {
+      throw new IllegalStateException("Event handler failed for " + event, e.getCause());
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  List<String> violations(S state) {
+    return state == null ? List.empty() : invariants.apply(state);
+  }
+
+  int sizeOf(S state) {
+    return state == null ? 0 : sizeOf.applyAsInt(state);
+  }
+
+  /**
+   * Event types are resolved by their {@link TypeName} (or {@link TypeId}) and by simple class name.
+   */
+  private static Map<String, Handler> handlersOf(Class<?> entityClass) {
+    return List.of(entityClass.getMethods())
+      .filter(m -> m.isAnnotationPresent(EventHandler.class) && m.getParameterCount() == 1)
+      .foldLeft(HashMap.empty(), (acc, method) -> {
+        var eventClass = method.getParameterTypes()[0];
+        var handler = new Handler(eventClass, method);
+        return acc
+          .put(eventClass.getSimpleName(), handler)
+          .put(typeNameOf(eventClass), handler);
+      });
+  }
+
+  private static String typeNameOf(Class<?> eventClass) {
+    if (eventClass.isAnnotationPresent(TypeName.class))
+      return eventClass.getAnnotation(TypeName.class).value();
+    else if (eventClass.isAnnotationPresent(TypeId.class))
+      return eventClass.getAnnotation(TypeId.class).value();
+    else
+      return eventClass.getSimpleName();
+  }
+
+  /**
+   * Replayed entities only run their event handlers, which never stream, so there is no actor
+   * system behind this context. An entity type that needs one when constructed can't be replayed
+   * offline and fails with an explicit error.
+   */
+  private record OfflineContext(String entityType, String entityId) implements EventSourcedEntityContext {
+    @Override
+    public Materializer materializer() {
+      throw new IllegalStateException("Entity type '" + entityType + "' uses a materializer and can't be replayed offline");
+    }
+  }
+}
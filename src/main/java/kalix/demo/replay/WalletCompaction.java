@@ -0,0 +1,188 @@
+package kalix.demo.replay;
+
+import ch.qos.logback.classic.Level;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kalix.demo.VavrJson;
+import kalix.demo.payment.Wallet;
+import kalix.javasdk.JsonSupport;
+import kalix.javasdk.eventsourcedentity.EventSourcedEntity;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compacts the wallets of an exported event journal (the JSONL format read by
+ * {@link JournalReplay}, with an optional {@code "timestamp"} per event).
+ * <p>
+ * The events of a wallet older than the horizon are folded, through the real event handlers, into
+ * a single {@link Wallet.Event.WalletCompacted} baseline, which takes the sequence number of the
+ * last event it replaces so that the events kept after it are unchanged. The folded events are
+ * written as they were to a gzipped archive, for audit. Events without a timestamp, and all the
+ * events of a wallet after its first one within the horizon, are kept. Other entity types pass
+ * through untouched.
+ * <p>
+ * Like the replay, only the state of the wallet being compacted is kept in memory. Both outputs
+ * are written to temporary files and moved in place once complete.
+ * <p>
+ * Run with: {@code mvn compile exec:java -Dexec.mainClass=kalix.demo.replay.WalletCompaction -Dexec.args="journal.jsonl target/compacted 30"}
+ * where the last argument is the horizon in days.
+ */
+public class WalletCompaction {
+
+  static final String JOURNAL_FILE = "journal.jsonl";
+  static final String ARCHIVE_FILE = "wallet-archive.jsonl.gz";
+
+  public record Report(long wallets, long compactedWallets, long foldedEvents, long keptEvents, long otherEvents) {
+
+    void print(PrintStream out) {
+      out.printf("wallets:           %d (%d compacted)%n", wallets, compactedWallets);
+      out.printf("folded events:     %d%n", foldedEvents);
+      out.printf("kept events:       %d%n", keptEvents);
+      out.printf("other events:      %d%n", otherEvents);
+    }
+  }
+
+  /**
+   * Progress on the wallet being read: folding until its first event within the horizon.
+   */
+  private static class Cursor {
+    final String walletId;
+    final EventSourcedEntity<Wallet.State, ?> entity;
+    Wallet.State state;
+    long folded;
+    long lastFoldedSeqNr;
+    boolean folding = true;
+
+    Cursor(ReplayTarget<Wallet.State> target, String walletId) {
+      this.walletId = walletId;
+      this.entity = target.newEntity(walletId);
+    }
+  }
+
+  final private ObjectMapper mapper = JsonSupport.getObjectMapper().copy().registerModule(VavrJson.module());
+  final private ReplayTarget<Wallet.State> target = ReplayTarget.wallet();
+  final private Instant horizon;
+
+  public WalletCompaction(Instant horizon) {
+    this.horizon = horizon;
+  }
+
+  public Report compact(BufferedReader journal, Path directory) throws IOException {
+    Files.createDirectories(directory);
+    var journalTmp = directory.resolve(JOURNAL_FILE + ".tmp");
+    var archiveTmp = directory.resolve(ARCHIVE_FILE + ".tmp");
+
+    Report report;
+    try (var compacted = Files.newBufferedWriter(journalTmp);
+         var archive = new BufferedWriter(new OutputStreamWriter(
+           new GZIPOutputStream(Files.newOutputStream(archiveTmp)), StandardCharsets.UTF_8))) {
+      report = compact(journal, compacted, archive);
+    }
+
+    Files.move(archiveTmp, directory.resolve(ARCHIVE_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    Files.move(journalTmp, directory.resolve(JOURNAL_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    return report;
+  }
+
+  Report compact(BufferedReader journal, Writer compacted, Writer archive) throws IOException {
+    long wallets = 0, compactedWallets = 0, folded = 0, kept = 0, other = 0;
+    Cursor cursor = null;
+
+    String line;
+    while ((line = journal.readLine()) != null) {
+      if (line.isBlank()) continue;
+
+      var node = mapper.readTree(line);
+      if (!target.entityType.equals(node.path("entityType").asText())) {
+        other++;
+        writeLine(compacted, line);
+        continue;
+      }
+
+      var walletId = node.path("entityId").asText();
+      if (cursor == null || !cursor.walletId.equals(walletId)) {
+        if (writeBaseline(cursor, compacted)) compactedWallets++;
+        cursor = new Cursor(target, walletId);
+        wallets++;
+      }
+
+      if (cursor.folding && isBeforeHorizon(node) && apply(cursor, node)) {
+        cursor.folded++;
+        cursor.lastFoldedSeqNr = node.path("seqNr").asLong();
+        folded++;
+        writeLine(archive, line);
+      } else {
+        if (writeBaseline(cursor, compacted)) compactedWallets++;
+        cursor.folding = false;
+        kept++;
+        writeLine(compacted, line);
+      }
+    }
+    if (writeBaseline(cursor, compacted)) compactedWallets++;
+
+    return new Report(wallets, compactedWallets, folded, kept, other);
+  }
+
+  private boolean isBeforeHorizon(JsonNode node) {
+    var timestamp = node.path("timestamp");
+    return timestamp.isTextual() && Instant.parse(timestamp.asText()).isBefore(horizon);
+  }
+
+  private boolean apply(Cursor cursor, JsonNode node) throws IOException {
+    var handler = target.handlerFor(node.path("eventType").asText());
+    if (handler.isEmpty()) return false;
+    var event = mapper.treeToValue(node.path("event"), handler.get().eventClass());
+    cursor.state = target.apply(cursor.entity, cursor.state, handler.get(), event);
+    return true;
+  }
+
+  /**
+   * Writes the baseline of the wallet, once, if some of its events were folded.
+   */
+  private boolean writeBaseline(Cursor cursor, Writer compacted) throws IOException {
+    if (cursor == null || !cursor.folding || cursor.folded == 0 || cursor.state == null) return false;
+    cursor.folding = false;
+
+    var line = mapper.createObjectNode()
+      .put("entityType", target.entityType)
+      .put("entityId", cursor.walletId)
+      .put("seqNr", cursor.lastFoldedSeqNr)
+      .put("eventType", "wallet-compacted")
+      .set("event", mapper.valueToTree(Wallet.Event.WalletCompacted.of(cursor.walletId, cursor.state, cursor.folded)));
+    writeLine(compacted, mapper.writeValueAsString(line));
+    return true;
+  }
+
+  private static void writeLine(Writer writer, String line) throws IOException {
+    writer.write(line);
+    writer.write('\n');
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 3) {
+      System.err.println("usage: WalletCompaction <journal.jsonl> <output-directory> <horizon-days>");
+      System.exit(1);
+    }
+
+    // the entities log at info level on every state change, which would dominate the compaction
+    ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger("kalix.demo")).setLevel(Level.WARN);
+
+    var horizon = Instant.now().minus(Duration.ofDays(Long.parseLong(args[2])));
+    try (var journal = Files.newBufferedReader(Path.of(args[0]))) {
+      new WalletCompaction(horizon).compact(journal, Path.of(args[1])).print(System.out);
+    }
+  }
+}
@@ -0,0 +1,116 @@
+package kalix.demo.scheduling;
+
+import io.vavr.collection.LinkedHashMap;
+import io.vavr.collection.Map;
+import kalix.javasdk.annotations.Id;
+import kalix.javasdk.annotations.TypeId;
+import kalix.javasdk.valueentity.ValueEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Set;
+
+/**
+ * One shard of a slot of the timing wheel: some of the schedules due within one {@link #WIDTH}
+ * of time, all triggered by a single timer when the slot ends, so that the number of timers
+ * follows the number of shards in use rather than the number of schedules. A shard is deleted
+ * once all its schedules were dispatched.
+ * <p>
+ * Each slot is split over {@link #SHARDS} shards by schedule id, and a shard holds at most
+ * {@link #MAX_SCHEDULES}, so that no single entity takes the writes of a busy slot, nor grows
+ * with it. Schedules of a full shard go to the next one, past the last of the {@link #SHARDS}
+ * if need be.
+ */
+@Id("bucket")
+@TypeId("schedule-bucket")
+@RequestMapping("/schedule-bucket-entities/{bucket}")
+public class ScheduleBucket extends ValueEntity<ScheduleBucket.State> {
+
+  static final Duration WIDTH = Duration.ofMinutes(1);
+  static final int SHARDS = 16;
+  static final int MAX_SCHEDULES = 1_000;
+
+  /**
+   * Schedules are due in the slot ending at or after their due time, so that none is early.
+   */
+  static long bucketOf(Instant dueAt) {
+    return Math.floorDiv(dueAt.toEpochMilli() + WIDTH.toMillis() - 1, WIDTH.toMillis());
+  }
+
+  static Instant firesAt(long bucket) {
+    return Instant.ofEpochMilli(bucket * WIDTH.toMillis());
+  }
+
+  /**
+   * The shard a schedule tries first.
+   */
+  static int shardOf(String scheduleId) {
+    return Math.floorMod(scheduleId.hashCode(), SHARDS);
+  }
+
+  /**
+   * @param shard null for the slots written before they were sharded
+   */
+  static String entityId(long bucket, Integer shard) {
+    return shard == null ? String.valueOf(bucket) : bucket + "-" + shard;
+  }
+
+  /**
+   * @param schedules ids and due times of the schedules, in the order they were added
+   */
+  public record State(Map<String, Instant> schedules) {
+  }
+
+  public record Add(String scheduleId, Instant dueAt) {
+  }
+
+  /**
+   * @param needsTimer whether the shard timer has to be set: the shard was empty, or this is a
+   *                   redelivered add, which may have failed before setting it the first time
+   * @param full       the schedule wasn't added, the shard has {@link #MAX_SCHEDULES} already
+   */
+  public record Added(Boolean needsTimer, Boolean full) {
+  }
+
+  public record Remove(Set<String> scheduleIds) {
+  }
+
+  /**
+   * @param remaining schedules left in the shard, which need another timer
+   */
+  public record Removed(Integer remaining) {
+  }
+
+  @GetMapping
+  public Effect<State> getSchedules() {
+    return effects().reply(currentState() == null ? new State(LinkedHashMap.empty()) : currentState());
+  }
+
+  @PostMapping("/add")
+  public Effect<Added> add(@RequestBody Add cmd) {
+    var schedules = currentState() == null ? LinkedHashMap.<String, Instant>empty() : currentState().schedules();
+    if (schedules.containsKey(cmd.scheduleId())) {
+      return effects().reply(new Added(true, false));
+    } else if (schedules.size() >= MAX_SCHEDULES) {
+      return effects().reply(new Added(false, true));
+    } else {
+      var updated = schedules.put(cmd.scheduleId(), cmd.dueAt());
+      return effects().updateState(new State(updated)).thenReply(new Added(schedules.isEmpty(), false));
+    }
+  }
+
+  /**
+   * Replies with the schedules left, including those added while the shard was being dispatched.
+   */
+  @PostMapping("/remove")
+  public Effect<Removed> remove(@RequestBody Remove cmd) {
+    if (currentState() == null) return effects().reply(new Removed(0));
+
+    var updated = currentState().schedules().removeAll(cmd.scheduleIds());
+    if (updated.isEmpty())
+      return effects().deleteEntity().thenReply(new Removed(0));
+    else
+      return effects().updateState(new State(updated)).thenReply(new Removed(updated.size()));
+  }
+}
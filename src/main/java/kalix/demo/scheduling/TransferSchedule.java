@@ -0,0 +1,205 @@
+package kalix.demo.scheduling;
+
+import kalix.demo.Done;
+import kalix.demo.payment.Transfer;
+import kalix.javasdk.StatusCode;
+import kalix.javasdk.annotations.Id;
+import kalix.javasdk.annotations.TypeId;
+import kalix.javasdk.valueentity.ValueEntity;
+import kalix.javasdk.valueentity.ValueEntityContext;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+
+/**
+ * A standing order: the same {@link Transfer} made every interval from its first due time on,
+ * a given number of times or until cancelled. The schedule only keeps track of its occurrences,
+ * the {@link ScheduleBucket} of its next due time is what triggers it.
+ */
+@Id("scheduleId")
+@TypeId("transfer-schedule")
+@RequestMapping("/transfer-schedule-entities/{scheduleId}")
+public class TransferSchedule extends ValueEntity<TransferSchedule.State> {
+
+  // attempts at the transfer of an occurrence before it's given up
+  static final int MAX_ATTEMPTS = 5;
+  // failed occurrences kept on the schedule, the latest ones
+  static final int FAILED_OCCURRENCES = 100;
+
+  final private String scheduleId;
+
+  public TransferSchedule(ValueEntityContext context) {
+    this.scheduleId = context.entityId();
+  }
+
+  /**
+   * @param occurrences how many transfers are made, until cancelled when not set
+   */
+  public record Create(Transfer transfer, Instant firstDueAt, Long intervalSeconds, Integer occurrences) {
+  }
+
+  /**
+   * @param occurrence number of the next transfer, from 1
+   * @param nextDueAt  null once the last transfer was made or the schedule cancelled
+   * @param lastFired  the last transfer handed out, handed out again to a redelivered {@link Fire}
+   * @param attempts   failed attempts at the transfer of the last one handed out
+   * @param failed     transaction ids of the occurrences given up, latest first
+   */
+  public record State(String scheduleId, Transfer transfer, Long intervalSeconds, Integer occurrences,
+                      Integer occurrence, Instant nextDueAt, Firing lastFired, Boolean cancelled,
+                      Integer attempts, java.util.List<String> failed) {
+
+    public State {
+      // schedules stored before failed attempts were counted
+      attempts = attempts == null ? 0 : attempts;
+      failed = failed == null ? java.util.List.of() : failed;
+    }
+
+    boolean isActive() {
+      return nextDueAt != null && !cancelled;
+    }
+
+    /**
+     * The transfer due at that time was handed out last, and not given up.
+     */
+    boolean isRetry(Instant dueAt) {
+      return lastFired != null && lastFired.dueAt().equals(dueAt) && !failed.contains(lastFired.transactionId());
+    }
+
+    String transactionId() {
+      return scheduleId + "-" + occurrence;
+    }
+
+    State fired() {
+      var last = occurrences != null && occurrence >= occurrences;
+      var next = last ? null : nextDueAt.plus(Duration.ofSeconds(intervalSeconds));
+      return new State(scheduleId, transfer, intervalSeconds, occurrences, occurrence + 1, next,
+        new Firing(transactionId(), transfer, nextDueAt, next), cancelled, 0, failed);
+    }
+
+    State cancel() {
+      return new State(scheduleId, transfer, intervalSeconds, occurrences, occurrence, null, lastFired, true, attempts, failed);
+    }
+
+    State attemptFailed() {
+      return new State(scheduleId, transfer, intervalSeconds, occurrences, occurrence, nextDueAt, lastFired, cancelled, attempts + 1, failed);
+    }
+
+    State givenUp() {
+      var updated = new ArrayList<String>(FAILED_OCCURRENCES);
+      updated.add(lastFired.transactionId());
+      updated.addAll(failed.subList(0, Math.min(failed.size(), FAILED_OCCURRENCES - 1)));
+      return new State(scheduleId, transfer, intervalSeconds, occurrences, occurrence, nextDueAt, lastFired, cancelled, 0, updated);
+    }
+  }
+
+  public record Fire(Instant dueAt) {
+  }
+
+  /**
+   * @param retryable false when the transfer was turned down, and would be again
+   */
+  public record AttemptFailed(Instant dueAt, Boolean retryable) {
+  }
+
+  /**
+   * @param givenUp the occurrence was recorded as failed, the schedule moves on without it
+   */
+  public record AttemptRecorded(Boolean givenUp) {
+  }
+
+  /**
+   * @param transactionId null when the schedule has nothing due at that time (anymore)
+   * @param nextDueAt     when the schedule is due next, null when it isn't
+   */
+  public record Firing(String transactionId, Transfer transfer, Instant dueAt, Instant nextDueAt) {
+
+    static final Firing NOTHING = new Firing(null, null, null, null);
+
+    public boolean isDue() {
+      return transactionId != null;
+    }
+  }
+
+  @GetMapping
+  public Effect<State> getSchedule() {
+    if (currentState() == null)
+      return effects().error("Schedule doesn't exist: " + scheduleId, StatusCode.ErrorCode.NOT_FOUND);
+    else
+      return effects().reply(currentState());
+  }
+
+  /**
+   * Creating a schedule that exists already replies with it as it is.
+   */
+  @PostMapping
+  public Effect<State> create(@RequestBody Create cmd) {
+    if (currentState() != null) {
+      return effects().reply(currentState());
+    } else if (cmd.transfer() == null || cmd.firstDueAt() == null) {
+      return effects().error("A schedule needs a transfer and a first due time", StatusCode.ErrorCode.BAD_REQUEST);
+    } else if (cmd.intervalSeconds() == null || cmd.intervalSeconds() < ScheduleBucket.WIDTH.toSeconds()) {
+      return effects().error("The interval must be at least " + ScheduleBucket.WIDTH.toSeconds() + " seconds", StatusCode.ErrorCode.BAD_REQUEST);
+    } else if (cmd.occurrences() != null && cmd.occurrences() <= 0) {
+      return effects().error("Occurrences must be positive", StatusCode.ErrorCode.BAD_REQUEST);
+    } else {
+      var state = new State(scheduleId, cmd.transfer(), cmd.intervalSeconds(), cmd.occurrences(), 1, cmd.firstDueAt(), null, false, 0, null);
+      return effects().updateState(state).thenReply(state);
+    }
+  }
+
+  /**
+   * Hands out the transfer due at the given time and moves on to the next one. Only the transfer
+   * of the bucket that triggered it is handed out, the same one again when that bucket is
+   * dispatched again after a failure, so each occurrence is made with a single transaction id.
+   * Once cancelled, nothing is handed out anymore, not even the transfer of a bucket being
+   * dispatched again.
+   */
+  @PostMapping("/fire")
+  public Effect<Firing> fire(@RequestBody Fire cmd) {
+    var state = currentState();
+    if (state == null || state.cancelled()) {
+      return effects().reply(Firing.NOTHING);
+    } else if (state.isRetry(cmd.dueAt())) {
+      var lastFired = state.lastFired();
+      var next = state.isActive() ? state.nextDueAt() : null;
+      return effects().reply(new Firing(lastFired.transactionId(), lastFired.transfer(), lastFired.dueAt(), next));
+    } else if (!state.isActive() || !state.nextDueAt().equals(cmd.dueAt())) {
+      return effects().reply(Firing.NOTHING);
+    } else {
+      var fired = state.fired();
+      return effects().updateState(fired).thenReply(fired.lastFired());
+    }
+  }
+
+  /**
+   * Counts a failed attempt at the transfer handed out last. After {@link #MAX_ATTEMPTS}, or
+   * right away when it was turned down, the occurrence is given up: it's recorded as failed and
+   * the schedule goes on with the next one.
+   */
+  @PostMapping("/attempt-failed")
+  public Effect<AttemptRecorded> attemptFailed(@RequestBody AttemptFailed cmd) {
+    var state = currentState();
+    if (state == null || state.lastFired() == null || !state.lastFired().dueAt().equals(cmd.dueAt())) {
+      return effects().reply(new AttemptRecorded(false));
+    } else if (!state.isRetry(cmd.dueAt())) {
+      return effects().reply(new AttemptRecorded(true));
+    } else if (Boolean.FALSE.equals(cmd.retryable()) || state.attempts() + 1 >= MAX_ATTEMPTS) {
+      return effects().updateState(state.givenUp()).thenReply(new AttemptRecorded(true));
+    } else {
+      return effects().updateState(state.attemptFailed()).thenReply(new AttemptRecorded(false));
+    }
+  }
+
+  @PostMapping("/cancel")
+  public Effect<Done> cancel() {
+    if (currentState() == null)
+      return effects().error("Schedule doesn't exist: " + scheduleId, StatusCode.ErrorCode.NOT_FOUND);
+    else if (currentState().cancelled())
+      return effects().reply(new Done());
+    else
+      return effects().updateState(currentState().cancel()).thenReply(new Done());
+  }
+}
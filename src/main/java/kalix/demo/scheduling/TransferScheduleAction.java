@@ -0,0 +1,280 @@
+package kalix.demo.scheduling;
+
+import io.vavr.Tuple2;
+import kalix.demo.Done;
+import kalix.demo.payment.WalletServiceAction;
+import kalix.demo.transactions.TransactionMediator;
+import kalix.javasdk.DeferredCallResponseException;
+import kalix.javasdk.Metadata;
+import kalix.javasdk.StatusCode;
+import kalix.javasdk.action.Action;
+import kalix.javasdk.client.ComponentClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
+/**
+ * Standing orders. Each schedule waits in a shard of the {@link ScheduleBucket} of its next due
+ * time; when the timer of a shard fires, its schedules are dispatched
+ * {@code transfers.schedule.dispatch-concurrency} at a time, as bulk transfers through the wallet
+ * API, and each moves on to the bucket of its following due time.
+ * <p>
+ * A dispatch handles at most {@code transfers.schedule.max-per-dispatch} schedules and sets
+ * another timer for the rest, right away, or after {@link #RETRY_DELAY} for the schedules whose
+ * transfer failed, which are made again with the same transaction id. An occurrence whose
+ * transfer was turned down, or failed {@link TransferSchedule#MAX_ATTEMPTS} times, is recorded as
+ * failed on its schedule, which moves on to the next one.
+ * <p>
+ * Each schedule calls the wallet API as a caller of its own, so that admission control doesn't
+ * hold the schedules back because of each other.
+ */
+@RequestMapping("/transfer-schedules")
+public class TransferScheduleAction extends Action {
+
+  static final Duration RETRY_DELAY = Duration.ofSeconds(30);
+  static final String CALLER_ID = "transfer-scheduler";
+  // the wallet API rejects these for the time being only
+  private static final EnumSet<StatusCode.ErrorCode> TRANSIENT_ERRORS = EnumSet.of(
+    StatusCode.ErrorCode.TOO_MANY_REQUESTS,
+    StatusCode.ErrorCode.INTERNAL_SERVER_ERROR,
+    StatusCode.ErrorCode.SERVICE_UNAVAILABLE,
+    StatusCode.ErrorCode.GATEWAY_TIMEOUT);
+
+  final private Logger logger = LoggerFactory.getLogger(getClass());
+  final private ComponentClient componentClient;
+  final private int concurrency;
+  final private int maxPerDispatch;
+
+  public TransferScheduleAction(@Autowired ComponentClient componentClient,
+                                @Value("${transfers.schedule.dispatch-concurrency:16}") int concurrency,
+                                @Value("${transfers.schedule.max-per-dispatch:1000}") int maxPerDispatch) {
+    this.componentClient = componentClient;
+    this.concurrency = concurrency;
+    this.maxPerDispatch = maxPerDispatch;
+  }
+
+  /**
+   * The first pass over a shard has its own timer name, so that adding schedules to the shard
+   * doesn't replace the timer of a later pass, nor the other way round.
+   */
+  static String timerName(long bucket, Integer shard, int pass) {
+    var name = "transfer-schedule-bucket-" + (shard == null ? String.valueOf(bucket) : bucket + "-s" + shard);
+    return pass == 0 ? name : name + "-" + pass;
+  }
+
+  static String callerId(String scheduleId) {
+    return CALLER_ID + "-" + scheduleId;
+  }
+
+  /**
+   * Transport failures, server errors and throttling are worth another attempt, the transfer
+   * being turned down isn't.
+   */
+  static boolean isRetryable(Throwable error) {
+    var cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    return !(cause instanceof DeferredCallResponseException response) || TRANSIENT_ERRORS.contains(response.errorCode());
+  }
+
+  @PostMapping("/{scheduleId}")
+  public Effect<TransferSchedule.State> create(@PathVariable String scheduleId, @RequestBody TransferSchedule.Create cmd) {
+    var created =
+      componentClient
+        .forValueEntity(scheduleId)
+        .call(TransferSchedule::create)
+        .params(cmd)
+        .execute()
+        .thenCompose(state -> {
+          if (!state.isActive()) return CompletableFuture.completedFuture(state);
+          return enqueue(scheduleId, state.nextDueAt()).thenApply(__ -> state);
+        });
+
+    return effects().asyncReply(created);
+  }
+
+  @GetMapping("/{scheduleId}")
+  public Effect<TransferSchedule.State> getSchedule(@PathVariable String scheduleId) {
+    return effects().forward(
+      componentClient
+        .forValueEntity(scheduleId)
+        .call(TransferSchedule::getSchedule));
+  }
+
+  /**
+   * Stops the schedule, it leaves its bucket when the bucket is dispatched.
+   */
+  @PostMapping("/{scheduleId}/cancel")
+  public Effect<Done> cancel(@PathVariable String scheduleId) {
+    return effects().forward(
+      componentClient
+        .forValueEntity(scheduleId)
+        .call(TransferSchedule::cancel));
+  }
+
+  /**
+   * @param shard null for the slots written before they were sharded
+   */
+  @PostMapping("/buckets/{bucket}/dispatch")
+  public Effect<Done> dispatch(@PathVariable Long bucket,
+                               @RequestParam(required = false) Integer pass,
+                               @RequestParam(required = false) Integer shard) {
+    var currentPass = pass == null ? 0 : pass;
+    var entityId = ScheduleBucket.entityId(bucket, shard);
+    var dispatched =
+      componentClient
+        .forValueEntity(entityId)
+        .call(ScheduleBucket::getSchedules)
+        .execute()
+        .thenCompose(state -> {
+          var due = state.schedules().take(maxPerDispatch).toJavaList();
+          return dispatchAll(due).thenCompose(done -> {
+            logger.info("Dispatched {} of {} schedules of bucket {}", done.size(), state.schedules().size(), entityId);
+            // schedules added during the dispatch are left as well, their add didn't set a timer
+            var remaining = done.isEmpty()
+              ? CompletableFuture.completedFuture(state.schedules().size())
+              : remove(entityId, done).thenApply(ScheduleBucket.Removed::remaining);
+            return remaining.thenCompose(left -> {
+              if (left == 0) return CompletableFuture.completedFuture(new Done());
+              var delay = done.size() < due.size() ? RETRY_DELAY : Duration.ZERO;
+              return startTimer(bucket, shard, currentPass + 1, delay);
+            });
+          });
+        });
+
+    return effects().asyncReply(dispatched);
+  }
+
+  private CompletionStage<Done> enqueue(String scheduleId, Instant dueAt) {
+    return enqueue(scheduleId, dueAt, ScheduleBucket.shardOf(scheduleId));
+  }
+
+  /**
+   * Adds the schedule to the shard, or to the next one when it's full.
+   */
+  private CompletionStage<Done> enqueue(String scheduleId, Instant dueAt, int shard) {
+    var bucket = ScheduleBucket.bucketOf(dueAt);
+    return componentClient
+      .forValueEntity(ScheduleBucket.entityId(bucket, shard))
+      .call(ScheduleBucket::add)
+      .params(new ScheduleBucket.Add(scheduleId, dueAt))
+      .execute()
+      .thenCompose(added -> {
+        if (added.full()) return enqueue(scheduleId, dueAt, shard + 1);
+        if (!added.needsTimer()) return CompletableFuture.completedFuture(new Done());
+        var delay = Duration.between(Instant.now(), ScheduleBucket.firesAt(bucket));
+        return startTimer(bucket, shard, 0, delay.isNegative() ? Duration.ZERO : delay);
+      });
+  }
+
+  private CompletionStage<Done> startTimer(long bucket, Integer shard, int pass, Duration delay) {
+    var dispatch =
+      componentClient
+        .forAction()
+        .call(TransferScheduleAction::dispatch)
+        .params(bucket, pass, shard);
+    return timers()
+      .startSingleTimer(timerName(bucket, shard, pass), delay, dispatch)
+      .thenApply(__ -> new Done());
+  }
+
+  private CompletionStage<ScheduleBucket.Removed> remove(String entityId, Set<String> scheduleIds) {
+    return componentClient
+      .forValueEntity(entityId)
+      .call(ScheduleBucket::remove)
+      .params(new ScheduleBucket.Remove(scheduleIds))
+      .execute();
+  }
+
+  /**
+   * Dispatches the schedules in groups of {@code concurrency}, one group after the other.
+   *
+   * @return the ids of the schedules dispatched
+   */
+  private CompletionStage<Set<String>> dispatchAll(List<Tuple2<String, Instant>> due) {
+    CompletionStage<Set<String>> dispatched = CompletableFuture.completedFuture(new HashSet<>());
+    for (int from = 0; from < due.size(); from += concurrency) {
+      var group = due.subList(from, Math.min(from + concurrency, due.size()));
+      dispatched = dispatched.thenCompose(done -> {
+        var calls = group.stream()
+          .map(schedule -> dispatchOne(schedule._1, schedule._2).toCompletableFuture())
+          .toList();
+        return CompletableFuture.allOf(calls.toArray(CompletableFuture[]::new)).thenApply(__ -> {
+          for (int i = 0; i < calls.size(); i++) {
+            if (calls.get(i).join()) done.add(group.get(i)._1);
+          }
+          return done;
+        });
+      });
+    }
+    return dispatched;
+  }
+
+  /**
+   * @return whether the schedule is done with this bucket, its transfer made or given up and its
+   * next due time enqueued
+   */
+  private CompletionStage<Boolean> dispatchOne(String scheduleId, Instant dueAt) {
+    return componentClient
+      .forValueEntity(scheduleId)
+      .call(TransferSchedule::fire)
+      .params(new TransferSchedule.Fire(dueAt))
+      .execute()
+      .thenCompose(firing -> {
+        if (!firing.isDue()) return CompletableFuture.completedFuture(new Done());
+        return transfer(scheduleId, firing)
+          .handle((status, error) -> error == null
+            ? CompletableFuture.completedFuture(new Done())
+            : attemptFailed(scheduleId, firing, error))
+          .thenCompose(Function.identity())
+          .thenCompose(__ ->
+            firing.nextDueAt() == null
+              ? CompletableFuture.completedFuture(new Done())
+              : enqueue(scheduleId, firing.nextDueAt()));
+      })
+      .handle((done, error) -> {
+        if (error != null) logger.warn("Dispatching schedule '{}' due at {} failed", scheduleId, dueAt, error);
+        return error == null;
+      });
+  }
+
+  /**
+   * Records the failed attempt on the schedule, and fails with the error unless the occurrence
+   * was given up.
+   */
+  private CompletionStage<Done> attemptFailed(String scheduleId, TransferSchedule.Firing firing, Throwable error) {
+    return componentClient
+      .forValueEntity(scheduleId)
+      .call(TransferSchedule::attemptFailed)
+      .params(new TransferSchedule.AttemptFailed(firing.dueAt(), isRetryable(error)))
+      .execute()
+      .thenCompose(recorded -> {
+        if (!recorded.givenUp()) return CompletableFuture.failedFuture(error);
+        logger.error("Gave up transfer '{}' of schedule '{}'", firing.transactionId(), scheduleId, error);
+        return CompletableFuture.completedFuture(new Done());
+      });
+  }
+
+  private CompletionStage<TransactionMediator.TransactionStatus> transfer(String scheduleId, TransferSchedule.Firing firing) {
+    var bulk = Metadata.EMPTY
+      .set(WalletServiceAction.CALLER_HEADER, callerId(scheduleId))
+      .set(WalletServiceAction.PRIORITY_HEADER, "bulk");
+    return componentClient
+      .forAction()
+      .call(WalletServiceAction::transfer)
+      .params(firing.transactionId(), firing.transfer())
+      .withMetadata(bulk)
+      .execute();
+  }
+}
@@ -0,0 +1,267 @@
+package kalix.demo.statement;
+
+import io.vavr.collection.List;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Columnar chunk format for statement files.
+ * <p>
+ * A chunk holds up to a fixed number of rows, laid out column by column (run-length encoded wallet
+ * ids, sequence numbers, transaction ids, directions, amounts, run-length encoded currencies) and
+ * deflated as a whole:
+ * <pre>
+ * int magic | byte version | int rows | int rawLength | int compressedLength | deflated columns
+ * </pre>
+ * Strings are prefixed with their UTF-8 length as an unsigned short, longer ones are rejected.
+ */
+final class StatementChunks {
+
+  static final int MAGIC = 0x5753544D; // "WSTM"
+  static final byte VERSION = 2;
+  static final int HEADER_SIZE = 4 + 1 + 4 + 4 + 4;
+
+  // size of the buffer used to stream compressed bytes to the channel
+  static final int IO_BUFFER_SIZE = 64 * 1024;
+
+  static final int MAX_STRING_BYTES = 0xFFFF;
+
+  private StatementChunks() {
+  }
+
+  static String fileName(long chunk) {
+    return String.format("statements-%06d.chunk", chunk);
+  }
+
+  /**
+   * Fixed capacity column buffers, reused from one chunk to the next.
+   */
+  static final class Columns {
+    final String[] walletIds;
+    final long[] seqNrs;
+    final String[] transactionIds;
+    final byte[] directions;
+    final double[] amounts;
+    final String[] currencies;
+    int size = 0;
+
+    Columns(int capacity) {
+      walletIds = new String[capacity];
+      seqNrs = new long[capacity];
+      transactionIds = new String[capacity];
+      directions = new byte[capacity];
+      amounts = new double[capacity];
+      currencies = new String[capacity];
+    }
+
+    boolean isFull() {
+      return size == walletIds.length;
+    }
+
+    boolean isEmpty() {
+      return size == 0;
+    }
+
+    /**
+     * @throws IllegalArgumentException when a string of the row is too long for the format, before
+     *                                  anything is added
+     */
+    void add(StatementRow row) {
+      checkLength(row.walletId());
+      checkLength(row.transactionId());
+      checkLength(row.currency());
+      walletIds[size] = row.walletId();
+      seqNrs[size] = row.seqNr();
+      transactionIds[size] = row.transactionId();
+      directions[size] = (byte) row.direction().ordinal();
+      amounts[size] = row.amount();
+      currencies[size] = row.currency();
+      size++;
+    }
+
+    void clear() {
+      java.util.Arrays.fill(walletIds, 0, size, null);
+      java.util.Arrays.fill(transactionIds, 0, size, null);
+      java.util.Arrays.fill(currencies, 0, size, null);
+      size = 0;
+    }
+
+    int encodedSize() {
+      int bytes = runsSize(walletIds, size) + runsSize(currencies, size);
+      for (int i = 0; i < size; i++) bytes += 2 + utf8Length(transactionIds[i]);
+      return bytes + size * (8 + 1 + 8);
+    }
+
+    void encode(ByteBuffer out) {
+      putRuns(out, walletIds, size);
+      for (int i = 0; i < size; i++) out.putLong(seqNrs[i]);
+      for (int i = 0; i < size; i++) putString(out, transactionIds[i]);
+      out.put(directions, 0, size);
+      for (int i = 0; i < size; i++) out.putDouble(amounts[i]);
+      putRuns(out, currencies, size);
+    }
+  }
+
+  private static void checkLength(String value) {
+    var bytes = utf8Length(value);
+    if (bytes > MAX_STRING_BYTES)
+      throw new IllegalArgumentException("Statement value of " + bytes + " bytes, at most " + MAX_STRING_BYTES + " fit in a chunk: " + value.substring(0, 32) + "...");
+  }
+
+  private static int runsSize(String[] values, int size) {
+    int bytes = 4; // number of runs
+    for (int i = 0; i < size; i++) {
+      if (i == 0 || !values[i].equals(values[i - 1]))
+        bytes += 2 + utf8Length(values[i]) + 4;
+    }
+    return bytes;
+  }
+
+  private static void putRuns(ByteBuffer out, String[] values, int size) {
+    int runsPosition = out.position();
+    out.putInt(0);
+    int runs = 0;
+    for (int i = 0; i < size; ) {
+      int end = i + 1;
+      while (end < size && values[end].equals(values[i])) end++;
+      putString(out, values[i]);
+      out.putInt(end - i);
+      runs++;
+      i = end;
+    }
+    out.putInt(runsPosition, runs);
+  }
+
+  private static String[] getRuns(ByteBuffer in, int rows) {
+    var values = new String[rows];
+    var runs = in.getInt();
+    for (int r = 0, i = 0; r < runs; r++) {
+      var value = getString(in);
+      var length = in.getInt();
+      for (int j = 0; j < length; j++) values[i++] = value;
+    }
+    return values;
+  }
+
+  /**
+   * Writes the columns as a new chunk, streaming the deflated bytes through a bounded buffer, and
+   * forces it to disk before returning.
+   */
+  static void write(Path file, Columns columns, ByteBuffer raw, ByteBuffer io, Deflater deflater) throws IOException {
+    raw.clear();
+    columns.encode(raw);
+    raw.flip();
+    var rawLength = raw.remaining();
+
+    try (var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      channel.position(HEADER_SIZE);
+
+      deflater.reset();
+      deflater.setInput(raw);
+      deflater.finish();
+      long compressed = 0;
+      while (!deflater.finished()) {
+        io.clear();
+        deflater.deflate(io);
+        io.flip();
+        compressed += io.remaining();
+        while (io.hasRemaining()) channel.write(io);
+      }
+
+      io.clear();
+      io.putInt(MAGIC).put(VERSION).putInt(columns.size).putInt(rawLength).putInt((int) compressed);
+      io.flip();
+      channel.write(io, 0);
+      channel.force(true);
+    }
+  }
+
+  static List<StatementRow> read(Path file) throws IOException {
+    try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      var header = ByteBuffer.allocate(HEADER_SIZE);
+      while (header.hasRemaining() && channel.read(header) >= 0) ;
+      header.flip();
+      if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.get() != VERSION)
+        throw new IOException("Not a statement chunk: " + file);
+
+      var rows = header.getInt();
+      var raw = ByteBuffer.allocate(header.getInt());
+      var compressed = ByteBuffer.allocate(header.getInt());
+      while (compressed.hasRemaining() && channel.read(compressed) >= 0) ;
+      compressed.flip();
+
+      var inflater = new Inflater();
+      try {
+        inflater.setInput(compressed);
+        while (!inflater.finished() && raw.hasRemaining()) {
+          // a truncated chunk runs out of input before the end of the deflated stream
+          if (inflater.inflate(raw) == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+            throw new IOException("Corrupted statement chunk, truncated: " + file);
+        }
+        if (raw.hasRemaining())
+          throw new IOException("Corrupted statement chunk, " + raw.remaining() + " bytes short: " + file);
+      } catch (DataFormatException e) {
+        throw new IOException("Corrupted statement chunk: " + file, e);
+      } finally {
+        inflater.end();
+      }
+      raw.flip();
+      try {
+        return decode(raw, rows);
+      } catch (RuntimeException e) {
+        throw new IOException("Corrupted statement chunk: " + file, e);
+      }
+    }
+  }
+
+  private static List<StatementRow> decode(ByteBuffer in, int rows) {
+    var walletIds = getRuns(in, rows);
+    var seqNrs = new long[rows];
+    for (int i = 0; i < rows; i++) seqNrs[i] = in.getLong();
+    var transactionIds = new String[rows];
+    for (int i = 0; i < rows; i++) transactionIds[i] = getString(in);
+    var directions = new byte[rows];
+    in.get(directions);
+    var amounts = new double[rows];
+    for (int i = 0; i < rows; i++) amounts[i] = in.getDouble();
+    var currencies = getRuns(in, rows);
+
+    var directionValues = StatementRow.Direction.values();
+    return List.range(0, rows).map(i ->
+      new StatementRow(walletIds[i], seqNrs[i], transactionIds[i], directionValues[directions[i]], amounts[i], currencies[i]));
+  }
+
+  private static void putString(ByteBuffer out, String value) {
+    var bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.putShort((short) bytes.length);
+    out.put(bytes);
+  }
+
+  private static String getString(ByteBuffer in) {
+    var bytes = new byte[Short.toUnsignedInt(in.getShort())];
+    in.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static int utf8Length(String value) {
+    int bytes = 0;
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) bytes += 1;
+      else if (c < 0x800) bytes += 2;
+      else if (Character.isHighSurrogate(c)) {
+        bytes += 4;
+        i++;
+      } else bytes += 3;
+    }
+    return bytes;
+  }
+}
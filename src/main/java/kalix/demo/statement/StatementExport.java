@@ -0,0 +1,175 @@
+package kalix.demo.statement;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kalix.javasdk.JsonSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.Deflater;
+
+/**
+ * Exports wallet statements from an exported event journal (the JSONL format read by
+ * {@link kalix.demo.replay.JournalReplay}) into compressed, columnar chunk files.
+ * <p>
+ * The journal is streamed line by line and only one chunk worth of rows is buffered, so memory
+ * use depends on the chunk size, not on the number of wallets. After each chunk is forced to disk
+ * a checkpoint records the next chunk number and the journal line to continue from, and a new run
+ * over the same directory resumes from there.
+ * <p>
+ * Run with: {@code mvn compile exec:java -Dexec.mainClass=kalix.demo.statement.StatementExport -Dexec.args="journal.jsonl target/statements"}
+ */
+public class StatementExport implements AutoCloseable {
+
+  private static final Logger logger = LoggerFactory.getLogger(StatementExport.class);
+
+  static final String CHECKPOINT_FILE = "export.checkpoint";
+
+  public record Checkpoint(long nextChunk, long journalLine) {
+
+    static Checkpoint initial() {
+      return new Checkpoint(0, 0);
+    }
+
+    String serialize() {
+      return "nextChunk=" + nextChunk + "\njournalLine=" + journalLine + "\n";
+    }
+
+    static Checkpoint parse(String content) {
+      long nextChunk = 0, journalLine = 0;
+      for (var line : content.split("\n")) {
+        var kv = line.split("=", 2);
+        if (kv.length != 2) continue;
+        switch (kv[0].trim()) {
+          case "nextChunk" -> nextChunk = Long.parseLong(kv[1].trim());
+          case "journalLine" -> journalLine = Long.parseLong(kv[1].trim());
+        }
+      }
+      return new Checkpoint(nextChunk, journalLine);
+    }
+  }
+
+  public record Report(long rows, long chunks, long journalLines, long bytesWritten, long elapsedNanos) {
+    public double rowsPerSecond() {
+      return elapsedNanos == 0 ? 0 : rows * 1_000_000_000d / elapsedNanos;
+    }
+  }
+
+  final private ObjectMapper mapper = JsonSupport.getObjectMapper();
+  final private Path directory;
+  final private StatementChunks.Columns columns;
+  final private ByteBuffer io = ByteBuffer.allocateDirect(StatementChunks.IO_BUFFER_SIZE);
+  final private Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+  private ByteBuffer raw;
+  private Checkpoint checkpoint;
+
+  private long rows = 0;
+  private long chunks = 0;
+  private long bytesWritten = 0;
+
+  public StatementExport(Path directory, int rowsPerChunk) throws IOException {
+    this.directory = directory;
+    this.columns = new StatementChunks.Columns(rowsPerChunk);
+    // sized for rows with typical ids, grown if a chunk needs more
+    this.raw = ByteBuffer.allocate(rowsPerChunk * 64);
+    Files.createDirectories(directory);
+    this.checkpoint = readCheckpoint();
+    discardUncheckpointedChunks();
+  }
+
+  public Checkpoint checkpoint() {
+    return checkpoint;
+  }
+
+  public Report export(BufferedReader journal) throws IOException {
+    var start = System.nanoTime();
+    long line = 0;
+
+    // skip what previous runs already exported
+    while (line < checkpoint.journalLine && journal.readLine() != null) line++;
+    if (line > 0) logger.info("Resuming statement export at journal line {}, chunk {}", line, checkpoint.nextChunk);
+
+    String content;
+    while ((content = journal.readLine()) != null) {
+      line++;
+      if (content.isBlank()) continue;
+
+      var row = StatementRow.of(mapper.readTree(content));
+      if (row.isDefined()) {
+        columns.add(row.get());
+        rows++;
+        if (columns.isFull()) flush(line);
+      }
+    }
+    flush(line);
+
+    return new Report(rows, chunks, line, bytesWritten, System.nanoTime() - start);
+  }
+
+  private void flush(long journalLine) throws IOException {
+    if (!columns.isEmpty()) {
+      var size = columns.encodedSize();
+      if (size > raw.capacity()) raw = ByteBuffer.allocate(size);
+
+      var file = directory.resolve(StatementChunks.fileName(checkpoint.nextChunk));
+      StatementChunks.write(file, columns, raw, io, deflater);
+      bytesWritten += Files.size(file);
+      chunks++;
+      columns.clear();
+      writeCheckpoint(new Checkpoint(checkpoint.nextChunk + 1, journalLine));
+    } else if (journalLine > checkpoint.journalLine) {
+      writeCheckpoint(new Checkpoint(checkpoint.nextChunk, journalLine));
+    }
+  }
+
+  private Checkpoint readCheckpoint() throws IOException {
+    var file = directory.resolve(CHECKPOINT_FILE);
+    if (Files.exists(file))
+      return Checkpoint.parse(Files.readString(file, StandardCharsets.UTF_8));
+    else
+      return Checkpoint.initial();
+  }
+
+  private void writeCheckpoint(Checkpoint updated) throws IOException {
+    var tmp = directory.resolve(CHECKPOINT_FILE + ".tmp");
+    Files.writeString(tmp, updated.serialize(), StandardCharsets.UTF_8);
+    Files.move(tmp, directory.resolve(CHECKPOINT_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    checkpoint = updated;
+  }
+
+  /**
+   * A run interrupted between writing a chunk and its checkpoint leaves a chunk that will be
+   * written again on resume.
+   */
+  private void discardUncheckpointedChunks() throws IOException {
+    for (long chunk = checkpoint.nextChunk; ; chunk++) {
+      if (!Files.deleteIfExists(directory.resolve(StatementChunks.fileName(chunk)))) break;
+    }
+  }
+
+  @Override
+  public void close() {
+    deflater.end();
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("usage: StatementExport <journal.jsonl> <output-dir> [rows-per-chunk]");
+      System.exit(1);
+    }
+
+    var rowsPerChunk = args.length > 2 ? Integer.parseInt(args[2]) : 65_536;
+    try (var export = new StatementExport(Path.of(args[1]), rowsPerChunk);
+         var journal = Files.newBufferedReader(Path.of(args[0]))) {
+      var report = export.export(journal);
+      System.out.printf("rows: %d, chunks: %d, bytes: %d, rows/sec: %.0f%n",
+        report.rows(), report.chunks(), report.bytesWritten(), report.rowsPerSecond());
+    }
+  }
+}
@@ -0,0 +1,42 @@
+package kalix.demo.statement;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.vavr.control.Option;
+import kalix.demo.payment.Wallet;
+
+/**
+ * A single money movement on a wallet statement.
+ */
+public record StatementRow(String walletId, long seqNr, String transactionId, Direction direction, double amount, String currency) {
+
+  public enum Direction {
+    CREDIT,
+    DEBIT
+  }
+
+  /**
+   * Projects an exported journal line into a statement row. Only executed wallet movements
+   * ({@code balance-increased}, {@code balance-decreased} and {@code hold-captured}) end up on
+   * statements, a capture under its authorization id.
+   */
+  static Option<StatementRow> of(JsonNode line) {
+    if (!"wallet".equals(line.path("entityType").asText())) return Option.none();
+
+    var direction =
+      switch (line.path("eventType").asText()) {
+        case "balance-increased", "BalanceIncreased" -> Direction.CREDIT;
+        case "balance-decreased", "BalanceDecreased", "hold-captured", "HoldCaptured" -> Direction.DEBIT;
+        default -> null;
+      };
+    if (direction == null) return Option.none();
+
+    var event = line.path("event");
+    return Option.some(new StatementRow(
+      line.path("entityId").asText(),
+      line.path("seqNr").asLong(),
+      event.has("authorizationId") ? event.path("authorizationId").asText() : event.path("transactionId").asText(),
+      direction,
+      event.path("amount").asDouble(),
+      event.path("currency").asText(Wallet.DEFAULT_CURRENCY)));
+  }
+}
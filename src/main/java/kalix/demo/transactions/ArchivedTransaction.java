@@ -0,0 +1,66 @@
+package kalix.demo.transactions;
+
+import kalix.demo.Done;
+import kalix.javasdk.StatusCode;
+import kalix.javasdk.annotations.Id;
+import kalix.javasdk.annotations.TypeId;
+import kalix.javasdk.valueentity.ValueEntity;
+import kalix.javasdk.valueentity.ValueEntityContext;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+
+import java.time.Instant;
+
+/**
+ * Cold copy of a terminated {@link TransactionMediator}: one row with its outcome, kept after the
+ * mediator and its journal are deleted by the {@link TransactionArchivalAction}. It also tells
+ * that the transaction id was used, see {@link TransactionServiceAction#create}.
+ */
+@Id("transactionId")
+@TypeId("archived-transaction")
+@RequestMapping("/archived-transactions/{transactionId}")
+public class ArchivedTransaction extends ValueEntity<ArchivedTransaction.Summary> {
+
+  final private String transactionId;
+
+  public ArchivedTransaction(ValueEntityContext context) {
+    this.transactionId = context.entityId();
+  }
+
+  public record Summary(String transactionId,
+                        TransactionMediator.Status status,
+                        java.util.List<TransactionMediator.Participant> participants,
+                        Instant archivedAt) {
+
+    static Summary of(TransactionMediator.TransactionStatus status, Instant archivedAt) {
+      return new Summary(status.transactionId(), status.status(), status.participants(), archivedAt);
+    }
+
+    TransactionMediator.TransactionStatus asStatus() {
+      return new TransactionMediator.TransactionStatus(transactionId, participants, status);
+    }
+  }
+
+  @GetMapping
+  public Effect<Summary> getSummary() {
+    if (currentState() == null)
+      return effects().error("Transaction not archived: " + transactionId, StatusCode.ErrorCode.NOT_FOUND);
+    else
+      return effects().reply(currentState());
+  }
+
+  /**
+   * Keeps the summary written first, so that archiving again doesn't move {@code archivedAt}.
+   */
+  @PutMapping
+  public Effect<Done> store(@RequestBody Summary summary) {
+    if (currentState() != null)
+      return effects().reply(new Done());
+    else if (!summary.status().isTerminated())
+      return effects().error("Only terminated transactions are archived", StatusCode.ErrorCode.BAD_REQUEST);
+    else
+      return effects().updateState(summary).thenReply(new Done());
+  }
+}
@@ -0,0 +1,54 @@
+package kalix.demo.transactions;
+
+import java.time.Duration;
+
+/**
+ * Consecutive-failure circuit breaker. Opens after a number of failures in a row, and once it has
+ * been open long enough lets a single probe through: a successful probe closes it again, a failed
+ * one keeps it open for another period.
+ */
+public final class CircuitBreaker {
+
+  public enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  final private int failureThreshold;
+  final private long openNanos;
+
+  private State state = State.CLOSED;
+  private int failures = 0;
+  private long openedAt;
+
+  public CircuitBreaker(int failureThreshold, Duration openDuration) {
+    this.failureThreshold = failureThreshold;
+    this.openNanos = openDuration.toNanos();
+  }
+
+  public synchronized boolean allows(long now) {
+    if (state == State.OPEN && now - openedAt >= openNanos) {
+      state = State.HALF_OPEN;
+      return true;
+    }
+    return state == State.CLOSED;
+  }
+
+  public synchronized void onSuccess() {
+    state = State.CLOSED;
+    failures = 0;
+  }
+
+  public synchronized void onFailure(long now) {
+    failures++;
+    if (state == State.HALF_OPEN || failures >= failureThreshold) {
+      state = State.OPEN;
+      openedAt = now;
+    }
+  }
+
+  public synchronized State state() {
+    return state;
+  }
+}
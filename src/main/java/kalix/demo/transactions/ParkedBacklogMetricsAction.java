@@ -0,0 +1,59 @@
+package kalix.demo.transactions;
+
+import io.vavr.collection.List;
+import kalix.javasdk.action.Action;
+import kalix.javasdk.client.ComponentClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Lag of the parked notification backlog: how many transactions and participants are waiting for
+ * a retry, and for how long the oldest has been parked.
+ */
+public class ParkedBacklogMetricsAction extends Action {
+
+  /**
+   * @param truncated the backlog is larger than what the view returns, so counts are a lower bound
+   */
+  public record BacklogMetrics(Integer parkedTransactions,
+                               Integer parkedParticipants,
+                               Integer maxAttempts,
+                               Instant oldestParkedAt,
+                               Long maxLagMillis,
+                               java.util.Map<String, Integer> byPhase,
+                               boolean truncated) {
+
+    static BacklogMetrics of(java.util.List<ParkedNotificationsView.ParkedRow> parked, Instant now) {
+      var rows = List.ofAll(parked);
+      var oldest = rows.map(ParkedNotificationsView.ParkedRow::parkedAt).min();
+      return new BacklogMetrics(
+        rows.size(),
+        rows.map(row -> row.pending().size()).sum().intValue(),
+        rows.map(ParkedNotificationsView.ParkedRow::attempts).max().getOrElse(0),
+        oldest.getOrNull(),
+        oldest.map(at -> Duration.between(at, now).toMillis()).getOrElse(0L),
+        rows.groupBy(ParkedNotificationsView.ParkedRow::phase).mapValues(List::size).toJavaMap(),
+        rows.size() >= ParkedNotificationsView.BACKLOG_LIMIT);
+    }
+  }
+
+  final private ComponentClient componentClient;
+
+  public ParkedBacklogMetricsAction(@Autowired ComponentClient componentClient) {
+    this.componentClient = componentClient;
+  }
+
+  @GetMapping("/parked-backlog/metrics")
+  public Effect<BacklogMetrics> metrics() {
+    var backlog =
+      componentClient
+        .forView()
+        .call(ParkedNotificationsView::getBacklog)
+        .execute();
+
+    return effects().asyncReply(backlog.thenApply(b -> BacklogMetrics.of(b.parked(), Instant.now())));
+  }
+}
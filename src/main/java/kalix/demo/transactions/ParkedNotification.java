@@ -0,0 +1,180 @@
+package kalix.demo.transactions;
+
+import io.vavr.collection.LinkedHashMap;
+import io.vavr.collection.List;
+import io.vavr.collection.Map;
+import kalix.demo.Done;
+import kalix.javasdk.StatusCode;
+import kalix.javasdk.annotations.EventHandler;
+import kalix.javasdk.annotations.Id;
+import kalix.javasdk.annotations.TypeId;
+import kalix.javasdk.eventsourcedentity.EventSourcedEntity;
+import kalix.javasdk.eventsourcedentity.EventSourcedEntityContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.Instant;
+
+/**
+ * Durable retry queue entry for the participant notifications of one transaction.
+ * <p>
+ * When the {@link TransactionMediatorListener} fails to notify some participants of a phase, it
+ * parks them here and moves on to the next event. {@link ParkedNotificationRetryAction} then
+ * re-sends the phase to the participants that haven't acknowledged it yet, until none is left.
+ * <p>
+ * Only the latest phase matters: once a transaction is completed or cancelled, notifications of
+ * its initialization still parked are dropped.
+ */
+@Id("transactionId")
+@TypeId("parked-notification")
+@RequestMapping("/parked-notifications/{transactionId}")
+public class ParkedNotification extends EventSourcedEntity<ParkedNotification.State, ParkedNotification.Event> {
+
+  private static final Logger logger = LoggerFactory.getLogger(ParkedNotification.class);
+
+  final private String transactionId;
+
+  public ParkedNotification(EventSourcedEntityContext context) {
+    this.transactionId = context.entityId();
+  }
+
+  public record State(String transactionId,
+                      TransactionPhase phase,
+                      Map<String, TransactionMediator.Participant> pending,
+                      Integer attempts,
+                      Instant parkedAt,
+                      String lastError) {
+
+    boolean isResolved() {
+      return pending.isEmpty();
+    }
+
+    State park(Event.Parked evt) {
+      var participants =
+        List.ofAll(evt.participants())
+          .toLinkedMap(TransactionMediator.Participant::id, p -> p);
+      if (phase == evt.phase() && !isResolved())
+        return new State(transactionId, phase, pending.merge(participants), attempts, parkedAt, evt.error());
+      else
+        return new State(evt.transactionId(), evt.phase(), participants, 0, evt.parkedAt(), evt.error());
+    }
+
+    State acknowledged(String participantId) {
+      return new State(transactionId, phase, pending.remove(participantId), attempts, parkedAt, lastError);
+    }
+
+    State retryFailed(String error) {
+      return new State(transactionId, phase, pending, attempts + 1, parkedAt, error);
+    }
+  }
+
+  public record Park(TransactionPhase phase, java.util.List<TransactionMediator.Participant> participants, String error) {
+  }
+
+  public record Acknowledge(TransactionPhase phase, String participantId) {
+  }
+
+  public record RetryFailure(TransactionPhase phase, String error) {
+  }
+
+  public record ParkedStatus(String transactionId,
+                             TransactionPhase phase,
+                             java.util.List<TransactionMediator.Participant> pending,
+                             Integer attempts,
+                             Instant parkedAt,
+                             String lastError) {
+    static ParkedStatus of(State state) {
+      return new ParkedStatus(state.transactionId, state.phase, state.pending.values().toJavaList(),
+        state.attempts, state.parkedAt, state.lastError);
+    }
+
+    /**
+     * Participants still to be told how the transaction ended. Initializations still parked don't
+     * count, the transaction terminated since.
+     */
+    boolean awaitsTermination() {
+      return !pending.isEmpty() && phase != TransactionPhase.INITIALIZED;
+    }
+  }
+
+  public sealed interface Event {
+
+    @TypeId("notification-parked")
+    record Parked(String transactionId, TransactionPhase phase, java.util.List<TransactionMediator.Participant> participants,
+                  String error, Instant parkedAt) implements Event {
+    }
+
+    @TypeId("notification-acknowledged")
+    record Acknowledged(String transactionId, TransactionPhase phase, String participantId) implements Event {
+    }
+
+    @TypeId("notification-retry-failed")
+    record RetryFailed(String transactionId, TransactionPhase phase, String error) implements Event {
+    }
+  }
+
+  @GetMapping
+  public Effect<ParkedStatus> getStatus() {
+    if (currentState() == null)
+      return effects().error("No parked notifications for " + transactionId, StatusCode.ErrorCode.NOT_FOUND);
+    else
+      return effects().reply(ParkedStatus.of(currentState()));
+  }
+
+  @PostMapping("/park")
+  public Effect<ParkedStatus> park(@RequestBody Park cmd) {
+    if (currentState() != null && !currentState().isResolved() && currentState().phase.supersedes(cmd.phase)) {
+      logger.info("Ignoring parked {} notifications of transaction '{}', already {}", cmd.phase, transactionId, currentState().phase);
+      return effects().reply(ParkedStatus.of(currentState()));
+    } else {
+      logger.info("Parking {} notifications of transaction '{}' for {}", cmd.phase, transactionId,
+        List.ofAll(cmd.participants).map(TransactionMediator.Participant::id));
+      return effects()
+        .emitEvent(new Event.Parked(transactionId, cmd.phase, cmd.participants, cmd.error, Instant.now()))
+        .thenReply(ParkedStatus::of);
+    }
+  }
+
+  @PostMapping("/acknowledge")
+  public Effect<Done> acknowledge(@RequestBody Acknowledge cmd) {
+    if (currentState() == null || currentState().phase != cmd.phase || !currentState().pending.containsKey(cmd.participantId)) {
+      return effects().reply(new Done());
+    } else {
+      return effects()
+        .emitEvent(new Event.Acknowledged(transactionId, cmd.phase, cmd.participantId))
+        .thenReply(__ -> new Done());
+    }
+  }
+
+  @PostMapping("/retry-failed")
+  public Effect<ParkedStatus> retryFailed(@RequestBody RetryFailure cmd) {
+    if (currentState() == null) {
+      return effects().error("No parked notifications for " + transactionId, StatusCode.ErrorCode.NOT_FOUND);
+    } else if (currentState().phase != cmd.phase || currentState().isResolved()) {
+      return effects().reply(ParkedStatus.of(currentState()));
+    } else {
+      return effects()
+        .emitEvent(new Event.RetryFailed(transactionId, cmd.phase, cmd.error))
+        .thenReply(ParkedStatus::of);
+    }
+  }
+
+  @EventHandler
+  public State onEvent(Event.Parked evt) {
+    var state = currentState() == null
+      ? new State(transactionId, evt.phase(), LinkedHashMap.empty(), 0, evt.parkedAt(), evt.error())
+      : currentState();
+    return state.park(evt);
+  }
+
+  @EventHandler
+  public State onEvent(Event.Acknowledged evt) {
+    return currentState().acknowledged(evt.participantId());
+  }
+
+  @EventHandler
+  public State onEvent(Event.RetryFailed evt) {
+    return currentState().retryFailed(evt.error());
+  }
+}
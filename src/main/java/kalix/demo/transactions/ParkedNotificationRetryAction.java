@@ -0,0 +1,119 @@
+package kalix.demo.transactions;
+
+import io.vavr.collection.List;
+import kalix.demo.Done;
+import kalix.javasdk.action.Action;
+import kalix.javasdk.client.ComponentClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Re-sends parked notifications, triggered by a timer per transaction. Each run only calls the
+ * participants that haven't acknowledged the phase yet, and schedules the next run with an
+ * exponential backoff while some are left.
+ */
+@RequestMapping("/parked-notification-retries")
+public class ParkedNotificationRetryAction extends Action {
+
+  static final Duration BASE_DELAY = Duration.ofSeconds(1);
+  static final Duration MAX_DELAY = Duration.ofMinutes(5);
+
+  final private Logger logger = LoggerFactory.getLogger(getClass());
+  final private ComponentClient componentClient;
+  final private ParticipantNotifier notifier;
+
+  public ParkedNotificationRetryAction(@Autowired ComponentClient componentClient,
+                                       @Autowired ParticipantNotifier notifier) {
+    this.componentClient = componentClient;
+    this.notifier = notifier;
+  }
+
+  static String timerName(String transactionId) {
+    return "parked-notification-" + transactionId;
+  }
+
+  /**
+   * Exponential, with jitter between half and the full delay so parked transactions don't retry in lockstep.
+   */
+  static Duration delay(int attempts) {
+    var exponential = BASE_DELAY.toMillis() * (1L << Math.min(attempts, 20));
+    var capped = Math.min(MAX_DELAY.toMillis(), exponential);
+    return Duration.ofMillis(capped / 2 + ThreadLocalRandom.current().nextLong(capped / 2 + 1));
+  }
+
+  /**
+   * Schedules a retry of the parked notifications of a transaction, replacing any scheduled one.
+   */
+  static CompletionStage<Done> schedule(Action action, ComponentClient componentClient, String transactionId, int attempts) {
+    var retry =
+      componentClient
+        .forAction()
+        .call(ParkedNotificationRetryAction::retry)
+        .params(transactionId);
+    return action.timers()
+      .startSingleTimer(timerName(transactionId), delay(attempts), retry)
+      .thenApply(__ -> new Done());
+  }
+
+  @PostMapping("/{transactionId}")
+  public Effect<Done> retry(@PathVariable String transactionId) {
+    var parked =
+      componentClient
+        .forEventSourcedEntity(transactionId)
+        .call(ParkedNotification::getStatus)
+        .execute();
+
+    return effects().asyncReply(parked.thenCompose(status -> {
+      if (status.pending().isEmpty()) return CompletableFuture.completedFuture(new Done());
+
+      var pending = List.ofAll(status.pending());
+      return notifier
+        .notifyAll(componentClient, status.phase(), transactionId, pending)
+        .thenCompose(failures -> {
+          var failed = failures.map(f -> f.participant().id()).toSet();
+          var acknowledged = pending.filter(p -> !failed.contains(p.id()));
+          return acknowledge(transactionId, status.phase(), acknowledged)
+            .thenCompose(__ -> failures.isEmpty()
+              ? CompletableFuture.completedFuture(new Done())
+              : retryLater(transactionId, status.phase(), failures));
+        });
+    }));
+  }
+
+  private CompletionStage<Done> acknowledge(String transactionId,
+                                            TransactionPhase phase,
+                                            List<TransactionMediator.Participant> participants) {
+    return participants.foldLeft(
+      CompletableFuture.<Done>completedFuture(new Done()),
+      (agg, participant) -> agg.thenCompose(__ ->
+        componentClient
+          .forEventSourcedEntity(transactionId)
+          .call(ParkedNotification::acknowledge)
+          .params(new ParkedNotification.Acknowledge(phase, participant.id()))
+          .execute()));
+  }
+
+  private CompletionStage<Done> retryLater(String transactionId,
+                                           TransactionPhase phase,
+                                           List<ParticipantNotifier.Failure> failures) {
+    var error = failures.head().error().toString();
+    logger.info("Parked {} notifications of transaction '{}' still failing for {}: {}", phase, transactionId,
+      failures.map(f -> f.participant().id()), error);
+
+    return componentClient
+      .forEventSourcedEntity(transactionId)
+      .call(ParkedNotification::retryFailed)
+      .params(new ParkedNotification.RetryFailure(phase, error))
+      .execute()
+      .thenCompose(status -> schedule(this, componentClient, transactionId, status.attempts()));
+  }
+}
@@ -0,0 +1,73 @@
+package kalix.demo.transactions;
+
+import io.vavr.collection.List;
+import kalix.javasdk.annotations.Query;
+import kalix.javasdk.annotations.Subscribe;
+import kalix.javasdk.annotations.Table;
+import kalix.javasdk.annotations.ViewId;
+import kalix.javasdk.view.View;
+import org.springframework.web.bind.annotation.GetMapping;
+
+import java.time.Instant;
+
+/**
+ * Transactions with parked notifications, oldest first. Rows are removed once every parked
+ * participant has acknowledged.
+ */
+@ViewId("parked-notifications")
+@Table("parked_notifications")
+@Subscribe.EventSourcedEntity(value = ParkedNotification.class, ignoreUnknown = true)
+public class ParkedNotificationsView extends View<ParkedNotificationsView.ParkedRow> {
+
+  static final int BACKLOG_LIMIT = 1000;
+
+  public record ParkedRow(String transactionId,
+                          String phase,
+                          java.util.List<String> pending,
+                          Integer attempts,
+                          Instant parkedAt,
+                          String lastError) {
+  }
+
+  public record Backlog(java.util.List<ParkedRow> parked) {
+  }
+
+  @GetMapping("/parked-backlog")
+  @Query("SELECT * AS parked FROM parked_notifications ORDER BY parkedAt LIMIT 1000")
+  public Backlog getBacklog() {
+    return null;
+  }
+
+  public UpdateEffect<ParkedRow> onEvent(ParkedNotification.Event.Parked evt) {
+    var participants = List.ofAll(evt.participants()).map(TransactionMediator.Participant::id);
+    var row = viewState();
+    if (row != null && row.phase().equals(evt.phase().name())) {
+      var pending = List.ofAll(row.pending()).appendAll(participants).distinct();
+      return effects().updateState(
+        new ParkedRow(row.transactionId(), row.phase(), pending.asJava(), row.attempts(), row.parkedAt(), evt.error()));
+    } else {
+      return effects().updateState(
+        new ParkedRow(evt.transactionId(), evt.phase().name(), participants.asJava(), 0, evt.parkedAt(), evt.error()));
+    }
+  }
+
+  public UpdateEffect<ParkedRow> onEvent(ParkedNotification.Event.Acknowledged evt) {
+    var row = viewState();
+    if (row == null) return effects().ignore();
+
+    var pending = List.ofAll(row.pending()).remove(evt.participantId());
+    if (pending.isEmpty())
+      return effects().deleteState();
+    else
+      return effects().updateState(
+        new ParkedRow(row.transactionId(), row.phase(), pending.asJava(), row.attempts(), row.parkedAt(), row.lastError()));
+  }
+
+  public UpdateEffect<ParkedRow> onEvent(ParkedNotification.Event.RetryFailed evt) {
+    var row = viewState();
+    if (row == null) return effects().ignore();
+
+    return effects().updateState(
+      new ParkedRow(row.transactionId(), row.phase(), row.pending(), row.attempts() + 1, row.parkedAt(), evt.error()));
+  }
+}
@@ -0,0 +1,132 @@
+package kalix.demo.transactions;
+
+import io.vavr.collection.HashSet;
+import io.vavr.collection.List;
+import io.vavr.collection.Set;
+import io.vavr.control.Option;
+import kalix.demo.Done;
+import kalix.javasdk.client.ComponentClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Notifies participants of a transaction phase.
+ * <p>
+ * Participants are called concurrently, at most {@code transactions.notification-parallelism} at
+ * a time, and one failed call doesn't fail the others. Nothing is recorded when all of them
+ * acknowledge. When some fail, the ones that acknowledged are remembered in memory until the
+ * failures are parked, so that an event redelivered to this instance meanwhile only reaches the
+ * others. Parked notifications keep track of their own acknowledgements, see
+ * {@link ParkedNotification}.
+ */
+@Component
+public class ParticipantNotifier {
+
+  /**
+   * Transactions with failed notifications this instance remembers acknowledgements of, beyond
+   * which a redelivered event notifies everyone again.
+   */
+  static final int MAX_REMEMBERED = 10_000;
+
+  record Failure(TransactionMediator.Participant participant, Throwable error) {
+  }
+
+  final private TransactionAdapterProvider adapterProvider;
+  final private int parallelism;
+  final private ConcurrentHashMap<String, Set<String>> acknowledged = new ConcurrentHashMap<>();
+
+  public ParticipantNotifier(@Autowired TransactionAdapterProvider adapterProvider,
+                             @Value("${transactions.notification-parallelism:8}") int parallelism) {
+    this.adapterProvider = adapterProvider;
+    this.parallelism = Math.max(1, parallelism);
+  }
+
+  private static String key(TransactionPhase phase, String transactionId) {
+    return transactionId + "/" + phase;
+  }
+
+  /**
+   * Notifies the participants that didn't acknowledge an earlier attempt on this instance.
+   *
+   * @return the participants whose notification failed
+   */
+  CompletionStage<List<Failure>> notifyParticipants(ComponentClient componentClient,
+                                                   TransactionPhase phase,
+                                                   String transactionId,
+                                                   List<TransactionMediator.Participant> participants) {
+    var key = key(phase, transactionId);
+    var earlier = Option.of(acknowledged.remove(key)).getOrElse(HashSet::empty);
+    var remaining = participants.filter(p -> !earlier.contains(p.id()));
+    return notifyAll(componentClient, phase, transactionId, remaining)
+      .thenApply(failures -> {
+        if (!failures.isEmpty() && acknowledged.size() < MAX_REMEMBERED) {
+          var failed = failures.map(f -> f.participant().id()).toSet();
+          acknowledged.put(key, earlier.addAll(remaining.map(TransactionMediator.Participant::id).filter(id -> !failed.contains(id))));
+        }
+        return failures;
+      });
+  }
+
+  /**
+   * Forgets the acknowledgements of a phase, once its failed notifications are parked.
+   */
+  void forget(TransactionPhase phase, String transactionId) {
+    acknowledged.remove(key(phase, transactionId));
+  }
+
+  CompletionStage<List<Failure>> notifyAll(ComponentClient componentClient,
+                                           TransactionPhase phase,
+                                           String transactionId,
+                                           List<TransactionMediator.Participant> participants) {
+    var outcomes = new AtomicReferenceArray<Option<Failure>>(participants.size());
+    var next = new AtomicInteger();
+    var lanes =
+      List.range(0, Math.min(parallelism, participants.size()))
+        .map(__ -> lane(componentClient, phase, transactionId, participants, next, outcomes).toCompletableFuture());
+
+    return CompletableFuture
+      .allOf(lanes.toJavaList().toArray(new CompletableFuture<?>[0]))
+      .thenApply(__ -> List.range(0, outcomes.length()).flatMap(outcomes::get));
+  }
+
+  /**
+   * Notifies the next participant nobody is working on, until there's none left.
+   */
+  private CompletionStage<Void> lane(ComponentClient componentClient,
+                                     TransactionPhase phase,
+                                     String transactionId,
+                                     List<TransactionMediator.Participant> participants,
+                                     AtomicInteger next,
+                                     AtomicReferenceArray<Option<Failure>> outcomes) {
+    var index = next.getAndIncrement();
+    if (index >= participants.size()) return CompletableFuture.completedFuture(null);
+
+    var participant = participants.get(index);
+    return notify(componentClient, phase, transactionId, participant)
+      .handle((done, error) -> error == null ? Option.<Failure>none() : Option.some(new Failure(participant, error)))
+      .thenCompose(outcome -> {
+        outcomes.set(index, outcome);
+        return lane(componentClient, phase, transactionId, participants, next, outcomes);
+      });
+  }
+
+  private CompletionStage<Done> notify(ComponentClient componentClient,
+                                       TransactionPhase phase,
+                                       String transactionId,
+                                       TransactionMediator.Participant participant) {
+    try {
+      var adapter = adapterProvider.forType(participant.type())
+        .getOrElseThrow(() -> new IllegalStateException("No adapter for " + participant.type()));
+      return phase.notify(adapter, componentClient, participant.id(), transactionId);
+    } catch (RuntimeException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+}
@@ -0,0 +1,156 @@
+package kalix.demo.transactions;
+
+import kalix.demo.Done;
+import kalix.javasdk.client.ComponentClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Isolates the calls to one {@link TransactionAdapter}, and so to one participant type.
+ * <p>
+ * Each adapter gets its own bulkhead (a bound on concurrent calls), a timeout per call and a
+ * circuit breaker. Calls over the bulkhead or while the breaker is open fail right away with
+ * {@link Rejected} instead of queueing, so a degraded participant type fails its own events fast
+ * (they are redelivered later) rather than holding the listener up for every other type.
+ */
+public class ResilientTransactionAdapter implements TransactionAdapter {
+
+  final private static Logger logger = LoggerFactory.getLogger(ResilientTransactionAdapter.class);
+
+  public record Settings(int maxConcurrentCalls, Duration callTimeout, int failureThreshold, Duration openDuration) {
+    public static Settings defaults() {
+      return new Settings(32, Duration.ofSeconds(3), 5, Duration.ofSeconds(10));
+    }
+  }
+
+  public record Metrics(String adapter,
+                        long calls,
+                        long succeeded,
+                        long failed,
+                        long timedOut,
+                        long bulkheadRejected,
+                        long circuitRejected,
+                        int inFlight,
+                        CircuitBreaker.State circuit) {
+  }
+
+  public static class Rejected extends RuntimeException {
+    public Rejected(String message) {
+      super(message, null, false, false);
+    }
+  }
+
+  final private String name;
+  final private TransactionAdapter delegate;
+  final private Settings settings;
+  final private LongSupplier nanoClock;
+  final private Semaphore bulkhead;
+  final private CircuitBreaker breaker;
+
+  final private LongAdder calls = new LongAdder();
+  final private LongAdder succeeded = new LongAdder();
+  final private LongAdder failed = new LongAdder();
+  final private LongAdder timedOut = new LongAdder();
+  final private LongAdder bulkheadRejected = new LongAdder();
+  final private LongAdder circuitRejected = new LongAdder();
+
+  public ResilientTransactionAdapter(String name, TransactionAdapter delegate, Settings settings) {
+    this(name, delegate, settings, System::nanoTime);
+  }
+
+  ResilientTransactionAdapter(String name, TransactionAdapter delegate, Settings settings, LongSupplier nanoClock) {
+    this.name = name;
+    this.delegate = delegate;
+    this.settings = settings;
+    this.nanoClock = nanoClock;
+    this.bulkhead = new Semaphore(settings.maxConcurrentCalls());
+    this.breaker = new CircuitBreaker(settings.failureThreshold(), settings.openDuration());
+  }
+
+  @Override
+  public boolean adapterFor(Class<?> clazz) {
+    return delegate.adapterFor(clazz);
+  }
+
+  @Override
+  public CompletionStage<Done> initialized(ComponentClient componentClient, String participantId, String transactionId) {
+    return guarded(() -> delegate.initialized(componentClient, participantId, transactionId));
+  }
+
+  @Override
+  public CompletionStage<Done> cancel(ComponentClient componentClient, String participantId, String transactionId) {
+    return guarded(() -> delegate.cancel(componentClient, participantId, transactionId));
+  }
+
+  @Override
+  public CompletionStage<Done> complete(ComponentClient componentClient, String participantId, String transactionId) {
+    return guarded(() -> delegate.complete(componentClient, participantId, transactionId));
+  }
+
+  @Override
+  public CompletionStage<Done> executeAndComplete(ComponentClient componentClient, String participantId, String transactionId) {
+    return guarded(() -> delegate.executeAndComplete(componentClient, participantId, transactionId));
+  }
+
+  public Metrics metrics() {
+    return new Metrics(
+      name,
+      calls.sum(),
+      succeeded.sum(),
+      failed.sum(),
+      timedOut.sum(),
+      bulkheadRejected.sum(),
+      circuitRejected.sum(),
+      settings.maxConcurrentCalls() - bulkhead.availablePermits(),
+      breaker.state());
+  }
+
+  private CompletionStage<Done> guarded(Supplier<CompletionStage<Done>> call) {
+    calls.increment();
+    // the bulkhead goes first: once the breaker lets a probe through, the probe has to run
+    if (!bulkhead.tryAcquire()) {
+      bulkheadRejected.increment();
+      return CompletableFuture.failedFuture(new Rejected("Too many concurrent calls to adapter '" + name + "'"));
+    }
+    if (!breaker.allows(nanoClock.getAsLong())) {
+      bulkhead.release();
+      circuitRejected.increment();
+      return CompletableFuture.failedFuture(new Rejected("Circuit open for adapter '" + name + "'"));
+    }
+
+    CompletableFuture<Done> result;
+    try {
+      // a copy, so that the timeout doesn't complete the delegate's own future
+      result = call.get().toCompletableFuture().thenApply(done -> done);
+    } catch (RuntimeException e) {
+      result = CompletableFuture.failedFuture(e);
+    }
+
+    return result
+      .orTimeout(settings.callTimeout().toMillis(), TimeUnit.MILLISECONDS)
+      .whenComplete((done, error) -> {
+        bulkhead.release();
+        if (error == null) {
+          succeeded.increment();
+          breaker.onSuccess();
+        } else {
+          if (error instanceof TimeoutException) timedOut.increment();
+          failed.increment();
+          var wasOpen = breaker.state() == CircuitBreaker.State.OPEN;
+          breaker.onFailure(nanoClock.getAsLong());
+          if (!wasOpen && breaker.state() == CircuitBreaker.State.OPEN)
+            logger.warn("Circuit opened for adapter '{}' after {}", name, error.toString());
+        }
+      });
+  }
+}
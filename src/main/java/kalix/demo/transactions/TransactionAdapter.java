@@ -20,4 +20,15 @@ public interface TransactionAdapter {
   CompletionStage<Done> complete(ComponentClient componentClient,
                                  String participantId,
                                  String transactionId);
+
+  /**
+   * Executes and completes in one step, for transactions under the presumed-commit protocol.
+   * Participants that can't do both at once execute, then complete.
+   */
+  default CompletionStage<Done> executeAndComplete(ComponentClient componentClient,
+                                                   String participantId,
+                                                   String transactionId) {
+    return initialized(componentClient, participantId, transactionId)
+      .thenCompose(__ -> complete(componentClient, participantId, transactionId));
+  }
 }
@@ -0,0 +1,25 @@
+package kalix.demo.transactions;
+
+import kalix.javasdk.action.Action;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+
+/**
+ * Exposes the call metrics of the transaction adapters on this service instance.
+ */
+public class TransactionAdapterMetricsAction extends Action {
+
+  public record AdapterMetrics(java.util.List<ResilientTransactionAdapter.Metrics> adapters) {
+  }
+
+  final private TransactionAdapterProvider adapterProvider;
+
+  public TransactionAdapterMetricsAction(@Autowired TransactionAdapterProvider adapterProvider) {
+    this.adapterProvider = adapterProvider;
+  }
+
+  @GetMapping("/transaction-adapters/metrics")
+  public Effect<AdapterMetrics> metrics() {
+    return effects().reply(new AdapterMetrics(adapterProvider.metrics().asJava()));
+  }
+}
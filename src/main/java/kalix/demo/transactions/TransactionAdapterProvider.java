@@ -7,21 +7,42 @@ import org.springframework.stereotype.Component;
 
 import  io.vavr.collection.List;
 
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Looks up the {@link TransactionAdapter} of a participant type. Adapters are handed out wrapped
+ * in a {@link ResilientTransactionAdapter}, one per adapter bean, so each participant type is
+ * isolated from the others.
+ */
 @Component
 public class TransactionAdapterProvider {
 
   final private ApplicationContext appContext;
+  final private ConcurrentHashMap<String, ResilientTransactionAdapter> resilientAdapters = new ConcurrentHashMap<>();
 
   public TransactionAdapterProvider(@Autowired ApplicationContext appContext) {
     this.appContext = appContext;
   }
 
   public TransactionAdapter forName(String name) {
-    return appContext.getBean(name, TransactionAdapter.class);
+    return resilient(name, appContext.getBean(name, TransactionAdapter.class));
   }
 
   public Option<TransactionAdapter> forType(Class<?> clazz) {
-    var allAdapters = List.ofAll(appContext.getBeansOfType(TransactionAdapter.class).values());
-    return allAdapters.find(adapter -> adapter.adapterFor(clazz));
+    var allAdapters = List.ofAll(appContext.getBeansOfType(TransactionAdapter.class).entrySet());
+    return allAdapters
+      .find(entry -> entry.getValue().adapterFor(clazz))
+      .map(entry -> resilient(entry.getKey(), entry.getValue()));
+  }
+
+  public List<ResilientTransactionAdapter.Metrics> metrics() {
+    return List.ofAll(resilientAdapters.values())
+      .map(ResilientTransactionAdapter::metrics)
+      .sortBy(ResilientTransactionAdapter.Metrics::adapter);
+  }
+
+  private TransactionAdapter resilient(String name, TransactionAdapter adapter) {
+    return resilientAdapters.computeIfAbsent(name, __ ->
+      new ResilientTransactionAdapter(name, adapter, ResilientTransactionAdapter.Settings.defaults()));
   }
 }
@@ -0,0 +1,133 @@
+package kalix.demo.transactions;
+
+import kalix.demo.Done;
+import kalix.javasdk.DeferredCallResponseException;
+import kalix.javasdk.StatusCode;
+import kalix.javasdk.action.Action;
+import kalix.javasdk.client.ComponentClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
+/**
+ * Archives a terminated transaction, triggered by a timer per transaction: its summary is stored
+ * in an {@link ArchivedTransaction} first, then the {@link TransactionMediator} is deleted.
+ * Transactions with notifications of how they ended still parked are tried again later, a
+ * transaction already gone counts as archived.
+ */
+@RequestMapping("/transaction-archival")
+public class TransactionArchivalAction extends Action {
+
+  static final Duration UNSETTLED_DELAY = Duration.ofHours(1);
+
+  final private Logger logger = LoggerFactory.getLogger(getClass());
+  final private ComponentClient componentClient;
+
+  public TransactionArchivalAction(@Autowired ComponentClient componentClient) {
+    this.componentClient = componentClient;
+  }
+
+  static String timerName(String transactionId) {
+    return "archive-transaction-" + transactionId;
+  }
+
+  /**
+   * Schedules the archival of a transaction, replacing any scheduled one.
+   */
+  static CompletionStage<Done> schedule(Action action, ComponentClient componentClient, String transactionId, Duration delay) {
+    var archive =
+      componentClient
+        .forAction()
+        .call(TransactionArchivalAction::archive)
+        .params(transactionId);
+    return action.timers()
+      .startSingleTimer(timerName(transactionId), delay, archive)
+      .thenApply(__ -> new Done());
+  }
+
+  @PostMapping("/{transactionId}")
+  public Effect<Done> archive(@PathVariable String transactionId) {
+    var status =
+      componentClient
+        .forEventSourcedEntity(transactionId)
+        .call(TransactionMediator::getStatus)
+        .execute();
+
+    return effects().asyncReply(status
+      .handle((current, error) -> error == null ? archiveTerminated(current) : alreadyArchived(transactionId, error))
+      .thenCompose(Function.identity()));
+  }
+
+  private CompletionStage<Done> archiveTerminated(TransactionMediator.TransactionStatus current) {
+    if (!current.status().isTerminated()) return CompletableFuture.completedFuture(new Done());
+
+    var transactionId = current.transactionId();
+    return awaitsTermination(transactionId).thenCompose(awaiting -> {
+      if (!awaiting) return store(current);
+      logger.info("Transaction '{}' not archived yet: participants yet to acknowledge how it ended", transactionId);
+      return schedule(this, componentClient, transactionId, UNSETTLED_DELAY);
+    });
+  }
+
+  /**
+   * Participants are only parked when they failed to be notified, no parked notifications means
+   * none are left.
+   */
+  private CompletionStage<Boolean> awaitsTermination(String transactionId) {
+    return componentClient
+      .forEventSourcedEntity(transactionId)
+      .call(ParkedNotification::getStatus)
+      .execute()
+      .handle((parked, error) -> {
+        if (error == null) return parked.awaitsTermination();
+        var cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof DeferredCallResponseException response && response.errorCode() == StatusCode.ErrorCode.NOT_FOUND)
+          return false;
+        throw error instanceof CompletionException e ? e : new CompletionException(error);
+      });
+  }
+
+  private CompletionStage<Done> store(TransactionMediator.TransactionStatus current) {
+    var transactionId = current.transactionId();
+    return componentClient
+      .forValueEntity(transactionId)
+      .call(ArchivedTransaction::store)
+      .params(ArchivedTransaction.Summary.of(current, Instant.now()))
+      .execute()
+      .thenCompose(__ ->
+        componentClient
+          .forEventSourcedEntity(transactionId)
+          .call(TransactionMediator::archive)
+          .execute())
+      .thenCompose(result -> {
+        if (result.archived()) return CompletableFuture.completedFuture(new Done());
+        logger.info("Transaction '{}' not archived yet: {}", transactionId, result.reason());
+        return schedule(this, componentClient, transactionId, UNSETTLED_DELAY);
+      });
+  }
+
+  /**
+   * The mediator is gone when a redelivered timer comes after the archival, otherwise the lookup
+   * failure is passed on so that the timer is retried.
+   */
+  private CompletionStage<Done> alreadyArchived(String transactionId, Throwable lookupError) {
+    return componentClient
+      .forValueEntity(transactionId)
+      .call(ArchivedTransaction::getSummary)
+      .execute()
+      .handle((summary, error) -> {
+        if (error == null) return new Done();
+        throw lookupError instanceof CompletionException e ? e : new CompletionException(lookupError);
+      });
+  }
+}
@@ -0,0 +1,39 @@
+package kalix.demo.transactions;
+
+import kalix.demo.Done;
+import kalix.javasdk.action.Action;
+import kalix.javasdk.annotations.Subscribe;
+import kalix.javasdk.client.ComponentClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+
+import java.time.Duration;
+
+/**
+ * Schedules the archival of each transaction, {@code transactions.archive-after-hours} after it
+ * terminated.
+ */
+@Subscribe.EventSourcedEntity(value = TransactionMediator.class, ignoreUnknown = true)
+public class TransactionArchivalListener extends Action {
+
+  final private ComponentClient componentClient;
+  final private Duration retention;
+
+  public TransactionArchivalListener(@Autowired ComponentClient componentClient,
+                                     @Value("${transactions.archive-after-hours:168}") long retentionHours) {
+    this.componentClient = componentClient;
+    this.retention = Duration.ofHours(retentionHours);
+  }
+
+  public Effect<Done> onEvent(TransactionMediator.Event.Completed evt) {
+    return schedule(evt.transactionId());
+  }
+
+  public Effect<Done> onEvent(TransactionMediator.Event.Cancelled evt) {
+    return schedule(evt.transactionId());
+  }
+
+  private Effect<Done> schedule(String transactionId) {
+    return effects().asyncReply(TransactionArchivalAction.schedule(this, componentClient, transactionId, retention));
+  }
+}
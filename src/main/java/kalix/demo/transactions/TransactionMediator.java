@@ -18,7 +18,7 @@ import org.springframework.web.bind.annotation.*;
 
 @Id("id")
 @TypeId("transaction-mediator")
-@RequestMapping("/transactions/{id}")
+@RequestMapping("/transaction-entities/{id}")
 public class TransactionMediator
   extends EventSourcedEntity<TransactionMediator.State, TransactionMediator.Event> {
 
@@ -47,6 +47,26 @@ public class TransactionMediator
     }
   }
 
+  /**
+   * How participants are taken through the transaction.
+   * <ul>
+   *   <li>{@code STANDARD}: once all joined they execute, and once all executed they are told to
+   *   complete.</li>
+   *   <li>{@code PRESUMED_COMMIT}: an initialized transaction can't be cancelled anyway, so
+   *   participants complete in the same step they execute in. The completion round trip to every
+   *   participant goes away, at the price of participants forgetting the transaction (and no
+   *   longer recognizing a redelivered request for it) as soon as they executed.</li>
+   * </ul>
+   */
+  public enum Protocol {
+    STANDARD,
+    PRESUMED_COMMIT;
+
+    static Protocol orDefault(Protocol protocol) {
+      return protocol == null ? STANDARD : protocol;
+    }
+  }
+
   public enum Status {
     WAITING,
     INITIATED,
@@ -58,14 +78,22 @@ public class TransactionMediator
     }
   }
 
-  public record State(String transactionId, Map<String, Participant> participants, Status status) {
+  /**
+   * @param fee decided when the transaction was created, null without fee
+   */
+  public record State(String transactionId, Map<String, Participant> participants, Status status,
+                      Protocol protocol, Fee fee) {
+
+    public State {
+      protocol = Protocol.orDefault(protocol);
+    }
 
     State cancel() {
-      return new State(transactionId, participants, Status.CANCELLED);
+      return new State(transactionId, participants, Status.CANCELLED, protocol, fee);
     }
 
     State complete() {
-      return new State(transactionId, participants, Status.COMPLETED);
+      return new State(transactionId, participants, Status.COMPLETED, protocol, fee);
     }
 
     boolean isCancelled() {
@@ -76,10 +104,10 @@ public class TransactionMediator
       return participants.forAll(p -> p._2.joined);
     }
 
-    static State newInstance(String transactionId, java.util.List<Participant> participants) {
+    static State newInstance(String transactionId, java.util.List<Participant> participants, Protocol protocol, Fee fee) {
       return List.ofAll(participants).foldLeft(
-        new State(transactionId, HashMap.empty(), Status.WAITING),
-        (st, el) -> new State(transactionId, st.participants.put(el.id, el), st.status));
+        new State(transactionId, HashMap.empty(), Status.WAITING, protocol, fee),
+        (st, el) -> new State(transactionId, st.participants.put(el.id, el), st.status, st.protocol, st.fee));
     }
 
     boolean isLastToJoin(String participantId) {
@@ -98,14 +126,14 @@ public class TransactionMediator
       var updatedParticipants =
         participants
           .replaceAll((id, participant) -> id.equals(participantId) ? participant.asJoined() : participant);
-      return new State(transactionId, updatedParticipants, status);
+      return new State(transactionId, updatedParticipants, status, protocol, fee);
     }
 
     State participantExecuted(String participantId) {
       var updatedParticipants =
         participants
           .replaceAll((id, participant) -> id.equals(participantId) ? participant.asExecuted() : participant);
-      return new State(transactionId, updatedParticipants, status);
+      return new State(transactionId, updatedParticipants, status, protocol, fee);
     }
 
     public boolean hasJoined(String participantId) {
@@ -118,13 +146,37 @@ public class TransactionMediator
   }
 
 
-  public record Create(java.util.List<Participant> participants) {
+  /**
+   * What one of the participants collects on top of the amount of the transaction. It's kept
+   * with the transaction, so that a redelivered request charges what the first one did.
+   */
+  public record Fee(String participantId, Double amount) {
+  }
+
+  /**
+   * @param fee null when nothing is charged
+   */
+  public record Create(java.util.List<Participant> participants, Protocol protocol, Fee fee) {
+    public Create {
+      protocol = Protocol.orDefault(protocol);
+    }
+
+    public Create(java.util.List<Participant> participants, Protocol protocol) {
+      this(participants, protocol, null);
+    }
+
+    public Create(java.util.List<Participant> participants) {
+      this(participants, Protocol.STANDARD);
+    }
   }
 
   public sealed interface Event {
 
     @TypeId("created")
-    record Created(String transactionId, java.util.List<Participant> participants) implements Event {
+    record Created(String transactionId, java.util.List<Participant> participants, Protocol protocol, Fee fee) implements Event {
+      public Created {
+        protocol = Protocol.orDefault(protocol);
+      }
     }
 
     @TypeId("participant-joined")
@@ -132,7 +184,17 @@ public class TransactionMediator
     }
 
     @TypeId("initialized")
-    record Initialized(String transactionId, java.util.List<Participant> participants) implements Event {
+    record Initialized(String transactionId, java.util.List<Participant> participants, Protocol protocol) implements Event {
+      public Initialized {
+        protocol = Protocol.orDefault(protocol);
+      }
+
+      /**
+       * The phase participants are notified of, which under presumed commit also completes them.
+       */
+      public TransactionPhase phase() {
+        return protocol == Protocol.PRESUMED_COMMIT ? TransactionPhase.COMMITTING : TransactionPhase.INITIALIZED;
+      }
     }
 
     @TypeName("participant-executed")
@@ -140,23 +202,58 @@ public class TransactionMediator
     }
 
     @TypeId("completed")
-    record Completed(String transactionId, java.util.List<Participant> participants) implements Event {
+    record Completed(String transactionId, java.util.List<Participant> participants, Protocol protocol) implements Event {
+      public Completed {
+        protocol = Protocol.orDefault(protocol);
+      }
+
+      /**
+       * Under presumed commit, participants completed when they executed.
+       */
+      public boolean participantsCompleted() {
+        return protocol == Protocol.PRESUMED_COMMIT;
+      }
     }
 
     @TypeId("cancelled")
     record Cancelled(String transactionId, java.util.List<Participant> participants) implements Event {
     }
+
+    @TypeId("participants-acknowledged")
+    record ParticipantsAcknowledged(String transactionId, TransactionPhase phase, java.util.List<String> participantIds) implements Event {
+    }
+
+    @TypeId("transaction-archived")
+    record Archived(String transactionId) implements Event {
+    }
+  }
+
+  /**
+   * @param reason why the transaction can't be archived yet, when it isn't
+   */
+  public record ArchiveResult(boolean archived, String reason) {
   }
 
-  public record TransactionStatus(String transactionId, java.util.List<Participant> participants, Status status) {
+  /**
+   * @param fee decided when the transaction was created, null without fee
+   */
+  public record TransactionStatus(String transactionId, java.util.List<Participant> participants, Status status, Fee fee) {
+
+    public TransactionStatus(String transactionId, java.util.List<Participant> participants, Status status) {
+      this(transactionId, participants, status, null);
+    }
+
     static TransactionStatus of(State state) {
-      return new TransactionStatus(state.transactionId, state.participants.values().asJava(), state.status);
+      return new TransactionStatus(state.transactionId, state.participants.values().asJava(), state.status, state.fee);
     }
   }
 
   @GetMapping
   public Effect<TransactionStatus> getStatus() {
-    return effects().reply(TransactionStatus.of(currentState()));
+    if (currentState() == null)
+      return effects().error("Transaction doesn't exist: " + transactionId, StatusCode.ErrorCode.NOT_FOUND);
+    else
+      return effects().reply(TransactionStatus.of(currentState()));
   }
 
   @PostMapping
@@ -164,7 +261,7 @@ public class TransactionMediator
     if (currentState() == null) {
       logger.info("Creating transaction: '{}' for '{}'", transactionId, cmd);
       return effects()
-        .emitEvent(new Event.Created(transactionId, cmd.participants))
+        .emitEvent(new Event.Created(transactionId, cmd.participants, cmd.protocol, cmd.fee))
         .thenReply(TransactionStatus::of);
 
     } else if (currentState().isCancelled()) {
@@ -189,7 +286,7 @@ public class TransactionMediator
 
   @EventHandler
   public State onEvent(Event.Created evt) {
-    return State.newInstance(transactionId, evt.participants);
+    return State.newInstance(transactionId, evt.participants, evt.protocol, evt.fee);
   }
 
   @PostMapping("/{participantId}/join")
@@ -219,7 +316,7 @@ public class TransactionMediator
           logger.info("All participants joined: transaction '{}'", transactionId);
 
           var allParticipants = currentState().participants.values().toJavaList();
-          var completedEvent = new Event.Initialized(transactionId, allParticipants);
+          var completedEvent = new Event.Initialized(transactionId, allParticipants, currentState().protocol);
 
           return effects()
             .emitEvents(java.util.List.of(joinedEvent, completedEvent))
@@ -273,7 +370,7 @@ public class TransactionMediator
           logger.info("All participants executed: transaction '{}'", transactionId);
 
           var allParticipants = currentState().participants.values().toJavaList();
-          var completedEvent = new Event.Completed(transactionId, allParticipants);
+          var completedEvent = new Event.Completed(transactionId, allParticipants, currentState().protocol);
 
           return effects()
             .emitEvents(java.util.List.of(executedEvent, completedEvent))
@@ -325,5 +422,38 @@ public class TransactionMediator
     return currentState().cancel();
   }
 
+  /**
+   * Acknowledgements were once recorded here, they're kept in the {@link ParkedNotification} of
+   * the transaction now. Journals may still have them.
+   */
+  @EventHandler
+  public State onEvent(Event.ParticipantsAcknowledged evt) {
+    return currentState();
+  }
 
+  /**
+   * Deletes a terminated transaction, once its summary is kept in an {@link ArchivedTransaction}.
+   * Transactions still in progress are left alone, as are those with notifications still parked,
+   * see {@link TransactionArchivalAction}. Creating the transaction again is prevented by the callers, see
+   * {@link TransactionServiceAction#create}.
+   */
+  @PostMapping("/archive")
+  public Effect<ArchiveResult> archive() {
+    if (currentState() == null) {
+      return effects().error("Transaction doesn't exist: " + transactionId, StatusCode.ErrorCode.NOT_FOUND);
+    } else if (!currentState().status.isTerminated()) {
+      return effects().reply(new ArchiveResult(false, "Transaction in progress"));
+    } else {
+      logger.info("Archiving transaction '{}'", transactionId);
+      return effects()
+        .emitEvent(new Event.Archived(transactionId))
+        .deleteEntity()
+        .thenReply(__ -> new ArchiveResult(true, null));
+    }
+  }
+
+  @EventHandler
+  public State onEvent(Event.Archived evt) {
+    return currentState();
+  }
 }
@@ -16,74 +16,63 @@ import java.util.concurrent.CompletionStage;
 public class TransactionMediatorListener extends Action {
 
   final private ComponentClient componentClient;
-  final private TransactionAdapterProvider adapterProvider;
+  final private ParticipantNotifier notifier;
 
   final private Logger logger = LoggerFactory.getLogger(getClass());
   final private CompletionStage<Done> doneCompletionStage = CompletableFuture.completedStage(new Done());
 
   public TransactionMediatorListener(@Autowired ComponentClient componentClient,
-                                     @Autowired TransactionAdapterProvider adapterProvider) {
+                                     @Autowired ParticipantNotifier notifier) {
     this.componentClient = componentClient;
-    this.adapterProvider = adapterProvider;
+    this.notifier = notifier;
   }
 
 
   final public Effect<Done> onEvent(TransactionMediator.Event.Initialized evt) {
-
     logger.info(evt.toString());
-
-    // if a single call fails, event processing fails and needs to be retried
-    var allExecuted =
-      List
-        .ofAll(evt.participants())
-        .map(participant ->
-          adapterProvider
-            .forType(participant.type()).get()
-            .initialized(componentClient, participant.id(), evt.transactionId())
-        ).foldLeft(
-          doneCompletionStage,
-          (agg, fut) -> agg.thenCompose(__ -> fut)
-        );
-
-
-    return effects().asyncReply(allExecuted);
+    return effects().asyncReply(notifyParticipants(evt.phase(), evt.transactionId(), evt.participants()));
   }
 
   final public Effect<Done> onEvent(TransactionMediator.Event.Cancelled evt) {
     logger.info(evt.toString());
-    // if a single call fails, event processing fails and needs to be retried
-    var allExecuted =
-      List
-        .ofAll(evt.participants())
-        .map(participant ->
-          adapterProvider
-            .forType(participant.type()).get()
-            .cancel(componentClient, participant.id(), evt.transactionId())
-        ).foldLeft(
-          doneCompletionStage,
-          (agg, fut) -> agg.thenCompose(__ -> fut)
-        );
-
-
-    return effects().asyncReply(allExecuted);
+    return effects().asyncReply(notifyParticipants(TransactionPhase.CANCELLED, evt.transactionId(), evt.participants()));
   }
 
   final public Effect<Done> onEvent(TransactionMediator.Event.Completed evt) {
     logger.info(evt.toString());
-    // if a single call fails, event processing fails and needs to be retried
-    var allExecuted =
-      List
-        .ofAll(evt.participants())
-        .map(participant ->
-          adapterProvider
-            .forType(participant.type()).get()
-            .complete(componentClient, participant.id(), evt.transactionId())
-        ).foldLeft(
-          doneCompletionStage,
-          (agg, fut) -> agg.thenCompose(__ -> fut)
-        );
+    if (evt.participantsCompleted()) return effects().reply(new Done());
+    return effects().asyncReply(notifyParticipants(TransactionPhase.COMPLETED, evt.transactionId(), evt.participants()));
+  }
 
+  /**
+   * Participants that fail to be notified are parked for retries, so that a single stuck participant
+   * doesn't hold up the events behind this one. Event processing only fails (and is retried) when
+   * parking them fails, and then skips the participants the notifier remembers acknowledged.
+   */
+  private CompletionStage<Done> notifyParticipants(TransactionPhase phase,
+                                                   String transactionId,
+                                                   java.util.List<TransactionMediator.Participant> participants) {
+    return notifier
+      .notifyParticipants(componentClient, phase, transactionId, List.ofAll(participants))
+      .thenCompose(failures -> failures.isEmpty() ? doneCompletionStage : park(phase, transactionId, failures));
+  }
 
-    return effects().asyncReply(allExecuted);
+  private CompletionStage<Done> park(TransactionPhase phase,
+                                     String transactionId,
+                                     List<ParticipantNotifier.Failure> failures) {
+    var error = failures.head().error().toString();
+    logger.warn("Parking {} notifications of transaction '{}' for {}: {}", phase, transactionId,
+      failures.map(f -> f.participant().id()), error);
+
+    var park = new ParkedNotification.Park(phase, failures.map(ParticipantNotifier.Failure::participant).asJava(), error);
+    return componentClient
+      .forEventSourcedEntity(transactionId)
+      .call(ParkedNotification::park)
+      .params(park)
+      .execute()
+      .thenCompose(status -> {
+        notifier.forget(phase, transactionId);
+        return ParkedNotificationRetryAction.schedule(this, componentClient, transactionId, status.attempts());
+      });
   }
 }
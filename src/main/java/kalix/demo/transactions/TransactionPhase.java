@@ -0,0 +1,37 @@
+package kalix.demo.transactions;
+
+import kalix.demo.Done;
+import kalix.javasdk.client.ComponentClient;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * The phases of a transaction participants are notified of. {@code COMMITTING} replaces both
+ * {@code INITIALIZED} and {@code COMPLETED} under the presumed-commit protocol.
+ */
+public enum TransactionPhase {
+  INITIALIZED,
+  COMMITTING,
+  COMPLETED,
+  CANCELLED;
+
+  private boolean isInitial() {
+    return this == INITIALIZED || this == COMMITTING;
+  }
+
+  boolean supersedes(TransactionPhase other) {
+    return !isInitial() && other.isInitial();
+  }
+
+  public CompletionStage<Done> notify(TransactionAdapter adapter,
+                                      ComponentClient componentClient,
+                                      String participantId,
+                                      String transactionId) {
+    return switch (this) {
+      case INITIALIZED -> adapter.initialized(componentClient, participantId, transactionId);
+      case COMMITTING -> adapter.executeAndComplete(componentClient, participantId, transactionId);
+      case COMPLETED -> adapter.complete(componentClient, participantId, transactionId);
+      case CANCELLED -> adapter.cancel(componentClient, participantId, transactionId);
+    };
+  }
+}
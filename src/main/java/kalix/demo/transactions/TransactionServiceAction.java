@@ -0,0 +1,99 @@
+package kalix.demo.transactions;
+
+import kalix.demo.Done;
+import kalix.javasdk.DeferredCallResponseException;
+import kalix.javasdk.StatusCode;
+import kalix.javasdk.action.Action;
+import kalix.javasdk.client.ComponentClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Public API of the transactions. The status of a transaction comes from its
+ * {@link TransactionMediator} and, once that one is archived, from its {@link ArchivedTransaction}.
+ */
+@RequestMapping("/transactions/{id}")
+public class TransactionServiceAction extends Action {
+
+  final private ComponentClient componentClient;
+
+  public TransactionServiceAction(@Autowired ComponentClient componentClient) {
+    this.componentClient = componentClient;
+  }
+
+  static CompletionStage<TransactionMediator.TransactionStatus> status(ComponentClient componentClient, String transactionId) {
+    return componentClient
+      .forEventSourcedEntity(transactionId)
+      .call(TransactionMediator::getStatus)
+      .execute()
+      .handle((status, error) -> {
+        if (error == null) return CompletableFuture.completedFuture(status);
+        return componentClient
+          .forValueEntity(transactionId)
+          .call(ArchivedTransaction::getSummary)
+          .execute()
+          .handle((summary, archiveError) -> {
+            // not archived either, the lookup of the mediator tells why
+            if (archiveError != null)
+              throw error instanceof CompletionException e ? e : new CompletionException(error);
+            return summary.asStatus();
+          });
+      })
+      .thenCompose(Function.identity());
+  }
+
+  /**
+   * Creates the transaction, unless it was archived: its mediator is deleted by then, the
+   * {@link ArchivedTransaction} tells that the id was used and the reply is its terminated status,
+   * which callers treat like the one of a transaction created before.
+   */
+  public static CompletionStage<TransactionMediator.TransactionStatus> create(ComponentClient componentClient, String transactionId,
+                                                                             TransactionMediator.Create cmd) {
+    return unlessArchived(
+      componentClient
+        .forValueEntity(transactionId)
+        .call(ArchivedTransaction::getSummary)
+        .execute(),
+      () -> componentClient
+        .forEventSourcedEntity(transactionId)
+        .call(TransactionMediator::create)
+        .params(cmd)
+        .execute());
+  }
+
+  static CompletionStage<TransactionMediator.TransactionStatus> unlessArchived(CompletionStage<ArchivedTransaction.Summary> archived,
+                                                                              Supplier<CompletionStage<TransactionMediator.TransactionStatus>> create) {
+    return archived
+      .handle((summary, error) -> {
+        if (error == null) return CompletableFuture.completedFuture(summary.asStatus());
+        var cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof DeferredCallResponseException response && response.errorCode() == StatusCode.ErrorCode.NOT_FOUND)
+          return create.get();
+        return CompletableFuture.<TransactionMediator.TransactionStatus>failedFuture(cause);
+      })
+      .thenCompose(Function.identity());
+  }
+
+  @GetMapping
+  public Effect<TransactionMediator.TransactionStatus> getStatus(@PathVariable String id) {
+    return effects().asyncReply(status(componentClient, id));
+  }
+
+  @PostMapping("/cancel")
+  public Effect<Done> cancel(@PathVariable String id) {
+    var cancel =
+      componentClient
+        .forEventSourcedEntity(id)
+        .call(TransactionMediator::cancel);
+    return effects().forward(cancel);
+  }
+}
@@ -0,0 +1,119 @@
+package kalix.demo.transactions;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Fans out transaction transitions to status watchers.
+ * <p>
+ * There is at most one upstream per transaction, created by the first watcher and shared by all
+ * subsequent ones. Transitions for transactions nobody is watching are dropped, watchers that
+ * subscribe late are caught up from a snapshot of the mediator state.
+ * <p>
+ * The hub is local to this service instance: it only sees the events processed by the
+ * {@link TransactionStatusListener} running on this instance. Watchers also poll the transaction
+ * status every {@code transactions.status-poll-interval-ms}, so that they catch up when the events
+ * are processed elsewhere, and stop at a terminal status either way.
+ */
+@Component
+public class TransactionStatusHub {
+
+  final private Logger logger = LoggerFactory.getLogger(getClass());
+
+  final private ConcurrentHashMap<String, Upstream> upstreams = new ConcurrentHashMap<>();
+  final private Duration pollInterval;
+
+  public TransactionStatusHub(@Value("${transactions.status-poll-interval-ms:2000}") long pollIntervalMillis) {
+    this.pollInterval = Duration.ofMillis(Math.max(1, pollIntervalMillis));
+  }
+
+  private static class Upstream {
+    // transitions per transaction are bounded (2 per participant + 2), so replaying all is cheap
+    final Sinks.Many<TransactionTransition> sink = Sinks.many().replay().all();
+    int watchers = 0;
+  }
+
+  public void publish(TransactionTransition transition) {
+    var upstream = upstreams.get(transition.transactionId());
+    if (upstream != null) {
+      upstream.sink.emitNext(transition, Sinks.EmitFailureHandler.busyLooping(Duration.ofMillis(100)));
+      if (transition.isTerminal()) {
+        upstream.sink.emitComplete(Sinks.EmitFailureHandler.busyLooping(Duration.ofMillis(100)));
+      }
+    }
+  }
+
+  /**
+   * Streams the transitions of a transaction, each one exactly once, completing on a terminal transition.
+   *
+   * @param snapshot fetches the current transaction status, used to emit transitions that happened
+   *                 before subscribing, and then polled for those published on other instances
+   */
+  public Flux<TransactionTransition> watch(String transactionId,
+                                           Supplier<CompletionStage<TransactionMediator.TransactionStatus>> snapshot) {
+    return Flux.defer(() -> {
+      // register before taking the snapshot, so nothing happening in between is lost
+      var upstream = acquire(transactionId);
+      var caughtUp =
+        Mono.fromCompletionStage(snapshot)
+          .flatMapIterable(TransactionTransition::replay);
+
+      var polled =
+        Flux.interval(pollInterval)
+          .onBackpressureDrop()
+          .concatMap(__ -> poll(transactionId, snapshot), 1);
+
+      return Flux.concat(caughtUp, Flux.merge(upstream.sink.asFlux(), polled))
+        .distinct(TransactionTransition::key)
+        .takeUntil(TransactionTransition::isTerminal)
+        .doFinally(__ -> release(transactionId));
+    });
+  }
+
+  /**
+   * A failed poll is skipped, the next one tries again.
+   */
+  private Flux<TransactionTransition> poll(String transactionId,
+                                           Supplier<CompletionStage<TransactionMediator.TransactionStatus>> snapshot) {
+    return Mono.fromCompletionStage(snapshot)
+      .onErrorResume(error -> {
+        logger.debug("Polling the status of transaction '{}' failed", transactionId, error);
+        return Mono.empty();
+      })
+      .flatMapIterable(TransactionTransition::replay);
+  }
+
+  private Upstream acquire(String transactionId) {
+    return upstreams.compute(transactionId, (id, existing) -> {
+      var upstream = existing == null ? new Upstream() : existing;
+      upstream.watchers++;
+      return upstream;
+    });
+  }
+
+  private void release(String transactionId) {
+    upstreams.computeIfPresent(transactionId, (id, upstream) -> {
+      upstream.watchers--;
+      if (upstream.watchers == 0) {
+        logger.debug("No more watchers for transaction '{}'", transactionId);
+        return null;
+      } else {
+        return upstream;
+      }
+    });
+  }
+
+  int activeUpstreams() {
+    return upstreams.size();
+  }
+}
@@ -0,0 +1,44 @@
+package kalix.demo.transactions;
+
+import kalix.demo.Done;
+import kalix.javasdk.action.Action;
+import kalix.javasdk.annotations.Subscribe;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * Feeds the {@link TransactionStatusHub} with the lifecycle events of all transactions.
+ */
+@Subscribe.EventSourcedEntity(value = TransactionMediator.class, ignoreUnknown = true)
+public class TransactionStatusListener extends Action {
+
+  final private TransactionStatusHub hub;
+
+  public TransactionStatusListener(@Autowired TransactionStatusHub hub) {
+    this.hub = hub;
+  }
+
+  public Effect<Done> onEvent(TransactionMediator.Event.ParticipantJoined evt) {
+    return publish(evt);
+  }
+
+  public Effect<Done> onEvent(TransactionMediator.Event.Initialized evt) {
+    return publish(evt);
+  }
+
+  public Effect<Done> onEvent(TransactionMediator.Event.ParticipantExecuted evt) {
+    return publish(evt);
+  }
+
+  public Effect<Done> onEvent(TransactionMediator.Event.Completed evt) {
+    return publish(evt);
+  }
+
+  public Effect<Done> onEvent(TransactionMediator.Event.Cancelled evt) {
+    return publish(evt);
+  }
+
+  private Effect<Done> publish(TransactionMediator.Event evt) {
+    TransactionTransition.of(evt).forEach(hub::publish);
+    return effects().reply(new Done());
+  }
+}
@@ -0,0 +1,29 @@
+package kalix.demo.transactions;
+
+import kalix.javasdk.action.Action;
+import kalix.javasdk.client.ComponentClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import reactor.core.publisher.Flux;
+
+@RequestMapping("/transactions/{id}")
+public class TransactionStatusStreamAction extends Action {
+
+  final private ComponentClient componentClient;
+  final private TransactionStatusHub hub;
+
+  public TransactionStatusStreamAction(@Autowired ComponentClient componentClient,
+                                       @Autowired TransactionStatusHub hub) {
+    this.componentClient = componentClient;
+    this.hub = hub;
+  }
+
+  @GetMapping("/stream")
+  public Flux<Effect<TransactionTransition>> stream(@PathVariable String id) {
+    return hub
+      .watch(id, () -> TransactionServiceAction.status(componentClient, id))
+      .map(transition -> effects().reply(transition));
+  }
+}
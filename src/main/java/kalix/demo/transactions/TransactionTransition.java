@@ -0,0 +1,78 @@
+package kalix.demo.transactions;
+
+import io.vavr.collection.List;
+import io.vavr.control.Option;
+
+/**
+ * A single lifecycle step of a transaction, as seen by the status stream.
+ */
+public record TransactionTransition(String transactionId, Type type, String participantId) {
+
+  public enum Type {
+    PARTICIPANT_JOINED,
+    INITIALIZED,
+    PARTICIPANT_EXECUTED,
+    COMPLETED,
+    CANCELLED
+  }
+
+  public boolean isTerminal() {
+    return type == Type.COMPLETED || type == Type.CANCELLED;
+  }
+
+  /**
+   * Identifies the transition within its transaction, used to emit each transition only once.
+   */
+  String key() {
+    return participantId == null ? type.name() : type.name() + ":" + participantId;
+  }
+
+  static Option<TransactionTransition> of(TransactionMediator.Event event) {
+    if (event instanceof TransactionMediator.Event.ParticipantJoined evt) {
+      return Option.some(new TransactionTransition(evt.transactionId(), Type.PARTICIPANT_JOINED, evt.participantId()));
+    } else if (event instanceof TransactionMediator.Event.Initialized evt) {
+      return Option.some(new TransactionTransition(evt.transactionId(), Type.INITIALIZED, null));
+    } else if (event instanceof TransactionMediator.Event.ParticipantExecuted evt) {
+      return Option.some(new TransactionTransition(evt.transactionId(), Type.PARTICIPANT_EXECUTED, evt.participant().id()));
+    } else if (event instanceof TransactionMediator.Event.Completed evt) {
+      return Option.some(new TransactionTransition(evt.transactionId(), Type.COMPLETED, null));
+    } else if (event instanceof TransactionMediator.Event.Cancelled evt) {
+      return Option.some(new TransactionTransition(evt.transactionId(), Type.CANCELLED, null));
+    } else {
+      return Option.none();
+    }
+  }
+
+  /**
+   * Rebuilds the transitions a transaction went through so far from its current status.
+   * Used to catch up watchers that subscribe after the transaction started.
+   */
+  static List<TransactionTransition> replay(TransactionMediator.TransactionStatus status) {
+    var participants = List.ofAll(status.participants());
+    var id = status.transactionId();
+
+    var joined =
+      participants
+        .filter(TransactionMediator.Participant::joined)
+        .map(p -> new TransactionTransition(id, Type.PARTICIPANT_JOINED, p.id()));
+
+    var initialized =
+      participants.forAll(TransactionMediator.Participant::joined) && status.status() != TransactionMediator.Status.CANCELLED
+        ? List.of(new TransactionTransition(id, Type.INITIALIZED, null))
+        : List.<TransactionTransition>empty();
+
+    var executed =
+      participants
+        .filter(TransactionMediator.Participant::executed)
+        .map(p -> new TransactionTransition(id, Type.PARTICIPANT_EXECUTED, p.id()));
+
+    var terminal =
+      switch (status.status()) {
+        case COMPLETED -> List.of(new TransactionTransition(id, Type.COMPLETED, null));
+        case CANCELLED -> List.of(new TransactionTransition(id, Type.CANCELLED, null));
+        default -> List.<TransactionTransition>empty();
+      };
+
+    return joined.appendAll(initialized).appendAll(executed).appendAll(terminal);
+  }
+}
@@ -0,0 +1,76 @@
+package kalix.demo.bank;
+
+import kalix.demo.Done;
+import kalix.demo.payment.Wallet;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BankLedgerAdapterTest {
+
+  /**
+   * Records the ledger calls instead of sending them, a commit of {@code "unknown"} fails.
+   */
+  static class RecordingClient extends BankLedgerClient {
+    final List<String> calls = new CopyOnWriteArrayList<>();
+
+    RecordingClient() {
+      super("http://localhost:1", 1, 100);
+    }
+
+    @Override
+    public CompletionStage<Done> commit(String transactionId) {
+      calls.add("commit " + transactionId);
+      return transactionId.equals("unknown")
+        ? CompletableFuture.failedFuture(new Failure("POST failed with 404", null))
+        : CompletableFuture.completedFuture(new Done());
+    }
+
+    @Override
+    public CompletionStage<Done> release(String transactionId) {
+      calls.add("release " + transactionId);
+      return CompletableFuture.completedFuture(new Done());
+    }
+  }
+
+  final private RecordingClient client = new RecordingClient();
+  final private BankLedgerAdapter adapter = new BankLedgerAdapter(client);
+
+  @AfterEach
+  void closeClient() {
+    client.close();
+  }
+
+  @Test
+  public void handlesOnlyBankLedgerParticipants() {
+    assertTrue(adapter.adapterFor(BankLedger.class));
+    assertFalse(adapter.adapterFor(Wallet.class));
+  }
+
+  @Test
+  public void cancellationReleasesTheHoldAndCompletionLeavesItAlone() throws Exception {
+    adapter.cancel(null, "acc-1", "tx-1").toCompletableFuture().get();
+    adapter.complete(null, "acc-1", "tx-1").toCompletableFuture().get();
+    assertEquals(List.of("release tx-1"), client.calls);
+  }
+
+  @Test
+  public void failedCommitIsNotConfirmedToTheMediator() {
+    // no component client: confirming the execution would fail with something else
+    var error = assertThrows(ExecutionException.class,
+      () -> adapter.initialized(null, "acc-1", "unknown").toCompletableFuture().get());
+    assertInstanceOf(BankLedgerClient.Failure.class, error.getCause());
+    assertEquals(List.of("commit unknown"), client.calls);
+  }
+}
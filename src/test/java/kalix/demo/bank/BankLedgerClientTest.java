@@ -0,0 +1,95 @@
+package kalix.demo.bank;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BankLedgerClientTest {
+
+  private HttpServer stub;
+  private BankLedgerClient client;
+  final private ConcurrentHashMap<String, String> holds = new ConcurrentHashMap<>();
+  final private CopyOnWriteArrayList<String> requests = new CopyOnWriteArrayList<>();
+
+  /**
+   * Minimal stand-in for the bank ledger: holds are created with PUT, committed with POST and
+   * released with DELETE.
+   */
+  @BeforeEach
+  void startStub() throws IOException {
+    stub = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    stub.createContext("/holds/", exchange -> {
+      var path = exchange.getRequestURI().getPath().substring("/holds/".length());
+      var method = exchange.getRequestMethod();
+      requests.add(method + " " + path);
+
+      int status;
+      if (method.equals("PUT")) {
+        holds.put(path, new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+        status = 201;
+      } else if (method.equals("POST") && path.endsWith("/commit")) {
+        status = holds.containsKey(path.substring(0, path.length() - "/commit".length())) ? 200 : 404;
+      } else if (method.equals("DELETE")) {
+        status = holds.remove(path) != null ? 204 : 404;
+      } else {
+        status = 405;
+      }
+      exchange.sendResponseHeaders(status, -1);
+      exchange.close();
+    });
+    stub.start();
+    client = new BankLedgerClient("http://localhost:" + stub.getAddress().getPort(), 4, 2000);
+  }
+
+  @AfterEach
+  void stopStub() {
+    client.close();
+    stub.stop(0);
+  }
+
+  @Test
+  public void holdsAreCreatedThenCommitted() throws Exception {
+    client.hold(new BankLedger.Hold("tx-1", "acc-1", -25.0, "EUR")).toCompletableFuture().get();
+    client.commit("tx-1").toCompletableFuture().get();
+
+    assertEquals(java.util.List.of("PUT tx-1", "POST tx-1/commit"), requests);
+    assertTrue(holds.get("tx-1").contains("\"account\":\"acc-1\""));
+  }
+
+  @Test
+  public void releasingAnUnknownHoldSucceeds() throws Exception {
+    client.hold(new BankLedger.Hold("tx-2", "acc-1", 10.0, "EUR")).toCompletableFuture().get();
+    client.release("tx-2").toCompletableFuture().get();
+    client.release("tx-2").toCompletableFuture().get();
+    assertTrue(holds.isEmpty());
+  }
+
+  @Test
+  public void ledgerErrorsFailTheCall() {
+    var error = assertThrows(ExecutionException.class, () -> client.commit("unknown").toCompletableFuture().get());
+    assertInstanceOf(BankLedgerClient.Failure.class, error.getCause());
+  }
+
+  @Test
+  public void concurrentCallsAllComplete() {
+    var calls =
+      java.util.stream.IntStream.range(0, 50)
+        .mapToObj(i -> client.hold(new BankLedger.Hold("tx-c" + i, "acc-" + i, 1.0, "EUR")).toCompletableFuture())
+        .toList();
+    calls.forEach(java.util.concurrent.CompletableFuture::join);
+    assertEquals(50, holds.size());
+  }
+}
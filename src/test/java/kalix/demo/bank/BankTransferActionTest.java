@@ -0,0 +1,126 @@
+package kalix.demo.bank;
+
+import kalix.demo.Done;
+import kalix.demo.payment.Wallet;
+import kalix.demo.transactions.TransactionMediator;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class BankTransferActionTest {
+
+  /**
+   * Records the steps in the order they are taken, failing the ones named in {@code failing}.
+   */
+  static class RecordingSteps implements BankTransferAction.Steps {
+    final List<String> calls = new CopyOnWriteArrayList<>();
+    List<String> failing = List.of();
+    TransactionMediator.Status createdStatus = TransactionMediator.Status.WAITING;
+
+    private <T> CompletionStage<T> step(String name, T result) {
+      calls.add(name);
+      return failing.contains(name)
+        ? CompletableFuture.failedFuture(new IllegalStateException(name + " failed"))
+        : CompletableFuture.completedFuture(result);
+    }
+
+    private static TransactionMediator.TransactionStatus status(TransactionMediator.Status status) {
+      return new TransactionMediator.TransactionStatus("tx", List.of(), status);
+    }
+
+    @Override
+    public CompletionStage<TransactionMediator.TransactionStatus> create(String transactionId, TransactionMediator.Create cmd) {
+      return step("create", status(createdStatus));
+    }
+
+    @Override
+    public CompletionStage<Wallet.WalletStatus> withdraw(String walletId, Wallet.Withdraw cmd) {
+      return step("withdraw", null);
+    }
+
+    @Override
+    public CompletionStage<Wallet.WalletStatus> deposit(String walletId, Wallet.Deposit cmd) {
+      return step("deposit", null);
+    }
+
+    @Override
+    public CompletionStage<Done> hold(BankLedger.Hold hold) {
+      return step("hold", new Done());
+    }
+
+    @Override
+    public CompletionStage<Done> join(String transactionId, String participantId) {
+      return step("join", new Done());
+    }
+
+    @Override
+    public CompletionStage<Done> cancel(String transactionId) {
+      return step("cancel", new Done());
+    }
+
+    @Override
+    public CompletionStage<Done> release(String transactionId) {
+      return step("release", new Done());
+    }
+
+    @Override
+    public CompletionStage<TransactionMediator.TransactionStatus> status(String transactionId) {
+      return step("status", status(TransactionMediator.Status.INITIATED));
+    }
+  }
+
+  final private RecordingSteps steps = new RecordingSteps();
+
+  private Throwable failure(BankTransferAction.BankTransfer cmd) {
+    var transfer = BankTransferAction.transfer(steps, "tx", cmd).toCompletableFuture();
+    return assertThrows(ExecutionException.class, transfer::get).getCause();
+  }
+
+  @Test
+  public void holdIsPlacedOnceTheWalletHasReservedTheFunds() throws Exception {
+    var status = BankTransferAction.transfer(steps, "tx", new BankTransferAction.BankTransfer(10.0, "w", "acc", "EUR"))
+      .toCompletableFuture().get();
+    assertEquals(TransactionMediator.Status.INITIATED, status.status());
+    assertEquals(List.of("create", "withdraw", "hold", "join", "status"), steps.calls);
+
+    steps.calls.clear();
+    BankTransferAction.transfer(steps, "tx", new BankTransferAction.BankTransfer(-10.0, "w", "acc", "EUR"))
+      .toCompletableFuture().get();
+    assertEquals(List.of("create", "deposit", "hold", "join", "status"), steps.calls);
+  }
+
+  @Test
+  public void terminatedTransactionsAreNotReused() {
+    steps.createdStatus = TransactionMediator.Status.COMPLETED;
+    assertInstanceOf(BankTransferAction.Refused.class, failure(new BankTransferAction.BankTransfer(10.0, "w", "acc", "EUR")));
+    assertEquals(List.of("create"), steps.calls);
+  }
+
+  @Test
+  public void failedWithdrawCancelsWithoutPlacingAHold() {
+    steps.failing = List.of("withdraw");
+    assertEquals("withdraw failed", failure(new BankTransferAction.BankTransfer(10.0, "w", "acc", "EUR")).getMessage());
+    assertEquals(List.of("create", "withdraw", "cancel"), steps.calls);
+  }
+
+  @Test
+  public void failedHoldOrJoinCancelsAndReleasesTheHold() {
+    steps.failing = List.of("hold");
+    assertEquals("hold failed", failure(new BankTransferAction.BankTransfer(10.0, "w", "acc", "EUR")).getMessage());
+    assertEquals(List.of("create", "withdraw", "hold", "cancel", "release"), steps.calls);
+
+    steps.calls.clear();
+    // the release doesn't depend on the cancellation going through
+    steps.failing = List.of("join", "cancel");
+    assertEquals("join failed", failure(new BankTransferAction.BankTransfer(10.0, "w", "acc", "EUR")).getMessage());
+    assertEquals(List.of("create", "withdraw", "hold", "join", "cancel", "release"), steps.calls);
+  }
+}
@@ -0,0 +1,61 @@
+package kalix.demo.ledger;
+
+import kalix.demo.Done;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LedgerBatcherTest {
+
+  record Call(String shardId, Ledger.Bookings bookings, CompletableFuture<Done> reply) {
+  }
+
+  final private java.util.List<Call> calls = new ArrayList<>();
+
+  private LedgerBatcher batcher(int maxBatchSize) {
+    return new LedgerBatcher((componentClient, shardId, bookings) -> {
+      var call = new Call(shardId, bookings, new CompletableFuture<>());
+      calls.add(call);
+      return call.reply;
+    }, maxBatchSize);
+  }
+
+  private static Ledger.Booking executed(String transactionId) {
+    return Ledger.Booking.executed(new Ledger.LegSettlement(transactionId, "aaa"));
+  }
+
+  @Test
+  public void bookingsOfAShardQueuedBehindACallGoOutTogether() {
+    var batcher = batcher(100);
+    var first = batcher.submit(null, "0", executed("t1"));
+    var queued = new ArrayList<CompletionStage<Done>>();
+    for (int i = 2; i <= 50; i++) queued.add(batcher.submit(null, "0", executed("t" + i)));
+    batcher.submit(null, "1", executed("other"));
+
+    // one call per shard in flight, whatever the number of wallet events
+    assertEquals(2, calls.size());
+    calls.get(0).reply.complete(new Done());
+    assertTrue(first.toCompletableFuture().isDone());
+
+    assertEquals(3, calls.size());
+    assertEquals(49, calls.get(2).bookings.bookings().size());
+    calls.get(2).reply.complete(new Done());
+    assertTrue(queued.stream().allMatch(r -> r.toCompletableFuture().isDone()));
+  }
+
+  @Test
+  public void aFailedBatchFailsEachOfItsBookings() {
+    var batcher = batcher(100);
+    batcher.submit(null, "0", executed("t1"));
+    var queued = batcher.submit(null, "0", executed("t2"));
+    calls.get(0).reply.complete(new Done());
+
+    calls.get(1).reply.completeExceptionally(new RuntimeException("shard unavailable"));
+    assertTrue(queued.toCompletableFuture().isCompletedExceptionally());
+  }
+}
@@ -0,0 +1,128 @@
+package kalix.demo.ledger;
+
+import kalix.demo.payment.Wallet;
+import kalix.javasdk.testkit.EventSourcedTestKit;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+public class LedgerTest {
+
+  @Test
+  public void balancedTransferIsReconciled() {
+    var ledger = EventSourcedTestKit.of(Ledger::new);
+
+    ledger.call(l -> l.initiateLeg(new Ledger.LegInitiation("tx", "aaa", 25.0, Ledger.Direction.DEBIT)));
+    ledger.call(l -> l.initiateLeg(new Ledger.LegInitiation("tx", "bbb", 25.0, Ledger.Direction.CREDIT)));
+    {
+      var status = ledger.call(Ledger::getStatus).getReply();
+      assertEquals(-25.0, status.totals().get("EUR").balance());
+      assertEquals(25.0, status.totals().get("EUR").reserved());
+      assertEquals(50.0, status.totals().get("EUR").inFlight());
+    }
+
+    ledger.call(l -> l.executeLeg(new Ledger.LegSettlement("tx", "aaa")));
+    ledger.call(l -> l.executeLeg(new Ledger.LegSettlement("tx", "bbb")));
+    ledger.call(l -> l.endTransaction(new Ledger.TransactionEnd("tx", Ledger.Outcome.COMPLETED, 2)));
+
+    var status = ledger.call(Ledger::getStatus).getReply();
+    assertEquals(0.0, status.totals().get("EUR").balance());
+    assertEquals(0.0, status.totals().get("EUR").reserved());
+    assertEquals(0.0, status.totals().get("EUR").inFlight());
+    assertEquals(0L, status.totals().get("EUR").imbalanced());
+    assertEquals(0, status.openTransactions());
+  }
+
+  @Test
+  public void crossCurrencyTransferIsReconciledInItsSourceCurrency() {
+    var ledger = EventSourcedTestKit.of(Ledger::new);
+    var conversion = new Wallet.Conversion("EUR", 100.0, 1.08, Instant.now());
+
+    ledger.call(l -> l.initiateLeg(new Ledger.LegInitiation("tx", "aaa", 100.0, Ledger.Direction.DEBIT, "EUR")));
+    ledger.call(l -> l.initiateLeg(new Ledger.LegInitiation("tx", "bbb", 108.0, Ledger.Direction.CREDIT, "USD", conversion)));
+    ledger.call(l -> l.executeLeg(new Ledger.LegSettlement("tx", "aaa")));
+    ledger.call(l -> l.executeLeg(new Ledger.LegSettlement("tx", "bbb")));
+    ledger.call(l -> l.endTransaction(new Ledger.TransactionEnd("tx", Ledger.Outcome.COMPLETED, 2)));
+
+    var status = ledger.call(Ledger::getStatus).getReply();
+    assertEquals(0, status.imbalances().size());
+    // the exchange moves the amount out of euros and the converted amount into dollars
+    assertEquals(-100.0, status.totals().get("EUR").balance());
+    assertEquals(100.0, status.totals().get("EUR").externalOut());
+    assertEquals(108.0, status.totals().get("USD").balance());
+    assertEquals(108.0, status.totals().get("USD").externalIn());
+  }
+
+  @Test
+  public void redeliveredEventsAreIgnored() {
+    var ledger = EventSourcedTestKit.of(Ledger::new);
+    var deposit = new Ledger.LegInitiation("tx", "aaa", 50.0, Ledger.Direction.CREDIT);
+
+    ledger.call(l -> l.initiateLeg(deposit));
+    ledger.call(l -> l.executeLeg(new Ledger.LegSettlement("tx", "aaa")));
+    // mediator completion may arrive before or after the wallet events
+    ledger.call(l -> l.endTransaction(new Ledger.TransactionEnd("tx", Ledger.Outcome.COMPLETED, 1)));
+
+    var result = ledger.call(l -> l.initiateLeg(deposit));
+    assertFalse(result.didEmitEvents());
+
+    var status = ledger.call(Ledger::getStatus).getReply();
+    assertEquals(50.0, status.totals().get("EUR").balance());
+    assertEquals(50.0, status.totals().get("EUR").externalIn());
+    assertEquals(0, status.openTransactions());
+  }
+
+  @Test
+  public void imbalancedTransactionIsFlagged() {
+    var ledger = EventSourcedTestKit.of(Ledger::new);
+
+    ledger.call(l -> l.endTransaction(new Ledger.TransactionEnd("tx", Ledger.Outcome.COMPLETED, 2)));
+    ledger.call(l -> l.initiateLeg(new Ledger.LegInitiation("tx", "aaa", 25.0, Ledger.Direction.DEBIT)));
+    ledger.call(l -> l.initiateLeg(new Ledger.LegInitiation("tx", "bbb", 30.0, Ledger.Direction.CREDIT)));
+    ledger.call(l -> l.executeLeg(new Ledger.LegSettlement("tx", "aaa")));
+    ledger.call(l -> l.executeLeg(new Ledger.LegSettlement("tx", "bbb")));
+
+    var status = ledger.call(Ledger::getStatus).getReply();
+    assertEquals(1L, status.totals().get("EUR").imbalanced());
+    assertEquals(1, status.imbalances().size());
+    assertEquals("tx", status.imbalances().get(0).transactionId());
+  }
+
+  @Test
+  public void holdMovementsAreBookedOnce() {
+    var ledger = EventSourcedTestKit.of(Ledger::new);
+
+    ledger.call(l -> l.bookHold(new Ledger.HoldMovement("auth:authorized", "EUR", 60.0, 0.0, 0.0)));
+    ledger.call(l -> l.bookHold(new Ledger.HoldMovement("auth:captured:20.0", "EUR", 0.0, 20.0, 0.0)));
+    ledger.call(l -> l.bookHold(new Ledger.HoldMovement("auth:released", "EUR", 0.0, 0.0, 40.0)));
+
+    var redelivered = ledger.call(l -> l.bookHold(new Ledger.HoldMovement("auth:captured:20.0", "EUR", 0.0, 20.0, 0.0)));
+    assertFalse(redelivered.didEmitEvents());
+
+    var totals = ledger.call(Ledger::getStatus).getReply().totals().get("EUR");
+    assertEquals(-20.0, totals.balance());
+    assertEquals(0.0, totals.reserved());
+    assertEquals(20.0, totals.externalOut());
+  }
+
+  @Test
+  public void batchedBookingsAreAppliedInOrderAndOnlyWhenTheyChangeTheLedger() {
+    var ledger = EventSourcedTestKit.of(Ledger::new);
+    var deposit = new Ledger.LegInitiation("tx", "aaa", 50.0, Ledger.Direction.CREDIT);
+
+    var result = ledger.call(l -> l.applyBatch(new Ledger.Bookings(java.util.List.of(
+      Ledger.Booking.of(deposit),
+      Ledger.Booking.of(deposit),
+      Ledger.Booking.executed(new Ledger.LegSettlement("tx", "aaa")),
+      Ledger.Booking.of(new Ledger.TransactionEnd("tx", Ledger.Outcome.COMPLETED, 1))))));
+    // the redelivered initiation is dropped
+    assertEquals(3, result.getAllEvents().size());
+
+    var status = ledger.call(Ledger::getStatus).getReply();
+    assertEquals(50.0, status.totals().get("EUR").externalIn());
+    assertEquals(0, status.openTransactions());
+  }
+}
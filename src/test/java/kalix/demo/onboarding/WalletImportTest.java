@@ -0,0 +1,125 @@
+package kalix.demo.onboarding;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class WalletImportTest {
+
+  private HttpServer stub;
+  private URI service;
+  final private ConcurrentHashMap<String, String> wallets = new ConcurrentHashMap<>();
+  final private ConcurrentHashMap<String, String> deposits = new ConcurrentHashMap<>();
+  final private AtomicBoolean rejectedOnce = new AtomicBoolean();
+
+  /**
+   * Stand-in for the wallet API: creating a wallet twice fails like the real one, "invalid" is
+   * refused, and the first request for "busy" is rate limited.
+   */
+  @BeforeEach
+  void startStub() throws IOException {
+    stub = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    stub.createContext("/wallets/", exchange -> {
+      var path = exchange.getRequestURI().getPath().substring("/wallets/".length()).split("/");
+      var walletId = path[0];
+      var body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+
+      int status = 200;
+      var reply = "{}";
+      if (walletId.equals("busy") && rejectedOnce.compareAndSet(false, true)) {
+        status = 429;
+        reply = "Too many requests on wallet 'busy', Retry-After: 0";
+      } else if (walletId.equals("invalid")) {
+        status = 400;
+        reply = "Invalid wallet";
+      } else if (path.length == 1) {
+        if (wallets.putIfAbsent(walletId, walletId) != null) {
+          status = 400;
+          reply = "Wallet '" + walletId + "' exists already";
+        }
+      } else {
+        deposits.put(walletId, body);
+      }
+      var bytes = reply.getBytes(StandardCharsets.UTF_8);
+      exchange.sendResponseHeaders(status, bytes.length);
+      exchange.getResponseBody().write(bytes);
+      exchange.close();
+    });
+    stub.start();
+    service = URI.create("http://localhost:" + stub.getAddress().getPort());
+  }
+
+  @AfterEach
+  void stopStub() {
+    stub.stop(0);
+  }
+
+  @Test
+  public void importsWalletsWithOpeningBalances(@TempDir Path dir) throws Exception {
+    var csv = """
+      walletId,amount,currency
+      aaa,50.0,EUR
+      bbb,20,USD
+      busy,10
+      invalid,5
+      ccc,
+      ,12
+      """;
+    var walletImport = new WalletImport(service, dir, 2, Duration.ofSeconds(5));
+    var report = walletImport.run(new BufferedReader(new StringReader(csv)), WalletImport.Format.CSV);
+
+    assertEquals(6, report.items());
+    assertEquals(4, report.imported());
+    assertEquals(2, report.failed());
+    assertEquals(java.util.Set.of("aaa", "bbb", "busy", "ccc"), wallets.keySet());
+    assertEquals(java.util.Set.of("aaa", "bbb", "busy"), deposits.keySet());
+    assertTrue(deposits.get("bbb").contains("\"transactionId\":\"opening-bbb\""));
+    assertTrue(deposits.get("bbb").contains("\"currency\":\"USD\""));
+
+    var failures = Files.readAllLines(dir.resolve(WalletImport.FAILURES_FILE));
+    assertEquals(2, failures.size());
+    assertTrue(failures.get(0).contains("\"line\":5") || failures.get(1).contains("\"line\":5"));
+    assertEquals(7, walletImport.checkpoint());
+  }
+
+  @Test
+  public void resumesFromCheckpoint(@TempDir Path dir) throws Exception {
+    var ndjson = """
+      {"walletId":"aaa","amount":50.0}
+      {"walletId":"bbb","amount":20.0}
+      {"walletId":"ccc","amount":10.0,"currency":"USD"}
+      """;
+    Files.writeString(dir.resolve(WalletImport.CHECKPOINT_FILE), "line=2\n");
+
+    var walletImport = new WalletImport(service, dir, 4, Duration.ofSeconds(5));
+    var report = walletImport.run(new BufferedReader(new StringReader(ndjson)), WalletImport.Format.NDJSON);
+
+    assertEquals(2, report.resumedFrom());
+    assertEquals(1, report.imported());
+    assertEquals(java.util.Set.of("ccc"), wallets.keySet());
+    assertEquals(3, walletImport.checkpoint());
+
+    // imports are idempotent, a run over the same items again doesn't fail them
+    var again = new WalletImport(service, dir.resolve("again"), 4, Duration.ofSeconds(5));
+    var rerun = again.run(new BufferedReader(new StringReader(ndjson)), WalletImport.Format.NDJSON);
+    assertEquals(3, rerun.imported());
+    assertEquals(0, rerun.failed());
+  }
+}
@@ -0,0 +1,166 @@
+package kalix.demo.payment;
+
+import kalix.javasdk.testkit.ValueEntityTestKit;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static kalix.demo.payment.AdmissionControl.Lane.BULK;
+import static kalix.demo.payment.AdmissionControl.Lane.INTERACTIVE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AdmissionControlTest {
+
+  private static AdmissionControl.Limits limits(double walletRate, double walletBurst, double callerRate, double callerBurst) {
+    var lane = new AdmissionControl.LaneLimits(
+      new AdmissionControl.Limit(walletRate, walletBurst),
+      new AdmissionControl.Limit(callerRate, callerBurst));
+    return new AdmissionControl.Limits(lane, lane);
+  }
+
+  @Test
+  public void rejectsOverLimitWithRetryAfterAndRefills() {
+    var clock = new AtomicLong();
+    var admission = new AdmissionControl(clock::get);
+    admission.updateLimits(limits(2, 2, 100, 100));
+
+    assertTrue(admission.admit("aaa", "caller", INTERACTIVE).admitted());
+    assertTrue(admission.admit("aaa", "caller", INTERACTIVE).admitted());
+
+    var rejected = admission.admit("aaa", "caller", INTERACTIVE);
+    assertFalse(rejected.admitted());
+    assertEquals(Duration.ofMillis(500), rejected.retryAfter());
+    assertEquals(1, rejected.retryAfterSeconds());
+
+    // other wallets are not affected
+    assertTrue(admission.admit("bbb", "caller", INTERACTIVE).admitted());
+
+    clock.addAndGet(Duration.ofMillis(500).toNanos());
+    assertTrue(admission.admit("aaa", "caller", INTERACTIVE).admitted());
+  }
+
+  @Test
+  public void bulkLaneDoesNotConsumeInteractiveBudget() {
+    var admission = new AdmissionControl(() -> 0L);
+    admission.updateLimits(limits(1, 1, 100, 100));
+
+    assertTrue(admission.admit("aaa", "batch", BULK).admitted());
+    assertFalse(admission.admit("aaa", "batch", BULK).admitted());
+    assertTrue(admission.admit("aaa", "user", INTERACTIVE).admitted());
+  }
+
+  @Test
+  public void callerLimitAppliesAcrossWalletsAndRejectionsAreFree() {
+    var admission = new AdmissionControl(() -> 0L);
+    admission.updateLimits(limits(1, 1, 2, 2));
+
+    assertTrue(admission.admit("aaa", "caller", INTERACTIVE).admitted());
+    // wallet rejection must not use up a caller token
+    assertFalse(admission.admit("aaa", "caller", INTERACTIVE).admitted());
+    assertTrue(admission.admit("bbb", "caller", INTERACTIVE).admitted());
+    assertFalse(admission.admit("ccc", "caller", INTERACTIVE).admitted());
+    assertTrue(admission.admit("ccc", "other", INTERACTIVE).admitted());
+  }
+
+  @Test
+  public void updatedLimitsApplyToExistingBuckets() {
+    var clock = new AtomicLong();
+    var admission = new AdmissionControl(clock::get);
+    admission.updateLimits(limits(1, 1, 100, 100));
+
+    assertTrue(admission.admit("aaa", "caller", INTERACTIVE).admitted());
+    assertFalse(admission.admit("aaa", "caller", INTERACTIVE).admitted());
+
+    admission.updateLimits(limits(10, 10, 100, 100));
+    clock.addAndGet(Duration.ofMillis(100).toNanos());
+    assertTrue(admission.admit("aaa", "caller", INTERACTIVE).admitted());
+  }
+
+  @Test
+  public void multiWalletRequestsChargeTheCallerOnceAndRollBackOnRejection() {
+    var admission = new AdmissionControl(() -> 0L);
+    admission.updateLimits(limits(1, 1, 2, 2));
+
+    assertTrue(admission.admit(List.of("aaa", "bbb"), "caller", INTERACTIVE).admitted());
+    // bbb is out of tokens, neither aaa's nor the caller's token is used up
+    assertFalse(admission.admit(List.of("ccc", "bbb"), "caller", INTERACTIVE).admitted());
+    assertTrue(admission.admit(List.of("ccc", "ddd"), "caller", INTERACTIVE).admitted());
+    assertFalse(admission.admit(List.of("eee"), "caller", INTERACTIVE).admitted());
+  }
+
+  @Test
+  public void anonymousCallersAreKeyedBySource() {
+    assertEquals("anonymous", AdmissionControl.anonymousCaller(null));
+    assertEquals(AdmissionControl.anonymousCaller("10.0.0.1"), AdmissionControl.anonymousCaller("10.0.0.1, 192.168.0.1"));
+
+    var keys = new java.util.HashSet<String>();
+    for (int i = 0; i < 10 * AdmissionControl.ANONYMOUS_CALLERS; i++) keys.add(AdmissionControl.anonymousCaller("10.0." + i));
+    assertTrue(keys.size() > 1);
+    assertTrue(keys.size() <= AdmissionControl.ANONYMOUS_CALLERS);
+  }
+
+  @Test
+  public void idleBucketsAreEvicted() {
+    var clock = new AtomicLong();
+    var admission = new AdmissionControl(clock::get);
+    admission.updateLimits(limits(1, 1, 100, 100));
+
+    assertTrue(admission.admit(List.of("aaa", "bbb"), "caller", INTERACTIVE).admitted());
+    assertEquals(3, admission.buckets());
+    admission.evictIdle();
+    assertEquals(3, admission.buckets());
+
+    clock.addAndGet(Duration.ofSeconds(1).toNanos());
+    admission.evictIdle();
+    assertEquals(0, admission.buckets());
+  }
+
+  @Test
+  public void storedLimitsAreReadAgainOnceDue() {
+    var clock = new AtomicLong();
+    var admission = new AdmissionControl(clock::get, Duration.ofSeconds(10));
+    var reads = new AtomicInteger();
+    var stored = limits(1, 1, 100, 100);
+
+    // read on the first request, then only once they are due for a refresh
+    admission.refresh(() -> {
+      reads.incrementAndGet();
+      return CompletableFuture.completedFuture(stored);
+    });
+    assertEquals(stored, admission.limits());
+    admission.refresh(() -> CompletableFuture.completedFuture(limits(2, 2, 100, 100)));
+    assertEquals(1, reads.get());
+    assertEquals(stored, admission.limits());
+
+    // limits changed on another instance are picked up
+    clock.addAndGet(Duration.ofSeconds(10).toNanos());
+    var changed = limits(5, 5, 100, 100);
+    admission.refresh(() -> CompletableFuture.completedFuture(changed));
+    assertEquals(changed, admission.limits());
+
+    // a failed read keeps the limits read last
+    clock.addAndGet(Duration.ofSeconds(10).toNanos());
+    admission.refresh(() -> CompletableFuture.failedFuture(new IllegalStateException("unavailable")));
+    assertEquals(changed, admission.limits());
+  }
+
+  @Test
+  public void storedLimitsMustBeValid() {
+    var entity = ValueEntityTestKit.of(AdmissionLimits.ID, context -> new AdmissionLimits());
+    assertEquals(AdmissionControl.Limits.defaults(), entity.call(AdmissionLimits::getLimits).getReply());
+
+    var rejected = entity.call(e -> e.update(limits(0, 1, 100, 100)));
+    assertTrue(rejected.isError());
+    assertEquals(io.grpc.Status.Code.INVALID_ARGUMENT, rejected.getErrorStatusCode());
+
+    var valid = limits(1, 1, 100, 100);
+    entity.call(e -> e.update(valid));
+    assertEquals(valid, entity.call(AdmissionLimits::getLimits).getReply());
+  }
+}
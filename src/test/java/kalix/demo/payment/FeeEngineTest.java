@@ -0,0 +1,93 @@
+package kalix.demo.payment;
+
+import kalix.javasdk.testkit.ValueEntityTestKit;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FeeEngineTest {
+
+  private static FeeEngine engineWith(FeeEngine.FeeRule... rules) {
+    var engine = new FeeEngine("fees", Duration.ofSeconds(30), () -> 0L);
+    engine.updateRules(new FeeEngine.FeeRules(List.of(rules)));
+    return engine;
+  }
+
+  @Test
+  public void transfersPayTheFeeOfTheirTier() {
+    var engine = engineWith(
+      new FeeEngine.FeeRule(null, 1000.0, null, 0.5, 10.0),
+      new FeeEngine.FeeRule(null, null, 0.2, null, null),
+      new FeeEngine.FeeRule(null, 100.0, 1.0, 1.0, null));
+
+    assertEquals(0.2, engine.feeFor(new Transfer(50.0, "aaa", "bbb")).amount());
+    assertEquals(2.0, engine.feeFor(new Transfer(100.0, "aaa", "bbb")).amount());
+    assertEquals(3.5, engine.feeFor(new Transfer(250.0, "aaa", "bbb")).amount());
+    assertEquals(10.0, engine.feeFor(new Transfer(5000.0, "aaa", "bbb")).amount());
+    assertEquals("fees", engine.feeFor(new Transfer(50.0, "aaa", "bbb")).walletId());
+  }
+
+  @Test
+  public void currencyRulesComeFirst() {
+    var engine = engineWith(
+      new FeeEngine.FeeRule(null, null, 1.0, null, null),
+      new FeeEngine.FeeRule("USD", 10.0, 3.0, null, null),
+      new FeeEngine.FeeRule("CHF", null, 0.0, null, null));
+
+    assertEquals(3.0, engine.feeFor(new Transfer(20.0, "aaa", "bbb", "USD")).amount());
+    // below the USD tiers, the rule for any currency applies
+    assertEquals(1.0, engine.feeFor(new Transfer(5.0, "aaa", "bbb", "USD")).amount());
+    assertEquals(1.0, engine.feeFor(new Transfer(5.0, "aaa", "bbb")).amount());
+    assertNull(engine.feeFor(new Transfer(5.0, "aaa", "bbb", "CHF")));
+  }
+
+  @Test
+  public void feeWalletAndUnmatchedTransfersAreFree() {
+    var engine = engineWith(new FeeEngine.FeeRule(null, 10.0, 1.0, null, null));
+    assertNull(engine.feeFor(new Transfer(5.0, "aaa", "bbb")));
+    assertNull(engine.feeFor(new Transfer(50.0, "fees", "bbb")));
+    assertNull(engine.feeFor(new Transfer(50.0, "aaa", "fees")));
+
+    // rules changed at runtime apply to the next transfer
+    engine.updateRules(new FeeEngine.FeeRules(List.of()));
+    assertNull(engine.feeFor(new Transfer(50.0, "aaa", "bbb")));
+  }
+
+  @Test
+  public void transfersWaitForTheRulesToBeRead() {
+    var now = new long[]{0};
+    var engine = new FeeEngine("fees", Duration.ofSeconds(30), () -> now[0]);
+    assertThrows(FeeEngine.NotLoaded.class, () -> engine.feeFor(new Transfer(50.0, "aaa", "bbb")));
+    // the fee wallet is free even then
+    assertNull(engine.feeFor(new Transfer(50.0, "fees", "bbb")));
+
+    engine.updateRules(new FeeEngine.FeeRules(List.of(new FeeEngine.FeeRule(null, null, 1.0, null, null))));
+    now[0] = 29_000;
+    // fresh rules are used without reading them again
+    assertTrue(engine.ready(null).toCompletableFuture().isDone());
+    assertEquals(1.0, engine.feeFor(new Transfer(50.0, "aaa", "bbb")).amount());
+  }
+
+  @Test
+  public void storedRulesMustNotBeNegative() {
+    var schedule = ValueEntityTestKit.of(FeeSchedule.ID, context -> new FeeSchedule());
+    assertTrue(schedule.call(FeeSchedule::getRules).getReply().rules().isEmpty());
+
+    var negative = new FeeEngine.FeeRules(List.of(new FeeEngine.FeeRule(null, null, -1.0, null, null)));
+    assertFalse(negative.isValid());
+    var rejected = schedule.call(s -> s.update(negative));
+    assertTrue(rejected.isError());
+    assertEquals(io.grpc.Status.Code.INVALID_ARGUMENT, rejected.getErrorStatusCode());
+
+    var rules = new FeeEngine.FeeRules(List.of(new FeeEngine.FeeRule("USD", 10.0, 1.0, 0.5, 5.0)));
+    schedule.call(s -> s.update(rules));
+    assertEquals(rules, schedule.call(FeeSchedule::getRules).getReply());
+  }
+}
@@ -0,0 +1,62 @@
+package kalix.demo.payment;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class FxRatesTest {
+
+  @Test
+  public void stubRatesQuoteBothWays() {
+    try (var rates = new FxRates("", 60)) {
+      assertEquals(1.08, rates.quote("EUR", "USD").rate());
+      assertEquals(1 / 1.08, rates.quote("USD", "EUR").rate());
+      assertNull(rates.quote("USD", "JPY"));
+
+      var conversion = Wallet.Conversion.of(rates.quote("EUR", "USD"), 33.33);
+      assertEquals(36.0, conversion.converted());
+      assertEquals("EUR", conversion.sourceCurrency());
+    }
+  }
+
+  @Test
+  public void ratesFileIsReloadedWhenChanged(@TempDir Path dir) throws Exception {
+    var file = dir.resolve("rates.txt");
+    Files.writeString(file, "# daily rates\nEUR/USD=1.10\nUSD/JPY = 150\n");
+
+    try (var rates = new FxRates(file.toString(), 3600)) {
+      assertEquals(1.10, rates.quote("EUR", "USD").rate());
+      assertEquals(150.0, rates.quote("USD", "JPY").rate());
+
+      Files.writeString(file, "EUR/USD=1.20\n");
+      Files.setLastModifiedTime(file, FileTime.from(Instant.now().plusSeconds(10)));
+      rates.refresh();
+      assertEquals(1.20, rates.quote("EUR", "USD").rate());
+      assertNull(rates.quote("USD", "JPY"));
+
+      // a broken file keeps the rates loaded last
+      Files.writeString(file, "EUR/USD=oops\n");
+      Files.setLastModifiedTime(file, FileTime.from(Instant.now().plusSeconds(20)));
+      rates.refresh();
+      assertEquals(1.20, rates.quote("EUR", "USD").rate());
+    }
+  }
+
+  @Test
+  public void configuredRatesFileMustLoadAtStartup(@TempDir Path dir) throws Exception {
+    var missing = dir.resolve("missing.txt").toString();
+    assertThrows(IllegalStateException.class, () -> new FxRates(missing, 60));
+
+    var broken = dir.resolve("broken.txt");
+    Files.writeString(broken, "EUR/USD=oops\n");
+    assertThrows(IllegalStateException.class, () -> new FxRates(broken.toString(), 60));
+  }
+}
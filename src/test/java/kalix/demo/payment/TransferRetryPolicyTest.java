@@ -0,0 +1,132 @@
+package kalix.demo.payment;
+
+import kalix.demo.transactions.CircuitBreaker;
+import kalix.javasdk.DeferredCallResponseException;
+import kalix.javasdk.StatusCode;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TransferRetryPolicyTest {
+
+  final private AtomicLong clock = new AtomicLong();
+  final private java.util.List<Duration> delays = new ArrayList<>();
+  final private TransferRetryPolicy policy =
+    new TransferRetryPolicy(clock::get, () -> 0.5, delay -> {
+      delays.add(delay);
+      return (Executor) Runnable::run;
+    });
+
+  private static CompletionStage<String> failing() {
+    return CompletableFuture.failedFuture(new IllegalStateException("boom"));
+  }
+
+  private String callWallet(String stepKey, String walletId, CompletionStage<String> result) throws Exception {
+    return policy.callWallet(stepKey, walletId, () -> result, reason -> "rejected: " + reason)
+      .toCompletableFuture().get();
+  }
+
+  @Test
+  public void backoffIsJitteredExponentialAndCapped() {
+    assertEquals(Duration.ofMillis(50), policy.backoff(1));
+    assertEquals(Duration.ofMillis(100), policy.backoff(2));
+    assertEquals(Duration.ofMillis(400), policy.backoff(4));
+    assertEquals(Duration.ofSeconds(1), policy.backoff(10));
+  }
+
+  @Test
+  public void failuresAreReportedAfterGrowingBackoff() {
+    for (int i = 0; i < 3; i++) {
+      assertThrows(ExecutionException.class, () -> callWallet("tx/withdraw", "aaa", failing()));
+    }
+    assertEquals(java.util.List.of(Duration.ofMillis(50), Duration.ofMillis(100), Duration.ofMillis(200)), delays);
+  }
+
+  @Test
+  public void openBreakerFailsOverWithoutCallingTheWallet() throws Exception {
+    for (int i = 1; i < TransferRetryPolicy.FAILURE_THRESHOLD; i++) {
+      assertThrows(ExecutionException.class, () -> callWallet("tx-" + delays.size() + "/withdraw", "aaa", failing()));
+    }
+    assertEquals("rejected: circuit open for wallet 'aaa'", callWallet("tx-x/withdraw", "aaa", failing()));
+    assertEquals(CircuitBreaker.State.OPEN, policy.breakerState("aaa"));
+
+    var called = new AtomicLong();
+    var result = policy.callWallet("tx-y/withdraw", "aaa", () -> {
+      called.incrementAndGet();
+      return CompletableFuture.completedFuture("ok");
+    }, reason -> "rejected").toCompletableFuture().get();
+    assertEquals("rejected", result);
+    assertEquals(0, called.get());
+
+    // other wallets are not affected
+    assertEquals("ok", callWallet("tx-z/deposit", "bbb", CompletableFuture.completedFuture("ok")));
+
+    // after the open period a probe goes through and closes the breaker again
+    clock.addAndGet(TransferRetryPolicy.OPEN_DURATION.toNanos());
+    assertEquals("ok", callWallet("tx-y/withdraw", "aaa", CompletableFuture.completedFuture("ok")));
+    assertEquals(CircuitBreaker.State.CLOSED, policy.breakerState("aaa"));
+  }
+
+  @Test
+  public void exhaustedBudgetFailsOver() throws Exception {
+    // failures on different wallets, so no breaker opens
+    int retried = 0;
+    while (true) {
+      try {
+        var result = callWallet("tx-" + retried + "/withdraw", "wallet-" + retried, failing());
+        assertEquals("rejected: retry budget exhausted", result);
+        break;
+      } catch (ExecutionException e) {
+        retried++;
+      }
+    }
+
+    // 20 saved up retries, plus 0.2 earned by each of the first attempts
+    assertEquals(24, retried);
+    assertTrue(policy.retryTokens() < 1);
+  }
+
+  @Test
+  public void rejectionsByTheWalletFailOverWithoutCountingAgainstIt() throws Exception {
+    var insufficient = new DeferredCallResponseException("Insufficient balance", StatusCode.ErrorCode.BAD_REQUEST, null);
+    for (int i = 0; i < 2 * TransferRetryPolicy.FAILURE_THRESHOLD; i++) {
+      assertEquals("rejected: Insufficient balance",
+        callWallet("tx-" + i + "/withdraw", "aaa", CompletableFuture.failedFuture(insufficient)));
+    }
+    assertEquals(CircuitBreaker.State.CLOSED, policy.breakerState("aaa"));
+    assertTrue(delays.isEmpty());
+
+    // server errors do count
+    var unavailable = new DeferredCallResponseException("unavailable", StatusCode.ErrorCode.SERVICE_UNAVAILABLE, null);
+    assertThrows(ExecutionException.class, () -> callWallet("tx/withdraw", "aaa", CompletableFuture.failedFuture(unavailable)));
+    assertEquals(1, delays.size());
+  }
+
+  @Test
+  public void attemptsAreForgottenOnceTheStepIsOver() {
+    for (int i = 0; i <= TransferRetryPolicy.MAX_RETRIES; i++) {
+      assertThrows(ExecutionException.class, () -> callWallet("tx/withdraw", "wallet-" + delays.size(), failing()));
+    }
+    assertEquals(0, policy.pendingSteps());
+  }
+
+  @Test
+  public void cancellationsAreBackedOffAsManyTimesAsTheOtherSteps() {
+    for (int i = 0; i <= TransferRetryPolicy.MAX_RETRIES; i++) {
+      assertThrows(ExecutionException.class, () -> policy.callWithBackoff("tx/cancel", TransferRetryPolicyTest::failing).toCompletableFuture().get());
+    }
+    assertEquals(TransferRetryPolicy.MAX_RETRIES + 1, delays.size());
+    // the workflow fails the cancellation over to its terminal step, there is no next attempt
+    assertEquals(0, policy.pendingSteps());
+  }
+}
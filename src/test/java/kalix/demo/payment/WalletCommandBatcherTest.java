@@ -0,0 +1,105 @@
+package kalix.demo.payment;
+
+import kalix.demo.Done;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class WalletCommandBatcherTest {
+
+  record Call(String walletId, Wallet.ApplyBatch batch, CompletableFuture<Wallet.BatchApplied> reply) {
+  }
+
+  final private java.util.List<Call> calls = new ArrayList<>();
+
+  private WalletCommandBatcher batcher(int maxBatchSize) {
+    return new WalletCommandBatcher((componentClient, walletId, batch) -> {
+      var call = new Call(walletId, batch, new CompletableFuture<>());
+      calls.add(call);
+      return call.reply;
+    }, maxBatchSize);
+  }
+
+  private static Wallet.TransactionCommand execute(String transactionId) {
+    return new Wallet.TransactionCommand(transactionId, Wallet.TransactionOperation.EXECUTE);
+  }
+
+  private static Wallet.BatchApplied applied(int commands) {
+    return new Wallet.BatchApplied(java.util.Collections.nCopies(commands, null));
+  }
+
+  @Test
+  public void commandsQueuedBehindACallGoOutTogether() {
+    var batcher = batcher(3);
+    var first = batcher.submit(null, "aaa", execute("t1"));
+    var queued = new ArrayList<CompletionStage<Done>>();
+    for (int i = 2; i <= 6; i++) queued.add(batcher.submit(null, "aaa", execute("t" + i)));
+
+    // an idle wallet gets its command right away, the others wait for that call
+    assertEquals(1, calls.size());
+    assertEquals(1, calls.get(0).batch.commands().size());
+
+    calls.get(0).reply.complete(applied(1));
+    assertTrue(first.toCompletableFuture().isDone());
+    assertEquals(2, calls.size());
+    assertEquals(java.util.List.of("t2", "t3", "t4"),
+      calls.get(1).batch.commands().stream().map(Wallet.TransactionCommand::transactionId).toList());
+
+    calls.get(1).reply.complete(applied(3));
+    assertEquals(3, calls.size());
+    assertEquals(2, calls.get(2).batch.commands().size());
+    calls.get(2).reply.complete(applied(2));
+
+    assertTrue(queued.stream().allMatch(r -> r.toCompletableFuture().isDone()));
+    assertEquals(0, batcher.activeWallets());
+  }
+
+  @Test
+  public void walletsAreBatchedIndependently() {
+    var batcher = batcher(10);
+    batcher.submit(null, "aaa", execute("t1"));
+    var other = batcher.submit(null, "bbb", execute("t2"));
+
+    assertEquals(2, calls.size());
+    assertEquals("bbb", calls.get(1).walletId);
+    calls.get(1).reply.complete(applied(1));
+    assertTrue(other.toCompletableFuture().isDone());
+    assertEquals(1, batcher.activeWallets());
+  }
+
+  @Test
+  public void resultsResolvePerCommand() {
+    var batcher = batcher(10);
+    batcher.submit(null, "aaa", execute("t1"));
+    var rejected = batcher.submit(null, "aaa", execute("t2"));
+    var accepted = batcher.submit(null, "aaa", new Wallet.TransactionCommand("t3", Wallet.TransactionOperation.CANCEL));
+    calls.get(0).reply.complete(applied(1));
+
+    calls.get(1).reply.complete(new Wallet.BatchApplied(java.util.Arrays.asList("Wallet doesn't exist", null)));
+    var error = assertThrows(ExecutionException.class, () -> rejected.toCompletableFuture().get());
+    assertInstanceOf(WalletCommandBatcher.Rejected.class, error.getCause());
+    assertEquals(new Done(), accepted.toCompletableFuture().getNow(null));
+  }
+
+  @Test
+  public void failedCallFailsItsCommandsOnly() {
+    var batcher = batcher(10);
+    var failed = batcher.submit(null, "aaa", execute("t1"));
+    var next = batcher.submit(null, "aaa", execute("t2"));
+
+    calls.get(0).reply.completeExceptionally(new RuntimeException("unavailable"));
+    assertTrue(failed.toCompletableFuture().isCompletedExceptionally());
+    assertEquals(2, calls.size());
+
+    calls.get(1).reply.complete(applied(1));
+    assertEquals(new Done(), next.toCompletableFuture().getNow(null));
+  }
+}
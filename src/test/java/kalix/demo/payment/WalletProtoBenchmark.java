@@ -0,0 +1,184 @@
+package kalix.demo.payment;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kalix.demo.payment.proto.WalletApi;
+import kalix.javasdk.JsonSupport;
+
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.function.IntFunction;
+
+/**
+ * Compares the JSON and protobuf wallet APIs, in one of two ways:
+ * <ul>
+ *   <li>in process, the CPU time the service spends per request on the payloads: reading the
+ *   request and writing the reply, with Jackson or with {@link WalletProtoCodec}. Run with:
+ *   {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=kalix.demo.payment.WalletProtoBenchmark -Dexec.args="300000"}</li>
+ *   <li>end to end, on a running service: the payload sizes and the latency of deposits,
+ *   transfers and status reads, each call going through the proxy, the action and the entities.
+ *   Start the service and the proxy ({@code docker-compose up} and {@code mvn kalix:runAll}),
+ *   then run with {@code -Dexec.args="http://localhost:9000 2000"}</li>
+ * </ul>
+ * Calls are sequential, after as many warm-up calls.
+ */
+public class WalletProtoBenchmark {
+
+  private static final ObjectMapper mapper = JsonSupport.getObjectMapper();
+  private static final HttpClient client = HttpClient.newHttpClient();
+
+  private record Call(String path, String contentType, byte[] body) {
+  }
+
+  private record Result(long[] nanos, long bytes, int rejected) {
+    double mean() {
+      return Arrays.stream(nanos).average().orElse(0) / 1_000;
+    }
+
+    double p99() {
+      var sorted = nanos.clone();
+      Arrays.sort(sorted);
+      return sorted[(int) Math.min(sorted.length - 1, Math.ceil(sorted.length * 0.99) - 1)] / 1_000.0;
+    }
+  }
+
+  private static HttpResponse<byte[]> send(String baseUrl, Call call) throws Exception {
+    var request = HttpRequest.newBuilder(URI.create(baseUrl + call.path()))
+      .header(WalletServiceAction.CALLER_HEADER, "wallet-proto-benchmark");
+    if (call.body() == null)
+      request.GET();
+    else
+      request.header("Content-Type", call.contentType()).POST(HttpRequest.BodyPublishers.ofByteArray(call.body()));
+    return client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+  }
+
+  /**
+   * Calls that the admission control turns down are counted apart, other errors end the run.
+   */
+  private static Result run(String baseUrl, int calls, IntFunction<Call> call) throws Exception {
+    var nanos = new long[calls];
+    var measured = 0;
+    long bytes = 0;
+    var rejected = 0;
+    for (int i = 0; i < 2 * calls; i++) {
+      var request = call.apply(i);
+      var start = System.nanoTime();
+      var response = send(baseUrl, request);
+      var elapsed = System.nanoTime() - start;
+      if (response.statusCode() == 429) {
+        rejected++;
+        continue;
+      }
+      if (response.statusCode() != 200)
+        throw new IllegalStateException(request.path() + " failed with " + response.statusCode() + ": " + new String(response.body()));
+      if (i >= calls) {
+        nanos[measured++] = elapsed;
+        bytes = (request.body() == null ? 0 : request.body().length) + response.body().length;
+      }
+    }
+    return new Result(Arrays.copyOf(nanos, measured), bytes, rejected);
+  }
+
+  private static void compare(String request, Result json, Result proto) {
+    System.out.printf("%-10s json %5d B %7.0f us p99 %7.0f us | proto %5d B %7.0f us p99 %7.0f us | %4.0f%% of the bytes, %4.0f%% of the latency, %d/%d rejected%n",
+      request, json.bytes(), json.mean(), json.p99(), proto.bytes(), proto.mean(), proto.p99(),
+      100.0 * proto.bytes() / json.bytes(), 100.0 * proto.mean() / json.mean(), json.rejected(), proto.rejected());
+  }
+
+  private static byte[] json(Object value) {
+    try {
+      return mapper.writeValueAsBytes(value);
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Handles one request, returning sizes so that the work isn't optimized away.
+   */
+  private interface Handler {
+    int handle() throws Exception;
+  }
+
+  private static volatile long sink;
+
+  /**
+   * @return CPU nanoseconds per call, after as many warm-up calls
+   */
+  private static double cpuNanosPerCall(Handler handler, int calls) throws Exception {
+    var threads = ManagementFactory.getThreadMXBean();
+    long sizes = 0;
+    for (int i = 0; i < calls; i++) sizes += handler.handle();
+    var start = threads.getCurrentThreadCpuTime();
+    for (int i = 0; i < calls; i++) sizes += handler.handle();
+    var cpu = threads.getCurrentThreadCpuTime() - start;
+    sink = sizes;
+    return (double) cpu / calls;
+  }
+
+  private static void compareCpu(String request, int calls, int jsonBytes, Handler json, int protoBytes, Handler proto) throws Exception {
+    var jsonCpu = cpuNanosPerCall(json, calls);
+    var protoCpu = cpuNanosPerCall(proto, calls);
+    System.out.printf("%-10s json %5d B %7.0f ns | proto %5d B %7.0f ns | %4.0f%% of the bytes, %4.0f%% of the CPU%n",
+      request, jsonBytes, jsonCpu, protoBytes, protoCpu, 100.0 * protoBytes / jsonBytes, 100.0 * protoCpu / jsonCpu);
+  }
+
+  private static void inProcess(int calls) throws Exception {
+    var walletStatus = WalletProtoCodecTest.walletStatus();
+    var transactionStatus = WalletProtoCodecTest.transactionStatus();
+
+    var jsonDeposit = json(new Wallet.Deposit(10.0, "tx-1", "USD"));
+    var protoDeposit = WalletApi.Deposit.newBuilder().setAmount(10.0).setTransactionId("tx-1").setCurrency("USD").build().toByteArray();
+    compareCpu("deposit", calls,
+      jsonDeposit.length + json(walletStatus).length,
+      () -> mapper.readValue(jsonDeposit, Wallet.Deposit.class).currency().length() + mapper.writeValueAsBytes(walletStatus).length,
+      protoDeposit.length + WalletProtoCodec.encode(walletStatus).length,
+      () -> WalletProtoCodec.decodeDeposit(protoDeposit).currency().length() + WalletProtoCodec.encode(walletStatus).length);
+
+    var jsonTransfer = json(new Transfer(10.0, "aaa", "bbb", "EUR", null, "USD"));
+    var protoTransfer = WalletApi.Transfer.newBuilder().setAmount(10.0).setFrom("aaa").setTo("bbb").setCurrency("EUR").setToCurrency("USD").build().toByteArray();
+    compareCpu("transfer", calls,
+      jsonTransfer.length + json(transactionStatus).length,
+      () -> mapper.readValue(jsonTransfer, Transfer.class).to().length() + mapper.writeValueAsBytes(transactionStatus).length,
+      protoTransfer.length + WalletProtoCodec.encode(transactionStatus).length,
+      () -> WalletProtoCodec.decodeTransfer(protoTransfer).to().length() + WalletProtoCodec.encode(transactionStatus).length);
+
+    compareCpu("status", calls,
+      json(walletStatus).length, () -> mapper.writeValueAsBytes(walletStatus).length,
+      WalletProtoCodec.encode(walletStatus).length, () -> WalletProtoCodec.encode(walletStatus).length);
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length == 0 || !args[0].startsWith("http")) {
+      inProcess(args.length > 0 ? Integer.parseInt(args[0]) : 300_000);
+      return;
+    }
+    var baseUrl = args[0];
+    var calls = args.length > 1 ? Integer.parseInt(args[1]) : 2_000;
+    var run = UUID.randomUUID().toString().substring(0, 8);
+    var from = "bench-from-" + run;
+    var to = "bench-to-" + run;
+    for (var walletId : new String[]{from, to})
+      send(baseUrl, new Call("/wallets/" + walletId, "application/json", new byte[0]));
+
+    var jsonDeposits = run(baseUrl, calls, i -> new Call("/wallets/" + from + "/deposit", "application/json",
+      json(new Wallet.Deposit(10.0, "json-deposit-" + run + "-" + i, Wallet.DEFAULT_CURRENCY))));
+    var protoDeposits = run(baseUrl, calls, i -> new Call("/proto/wallets/" + from + "/deposit", "application/octet-stream",
+      WalletApi.Deposit.newBuilder().setAmount(10.0).setTransactionId("proto-deposit-" + run + "-" + i).setCurrency(Wallet.DEFAULT_CURRENCY).build().toByteArray()));
+    compare("deposit", jsonDeposits, protoDeposits);
+
+    var jsonTransfers = run(baseUrl, calls, i -> new Call("/wallets/transfer/json-transfer-" + run + "-" + i, "application/json",
+      json(new Transfer(1.0, from, to))));
+    var protoTransfers = run(baseUrl, calls, i -> new Call("/proto/wallets/transfer/proto-transfer-" + run + "-" + i, "application/octet-stream",
+      WalletApi.Transfer.newBuilder().setAmount(1.0).setFrom(from).setTo(to).build().toByteArray()));
+    compare("transfer", jsonTransfers, protoTransfers);
+
+    var jsonStatus = run(baseUrl, calls, i -> new Call("/wallets/" + from, null, null));
+    var protoStatus = run(baseUrl, calls, i -> new Call("/proto/wallets/" + from, null, null));
+    compare("status", jsonStatus, protoStatus);
+  }
+}
@@ -0,0 +1,89 @@
+package kalix.demo.payment;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.UnknownFieldSet;
+import kalix.demo.payment.proto.WalletApi;
+import kalix.demo.transactions.TransactionMediator;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class WalletProtoCodecTest {
+
+  static Wallet.WalletStatus walletStatus() {
+    return new Wallet.WalletStatus(120.5, 30.0,
+      Map.of("EUR", new Wallet.Balance(100.0, 30.0), "USD", new Wallet.Balance(20.5, 0.0)),
+      List.of(new Wallet.PendingTransaction(10.0, "tx-1", Wallet.TransactionType.WITHDRAW, "EUR")),
+      List.of(new Wallet.Hold("auth-1", 30.0, 0.0, "EUR", Instant.parse("2024-01-01T10:00:00.250Z"))));
+  }
+
+  static TransactionMediator.TransactionStatus transactionStatus() {
+    return new TransactionMediator.TransactionStatus("tx-1",
+      List.of(new TransactionMediator.Participant("aaa", Wallet.class, true, true),
+        new TransactionMediator.Participant("bbb", Wallet.class, true, false)),
+      TransactionMediator.Status.INITIATED,
+      new TransactionMediator.Fee("fees", 0.5));
+  }
+
+  @Test
+  public void requestsOfClientsAreRead() throws InvalidProtocolBufferException {
+    var deposit = WalletApi.Deposit.newBuilder().setAmount(10.0).setTransactionId("tx-1").setCurrency("USD").build();
+    assertEquals(new Wallet.Deposit(10.0, "tx-1", "USD"), WalletProtoCodec.decodeDeposit(deposit.toByteArray()));
+
+    var withdraw = WalletApi.Withdraw.newBuilder().setAmount(10.0).setTransactionId("tx-1").build();
+    assertEquals(new Wallet.Withdraw(10.0, "tx-1"), WalletProtoCodec.decodeWithdraw(withdraw.toByteArray()));
+
+    var transfer = WalletApi.Transfer.newBuilder()
+      .setAmount(10.0).setFrom("aaa").setTo("bbb").setCurrency("EUR")
+      .setProtocol(WalletApi.Protocol.PRESUMED_COMMIT).setToCurrency("USD")
+      .build();
+    assertEquals(new Transfer(10.0, "aaa", "bbb", "EUR", TransactionMediator.Protocol.PRESUMED_COMMIT, "USD"),
+      WalletProtoCodec.decodeTransfer(transfer.toByteArray()));
+  }
+
+  @Test
+  public void repliesAreReadByClients() throws InvalidProtocolBufferException {
+    var status = WalletApi.WalletStatus.parseFrom(WalletProtoCodec.encode(walletStatus()));
+    assertEquals(120.5, status.getBalance());
+    assertEquals(30.0, status.getBalancesOrThrow("EUR").getReserved());
+    assertEquals(WalletApi.TransactionType.WITHDRAW, status.getPendingTransactions(0).getTransactionType());
+    assertEquals(Instant.parse("2024-01-01T10:00:00.250Z").getNano(), status.getHolds(0).getExpiresAt().getNanos());
+
+    var transaction = WalletApi.TransactionStatus.parseFrom(WalletProtoCodec.encode(transactionStatus()));
+    assertEquals(WalletApi.Status.INITIATED, transaction.getStatus());
+    assertEquals(Wallet.class.getName(), transaction.getParticipants(0).getType());
+    assertFalse(transaction.getParticipants(1).getExecuted());
+    assertEquals(0.5, transaction.getFee().getAmount());
+  }
+
+  @Test
+  public void missingFieldsTakeTheRestDefaultsAndUnknownOnesAreSkipped() throws InvalidProtocolBufferException {
+    var transfer = WalletProtoCodec.decodeTransfer(new byte[0]);
+    assertEquals(Wallet.DEFAULT_CURRENCY, transfer.currency());
+    assertEquals(TransactionMediator.Protocol.STANDARD, transfer.protocol());
+
+    // a client sending a field this service doesn't know yet
+    var deposit = WalletApi.Deposit.newBuilder()
+      .setAmount(10.0)
+      .setUnknownFields(UnknownFieldSet.newBuilder()
+        .addField(9, UnknownFieldSet.Field.newBuilder().addLengthDelimited(ByteString.copyFromUtf8("from a newer client")).build())
+        .build())
+      .build();
+    assertEquals(new Wallet.Deposit(10.0, null), WalletProtoCodec.decodeDeposit(deposit.toByteArray()));
+  }
+
+  @Test
+  public void malformedPayloadsAreRejected() {
+    var encoded = WalletApi.Deposit.newBuilder().setAmount(10.0).setTransactionId("tx-1").build().toByteArray();
+    var truncated = Arrays.copyOf(encoded, encoded.length - 2);
+    assertThrows(InvalidProtocolBufferException.class, () -> WalletProtoCodec.decodeDeposit(truncated));
+  }
+}
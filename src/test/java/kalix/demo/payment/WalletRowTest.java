@@ -0,0 +1,78 @@
+package kalix.demo.payment;
+
+import kalix.javasdk.testkit.EventSourcedTestKit;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class WalletRowTest {
+
+  /**
+   * Runs commands on a wallet and feeds the events they emit to a row, one millisecond apart.
+   */
+  static class Fixture {
+    final EventSourcedTestKit<Wallet.State, Wallet.Event, Wallet> wallet = EventSourcedTestKit.of("aaa", Wallet::new);
+    WalletRow row;
+    long now = 1_000;
+
+    <R> void run(Function<Wallet, kalix.javasdk.eventsourcedentity.EventSourcedEntity.Effect<R>> command) {
+      var events = new ArrayList<>(wallet.call(command).getAllEvents());
+      for (var event : events) row = WalletRow.updated(row, "aaa", (Wallet.Event) event, now++);
+    }
+  }
+
+  @Test
+  public void rowFollowsTheWalletBalances() {
+    var fixture = new Fixture();
+    fixture.run(Wallet::create);
+    fixture.run(w -> w.deposit(new Wallet.Deposit(100.0, "t1")));
+    fixture.run(w -> w.execute("t1"));
+    fixture.run(w -> w.withdraw(new Wallet.Withdraw(30.0, "t2")));
+    fixture.run(w -> w.withdraw(new Wallet.Withdraw(10.0, "t3")));
+    fixture.run(w -> w.deposit(new Wallet.Deposit(5.0, "t4", "USD")));
+    fixture.run(w -> w.authorize(new Wallet.Authorize("auth", 20.0, null, null)));
+    fixture.run(w -> w.capture("auth", new Wallet.Capture(5.0, false)));
+
+    var row = fixture.row;
+    var state = fixture.wallet.getState();
+    assertEquals(state.balance(), row.balance());
+    assertEquals(state.reserved(), row.reserved());
+    assertEquals(3, row.pendingCount());
+    assertEquals(2, row.pendingWithdrawCount());
+    assertEquals(1, row.holdCount());
+    assertEquals(1_003, row.oldestPendingAt());
+    assertEquals(1_003, row.oldestReservedAt());
+
+    fixture.run(w -> w.execute("t2"));
+    fixture.run(w -> w.cancel("t3"));
+    fixture.run(w -> w.voidHold("auth"));
+
+    row = fixture.row;
+    state = fixture.wallet.getState();
+    assertEquals(state.balance(), row.balance());
+    assertEquals(0.0, row.reserved());
+    assertEquals(1, row.pendingCount());
+    assertEquals(0, row.pendingWithdrawCount());
+    assertEquals(0, row.holdCount());
+    // never without pending transactions since the first withdraw
+    assertEquals(1_003, row.oldestPendingAt());
+    assertNull(row.oldestReservedAt());
+
+    // a cancellation written before it carried the transaction still takes it off the count
+    var legacy = WalletRow.updated(row, "aaa", new Wallet.Event.TransactionCancelled("t4", null, null, null), 6_000);
+    assertEquals(row.balance(), legacy.balance());
+    assertEquals(0, legacy.pendingCount());
+    assertNull(legacy.oldestPendingAt());
+
+    // a compacted wallet starts over from its baseline
+    var baseline = Wallet.Event.WalletCompacted.of("aaa", state, 12);
+    var compacted = WalletRow.updated(row, "aaa", baseline, 5_000);
+    assertEquals(row.balance(), compacted.balance());
+    assertEquals(1, compacted.pendingCount());
+    assertEquals(5_000, compacted.oldestPendingAt());
+  }
+}
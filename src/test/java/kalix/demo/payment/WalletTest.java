@@ -1,10 +1,14 @@
 package kalix.demo.payment;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kalix.demo.VavrJson;
+import kalix.javasdk.JsonSupport;
 import kalix.javasdk.testkit.EventSourcedTestKit;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class WalletTest {
 
@@ -42,6 +46,83 @@ public class WalletTest {
     }
   }
 
+  @Test
+  public void existingWalletCountsAsCreated() {
+    var wallet = EventSourcedTestKit.of(Wallet::new);
+    wallet.call(Wallet::create);
+
+    // the fee wallet after a restart of the service
+    var result = wallet.call(Wallet::ensureCreated);
+    assertFalse(result.isError());
+    assertTrue(result.getAllEvents().isEmpty());
+    assertTrue(wallet.call(Wallet::create).isError());
+  }
+
+  @Test
+  public void testDepositExecutedAndCompletedAtOnce() {
+    var wallet = EventSourcedTestKit.of(Wallet::new);
+    wallet.call(Wallet::create);
+    wallet.call(w -> w.deposit(new Wallet.Deposit(100.0, "foo")));
+
+    var result = wallet.call(w -> w.executeAndComplete("foo"));
+    assertEquals(1, result.getAllEvents().size());
+    assertTrue(result.getNextEventOfType(Wallet.Event.BalanceIncreased.class).completed());
+
+    var state = (Wallet.State) result.getUpdatedState();
+    assertEquals(100.0, state.balance());
+    assertEquals(0, state.pendingTransactions().size());
+    assertEquals(0, state.executedTransactions().size());
+
+    // a redelivered execution or completion is a no-op
+    assertFalse(wallet.call(w -> w.executeAndComplete("foo")).didEmitEvents());
+    assertFalse(wallet.call(w -> w.complete("foo")).didEmitEvents());
+  }
+
+  @Test
+  public void testBatchOfTransactionCommands() {
+    var wallet = EventSourcedTestKit.of(Wallet::new);
+    wallet.call(Wallet::create);
+    wallet.call(w -> w.deposit(new Wallet.Deposit(100.0, "foo")));
+    wallet.call(w -> w.executeAndComplete("foo"));
+    wallet.call(w -> w.deposit(new Wallet.Deposit(30.0, "bar")));
+    wallet.call(w -> w.deposit(new Wallet.Deposit(10.0, "qux")));
+    wallet.call(w -> w.withdraw(new Wallet.Withdraw(50.0, "baz")));
+
+    var batch = new Wallet.ApplyBatch(java.util.List.of(
+      new Wallet.TransactionCommand("bar", Wallet.TransactionOperation.EXECUTE),
+      new Wallet.TransactionCommand("bar", Wallet.TransactionOperation.EXECUTE),
+      new Wallet.TransactionCommand("bar", Wallet.TransactionOperation.COMPLETE),
+      new Wallet.TransactionCommand("qux", Wallet.TransactionOperation.CANCEL),
+      new Wallet.TransactionCommand("baz", Wallet.TransactionOperation.EXECUTE_AND_COMPLETE),
+      new Wallet.TransactionCommand("unknown", Wallet.TransactionOperation.COMPLETE)));
+    var result = wallet.call(w -> w.applyBatch(batch));
+
+    // the redelivered execution and the unknown transaction have no effect
+    assertEquals(4, result.getAllEvents().size());
+    assertEquals(6, result.getReply().errors().size());
+    assertTrue(result.getReply().errors().stream().allMatch(java.util.Objects::isNull));
+
+    var state = (Wallet.State) result.getUpdatedState();
+    assertEquals(80.0, state.balance());
+    assertEquals(0, state.pendingTransactions().size());
+    assertEquals(0, state.executedTransactions().size());
+    assertEquals(0.0, state.balanceOf(Wallet.DEFAULT_CURRENCY).reserved());
+
+    assertFalse(wallet.call(w -> w.applyBatch(batch)).didEmitEvents());
+  }
+
+  @Test
+  public void testBatchOnMissingWalletOnlyFailsExecutions() {
+    var wallet = EventSourcedTestKit.of(Wallet::new);
+    var result = wallet.call(w -> w.applyBatch(new Wallet.ApplyBatch(java.util.List.of(
+      new Wallet.TransactionCommand("foo", Wallet.TransactionOperation.CANCEL),
+      new Wallet.TransactionCommand("bar", Wallet.TransactionOperation.EXECUTE)))));
+
+    assertFalse(result.didEmitEvents());
+    assertEquals(null, result.getReply().errors().get(0));
+    assertEquals("Wallet doesn't exist", result.getReply().errors().get(1));
+  }
+
   @Test
   public void testDoubleDepositBeforeExecution() {
     var wallet = EventSourcedTestKit.of(Wallet::new);
@@ -125,4 +206,316 @@ public class WalletTest {
       assertEquals(0, state.executedTransactions().size());
     }
   }
+
+  @Test
+  public void testBalancesArePerCurrency() {
+    var wallet = EventSourcedTestKit.of(Wallet::new);
+    wallet.call(Wallet::create);
+    wallet.call(w -> w.deposit(new Wallet.Deposit(100.0, "eur", "EUR")));
+    wallet.call(w -> w.execute("eur"));
+    wallet.call(w -> w.deposit(new Wallet.Deposit(30.0, "usd", "USD")));
+    wallet.call(w -> w.execute("usd"));
+
+    {
+      var result = wallet.call(w -> w.withdraw(new Wallet.Withdraw(50.0, "usd-out", "USD")));
+      assertTrue(result.isError());
+      assertEquals("Insufficient balance", result.getError());
+    }
+
+    {
+      var result = wallet.call(w -> w.withdraw(new Wallet.Withdraw(20.0, "usd-out", "USD")));
+      var event = result.getNextEventOfType(Wallet.Event.WithdrawInitiated.class);
+      assertEquals("USD", event.currency());
+
+      var status = result.getReply();
+      assertEquals(100.0, status.balance());
+      assertEquals(new Wallet.Balance(10.0, 20.0), status.balances().get("USD"));
+      assertEquals(new Wallet.Balance(100.0, 0.0), status.balances().get("EUR"));
+    }
+  }
+
+  private static EventSourcedTestKit<Wallet.State, Wallet.Event, Wallet> walletWith(Double balance) {
+    var wallet = EventSourcedTestKit.of(Wallet::new);
+    wallet.call(Wallet::create);
+    wallet.call(w -> w.deposit(new Wallet.Deposit(balance, "funding")));
+    wallet.call(w -> w.execute("funding"));
+    return wallet;
+  }
+
+  @Test
+  public void testPartialCaptureOfHold() {
+    var wallet = walletWith(100.0);
+    {
+      var result = wallet.call(w -> w.authorize(new Wallet.Authorize("auth", 60.0, null, null)));
+      result.getNextEventOfType(Wallet.Event.HoldAuthorized.class);
+      assertEquals(40.0, result.getReply().balance());
+      assertEquals(60.0, result.getReply().reservedFunds());
+    }
+
+    {
+      var result = wallet.call(w -> w.capture("auth", new Wallet.Capture(20.0, false)));
+      result.getNextEventOfType(Wallet.Event.HoldCaptured.class);
+      assertEquals(1, result.getAllEvents().size());
+      assertEquals(40.0, result.getReply().balance());
+      assertEquals(40.0, result.getReply().reservedFunds());
+    }
+
+    {
+      // final capture releases what's left of the hold
+      var result = wallet.call(w -> w.capture("auth", new Wallet.Capture(15.0, null)));
+      var captured = result.getNextEventOfType(Wallet.Event.HoldCaptured.class);
+      assertEquals(35.0, captured.capturedTotal());
+      var released = result.getNextEventOfType(Wallet.Event.HoldReleased.class);
+      assertEquals(25.0, released.amount());
+      assertEquals(Wallet.HoldRelease.CAPTURED, released.reason());
+
+      var state = (Wallet.State) result.getUpdatedState();
+      assertEquals(65.0, state.balance());
+      assertEquals(0.0, state.reserved());
+      assertTrue(state.holds().isEmpty());
+    }
+
+    assertTrue(wallet.call(w -> w.capture("auth", new Wallet.Capture(1.0, null))).isError());
+  }
+
+  @Test
+  public void redeliveredCaptureTakesNothingAgain() {
+    var wallet = walletWith(100.0);
+    wallet.call(w -> w.authorize(new Wallet.Authorize("auth", 60.0, null, null)));
+
+    var partial = new Wallet.Capture(20.0, false, "capture-1");
+    wallet.call(w -> w.capture("auth", partial));
+    var redelivered = wallet.call(w -> w.capture("auth", partial));
+    assertFalse(redelivered.didEmitEvents());
+    assertEquals(40.0, redelivered.getReply().reservedFunds());
+
+    var last = new Wallet.Capture(10.0, true, "capture-2");
+    wallet.call(w -> w.capture("auth", last));
+    assertEquals(70.0, wallet.getState().balance());
+    // the hold is settled, both captures are still recognized
+    for (var capture : new Wallet.Capture[]{partial, last}) {
+      var again = wallet.call(w -> w.capture("auth", capture));
+      assertFalse(again.isError());
+      assertFalse(again.didEmitEvents());
+      assertEquals(70.0, again.getReply().balance());
+    }
+    assertTrue(wallet.call(w -> w.capture("auth", new Wallet.Capture(1.0, true, "capture-3"))).isError());
+  }
+
+  @Test
+  public void testHoldCannotExceedBalanceOrBeOverCaptured() {
+    var wallet = walletWith(50.0);
+    assertTrue(wallet.call(w -> w.authorize(new Wallet.Authorize("too-much", 60.0, null, null))).isError());
+
+    wallet.call(w -> w.authorize(new Wallet.Authorize("auth", 30.0, null, null)));
+    assertTrue(wallet.call(w -> w.capture("auth", new Wallet.Capture(31.0, null))).isError());
+
+    // authorizing again with the same id doesn't reserve twice
+    var again = wallet.call(w -> w.authorize(new Wallet.Authorize("auth", 30.0, null, null)));
+    assertFalse(again.didEmitEvents());
+    assertEquals(30.0, again.getReply().reservedFunds());
+  }
+
+  @Test
+  public void testVoidedAndExpiredHoldsReleaseFunds() {
+    var wallet = walletWith(100.0);
+    wallet.call(w -> w.authorize(new Wallet.Authorize("voided", 30.0, null, null)));
+    wallet.call(w -> w.authorize(new Wallet.Authorize("expired", 20.0, null, 0L)));
+    {
+      var result = wallet.call(w -> w.voidHold("voided"));
+      assertEquals(Wallet.HoldRelease.VOIDED, result.getNextEventOfType(Wallet.Event.HoldReleased.class).reason());
+      assertEquals(80.0, result.getReply().balance());
+    }
+
+    assertTrue(wallet.call(w -> w.capture("expired", new Wallet.Capture(null, null))).isError());
+    {
+      var result = wallet.call(Wallet::expireHolds);
+      var released = result.getNextEventOfType(Wallet.Event.HoldReleased.class);
+      assertEquals("expired", released.authorizationId());
+      assertEquals(Wallet.HoldRelease.EXPIRED, released.reason());
+
+      var state = (Wallet.State) result.getUpdatedState();
+      assertEquals(100.0, state.balance());
+      assertEquals(0.0, state.reserved());
+    }
+
+    assertFalse(wallet.call(Wallet::expireHolds).didEmitEvents());
+  }
+
+  @Test
+  public void redeliveredAuthorizationOfASettledHoldReservesNothing() {
+    var wallet = walletWith(100.0);
+    var authorize = new Wallet.Authorize("auth-1", 30.0, null, null);
+    wallet.call(w -> w.authorize(authorize));
+    wallet.call(w -> w.capture("auth-1", new Wallet.Capture(null, null)));
+    assertEquals(70.0, wallet.getState().balance());
+
+    var redelivered = wallet.call(w -> w.authorize(authorize));
+    assertFalse(redelivered.didEmitEvents());
+    assertEquals(0.0, redelivered.getReply().reservedFunds());
+  }
+
+  @Test
+  public void onlyTheLastSettledAuthorizationsAreRemembered() {
+    var wallet = walletWith(100.0);
+    for (int i = 0; i <= Wallet.SETTLED_AUTHORIZATIONS; i++) {
+      var authorizationId = "auth-" + i;
+      wallet.call(w -> w.authorize(new Wallet.Authorize(authorizationId, 1.0, null, null)));
+      wallet.call(w -> w.voidHold(authorizationId));
+    }
+    assertEquals(Wallet.SETTLED_AUTHORIZATIONS, wallet.getState().settledAuthorizations().size());
+    assertFalse(wallet.getState().knowsAuthorization("auth-0"));
+    assertTrue(wallet.getState().knowsAuthorization("auth-1"));
+  }
+
+  @Test
+  public void testSummaryAndPendingPages() {
+    var wallet = walletWith(100.0);
+    for (int i = 0; i < 5; i++) {
+      var deposit = new Wallet.Deposit(10.0, "deposit-" + i);
+      wallet.call(w -> w.deposit(deposit));
+    }
+    wallet.call(w -> w.withdraw(new Wallet.Withdraw(30.0, "withdraw")));
+    wallet.call(w -> w.execute("deposit-0"));
+    wallet.call(w -> w.cancel("deposit-1"));
+
+    var summary = wallet.call(Wallet::getSummary).getReply();
+    var pending = summary.pending().get("EUR");
+    assertEquals(3, pending.deposits());
+    assertEquals(30.0, pending.depositTotal());
+    assertEquals(1, pending.withdraws());
+    assertEquals(30.0, pending.withdrawTotal());
+    assertEquals(80.0, summary.balance());
+    assertEquals(30.0, summary.reservedFunds());
+
+    var first = wallet.call(w -> w.getPendingTransactions(null, 3)).getReply();
+    assertEquals(java.util.List.of("deposit-2", "deposit-3", "deposit-4"),
+      first.pendingTransactions().stream().map(Wallet.PendingTransaction::transactionId).toList());
+    assertEquals(4, first.total());
+    assertEquals("deposit-4", first.nextAfter());
+
+    // a transaction added before the cursor doesn't shift the next page
+    wallet.call(w -> w.deposit(new Wallet.Deposit(10.0, "deposit-10")));
+    var last = wallet.call(w -> w.getPendingTransactions(first.nextAfter(), 3)).getReply();
+    assertEquals(java.util.List.of("withdraw"),
+      last.pendingTransactions().stream().map(Wallet.PendingTransaction::transactionId).toList());
+    assertEquals(null, last.nextAfter());
+
+    assertTrue(wallet.call(w -> w.getPendingTransactions(null, 0)).isError());
+  }
+
+  @Test
+  public void testVelocityLimitsOnWithdraw() {
+    var wallet = walletWith(1000.0);
+    wallet.call(w -> w.withdraw(new Wallet.Withdraw(100.0, "before")));
+
+    var limits = new Wallet.VelocityLimits(java.util.List.of(
+      new Wallet.VelocityLimit(null, 250.0, 3),
+      new Wallet.VelocityLimit("USD", null, 1)));
+    var updated = wallet.call(w -> w.updateVelocityLimits(limits));
+    updated.getNextEventOfType(Wallet.Event.VelocityLimitsChanged.class);
+    assertEquals(2, wallet.call(Wallet::getVelocityLimits).getReply().limits().size());
+
+    // the withdrawal made before the limits counts toward them
+    wallet.call(w -> w.withdraw(new Wallet.Withdraw(100.0, "t1")));
+    {
+      var result = wallet.call(w -> w.withdraw(new Wallet.Withdraw(60.0, "t2")));
+      assertTrue(result.isError());
+      assertEquals("Velocity limit exceeded", result.getError());
+      // not worth retrying, unlike admission control rejections
+      assertEquals(io.grpc.Status.Code.PERMISSION_DENIED, result.getErrorStatusCode());
+    }
+    wallet.call(w -> w.withdraw(new Wallet.Withdraw(10.0, "t3")));
+    {
+      var result = wallet.call(w -> w.withdraw(new Wallet.Withdraw(1.0, "t4")));
+      assertTrue(result.isError());
+    }
+
+    // a cancelled withdrawal no longer counts
+    wallet.call(w -> w.cancel("t3"));
+    assertFalse(wallet.call(w -> w.withdraw(new Wallet.Withdraw(1.0, "t4"))).isError());
+
+    // a redelivered withdrawal is still acknowledged
+    assertFalse(wallet.call(w -> w.withdraw(new Wallet.Withdraw(100.0, "t1"))).isError());
+
+    // limits reload at runtime
+    wallet.call(w -> w.updateVelocityLimits(new Wallet.VelocityLimits(java.util.List.of())));
+    assertFalse(wallet.call(w -> w.withdraw(new Wallet.Withdraw(60.0, "t2"))).isError());
+
+    var invalid = new Wallet.VelocityLimits(java.util.List.of(new Wallet.VelocityLimit(null, -1.0, null)));
+    assertTrue(wallet.call(w -> w.updateVelocityLimits(invalid)).isError());
+  }
+
+  @Test
+  public void testWithdrawWindowSlides() {
+    var window = Wallet.WithdrawWindow.EMPTY;
+    var start = 1_000_000L;
+    window = window.record(start, 10.0);
+    window = window.record(start + 5, 20.0);
+    window = window.record(start + 5, 30.0);
+
+    assertEquals(60.0, window.amountAt(start + 5));
+    assertEquals(3, window.countAt(start + 11));
+    // the first bucket slides out, then all of them
+    assertEquals(50.0, window.amountAt(start + 12));
+    assertEquals(2, window.countAt(start + 16));
+    assertEquals(0, window.countAt(start + 17));
+
+    // recording reuses the buckets that slid out
+    window = window.record(start + 13, 5.0);
+    assertEquals(55.0, window.amountAt(start + 13));
+    assertEquals(5.0, window.amountAt(start + 17));
+    window = window.record(start + 100, 1.0);
+    assertEquals(1.0, window.amountAt(start + 100));
+    assertEquals(1, window.count());
+
+    // too old to be in the window anymore
+    assertEquals(window, window.record(start + 88, 7.0));
+
+    // releasing takes a withdrawal back from its bucket, unless it slid out
+    window = window.record(start + 105, 4.0);
+    var released = window.release(start + 105, 4.0);
+    assertEquals(1.0, released.amountAt(start + 105));
+    assertEquals(1, released.countAt(start + 105));
+    assertEquals(window, window.release(start + 90, 4.0));
+  }
+
+  @Test
+  public void restoresSnapshotsOfEveryStateShape() throws Exception {
+    ObjectMapper mapper = JsonSupport.getObjectMapper().copy().registerModule(VavrJson.module());
+
+    // taken when a wallet had a single balance and no holds, pending totals or velocity limits
+    var legacy = mapper.readValue("""
+      {"balance":10.0,"reserved":2.0,
+       "pendingTransactions":{"tx-2":{"amount":1.0,"transactionId":"tx-2","transactionType":"DEPOSIT"},
+                              "tx-1":{"amount":2.0,"transactionId":"tx-1","transactionType":"WITHDRAW"}},
+       "executedTransactions":["tx-0"]}
+      """, Wallet.State.class);
+    assertEquals(10.0, legacy.balance());
+    assertEquals(2.0, legacy.reserved());
+    assertEquals(2.0, legacy.pendingTransactions().get("tx-1").get().amount());
+    // written in any order, pending transactions are read back in transaction id order
+    assertEquals(java.util.List.of("tx-1", "tx-2"), legacy.pendingTransactions().keySet().toJavaList());
+    assertEquals(1, legacy.pendingTotals().get(Wallet.DEFAULT_CURRENCY).get().withdraws());
+    assertTrue(legacy.executedTransactions().contains("tx-0"));
+    assertTrue(legacy.holds().isEmpty());
+
+    var wallet = EventSourcedTestKit.of(Wallet::new);
+    wallet.call(Wallet::create);
+    wallet.call(w -> w.deposit(new Wallet.Deposit(100.0, "foo")));
+    wallet.call(w -> w.execute("foo"));
+    wallet.call(w -> w.withdraw(new Wallet.Withdraw(30.0, "bar")));
+    var snapshot = mapper.writeValueAsString(wallet.getState());
+    var restored = mapper.readValue(snapshot, Wallet.State.class);
+    assertEquals(wallet.getState().balances(), restored.balances());
+    assertEquals(wallet.getState().pendingTransactions(), restored.pendingTransactions());
+    assertEquals(wallet.getState().velocity(), restored.velocity());
+    assertEquals(snapshot, mapper.writeValueAsString(restored));
+
+    // velocity windows taken when their buckets were two arrays
+    var window = mapper.readValue("""
+      {"bucket":100,"amounts":[0,0,0,0,10.0,0,0,0,0,0,0,0],"counts":[0,0,0,0,1,0,0,0,0,0,0,0],"amount":10.0,"count":1}
+      """, Wallet.WithdrawWindow.class);
+    assertEquals(Wallet.WithdrawWindow.EMPTY.record(100, 10.0), window);
+  }
 }
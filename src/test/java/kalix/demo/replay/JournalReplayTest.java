@@ -0,0 +1,74 @@
+package kalix.demo.replay;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class JournalReplayTest {
+
+  private JournalReplay.Report replay(String journal, ByteArrayOutputStream out) throws Exception {
+    return new JournalReplay(10, new PrintStream(out)).replay(new BufferedReader(new StringReader(journal)));
+  }
+
+  @Test
+  public void replaysWalletAndMediatorEvents() throws Exception {
+    var journal = """
+      {"entityType":"wallet","entityId":"aaa","seqNr":1,"eventType":"created","event":{}}
+      {"entityType":"wallet","entityId":"aaa","seqNr":2,"eventType":"deposit-initiated","event":{"amount":50.0,"transactionId":"t1","walletId":"aaa"}}
+      {"entityType":"wallet","entityId":"aaa","seqNr":3,"eventType":"balance-increased","event":{"amount":50.0,"transactionId":"t1","walletId":"aaa"}}
+      {"entityType":"wallet","entityId":"aaa","seqNr":4,"eventType":"withdraw-initiated","event":{"amount":20.0,"transactionId":"t2","walletId":"aaa"}}
+      {"entityType":"transaction-mediator","entityId":"t1","seqNr":1,"eventType":"created","event":{"transactionId":"t1","participants":[{"id":"aaa","type":"kalix.demo.payment.Wallet","joined":false,"executed":false}]}}
+      {"entityType":"transaction-mediator","entityId":"t1","seqNr":2,"eventType":"participant-joined","event":{"transactionId":"t1","participantId":"aaa"}}
+      {"entityType":"unknown","entityId":"x","seqNr":1,"eventType":"created","event":{}}
+      """;
+
+    var out = new ByteArrayOutputStream();
+    var report = replay(journal, out);
+
+    assertEquals(6, report.events());
+    assertEquals(2, report.entities());
+    assertEquals(1, report.skipped());
+    assertEquals(0, report.violations(), out.toString());
+    assertEquals(2, report.peakStateSize());
+    assertEquals("wallet/aaa", report.peakStateEntity());
+  }
+
+  @Test
+  public void reportsNegativeBalance() throws Exception {
+    var journal = """
+      {"entityType":"wallet","entityId":"aaa","seqNr":1,"eventType":"created","event":{}}
+      {"entityType":"wallet","entityId":"aaa","seqNr":2,"eventType":"withdraw-initiated","event":{"amount":20.0,"transactionId":"t1","walletId":"aaa"}}
+      """;
+
+    var out = new ByteArrayOutputStream();
+    var report = replay(journal, out);
+
+    assertEquals(1, report.violations());
+    assertTrue(out.toString().contains("negative balance"));
+  }
+
+  @Test
+  public void rejectsJournalsNotGroupedByEntity() {
+    var interleaved = """
+      {"entityType":"wallet","entityId":"aaa","seqNr":1,"eventType":"created","event":{}}
+      {"entityType":"wallet","entityId":"bbb","seqNr":1,"eventType":"created","event":{}}
+      {"entityType":"wallet","entityId":"aaa","seqNr":2,"eventType":"deposit-initiated","event":{"amount":50.0,"transactionId":"t1","walletId":"aaa"}}
+      """;
+    var error = assertThrows(IOException.class, () -> replay(interleaved, new ByteArrayOutputStream()));
+    assertTrue(error.getMessage().contains("line 3, wallet/aaa"), error.getMessage());
+
+    var unordered = """
+      {"entityType":"wallet","entityId":"aaa","seqNr":2,"eventType":"created","event":{}}
+      {"entityType":"wallet","entityId":"aaa","seqNr":1,"eventType":"deposit-initiated","event":{"amount":50.0,"transactionId":"t1","walletId":"aaa"}}
+      """;
+    assertThrows(IOException.class, () -> replay(unordered, new ByteArrayOutputStream()));
+  }
+}
@@ -0,0 +1,95 @@
+package kalix.demo.replay;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kalix.demo.VavrJson;
+import kalix.demo.payment.Wallet;
+import kalix.javasdk.JsonSupport;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class WalletCompactionTest {
+
+  @Test
+  public void foldsOldWalletEventsIntoABaseline(@TempDir Path dir) throws Exception {
+    var journal = """
+      {"entityType":"wallet","entityId":"aaa","seqNr":1,"timestamp":"2024-01-01T00:00:00Z","eventType":"created","event":{}}
+      {"entityType":"wallet","entityId":"aaa","seqNr":2,"timestamp":"2024-01-01T00:00:01Z","eventType":"deposit-initiated","event":{"amount":50.0,"transactionId":"t1","walletId":"aaa"}}
+      {"entityType":"wallet","entityId":"aaa","seqNr":3,"timestamp":"2024-01-01T00:00:02Z","eventType":"balance-increased","event":{"amount":50.0,"transactionId":"t1","walletId":"aaa"}}
+      {"entityType":"wallet","entityId":"aaa","seqNr":4,"timestamp":"2024-01-01T00:00:03Z","eventType":"withdraw-initiated","event":{"amount":20.0,"transactionId":"t2","walletId":"aaa"}}
+      {"entityType":"wallet","entityId":"aaa","seqNr":5,"timestamp":"2024-03-01T00:00:00Z","eventType":"transaction-completed","event":{"transactionId":"t1"}}
+      {"entityType":"wallet","entityId":"aaa","seqNr":6,"timestamp":"2024-03-01T00:00:01Z","eventType":"balance-decreased","event":{"amount":20.0,"transactionId":"t2","walletId":"aaa"}}
+      {"entityType":"transaction-mediator","entityId":"t1","seqNr":1,"eventType":"created","event":{"transactionId":"t1","participants":[]}}
+      {"entityType":"wallet","entityId":"bbb","seqNr":1,"timestamp":"2024-01-01T00:00:00Z","eventType":"created","event":{}}
+      {"entityType":"wallet","entityId":"ccc","seqNr":1,"timestamp":"2024-03-01T00:00:00Z","eventType":"created","event":{}}
+      """;
+
+    var compaction = new WalletCompaction(Instant.parse("2024-02-01T00:00:00Z"));
+    var report = compaction.compact(new BufferedReader(new StringReader(journal)), dir);
+
+    assertEquals(3, report.wallets());
+    assertEquals(2, report.compactedWallets());
+    assertEquals(5, report.foldedEvents());
+    assertEquals(3, report.keptEvents());
+    assertEquals(1, report.otherEvents());
+
+    var compacted = Files.readAllLines(dir.resolve(WalletCompaction.JOURNAL_FILE));
+    assertEquals(6, compacted.size());
+    assertTrue(compacted.get(0).contains("\"seqNr\":4"), compacted.get(0));
+    assertTrue(compacted.get(0).contains("\"eventType\":\"wallet-compacted\""));
+    assertTrue(compacted.get(0).contains("\"transactionId\":\"t2\""));
+    assertTrue(compacted.get(1).contains("\"seqNr\":5"));
+
+    try (var archive = new BufferedReader(new InputStreamReader(
+      new GZIPInputStream(Files.newInputStream(dir.resolve(WalletCompaction.ARCHIVE_FILE))), StandardCharsets.UTF_8))) {
+      assertEquals(5, archive.lines().count());
+    }
+
+    // the compacted journal replays to the same balances, with the invariants holding
+    var out = new ByteArrayOutputStream();
+    var replay = new JournalReplay(10, new PrintStream(out))
+      .replay(Files.newBufferedReader(dir.resolve(WalletCompaction.JOURNAL_FILE)));
+    assertEquals(0, replay.violations(), out.toString());
+    assertEquals(0, replay.skipped());
+  }
+
+  @Test
+  public void baselinesKeepTheWithdrawalsOfTheVelocityWindow(@TempDir Path dir) throws Exception {
+    var journal = """
+      {"entityType":"wallet","entityId":"aaa","seqNr":1,"timestamp":"2024-03-01T00:00:00Z","eventType":"created","event":{}}
+      {"entityType":"wallet","entityId":"aaa","seqNr":2,"timestamp":"2024-03-01T00:00:01Z","eventType":"velocity-limits-changed","event":{"walletId":"aaa","limits":[{"maxAmount":100.0}]}}
+      {"entityType":"wallet","entityId":"aaa","seqNr":3,"timestamp":"2024-03-01T00:00:02Z","eventType":"deposit-initiated","event":{"amount":50.0,"transactionId":"t1","walletId":"aaa"}}
+      {"entityType":"wallet","entityId":"aaa","seqNr":4,"timestamp":"2024-03-01T00:00:03Z","eventType":"balance-increased","event":{"amount":50.0,"transactionId":"t1","walletId":"aaa"}}
+      {"entityType":"wallet","entityId":"aaa","seqNr":5,"timestamp":"2024-03-01T00:00:04Z","eventType":"withdraw-initiated","event":{"amount":20.0,"transactionId":"t2","walletId":"aaa","initiatedAt":"2024-03-01T00:00:04Z"}}
+      """;
+
+    // a horizon within the velocity window of the withdrawal
+    var compaction = new WalletCompaction(Instant.parse("2024-03-01T00:10:00Z"));
+    var report = compaction.compact(new BufferedReader(new StringReader(journal)), dir);
+    assertEquals(5, report.foldedEvents());
+
+    ObjectMapper mapper = JsonSupport.getObjectMapper().copy().registerModule(VavrJson.module());
+    var baseline = mapper.readTree(Files.readAllLines(dir.resolve(WalletCompaction.JOURNAL_FILE)).get(0)).path("event");
+    var target = ReplayTarget.wallet();
+    var handler = target.handlerFor("wallet-compacted").get();
+    var state = target.apply(target.newEntity("aaa"), null, handler, mapper.treeToValue(baseline, Wallet.Event.WalletCompacted.class));
+
+    var window = state.velocity().windows().get(Wallet.DEFAULT_CURRENCY).get();
+    assertEquals(20.0, window.amount());
+    assertEquals(1, window.count());
+    assertEquals(1, state.velocity().limits().size());
+  }
+}
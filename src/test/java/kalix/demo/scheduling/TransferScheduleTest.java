@@ -0,0 +1,137 @@
+package kalix.demo.scheduling;
+
+import kalix.demo.payment.Transfer;
+import kalix.javasdk.DeferredCallResponseException;
+import kalix.javasdk.StatusCode;
+import kalix.javasdk.testkit.ValueEntityTestKit;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TransferScheduleTest {
+
+  final private Instant first = Instant.parse("2024-01-01T10:00:30Z");
+  final private Instant second = first.plusSeconds(3600);
+
+  private ValueEntityTestKit<TransferSchedule.State, TransferSchedule> schedule(Integer occurrences) {
+    var schedule = ValueEntityTestKit.of("rent", TransferSchedule::new);
+    var create = new TransferSchedule.Create(new Transfer(10.0, "aaa", "bbb"), first, 3600L, occurrences);
+    schedule.call(s -> s.create(create));
+    return schedule;
+  }
+
+  @Test
+  public void firesEachOccurrenceOnceWithItsOwnTransaction() {
+    var schedule = schedule(2);
+
+    // nothing due before its time
+    assertFalse(schedule.call(s -> s.fire(new TransferSchedule.Fire(second))).getReply().isDue());
+
+    var firing = schedule.call(s -> s.fire(new TransferSchedule.Fire(first))).getReply();
+    assertEquals("rent-1", firing.transactionId());
+    assertEquals(second, firing.nextDueAt());
+
+    // a bucket dispatched again gets the same transfer
+    assertEquals(firing, schedule.call(s -> s.fire(new TransferSchedule.Fire(first))).getReply());
+
+    var last = schedule.call(s -> s.fire(new TransferSchedule.Fire(second))).getReply();
+    assertEquals("rent-2", last.transactionId());
+    assertNull(last.nextDueAt());
+    assertFalse(schedule.getState().isActive());
+  }
+
+  @Test
+  public void cancelledScheduleHasNothingDue() {
+    var schedule = schedule(null);
+    schedule.call(TransferSchedule::cancel);
+    assertFalse(schedule.call(s -> s.fire(new TransferSchedule.Fire(first))).getReply().isDue());
+
+    // nor is the transfer handed out before the cancellation
+    var fired = schedule(null);
+    fired.call(s -> s.fire(new TransferSchedule.Fire(first)));
+    fired.call(TransferSchedule::cancel);
+    assertFalse(fired.call(s -> s.fire(new TransferSchedule.Fire(first))).getReply().isDue());
+
+    var tooOften = new TransferSchedule.Create(new Transfer(10.0, "aaa", "bbb"), first, 1L, null);
+    assertTrue(ValueEntityTestKit.of("other", TransferSchedule::new).call(s -> s.create(tooOften)).isError());
+  }
+
+  @Test
+  public void bucketsCollectTheSchedulesOfOneSlot() {
+    assertEquals(ScheduleBucket.bucketOf(first), ScheduleBucket.bucketOf(Instant.parse("2024-01-01T10:01:00Z")));
+    assertEquals(Instant.parse("2024-01-01T10:01:00Z"), ScheduleBucket.firesAt(ScheduleBucket.bucketOf(first)));
+
+    var bucket = ValueEntityTestKit.of("1", context -> new ScheduleBucket());
+    assertTrue(bucket.call(b -> b.add(new ScheduleBucket.Add("rent", first))).getReply().needsTimer());
+    assertFalse(bucket.call(b -> b.add(new ScheduleBucket.Add("salary", first))).getReply().needsTimer());
+    // a redelivered add sets the timer again
+    assertTrue(bucket.call(b -> b.add(new ScheduleBucket.Add("rent", first))).getReply().needsTimer());
+
+    // the schedules left need another timer
+    assertEquals(1, bucket.call(b -> b.remove(new ScheduleBucket.Remove(Set.of("rent")))).getReply().remaining());
+    assertEquals(Set.of("salary"), bucket.call(ScheduleBucket::getSchedules).getReply().schedules().keySet().toJavaSet());
+    assertEquals(0, bucket.call(b -> b.remove(new ScheduleBucket.Remove(Set.of("salary")))).getReply().remaining());
+  }
+
+  @Test
+  public void slotsAreShardedAndShardsCapped() {
+    var slot = ScheduleBucket.bucketOf(first);
+    assertEquals(slot + "-" + ScheduleBucket.shardOf("rent"), ScheduleBucket.entityId(slot, ScheduleBucket.shardOf("rent")));
+    assertEquals(String.valueOf(slot), ScheduleBucket.entityId(slot, null));
+    assertTrue(ScheduleBucket.shardOf("rent") < ScheduleBucket.SHARDS);
+    assertEquals("transfer-schedule-bucket-" + slot + "-s3-1", TransferScheduleAction.timerName(slot, 3, 1));
+
+    var shard = ValueEntityTestKit.of("1-0", context -> new ScheduleBucket());
+    for (int i = 0; i < ScheduleBucket.MAX_SCHEDULES; i++) {
+      var scheduleId = "schedule-" + i;
+      assertFalse(shard.call(b -> b.add(new ScheduleBucket.Add(scheduleId, first))).getReply().full());
+    }
+    var full = shard.call(b -> b.add(new ScheduleBucket.Add("one-too-many", first))).getReply();
+    assertTrue(full.full());
+    assertFalse(full.needsTimer());
+    // a redelivered add of a schedule it has still gets the timer set
+    assertTrue(shard.call(b -> b.add(new ScheduleBucket.Add("schedule-0", first))).getReply().needsTimer());
+  }
+
+  @Test
+  public void occurrenceIsGivenUpAfterTheLastAttempt() {
+    var schedule = schedule(null);
+    var firing = schedule.call(s -> s.fire(new TransferSchedule.Fire(first))).getReply();
+
+    var failed = new TransferSchedule.AttemptFailed(first, true);
+    for (int attempt = 1; attempt < TransferSchedule.MAX_ATTEMPTS; attempt++) {
+      assertFalse(schedule.call(s -> s.attemptFailed(failed)).getReply().givenUp());
+      assertEquals(firing, schedule.call(s -> s.fire(new TransferSchedule.Fire(first))).getReply());
+    }
+    assertTrue(schedule.call(s -> s.attemptFailed(failed)).getReply().givenUp());
+    assertEquals(List.of("rent-1"), schedule.getState().failed());
+    // a redelivered dispatch doesn't make it again, the schedule moved on
+    assertFalse(schedule.call(s -> s.fire(new TransferSchedule.Fire(first))).getReply().isDue());
+    assertEquals(second, schedule.getState().nextDueAt());
+
+    // a transfer turned down is given up right away
+    schedule.call(s -> s.fire(new TransferSchedule.Fire(second)));
+    assertTrue(schedule.call(s -> s.attemptFailed(new TransferSchedule.AttemptFailed(second, false))).getReply().givenUp());
+    assertEquals(List.of("rent-2", "rent-1"), schedule.getState().failed());
+    assertEquals(0, schedule.getState().attempts());
+  }
+
+  @Test
+  public void onlyTransientRejectionsAreRetried() {
+    assertTrue(TransferScheduleAction.isRetryable(new TimeoutException()));
+    assertTrue(TransferScheduleAction.isRetryable(new CompletionException(
+      new DeferredCallResponseException("busy", StatusCode.ErrorCode.TOO_MANY_REQUESTS, null))));
+    assertFalse(TransferScheduleAction.isRetryable(
+      new DeferredCallResponseException("Velocity limit exceeded", StatusCode.ErrorCode.FORBIDDEN, null)));
+    assertEquals("transfer-scheduler-rent", TransferScheduleAction.callerId("rent"));
+  }
+}
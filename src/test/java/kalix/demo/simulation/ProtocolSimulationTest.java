@@ -0,0 +1,87 @@
+package kalix.demo.simulation;
+
+import kalix.demo.transactions.TransactionMediator;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ProtocolSimulationTest {
+
+  private static ProtocolSimulator.Report simulate(String scenario, ProtocolSimulator.Config config) {
+    var report = new ProtocolSimulator(config).run();
+    assertTrue(report.transactions() > 0, scenario);
+    assertTrue(report.completed() <= report.transactions(), scenario);
+    assertTrue(report.messages() >= report.transactions(), scenario);
+    return report;
+  }
+
+  @Test
+  public void transfersCompleteWithAFixedMessageCount() {
+    var report = simulate("2 participants", ProtocolSimulator.Config.defaults());
+
+    assertTrue(report.violations().isEmpty(), report.violations().mkString(", "));
+    assertEquals(report.transactions(), report.completed());
+    // create, withdraw and deposit, 2 joins, 2 confirmations, and for both the initialized and
+    // completed phases a call per wallet
+    assertTrue(report.messagesPerTransaction() >= 11, "messages/tx " + report.messagesPerTransaction());
+  }
+
+  @Test
+  public void messagesGrowWithParticipants() {
+    var two = simulate("2 participants", ProtocolSimulator.Config.defaults());
+    var eight = simulate("8 participants", ProtocolSimulator.Config.defaults().withParticipants(8));
+
+    assertTrue(eight.violations().isEmpty(), eight.violations().mkString(", "));
+    assertTrue(eight.messagesPerTransaction() > 3 * two.messagesPerTransaction());
+    assertTrue(eight.p50Micros() > two.p50Micros());
+  }
+
+  @Test
+  public void protocolConvergesWithFailuresAndRedeliveries() {
+    var report = simulate("faults", ProtocolSimulator.Config.defaults().withFaults(0.05, 0.05));
+
+    assertTrue(report.violations().isEmpty(), report.violations().mkString(", "));
+    assertTrue(report.failedDeliveries() > 0);
+    assertTrue(report.duplicates() > 0);
+  }
+
+  @Test
+  public void contentionOnFewWalletsSlowsTransactionsDown() {
+    var spread = simulate("200 wallets", ProtocolSimulator.Config.defaults());
+    var hot = simulate("4 wallets", ProtocolSimulator.Config.defaults().withWallets(4));
+
+    assertTrue(hot.violations().isEmpty(), hot.violations().mkString(", "));
+    assertTrue(hot.p99Micros() > spread.p99Micros());
+  }
+
+  @Test
+  public void presumedCommitSavesTheCompletionRound() {
+    var standard = simulate("standard", ProtocolSimulator.Config.defaults());
+    var presumed = simulate("presumed commit",
+      ProtocolSimulator.Config.defaults().withProtocol(TransactionMediator.Protocol.PRESUMED_COMMIT));
+
+    assertTrue(presumed.violations().isEmpty(), presumed.violations().mkString(", "));
+    assertEquals(presumed.transactions(), presumed.completed());
+    // no wallet calls for the completed phase
+    assertTrue(presumed.messagesPerTransaction() < standard.messagesPerTransaction() - 1.5,
+      "messages/tx " + presumed.messagesPerTransaction() + " vs " + standard.messagesPerTransaction());
+  }
+
+  @Test
+  public void presumedCommitConvergesWithFailuresAndRedeliveries() {
+    var report = simulate("presumed commit with faults", ProtocolSimulator.Config.defaults()
+      .withFaults(0.05, 0.05)
+      .withProtocol(TransactionMediator.Protocol.PRESUMED_COMMIT));
+
+    assertTrue(report.violations().isEmpty(), report.violations().mkString(", "));
+  }
+
+  @Test
+  public void simulationIsDeterministic() {
+    var config = ProtocolSimulator.Config.defaults().withFaults(0.02, 0.02);
+    var first = new ProtocolSimulator(config).run();
+    var second = new ProtocolSimulator(config).run();
+    assertEquals(first, second);
+  }
+}
@@ -0,0 +1,386 @@
+package kalix.demo.simulation;
+
+import io.vavr.collection.List;
+import kalix.demo.payment.Wallet;
+import kalix.demo.transactions.TransactionMediator;
+import kalix.demo.transactions.TransactionPhase;
+import kalix.javasdk.eventsourcedentity.EventSourcedEntity;
+import kalix.javasdk.testkit.EventSourcedResult;
+import kalix.javasdk.testkit.EventSourcedTestKit;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * Deterministic, single-JVM simulation of the transaction protocol.
+ * <p>
+ * The real {@link Wallet} and {@link TransactionMediator} entities run in {@link EventSourcedTestKit}
+ * harnesses, and a simulated event bus plays the part of the proxy and of the listeners: events of
+ * a wallet are routed to the mediator like {@link kalix.demo.payment.WalletListener} does, and
+ * mediator phases are notified to the wallets like the
+ * {@link kalix.demo.transactions.TransactionMediatorListener} and its
+ * {@link kalix.demo.transactions.ParticipantNotifier} do (a call per wallet, nothing recorded on
+ * the mediator).
+ * <p>
+ * Time is simulated: every message gets a random network latency, and each entity handles one
+ * command at a time for a fixed service time, so hot wallets queue up. Listeners deliver the
+ * events of an entity in order, messages to different entities are freely reordered. Deliveries
+ * can fail and are retried after a delay, and successful ones can be redelivered, as with
+ * at-least-once delivery. Everything is driven by a seeded {@link Random}, so a configuration
+ * always produces the same report.
+ */
+public class ProtocolSimulator {
+
+  /**
+   * @param participants   wallets in each transaction: the first withdraws, the others deposit
+   * @param arrivalMicros  time between the start of two transactions
+   * @param wallets        size of the wallet pool the participants are drawn from, fewer wallets
+   *                       means more contention
+   * @param failureRate    probability that a delivery fails and is retried
+   * @param duplicateRate  probability that a successful delivery of an event is delivered again
+   * @param protocol       how the mediator takes the participants through each transaction
+   */
+  public record Config(long seed,
+                       int transactions,
+                       int participants,
+                       int wallets,
+                       long arrivalMicros,
+                       long meanLatencyMicros,
+                       long serviceMicros,
+                       double failureRate,
+                       double duplicateRate,
+                       long retryDelayMicros,
+                       TransactionMediator.Protocol protocol) {
+
+    public static Config defaults() {
+      return new Config(42, 1_000, 2, 200, 1_000, 2_000, 100, 0.0, 0.0, 50_000, TransactionMediator.Protocol.STANDARD);
+    }
+
+    public Config withParticipants(int participants) {
+      return new Config(seed, transactions, participants, wallets, arrivalMicros, meanLatencyMicros, serviceMicros, failureRate, duplicateRate, retryDelayMicros, protocol);
+    }
+
+    public Config withFaults(double failureRate, double duplicateRate) {
+      return new Config(seed, transactions, participants, wallets, arrivalMicros, meanLatencyMicros, serviceMicros, failureRate, duplicateRate, retryDelayMicros, protocol);
+    }
+
+    public Config withWallets(int wallets) {
+      return new Config(seed, transactions, participants, wallets, arrivalMicros, meanLatencyMicros, serviceMicros, failureRate, duplicateRate, retryDelayMicros, protocol);
+    }
+
+    public Config withProtocol(TransactionMediator.Protocol protocol) {
+      return new Config(seed, transactions, participants, wallets, arrivalMicros, meanLatencyMicros, serviceMicros, failureRate, duplicateRate, retryDelayMicros, protocol);
+    }
+  }
+
+  public record Report(int transactions,
+                       int completed,
+                       long messages,
+                       long failedDeliveries,
+                       long duplicates,
+                       double messagesPerTransaction,
+                       int maxMessagesPerTransaction,
+                       long p50Micros,
+                       long p95Micros,
+                       long p99Micros,
+                       long maxMicros,
+                       double transactionsPerSecond,
+                       List<String> violations) {
+
+    public void print(PrintStream out) {
+      out.printf("transactions:        %d (%d completed)%n", transactions, completed);
+      out.printf("messages:            %d (%d failed deliveries, %d duplicates)%n", messages, failedDeliveries, duplicates);
+      out.printf("messages/tx:         %.1f (max %d)%n", messagesPerTransaction, maxMessagesPerTransaction);
+      out.printf("latency p50/p95/p99: %.1f / %.1f / %.1f ms (max %.1f ms)%n", p50Micros / 1e3, p95Micros / 1e3, p99Micros / 1e3, maxMicros / 1e3);
+      out.printf("throughput:          %.0f tx/s (simulated)%n", transactionsPerSecond);
+      violations.forEach(v -> out.println("violation:           " + v));
+    }
+  }
+
+  private record Delivery(long at, long seq, String transactionId, String target, Runnable action) {
+  }
+
+  private static final class Transaction {
+    final long startedAt;
+    long completedAt = -1;
+    int messages = 0;
+
+    Transaction(long startedAt) {
+      this.startedAt = startedAt;
+    }
+  }
+
+  /**
+   * A simulated failure to deliver a message, or a command the entity couldn't handle yet.
+   */
+  private static final class DeliveryFailed extends RuntimeException {
+    DeliveryFailed(String message) {
+      super(message, null, false, false);
+    }
+  }
+
+  final private Config config;
+  final private Random random;
+  final private PriorityQueue<Delivery> queue =
+    new PriorityQueue<>((a, b) -> a.at != b.at ? Long.compare(a.at, b.at) : Long.compare(a.seq, b.seq));
+  final private HashMap<String, EventSourcedTestKit<Wallet.State, Wallet.Event, Wallet>> wallets = new HashMap<>();
+  final private HashMap<String, EventSourcedTestKit<TransactionMediator.State, TransactionMediator.Event, TransactionMediator>> mediators = new HashMap<>();
+  final private HashMap<String, Transaction> transactions = new HashMap<>();
+  // entities handle one command at a time
+  final private HashMap<String, Long> busyUntil = new HashMap<>();
+  // listeners deliver the events of an entity in order
+  final private HashMap<String, Long> streamAt = new HashMap<>();
+
+  private long now = 0;
+  private long seq = 0;
+  private long messages = 0;
+  private long failedDeliveries = 0;
+  private long duplicates = 0;
+
+  public ProtocolSimulator(Config config) {
+    this.config = config;
+    this.random = new Random(config.seed());
+  }
+
+  public Report run() {
+    var fundsPerWallet = 1_000_000.0;
+    for (int w = 0; w < config.wallets(); w++) {
+      var walletId = "w-" + w;
+      var wallet = EventSourcedTestKit.of(walletId, Wallet::new);
+      wallet.call(Wallet::create);
+      wallet.call(x -> x.deposit(new Wallet.Deposit(fundsPerWallet, "funding")));
+      wallet.call(x -> x.execute("funding"));
+      wallet.call(x -> x.complete("funding"));
+      wallets.put(walletId, wallet);
+    }
+
+    for (int t = 0; t < config.transactions(); t++) {
+      var transactionId = "tx-" + t;
+      var startAt = t * config.arrivalMicros();
+      var participants = drawWallets();
+      schedule(startAt, transactionId, "client", () -> startTransaction(transactionId, participants));
+    }
+
+    while (!queue.isEmpty()) {
+      var delivery = queue.poll();
+      now = delivery.at;
+      delivery.action.run();
+    }
+
+    return report(fundsPerWallet);
+  }
+
+  private List<String> drawWallets() {
+    var drawn = List.<String>empty();
+    while (drawn.size() < Math.min(config.participants(), config.wallets())) {
+      var walletId = "w-" + random.nextInt(config.wallets());
+      if (!drawn.contains(walletId)) drawn = drawn.append(walletId);
+    }
+    return drawn;
+  }
+
+  /**
+   * Like {@link kalix.demo.payment.WalletServiceAction}: the mediator is created, and the first
+   * wallet withdraws while the others deposit, all sent at once without waiting for each other.
+   */
+  private void startTransaction(String transactionId, List<String> participants) {
+    transactions.put(transactionId, new Transaction(now));
+    var amount = 1.0;
+    var created = participants.map(id -> TransactionMediator.Participant.of(id, Wallet.class)).asJava();
+
+    request(transactionId, transactionId, () -> callMediator(transactionId, true, m -> m.create(new TransactionMediator.Create(created, config.protocol()))));
+    request(transactionId, participants.head(), () ->
+      callWallet(participants.head(), w -> w.withdraw(new Wallet.Withdraw(amount * (participants.size() - 1), transactionId))));
+    for (var depositor : participants.tail()) {
+      request(transactionId, depositor, () -> callWallet(depositor, w -> w.deposit(new Wallet.Deposit(amount, transactionId))));
+    }
+  }
+
+  private <R> void callWallet(String walletId, Function<Wallet, EventSourcedEntity.Effect<R>> command) {
+    var result = wallets.get(walletId).call(command);
+    if (result.isError()) throw new DeliveryFailed(result.getError());
+    publish(walletId, result, this::onWalletEvent);
+  }
+
+  private <R> void callMediator(String transactionId, Function<TransactionMediator, EventSourcedEntity.Effect<R>> command) {
+    callMediator(transactionId, false, command);
+  }
+
+  private <R> void callMediator(String transactionId, boolean creates, Function<TransactionMediator, EventSourcedEntity.Effect<R>> command) {
+    var mediator = mediators.computeIfAbsent(transactionId, id -> EventSourcedTestKit.of(id, TransactionMediator::new));
+    if (!creates && mediator.getState() == null) {
+      // a join or confirmation that overtook the creation of the mediator
+      throw new DeliveryFailed("transaction '" + transactionId + "' not created yet");
+    }
+    var result = mediator.call(command);
+    if (result.isError()) throw new DeliveryFailed(result.getError());
+    publish(transactionId, result, this::onMediatorEvent);
+  }
+
+  /**
+   * The events of an entity reach its listener in order, each after a network latency.
+   */
+  private void publish(String entityId, EventSourcedResult<?> result, java.util.function.BiConsumer<String, Object> listener) {
+    for (var event : result.getAllEvents()) {
+      var at = Math.max(now + latency(), streamAt.getOrDefault(entityId, 0L));
+      streamAt.put(entityId, at);
+      schedule(at, transactionOf(event), "listener:" + entityId, () -> listener.accept(entityId, event));
+    }
+  }
+
+  private void onWalletEvent(String walletId, Object event) {
+    if (event instanceof Wallet.Event.DepositInitiated evt) {
+      send(evt.transactionId(), evt.transactionId(), () -> callMediator(evt.transactionId(), m -> m.join(walletId)));
+    } else if (event instanceof Wallet.Event.WithdrawInitiated evt) {
+      send(evt.transactionId(), evt.transactionId(), () -> callMediator(evt.transactionId(), m -> m.join(walletId)));
+    } else if (event instanceof Wallet.Event.BalanceIncreased evt) {
+      send(evt.transactionId(), evt.transactionId(), () -> callMediator(evt.transactionId(), m -> m.confirmExecution(walletId)));
+    } else if (event instanceof Wallet.Event.BalanceDecreased evt) {
+      send(evt.transactionId(), evt.transactionId(), () -> callMediator(evt.transactionId(), m -> m.confirmExecution(walletId)));
+    }
+  }
+
+  private void onMediatorEvent(String transactionId, Object event) {
+    if (event instanceof TransactionMediator.Event.Initialized evt) {
+      notifyPhase(transactionId, evt.phase(), List.ofAll(evt.participants()));
+    } else if (event instanceof TransactionMediator.Event.Completed evt) {
+      var transaction = transactions.get(transactionId);
+      if (transaction.completedAt < 0) transaction.completedAt = now;
+      if (!evt.participantsCompleted()) notifyPhase(transactionId, TransactionPhase.COMPLETED, List.ofAll(evt.participants()));
+    } else if (event instanceof TransactionMediator.Event.Cancelled evt) {
+      notifyPhase(transactionId, TransactionPhase.CANCELLED, List.ofAll(evt.participants()));
+    }
+  }
+
+  /**
+   * Notifies every wallet of the phase, failed deliveries being retried like parked notifications.
+   */
+  private void notifyPhase(String transactionId, TransactionPhase phase, List<TransactionMediator.Participant> participants) {
+    for (var participant : participants) {
+      var walletId = participant.id();
+      send(transactionId, walletId, () ->
+        callWallet(walletId, w -> switch (phase) {
+          case INITIALIZED -> w.execute(transactionId);
+          case COMMITTING -> w.executeAndComplete(transactionId);
+          case COMPLETED -> w.complete(transactionId);
+          case CANCELLED -> w.cancel(transactionId);
+        }));
+    }
+  }
+
+  /**
+   * Sends a message to an entity: it's handled after a network latency, once the entity is done
+   * with the commands before it. Failed deliveries are retried.
+   */
+  private void send(String transactionId, String target, Runnable command) {
+    schedule(now + latency(), transactionId, target, () -> deliver(transactionId, target, command, true));
+  }
+
+  /**
+   * Client requests are retried when they fail, but never delivered twice: the wallets only
+   * remember transaction ids until they complete, so a deposit or withdraw arriving again after
+   * that would start over.
+   */
+  private void request(String transactionId, String target, Runnable command) {
+    schedule(now + latency(), transactionId, target, () -> deliver(transactionId, target, command, false));
+  }
+
+  private void deliver(String transactionId, String target, Runnable command, boolean atLeastOnce) {
+    var free = busyUntil.getOrDefault(target, 0L);
+    if (free > now) {
+      // queued behind the commands the entity is busy with
+      schedule(free, transactionId, target, () -> deliver(transactionId, target, command, atLeastOnce));
+      return;
+    }
+    busyUntil.put(target, now + config.serviceMicros());
+    messages++;
+    var transaction = transactions.get(transactionId);
+    if (transaction != null) transaction.messages++;
+
+    try {
+      if (random.nextDouble() < config.failureRate()) throw new DeliveryFailed("simulated failure");
+      command.run();
+      if (atLeastOnce && random.nextDouble() < config.duplicateRate()) {
+        duplicates++;
+        schedule(now + config.retryDelayMicros(), transactionId, target, () -> deliver(transactionId, target, command, true));
+      }
+    } catch (DeliveryFailed e) {
+      failedDeliveries++;
+      schedule(now + config.retryDelayMicros(), transactionId, target, () -> deliver(transactionId, target, command, atLeastOnce));
+    }
+  }
+
+  private void schedule(long at, String transactionId, String target, Runnable action) {
+    queue.add(new Delivery(at, seq++, transactionId, target, action));
+  }
+
+  /**
+   * Exponentially distributed, which gives the occasional slow message that overtakes nothing
+   * but is overtaken by many.
+   */
+  private long latency() {
+    return (long) (-Math.log(1 - random.nextDouble()) * config.meanLatencyMicros());
+  }
+
+  private static String transactionOf(Object event) {
+    if (event instanceof Wallet.Event.DepositInitiated evt) return evt.transactionId();
+    if (event instanceof Wallet.Event.WithdrawInitiated evt) return evt.transactionId();
+    if (event instanceof Wallet.Event.BalanceIncreased evt) return evt.transactionId();
+    if (event instanceof Wallet.Event.BalanceDecreased evt) return evt.transactionId();
+    if (event instanceof Wallet.Event.TransactionCancelled evt) return evt.transactionId();
+    if (event instanceof Wallet.Event.TransactionCompleted evt) return evt.transactionId();
+    if (event instanceof TransactionMediator.Event.Initialized evt) return evt.transactionId();
+    if (event instanceof TransactionMediator.Event.Completed evt) return evt.transactionId();
+    if (event instanceof TransactionMediator.Event.Cancelled evt) return evt.transactionId();
+    return null;
+  }
+
+  private Report report(double fundsPerWallet) {
+    var violations = new ArrayList<String>();
+    var total = 0.0;
+    for (var entry : wallets.entrySet()) {
+      var state = entry.getValue().getState();
+      total += state.balance();
+      if (!state.pendingTransactions().isEmpty())
+        violations.add(entry.getKey() + " has pending transactions " + state.pendingTransactions().keySet());
+      if (!state.executedTransactions().isEmpty())
+        violations.add(entry.getKey() + " has uncompleted transactions " + state.executedTransactions());
+    }
+    if (Math.abs(total - fundsPerWallet * config.wallets()) > 1e-6)
+      violations.add("funds not conserved: " + total);
+
+    var completed = transactions.values().stream().filter(t -> t.completedAt >= 0).toList();
+    if (completed.size() < transactions.size())
+      violations.add((transactions.size() - completed.size()) + " transactions not completed");
+
+    var latencies = completed.stream().mapToLong(t -> t.completedAt - t.startedAt).toArray();
+    Arrays.sort(latencies);
+    var perTransaction = transactions.values().stream().mapToInt(t -> t.messages).toArray();
+    var lastCompletion = completed.stream().mapToLong(t -> t.completedAt).max().orElse(0);
+
+    return new Report(
+      transactions.size(),
+      completed.size(),
+      messages,
+      failedDeliveries,
+      duplicates,
+      Arrays.stream(perTransaction).average().orElse(0),
+      Arrays.stream(perTransaction).max().orElse(0),
+      percentile(latencies, 0.50),
+      percentile(latencies, 0.95),
+      percentile(latencies, 0.99),
+      latencies.length == 0 ? 0 : latencies[latencies.length - 1],
+      lastCompletion == 0 ? 0 : completed.size() * 1e6 / lastCompletion,
+      List.ofAll(violations));
+  }
+
+  private static long percentile(long[] sorted, double p) {
+    if (sorted.length == 0) return 0;
+    return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+  }
+}
@@ -0,0 +1,70 @@
+package kalix.demo.statement;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.util.Comparator;
+
+/**
+ * Measures export throughput and heap use over a generated journal that is never held in memory.
+ * <p>
+ * Run with: {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=kalix.demo.statement.StatementExportBenchmark -Dexec.args="1000000"}
+ */
+public class StatementExportBenchmark {
+
+  /**
+   * Generates journal lines on the fly: one created event and a few movements per wallet.
+   */
+  static class GeneratedJournal extends Reader {
+    final private long wallets;
+    private long wallet = 0;
+    private String pending = "";
+    private int offset = 0;
+
+    GeneratedJournal(long wallets) {
+      this.wallets = wallets;
+    }
+
+    @Override
+    public int read(char[] buffer, int off, int len) {
+      if (offset == pending.length()) {
+        if (wallet == wallets) return -1;
+        pending = StatementExportTest.journal(1, 4).replace("wallet-0", "wallet-" + wallet).replace("tx-0-", "tx-" + wallet + "-");
+        offset = 0;
+        wallet++;
+      }
+      var n = Math.min(len, pending.length() - offset);
+      pending.getChars(offset, offset + n, buffer, off);
+      offset += n;
+      return n;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    var wallets = args.length > 0 ? Long.parseLong(args[0]) : 200_000;
+    var dir = Files.createTempDirectory("statement-benchmark");
+    var runtime = Runtime.getRuntime();
+
+    try (var export = new StatementExport(dir, 65_536)) {
+      System.gc();
+      var heapBefore = runtime.totalMemory() - runtime.freeMemory();
+      var report = export.export(new BufferedReader(new GeneratedJournal(wallets)));
+      var heapAfter = runtime.totalMemory() - runtime.freeMemory();
+
+      System.out.printf("wallets:        %d%n", wallets);
+      System.out.printf("rows:           %d in %d chunks%n", report.rows(), report.chunks());
+      System.out.printf("rows/sec:       %.0f%n", report.rowsPerSecond());
+      System.out.printf("bytes/row:      %.2f%n", (double) report.bytesWritten() / report.rows());
+      System.out.printf("heap delta:     %d KB (max heap %d MB)%n", (heapAfter - heapBefore) / 1024, runtime.maxMemory() / 1_048_576);
+    } finally {
+      try (var files = Files.walk(dir)) {
+        files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+      }
+    }
+  }
+}
@@ -0,0 +1,103 @@
+package kalix.demo.statement;
+
+import io.vavr.collection.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class StatementExportTest {
+
+  static String journal(int wallets, int movementsPerWallet) {
+    var journal = new StringBuilder();
+    for (int w = 0; w < wallets; w++) {
+      var walletId = "wallet-" + w;
+      journal.append("{\"entityType\":\"wallet\",\"entityId\":\"").append(walletId).append("\",\"seqNr\":1,\"eventType\":\"created\",\"event\":{}}\n");
+      for (int m = 0; m < movementsPerWallet; m++) {
+        var eventType = m % 2 == 0 ? "balance-increased" : "balance-decreased";
+        journal
+          .append("{\"entityType\":\"wallet\",\"entityId\":\"").append(walletId)
+          .append("\",\"seqNr\":").append(m + 2)
+          .append(",\"eventType\":\"").append(eventType)
+          .append("\",\"event\":{\"amount\":").append(m + 1).append(".5,\"transactionId\":\"tx-").append(w).append('-').append(m)
+          .append("\",\"walletId\":\"").append(walletId).append("\"}}\n");
+      }
+    }
+    return journal.toString();
+  }
+
+  static List<StatementRow> readAll(Path dir) throws Exception {
+    var rows = List.<StatementRow>empty();
+    for (long chunk = 0; Files.exists(dir.resolve(StatementChunks.fileName(chunk))); chunk++) {
+      rows = rows.appendAll(StatementChunks.read(dir.resolve(StatementChunks.fileName(chunk))));
+    }
+    return rows;
+  }
+
+  @Test
+  public void exportsMovementsIntoChunks(@TempDir Path dir) throws Exception {
+    try (var export = new StatementExport(dir, 4)) {
+      var report = export.export(new BufferedReader(new StringReader(journal(3, 3))));
+      assertEquals(9, report.rows());
+      assertEquals(3, report.chunks());
+    }
+
+    var rows = readAll(dir);
+    assertEquals(9, rows.size());
+    assertEquals(new StatementRow("wallet-0", 2, "tx-0-0", StatementRow.Direction.CREDIT, 1.5, "EUR"), rows.head());
+    assertEquals(new StatementRow("wallet-2", 4, "tx-2-2", StatementRow.Direction.CREDIT, 3.5, "EUR"), rows.last());
+  }
+
+  @Test
+  public void resumesFromCheckpoint(@TempDir Path dir) throws Exception {
+    var journal = journal(4, 2);
+    var lines = journal.split("\n");
+    var firstHalf = String.join("\n", java.util.Arrays.copyOf(lines, 6)) + "\n";
+
+    // first run is interrupted half way through the journal
+    try (var export = new StatementExport(dir, 2)) {
+      export.export(new BufferedReader(new StringReader(firstHalf)));
+      assertEquals(6, export.checkpoint().journalLine());
+    }
+    // a chunk left behind by a crash before its checkpoint is discarded
+    Files.writeString(dir.resolve(StatementChunks.fileName(2)), "partial");
+
+    try (var export = new StatementExport(dir, 2)) {
+      assertFalse(Files.exists(dir.resolve(StatementChunks.fileName(2))));
+      var report = export.export(new BufferedReader(new StringReader(journal)));
+      assertEquals(4, report.rows());
+    }
+
+    var rows = readAll(dir);
+    assertEquals(8, rows.size());
+    assertEquals(8, rows.map(StatementRow::transactionId).distinct().size());
+  }
+
+  @Test
+  public void rejectsTruncatedChunksAndOversizedValues(@TempDir Path dir) throws Exception {
+    try (var export = new StatementExport(dir, 100)) {
+      export.export(new BufferedReader(new StringReader(journal(10, 5))));
+    }
+    var chunk = dir.resolve(StatementChunks.fileName(0));
+    var bytes = Files.readAllBytes(chunk);
+    Files.write(chunk, Arrays.copyOf(bytes, bytes.length - 10));
+    assertTimeoutPreemptively(Duration.ofSeconds(5), () -> assertThrows(IOException.class, () -> StatementChunks.read(chunk)));
+
+    var columns = new StatementChunks.Columns(1);
+    var row = new StatementRow("aaa", 1, "x".repeat(70_000), StatementRow.Direction.CREDIT, 1.0, "EUR");
+    assertThrows(IllegalArgumentException.class, () -> columns.add(row));
+    assertTrue(columns.isEmpty());
+  }
+}
@@ -0,0 +1,63 @@
+package kalix.demo.transactions;
+
+import kalix.javasdk.DeferredCallResponseException;
+import kalix.javasdk.StatusCode;
+import kalix.javasdk.testkit.ValueEntityTestKit;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ArchivedTransactionTest {
+
+  record TestTarget() {
+  }
+
+  @Test
+  void keepsTheFirstSummaryOfTerminatedTransactions() {
+    var archive = ValueEntityTestKit.of("tx", ArchivedTransaction::new);
+    assertTrue(archive.call(ArchivedTransaction::getSummary).isError());
+
+    var participants = List.of(TransactionMediator.Participant.of("foo", TestTarget.class));
+    var inProgress = new ArchivedTransaction.Summary("tx", TransactionMediator.Status.INITIATED, participants, Instant.now());
+    assertTrue(archive.call(a -> a.store(inProgress)).isError());
+
+    var first = Instant.parse("2024-01-01T00:00:00Z");
+    archive.call(a -> a.store(new ArchivedTransaction.Summary("tx", TransactionMediator.Status.COMPLETED, participants, first)));
+    archive.call(a -> a.store(new ArchivedTransaction.Summary("tx", TransactionMediator.Status.COMPLETED, participants, Instant.now())));
+
+    var status = archive.call(ArchivedTransaction::getSummary).getReply();
+    assertEquals(first, status.archivedAt());
+    assertEquals(TransactionMediator.Status.COMPLETED, status.asStatus().status());
+  }
+
+  @Test
+  void archivedTransactionIdsAreNotCreatedAgain() throws Exception {
+    var participants = List.of(TransactionMediator.Participant.of("foo", TestTarget.class));
+    var created = new AtomicBoolean();
+    Supplier<CompletionStage<TransactionMediator.TransactionStatus>> create = () -> {
+      created.set(true);
+      return CompletableFuture.completedFuture(new TransactionMediator.TransactionStatus("tx", participants, TransactionMediator.Status.WAITING));
+    };
+
+    // the mediator was deleted, its summary replies in its place
+    var summary = new ArchivedTransaction.Summary("tx", TransactionMediator.Status.COMPLETED, participants, Instant.now());
+    var archived = TransactionServiceAction.unlessArchived(CompletableFuture.completedFuture(summary), create);
+    assertEquals(TransactionMediator.Status.COMPLETED, archived.toCompletableFuture().get().status());
+    assertFalse(created.get());
+
+    var notArchived = TransactionServiceAction.unlessArchived(
+      CompletableFuture.failedFuture(new DeferredCallResponseException("Transaction not archived: tx", StatusCode.ErrorCode.NOT_FOUND, null)),
+      create);
+    assertEquals(TransactionMediator.Status.WAITING, notArchived.toCompletableFuture().get().status());
+    assertTrue(created.get());
+  }
+}
@@ -0,0 +1,63 @@
+package kalix.demo.transactions;
+
+import kalix.javasdk.testkit.EventSourcedTestKit;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static kalix.demo.transactions.TransactionPhase.COMPLETED;
+import static kalix.demo.transactions.TransactionPhase.INITIALIZED;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ParkedNotificationTest {
+
+  record TestTarget() {
+  }
+
+  final private TransactionMediator.Participant foo = TransactionMediator.Participant.of("foo", TestTarget.class);
+  final private TransactionMediator.Participant bar = TransactionMediator.Participant.of("bar", TestTarget.class);
+
+  @Test
+  public void retriesOnlyTrackUnacknowledgedParticipants() {
+    var parked = EventSourcedTestKit.of("tx", ParkedNotification::new);
+
+    parked.call(p -> p.park(new ParkedNotification.Park(INITIALIZED, List.of(foo), "timeout")));
+    var status = parked.call(p -> p.park(new ParkedNotification.Park(INITIALIZED, List.of(bar), "timeout"))).getReply();
+    assertEquals(List.of(foo, bar), status.pending());
+    // the transaction may terminate without them
+    assertFalse(status.awaitsTermination());
+
+    parked.call(p -> p.acknowledge(new ParkedNotification.Acknowledge(INITIALIZED, "foo")));
+    // acknowledging again, or another phase, is a no-op
+    assertFalse(parked.call(p -> p.acknowledge(new ParkedNotification.Acknowledge(INITIALIZED, "foo"))).didEmitEvents());
+    assertFalse(parked.call(p -> p.acknowledge(new ParkedNotification.Acknowledge(COMPLETED, "bar"))).didEmitEvents());
+
+    status = parked.call(p -> p.retryFailed(new ParkedNotification.RetryFailure(INITIALIZED, "still failing"))).getReply();
+    assertEquals(List.of(bar), status.pending());
+    assertEquals(1, status.attempts());
+    assertEquals("still failing", status.lastError());
+  }
+
+  @Test
+  public void laterPhaseReplacesParkedInitialization() {
+    var parked = EventSourcedTestKit.of("tx", ParkedNotification::new);
+
+    parked.call(p -> p.park(new ParkedNotification.Park(INITIALIZED, List.of(foo, bar), "timeout")));
+    var status = parked.call(p -> p.park(new ParkedNotification.Park(COMPLETED, List.of(bar), "timeout"))).getReply();
+    assertEquals(COMPLETED, status.phase());
+    assertEquals(List.of(bar), status.pending());
+    assertEquals(0, status.attempts());
+
+    // a late initialization doesn't override the completion
+    var late = parked.call(p -> p.park(new ParkedNotification.Park(INITIALIZED, List.of(foo), "timeout")));
+    assertFalse(late.didEmitEvents());
+    assertTrue(late.getReply().awaitsTermination());
+
+    parked.call(p -> p.acknowledge(new ParkedNotification.Acknowledge(COMPLETED, "bar")));
+    status = parked.call(ParkedNotification::getStatus).getReply();
+    assertTrue(status.pending().isEmpty());
+    assertFalse(status.awaitsTermination());
+  }
+}
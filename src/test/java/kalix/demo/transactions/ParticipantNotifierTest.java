@@ -0,0 +1,105 @@
+package kalix.demo.transactions;
+
+import io.vavr.collection.List;
+import kalix.demo.Done;
+import kalix.javasdk.client.ComponentClient;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.support.StaticApplicationContext;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ParticipantNotifierTest {
+
+  record TestTarget() {
+  }
+
+  static class TestAdapter implements TransactionAdapter {
+    final ConcurrentHashMap<String, CompletableFuture<Done>> calls = new ConcurrentHashMap<>();
+    final AtomicInteger inFlight = new AtomicInteger();
+    final AtomicInteger maxInFlight = new AtomicInteger();
+
+    @Override
+    public boolean adapterFor(Class<?> clazz) {
+      return clazz.equals(TestTarget.class);
+    }
+
+    @Override
+    public CompletionStage<Done> initialized(ComponentClient componentClient, String participantId, String transactionId) {
+      maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+      var call = new CompletableFuture<Done>();
+      calls.put(participantId, call);
+      return call.whenComplete((done, error) -> inFlight.decrementAndGet());
+    }
+
+    @Override
+    public CompletionStage<Done> cancel(ComponentClient componentClient, String participantId, String transactionId) {
+      return initialized(componentClient, participantId, transactionId);
+    }
+
+    @Override
+    public CompletionStage<Done> complete(ComponentClient componentClient, String participantId, String transactionId) {
+      return initialized(componentClient, participantId, transactionId);
+    }
+  }
+
+  @Test
+  public void notifiesConcurrentlyUpToTheParallelismLimit() throws Exception {
+    var adapter = new TestAdapter();
+    var context = new StaticApplicationContext();
+    context.getBeanFactory().registerSingleton("testAdapter", adapter);
+    var notifier = new ParticipantNotifier(new TransactionAdapterProvider(context), 2);
+
+    var participants = List.range(0, 5).map(i -> TransactionMediator.Participant.of("p" + i, TestTarget.class));
+    var result = notifier.notifyAll(null, TransactionPhase.INITIALIZED, "tx", participants).toCompletableFuture();
+
+    // completes the calls as they come, failing one of them
+    for (int i = 0; i < 5; i++) {
+      var participantId = "p" + i;
+      while (!adapter.calls.containsKey(participantId)) Thread.onSpinWait();
+      if (i == 3)
+        adapter.calls.get(participantId).completeExceptionally(new IllegalStateException("boom"));
+      else
+        adapter.calls.get(participantId).complete(new Done());
+    }
+
+    var failures = result.get();
+    assertEquals(List.of("p3"), failures.map(f -> f.participant().id()));
+    assertEquals(2, adapter.maxInFlight.get());
+  }
+
+  @Test
+  public void redeliveredPhaseSkipsParticipantsThatAcknowledged() throws Exception {
+    var adapter = new TestAdapter();
+    var context = new StaticApplicationContext();
+    context.getBeanFactory().registerSingleton("testAdapter", adapter);
+    var notifier = new ParticipantNotifier(new TransactionAdapterProvider(context), 2);
+    var participants = List.of("p0", "p1").map(id -> TransactionMediator.Participant.of(id, TestTarget.class));
+
+    var first = notifier.notifyParticipants(null, TransactionPhase.COMPLETED, "tx", participants).toCompletableFuture();
+    while (adapter.calls.size() < 2) Thread.onSpinWait();
+    adapter.calls.get("p0").complete(new Done());
+    adapter.calls.get("p1").completeExceptionally(new IllegalStateException("boom"));
+    assertEquals(List.of("p1"), first.get().map(f -> f.participant().id()));
+
+    // the event comes again before the failure was parked: only p1 is called
+    adapter.calls.clear();
+    var redelivered = notifier.notifyParticipants(null, TransactionPhase.COMPLETED, "tx", participants).toCompletableFuture();
+    while (!adapter.calls.containsKey("p1")) Thread.onSpinWait();
+    adapter.calls.get("p1").complete(new Done());
+    assertTrue(redelivered.get().isEmpty());
+    assertEquals(java.util.Set.of("p1"), adapter.calls.keySet());
+
+    // everyone acknowledged, nothing is left to remember
+    adapter.calls.clear();
+    var again = notifier.notifyParticipants(null, TransactionPhase.COMPLETED, "tx", participants).toCompletableFuture();
+    while (adapter.calls.size() < 2) Thread.onSpinWait();
+    adapter.calls.values().forEach(call -> call.complete(new Done()));
+    assertTrue(again.get().isEmpty());
+  }
+}
@@ -0,0 +1,143 @@
+package kalix.demo.transactions;
+
+import kalix.demo.Done;
+import kalix.javasdk.client.ComponentClient;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ResilientTransactionAdapterTest {
+
+  static class TestAdapter implements TransactionAdapter {
+    Supplier<CompletionStage<Done>> result = () -> CompletableFuture.completedFuture(new Done());
+
+    @Override
+    public boolean adapterFor(Class<?> clazz) {
+      return true;
+    }
+
+    @Override
+    public CompletionStage<Done> initialized(ComponentClient componentClient, String participantId, String transactionId) {
+      return result.get();
+    }
+
+    @Override
+    public CompletionStage<Done> cancel(ComponentClient componentClient, String participantId, String transactionId) {
+      return result.get();
+    }
+
+    @Override
+    public CompletionStage<Done> complete(ComponentClient componentClient, String participantId, String transactionId) {
+      return result.get();
+    }
+  }
+
+  final private AtomicLong clock = new AtomicLong();
+  final private TestAdapter delegate = new TestAdapter();
+
+  private ResilientTransactionAdapter adapter(int maxConcurrentCalls, Duration timeout) {
+    return new ResilientTransactionAdapter("test", delegate,
+      new ResilientTransactionAdapter.Settings(maxConcurrentCalls, timeout, 2, Duration.ofSeconds(10)), clock::get);
+  }
+
+  private static Throwable failure(CompletionStage<Done> call) {
+    return assertThrows(ExecutionException.class, () -> call.toCompletableFuture().get()).getCause();
+  }
+
+  @Test
+  public void bulkheadRejectsCallsOverTheLimit() throws Exception {
+    var adapter = adapter(1, Duration.ofSeconds(5));
+    var pending = new CompletableFuture<Done>();
+    delegate.result = () -> pending;
+
+    var first = adapter.initialized(null, "p1", "tx");
+    assertInstanceOf(ResilientTransactionAdapter.Rejected.class, failure(adapter.initialized(null, "p2", "tx")));
+    assertEquals(1, adapter.metrics().inFlight());
+
+    pending.complete(new Done());
+    first.toCompletableFuture().get();
+    assertEquals(0, adapter.metrics().inFlight());
+    assertEquals(1, adapter.metrics().bulkheadRejected());
+    assertEquals(1, adapter.metrics().succeeded());
+  }
+
+  @Test
+  public void slowCallsTimeOutAndOpenTheCircuit() {
+    var adapter = adapter(10, Duration.ofMillis(20));
+    var never = new CompletableFuture<Done>();
+    delegate.result = () -> never;
+
+    assertInstanceOf(TimeoutException.class, failure(adapter.complete(null, "p1", "tx")));
+    assertInstanceOf(TimeoutException.class, failure(adapter.complete(null, "p1", "tx")));
+    assertEquals(CircuitBreaker.State.OPEN, adapter.metrics().circuit());
+    // the timeout must not complete the delegate's future
+    assertTrue(!never.isDone());
+
+    // fails fast while open, without calling the delegate
+    delegate.result = () -> {
+      throw new AssertionError("delegate called while circuit open");
+    };
+    assertInstanceOf(ResilientTransactionAdapter.Rejected.class, failure(adapter.complete(null, "p1", "tx")));
+
+    var metrics = adapter.metrics();
+    assertEquals(3, metrics.calls());
+    assertEquals(2, metrics.timedOut());
+    assertEquals(1, metrics.circuitRejected());
+    assertEquals(0, metrics.inFlight());
+
+    // a successful probe closes it again
+    clock.addAndGet(Duration.ofSeconds(10).toNanos());
+    delegate.result = () -> CompletableFuture.completedFuture(new Done());
+    adapter.complete(null, "p1", "tx").toCompletableFuture().join();
+    assertEquals(CircuitBreaker.State.CLOSED, adapter.metrics().circuit());
+  }
+
+  @Test
+  public void probeRejectedByTheBulkheadDoesNotLeaveTheCircuitHalfOpen() throws Exception {
+    var inFlight = new CompletableFuture<Done>();
+    var startCall = new java.util.concurrent.atomic.AtomicBoolean();
+    var adapter = new java.util.concurrent.atomic.AtomicReference<ResilientTransactionAdapter>();
+    // the failure opening the circuit releases its permit just before it is recorded, a call
+    // starting in between takes the permit while the circuit is still closed
+    adapter.set(new ResilientTransactionAdapter("test", delegate,
+      new ResilientTransactionAdapter.Settings(1, Duration.ofSeconds(5), 1, Duration.ofSeconds(10)), () -> {
+      if (startCall.compareAndSet(true, false)) {
+        delegate.result = () -> inFlight;
+        adapter.get().complete(null, "p2", "tx");
+      }
+      return clock.get();
+    }));
+
+    delegate.result = () -> {
+      startCall.set(true);
+      return CompletableFuture.failedFuture(new IllegalStateException("boom"));
+    };
+    failure(adapter.get().complete(null, "p1", "tx"));
+    assertEquals(CircuitBreaker.State.OPEN, adapter.get().metrics().circuit());
+    assertEquals(1, adapter.get().metrics().inFlight());
+
+    // the probe would be due, but there is no permit for it
+    clock.addAndGet(Duration.ofSeconds(10).toNanos());
+    assertInstanceOf(ResilientTransactionAdapter.Rejected.class, failure(adapter.get().complete(null, "p3", "tx")));
+    assertEquals(CircuitBreaker.State.OPEN, adapter.get().metrics().circuit());
+    assertEquals(1, adapter.get().metrics().bulkheadRejected());
+
+    // once the permit is back the probe goes through and closes the circuit
+    inFlight.completeExceptionally(new IllegalStateException("boom"));
+    clock.addAndGet(Duration.ofSeconds(10).toNanos());
+    delegate.result = () -> CompletableFuture.completedFuture(new Done());
+    adapter.get().complete(null, "p4", "tx").toCompletableFuture().get();
+    assertEquals(CircuitBreaker.State.CLOSED, adapter.get().metrics().circuit());
+  }
+}
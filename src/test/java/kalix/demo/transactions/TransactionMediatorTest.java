@@ -1,5 +1,7 @@
 package kalix.demo.transactions;
 
+import kalix.demo.VavrJson;
+import kalix.javasdk.JsonSupport;
 import kalix.javasdk.testkit.EventSourcedTestKit;
 import org.junit.jupiter.api.Test;
 
@@ -155,4 +157,70 @@ public class TransactionMediatorTest {
       assertEquals("Transaction exists but was cancelled", result.getError());
     }
   }
+
+  @Test
+  void snapshotsWithAcknowledgementsAreRestored() throws Exception {
+    var mapper = JsonSupport.getObjectMapper().copy().registerModule(VavrJson.module());
+    // acknowledgements were kept on the mediator, and its protocol once wasn't
+    var state = mapper.readValue("""
+      {"transactionId":"tx","participants":{},"status":"WAITING","acknowledged":{"INITIALIZED":["foo"]}}
+      """, TransactionMediator.State.class);
+    assertEquals(TransactionMediator.Status.WAITING, state.status());
+    assertEquals(TransactionMediator.Protocol.STANDARD, state.protocol());
+  }
+
+  @Test
+  void presumedCommitIsCarriedOnTheEvents() {
+
+    var mediator = EventSourcedTestKit.of(TransactionMediator::new);
+    mediator.call(m -> m.create(new TransactionMediator.Create(List.of(
+      TransactionMediator.Participant.of("foo", TestTarget.class),
+      TransactionMediator.Participant.of("bar", TestTarget.class)),
+      TransactionMediator.Protocol.PRESUMED_COMMIT)));
+
+    mediator.call(m -> m.join("foo"));
+    var initialized = mediator.call(m -> m.join("bar")).getAllEvents().get(1);
+    assertEquals(TransactionPhase.COMMITTING, ((TransactionMediator.Event.Initialized) initialized).phase());
+
+    mediator.call(m -> m.confirmExecution("foo"));
+    var completed = mediator.call(m -> m.confirmExecution("bar")).getAllEvents().get(1);
+    assertTrue(((TransactionMediator.Event.Completed) completed).participantsCompleted());
+
+    // the protocol defaults to the standard one
+    assertEquals(TransactionMediator.Protocol.STANDARD, new TransactionMediator.Create(List.of()).protocol());
+    assertEquals(TransactionMediator.Protocol.STANDARD, new TransactionMediator.Create(List.of(), null).protocol());
+  }
+
+  @Test
+  void archivesOnlyTerminatedTransactions() {
+
+    var mediator = EventSourcedTestKit.of(TransactionMediator::new);
+    assertTrue(mediator.call(TransactionMediator::getStatus).isError());
+
+    mediator.call(m -> m.create(new TransactionMediator.Create(List.of(
+      TransactionMediator.Participant.of("foo", TestTarget.class),
+      TransactionMediator.Participant.of("bar", TestTarget.class)))));
+    assertFalse(mediator.call(TransactionMediator::archive).getReply().archived());
+
+    mediator.call(TransactionMediator::cancel);
+    var archived = mediator.call(TransactionMediator::archive);
+    archived.getNextEventOfType(TransactionMediator.Event.Archived.class);
+    assertTrue(archived.getReply().archived());
+  }
+
+  @Test
+  void feeIsDecidedWhenTheTransactionIsCreated() {
+
+    var mediator = EventSourcedTestKit.of(TransactionMediator::new);
+    var participants = List.of(
+      TransactionMediator.Participant.of("foo", TestTarget.class),
+      TransactionMediator.Participant.of("fees", TestTarget.class));
+    var first = new TransactionMediator.Fee("fees", 1.0);
+    assertEquals(first, mediator.call(m -> m.create(new TransactionMediator.Create(participants, null, first))).getReply().fee());
+
+    // a redelivered create gets the fee of the first one
+    var changed = new TransactionMediator.Create(participants, null, new TransactionMediator.Fee("fees", 2.0));
+    assertEquals(first, mediator.call(m -> m.create(changed)).getReply().fee());
+    assertEquals(first, mediator.call(TransactionMediator::getStatus).getReply().fee());
+  }
 }
@@ -0,0 +1,95 @@
+package kalix.demo.transactions;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class TransactionStatusHubTest {
+
+  record TestTarget() {
+  }
+
+  private TransactionMediator.TransactionStatus waiting(String id, TransactionMediator.Participant... participants) {
+    return new TransactionMediator.TransactionStatus(id, List.of(participants), TransactionMediator.Status.WAITING);
+  }
+
+  @Test
+  void watchersShareUpstreamAndCompleteOnTerminalTransition() {
+    var hub = new TransactionStatusHub(60_000);
+    var foo = TransactionMediator.Participant.of("foo", TestTarget.class);
+    var snapshot = CompletableFuture.completedFuture(waiting("tx", foo));
+
+    var first = hub.watch("tx", () -> snapshot).collectList().toFuture();
+    var second = hub.watch("tx", () -> snapshot).collectList().toFuture();
+    assertEquals(1, hub.activeUpstreams());
+
+    hub.publish(new TransactionTransition("tx", TransactionTransition.Type.PARTICIPANT_JOINED, "foo"));
+    // duplicates (eg: redelivered events) are only emitted once
+    hub.publish(new TransactionTransition("tx", TransactionTransition.Type.PARTICIPANT_JOINED, "foo"));
+    hub.publish(new TransactionTransition("tx", TransactionTransition.Type.INITIALIZED, null));
+    hub.publish(new TransactionTransition("tx", TransactionTransition.Type.COMPLETED, null));
+
+    var expected = List.of(
+      TransactionTransition.Type.PARTICIPANT_JOINED,
+      TransactionTransition.Type.INITIALIZED,
+      TransactionTransition.Type.COMPLETED);
+
+    assertEquals(expected, first.join().stream().map(TransactionTransition::type).toList());
+    assertEquals(expected, second.join().stream().map(TransactionTransition::type).toList());
+    assertEquals(0, hub.activeUpstreams());
+  }
+
+  @Test
+  void lateWatcherIsCaughtUpFromSnapshot() {
+    var hub = new TransactionStatusHub(60_000);
+    var foo = new TransactionMediator.Participant("foo", TestTarget.class, true, true);
+    var completed =
+      new TransactionMediator.TransactionStatus("tx", List.of(foo), TransactionMediator.Status.COMPLETED);
+
+    var transitions =
+      hub.watch("tx", () -> CompletableFuture.completedFuture(completed))
+        .collectList()
+        .block(Duration.ofSeconds(1));
+
+    assertEquals(
+      List.of(
+        TransactionTransition.Type.PARTICIPANT_JOINED,
+        TransactionTransition.Type.INITIALIZED,
+        TransactionTransition.Type.PARTICIPANT_EXECUTED,
+        TransactionTransition.Type.COMPLETED),
+      transitions.stream().map(TransactionTransition::type).toList());
+    assertEquals(0, hub.activeUpstreams());
+  }
+
+  @Test
+  void watcherPollsTransitionsPublishedElsewhere() {
+    var hub = new TransactionStatusHub(10);
+    var foo = TransactionMediator.Participant.of("foo", TestTarget.class);
+    var status = new AtomicReference<>(waiting("tx", foo));
+    var polls = new AtomicInteger();
+
+    var transitions =
+      hub.watch("tx", () -> {
+          // the listener of another instance moves the transaction on, nothing is published here
+          if (polls.incrementAndGet() == 3)
+            status.set(new TransactionMediator.TransactionStatus("tx", List.of(foo.asJoined()), TransactionMediator.Status.CANCELLED));
+          return CompletableFuture.completedFuture(status.get());
+        })
+        .collectList()
+        .block(Duration.ofSeconds(5));
+
+    assertEquals(
+      List.of(TransactionTransition.Type.PARTICIPANT_JOINED, TransactionTransition.Type.CANCELLED),
+      transitions.stream().map(TransactionTransition::type).toList());
+    // completed from the poll timer's thread, which releases the upstream after the watcher saw it
+    var deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+    while (hub.activeUpstreams() > 0 && System.nanoTime() < deadline) Thread.onSpinWait();
+    assertEquals(0, hub.activeUpstreams());
+  }
+}